@@ -0,0 +1,99 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gomoob.aws.s3.documentstore.S3DocumentStore;
+
+/**
+ * Benchmarks of the key name prefix handling of the {@link S3DocumentStore} class, the prefix is applied through
+ * {@link S3DocumentStore#getUrl(String)} which does nothing else.
+ *
+ * @author agent (agent@local)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyNamePrefixBenchmark {
+
+    /**
+     * The key name prefix of the document store.
+     */
+    @Param({ "", "prefix", "/a/deeper/prefix" })
+    private String keyNamePrefix;
+
+    /**
+     * The document store to benchmark.
+     */
+    private S3DocumentStore s3DocumentStore;
+
+    /**
+     * Creates the document store.
+     */
+    @Setup
+    public void setUp() {
+        this.s3DocumentStore = new S3DocumentStore();
+        this.s3DocumentStore.setBucket("bucket");
+        this.s3DocumentStore.setKeyNamePrefix(this.keyNamePrefix);
+    }
+
+    /**
+     * Benchmarks the prefixing of an absolute key name.
+     *
+     * @return the url of the file.
+     */
+    @Benchmark
+    public String absoluteKeyName() {
+        return this.s3DocumentStore.getUrl("/dir/sub-dir/file.txt");
+    }
+
+    /**
+     * Benchmarks the prefixing of a relative key name.
+     *
+     * @return the url of the file.
+     */
+    @Benchmark
+    public String relativeKeyName() {
+        return this.s3DocumentStore.getUrl("dir/sub-dir/file.txt");
+    }
+
+}
@@ -0,0 +1,241 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gomoob.aws.mock.S3Mock;
+import com.gomoob.aws.s3.documentstore.S3DocumentStore;
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+/**
+ * Benchmarks of the {@link S3DocumentStore} operations against an {@link S3Mock}, so they measure the overhead of the
+ * document store and of the mock without any network.
+ *
+ * <p>
+ * Each benchmark reports its throughput and its latency percentiles, the allocation rate is reported by the GC profiler
+ * enabled by default in the <tt>benchmark</tt> Maven profile. The number of threads is chosen on the command line using
+ * the JMH <tt>-t</tt> option.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class S3DocumentStoreBenchmark {
+
+    /**
+     * The size in bytes of the benchmarked objects.
+     */
+    @Param({ "1024", "1048576", "16777216" })
+    private int objectSize;
+
+    /**
+     * The document store to benchmark.
+     */
+    private S3DocumentStore s3DocumentStore;
+
+    /**
+     * The number of threads which have initialized their state, used to give each thread its own key names.
+     */
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * The temporary folder used to write the benchmark files.
+     */
+    private Path tmpFolder;
+
+    /**
+     * Creates the document store and the object read by the <tt>download</tt> and <tt>find</tt> benchmarks.
+     *
+     * @throws IOException if the object cannot be uploaded.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.tmpFolder = Files.createTempDirectory("s3-document-store-benchmark");
+
+        this.s3DocumentStore = new S3DocumentStore();
+        this.s3DocumentStore.setBucket("bucket");
+        this.s3DocumentStore.setKeyNamePrefix("benchmark");
+        this.s3DocumentStore.setS3(new S3Mock());
+
+        Path file = this.createRandomFile("OBJECT");
+        this.s3DocumentStore.createFromUploadedFile(file.toString(), "OBJECT");
+    }
+
+    /**
+     * Deletes the temporary folder and stops the threads of the document store.
+     *
+     * @throws IOException if the temporary folder cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.s3DocumentStore.getExecutorService().shutdownNow();
+
+        File[] files = this.tmpFolder.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(this.tmpFolder);
+    }
+
+    /**
+     * Benchmarks the upload of a file.
+     *
+     * @param threadState the state of the benchmarking thread.
+     *
+     * @return the description of the uploaded file.
+     *
+     * @throws IOException if the file cannot be uploaded.
+     */
+    @Benchmark
+    public IDocumentStoreFile createFromUploadedFile(final ThreadState threadState) throws IOException {
+        return this.s3DocumentStore.createFromUploadedFile(threadState.uploadedFile.toString(),
+                threadState.keyName);
+    }
+
+    /**
+     * Benchmarks the deletion of a file.
+     *
+     * <p>
+     * The deleted key never exists, like Amazon S3 the mock handles the deletion of a missing key as a success so this
+     * benchmark measures the cost of the request without having to upload a file before each deletion.
+     * </p>
+     *
+     * @param threadState the state of the benchmarking thread.
+     */
+    @Benchmark
+    public void delete(final ThreadState threadState) {
+        this.s3DocumentStore.delete(threadState.keyName);
+    }
+
+    /**
+     * Benchmarks the download of a file.
+     *
+     * @param threadState the state of the benchmarking thread.
+     *
+     * @return the path of the downloaded file.
+     *
+     * @throws IOException if the file cannot be downloaded.
+     */
+    @Benchmark
+    public String download(final ThreadState threadState) throws IOException {
+        Files.deleteIfExists(threadState.downloadedFile);
+
+        return this.s3DocumentStore.download("OBJECT", threadState.downloadedFile.toString());
+    }
+
+    /**
+     * Benchmarks the search of a file.
+     *
+     * @return the description of the found file.
+     */
+    @Benchmark
+    public IDocumentStoreFile find() {
+        return this.s3DocumentStore.find("OBJECT");
+    }
+
+    /**
+     * Creates a file filled with random bytes in the temporary folder.
+     *
+     * @param name the name of the file to create.
+     *
+     * @return the path of the created file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    private Path createRandomFile(final String name) throws IOException {
+        byte[] content = new byte[this.objectSize];
+        new Random(this.objectSize).nextBytes(content);
+
+        return Files.write(this.tmpFolder.resolve(name), content);
+    }
+
+    /**
+     * The state of a benchmarking thread, each thread uses its own files and key name.
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        /**
+         * The file downloaded by the <tt>download</tt> benchmark.
+         */
+        private Path downloadedFile;
+
+        /**
+         * The key name used by the <tt>createFromUploadedFile</tt> and <tt>delete</tt> benchmarks.
+         */
+        private String keyName;
+
+        /**
+         * The file uploaded by the <tt>createFromUploadedFile</tt> benchmark.
+         */
+        private Path uploadedFile;
+
+        /**
+         * Creates the files of the thread.
+         *
+         * @param benchmark the state of the benchmark.
+         *
+         * @throws IOException if the files cannot be created.
+         */
+        @Setup(Level.Trial)
+        public void setUp(final S3DocumentStoreBenchmark benchmark) throws IOException {
+            int threadIndex = benchmark.threadCount.incrementAndGet();
+
+            this.keyName = "dir/THREAD_" + threadIndex;
+            this.uploadedFile = benchmark.createRandomFile("UPLOADED_" + threadIndex);
+            this.downloadedFile = benchmark.tmpFolder.resolve("DOWNLOADED_" + threadIndex);
+        }
+    }
+
+}
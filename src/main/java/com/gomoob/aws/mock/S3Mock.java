@@ -25,26 +25,78 @@
  */
 package com.gomoob.aws.mock;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import com.gomoob.aws.IS3;
 
 import software.amazon.awssdk.SdkClientException;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectResult;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.DeletedObject;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.awssdk.sync.RequestBody;
 import software.amazon.awssdk.sync.StreamingResponseHandler;
-import software.amazon.awssdk.utils.IoUtils;
 
 /**
  * An implementation for the {@link IS3} interface which acts as a mock and allow to write unit test on Amazon S3 JAVA
  * SDK functions without being connected to S3.
  *
+ * <p>
+ * The objects are stored in memory in concurrent maps, so the mock can be shared by several threads to test concurrent
+ * code paths or to run benchmarks without network. The mock emulates the behaviors of Amazon S3 the document stores
+ * rely on : byte ranges and conditional requests, paginated listings, copies, multi-object deletes and multipart
+ * uploads.
+ * </p>
+ *
  * @author Jiaming LIANG (jiaming.liang@gomoob.com)
  */
 public class S3Mock implements IS3 {
@@ -57,22 +109,160 @@ public class S3Mock implements IS3 {
      * </p>
      * <p>
      * The value associated to the parent map represents a whole Amazon S3 bucket where keys represents Amazon S3
-     * keynames and values the associated object content.
+     * keynames and values the associated objects (content and metadata). Like Amazon S3 the keys of a bucket are sorted
+     * in lexicographical order, this allows to list them without sorting the whole bucket.
      * </p>
      */
-    private Map<String, Map<String, Object>> buckets = new HashMap<>();
+    private final ConcurrentMap<String, ConcurrentNavigableMap<String, MockObject>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Utility map which allows to emulate Amazon S3 multipart uploads, this map maps upload identifiers to the uploads
+     * in progress.
+     *
+     * <p>
+     * Parts of the same upload can be uploaded concurrently so this map and the maps of parts it contains are
+     * concurrent maps.
+     * </p>
+     */
+    private final Map<String, MultipartUpload> multipartUploads = new ConcurrentHashMap<>();
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public DeleteObjectResponse deleteObject(final DeleteObjectRequest deleteObjectRequest) {
+    public AbortMultipartUploadResponse abortMultipartUpload(
+            final AbortMultipartUploadRequest abortMultipartUploadRequest) {
+
+        // Forgets the upload and all its parts
+        if (this.multipartUploads.remove(abortMultipartUploadRequest.uploadId()) == null) {
+            throw NoSuchUploadException.builder().message("The specified upload does not exist.").build();
+        }
+
+        // Create a fake Amazon S3 response
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(
+            final CompleteMultipartUploadRequest completeMultipartUploadRequest) {
 
-        // Creates an empty fake bucket if it does not exists
-        this.initBucket(deleteObjectRequest.bucket());
+        MultipartUpload multipartUpload = this.getMultipartUpload(completeMultipartUploadRequest.uploadId());
+
+        // Concatenates the parts listed in the request, like Amazon S3 the ETag of the object is computed from the MD5
+        // digests of the parts
+        ByteArrayOutputStream partDigests = new ByteArrayOutputStream();
+        List<CompletedPart> completedParts = completeMultipartUploadRequest.multipartUpload().parts();
+        List<ByteBuffer> parts = new ArrayList<>(completedParts.size());
+        long contentLength = 0;
+        for (CompletedPart completedPart : completedParts) {
+            ByteBuffer part = multipartUpload.parts.get(completedPart.partNumber());
+            byte[] partDigest = part == null ? null : md5(part);
+            if (partDigest == null || !toHex(partDigest).equals(completedPart.eTag())) {
+                throw createS3Exception(400, "InvalidPart",
+                        "One or more of the specified parts could not be found.");
+            }
+            parts.add(part);
+            contentLength += part.remaining();
+            partDigests.write(partDigest, 0, partDigest.length);
+        }
+        String eTag = toHex(md5(ByteBuffer.wrap(partDigests.toByteArray()))) + "-" + completedParts.size();
+
+        // The parts are concatenated off heap
+        ByteBuffer content = allocateContent(contentLength);
+        for (ByteBuffer part : parts) {
+            content.put(part.duplicate());
+        }
+        content.flip();
+
+        // An upload can only be completed once, even by concurrent requests
+        if (this.multipartUploads.remove(completeMultipartUploadRequest.uploadId()) == null) {
+            throw NoSuchUploadException.builder().message("The specified upload does not exist.").build();
+        }
+
+        // Put the content of the object into the fake bucket
+        this.getBucket(multipartUpload.bucket).put(multipartUpload.key, new MockObject(content, eTag,
+                multipartUpload.contentType, multipartUpload.contentEncoding, multipartUpload.cacheControl,
+                multipartUpload.metadata));
+
+        // Create a fake Amazon S3 response
+        return CompleteMultipartUploadResponse.builder().bucket(multipartUpload.bucket).key(multipartUpload.key)
+                .eTag(eTag).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CopyObjectResponse copyObject(final CopyObjectRequest copyObjectRequest) {
+
+        // The copy source has the form "bucket/key" with an URL encoded key
+        String copySource = decodeCopySource(copyObjectRequest.copySource());
+        if (copySource.startsWith("/")) {
+            copySource = copySource.substring(1);
+        }
+        int separatorIndex = copySource.indexOf('/');
+        if (separatorIndex <= 0) {
+            throw createS3Exception(400, "InvalidArgument", "Copy Source must mention the source bucket and key");
+        }
+        String sourceBucket = copySource.substring(0, separatorIndex);
+        String sourceKey = copySource.substring(separatorIndex + 1);
+        MockObject sourceObject = this.getMockObject(sourceBucket, sourceKey);
+
+        if (copyObjectRequest.copySourceIfMatch() != null
+                && !copyObjectRequest.copySourceIfMatch().equals(sourceObject.eTag)) {
+            throw createS3Exception(412, "PreconditionFailed",
+                    "At least one of the pre-conditions you specified did not hold");
+        }
+
+        // Like Amazon S3 the metadata of the source object are copied unless they are replaced
+        boolean replaceMetadata = MetadataDirective.REPLACE.toString().equals(copyObjectRequest.metadataDirective());
+        if (!replaceMetadata && sourceBucket.equals(copyObjectRequest.bucket())
+                && sourceKey.equals(copyObjectRequest.key())) {
+            throw createS3Exception(400, "InvalidRequest", "This copy request is illegal because it is trying to copy "
+                    + "an object to itself without changing the object's metadata, storage class, website redirect "
+                    + "location or encryption attributes.");
+        }
+
+        // The content is never modified so it can be shared by the source and the copied objects
+        MockObject copiedObject = replaceMetadata
+                ? new MockObject(sourceObject.content, sourceObject.eTag, copyObjectRequest.contentType(),
+                        copyObjectRequest.contentEncoding(), copyObjectRequest.cacheControl(),
+                        copyObjectRequest.metadata())
+                : new MockObject(sourceObject.content, sourceObject.eTag, sourceObject.contentType,
+                        sourceObject.contentEncoding, sourceObject.cacheControl, sourceObject.metadata);
+        this.getBucket(copyObjectRequest.bucket()).put(copyObjectRequest.key(), copiedObject);
+
+        // Create a fake Amazon S3 response
+        return CopyObjectResponse.builder().copyObjectResult(CopyObjectResult.builder().eTag(copiedObject.eTag)
+                .lastModified(copiedObject.lastModified).build()).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(
+            final CreateMultipartUploadRequest createMultipartUploadRequest) {
+
+        String uploadId = UUID.randomUUID().toString();
+        this.multipartUploads.put(uploadId, new MultipartUpload(createMultipartUploadRequest));
+
+        // Create a fake Amazon S3 response
+        return CreateMultipartUploadResponse.builder().bucket(createMultipartUploadRequest.bucket())
+                .key(createMultipartUploadRequest.key()).uploadId(uploadId).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DeleteObjectResponse deleteObject(final DeleteObjectRequest deleteObjectRequest) {
 
         // Deletes the object from the bucket
-        this.buckets.get(deleteObjectRequest.bucket()).remove(deleteObjectRequest.key());
+        this.getBucket(deleteObjectRequest.bucket()).remove(deleteObjectRequest.key());
 
         // Create a fake Amazon S3 response
         return DeleteObjectResponse.builder().build();
@@ -81,41 +271,175 @@ public class S3Mock implements IS3 {
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("rawtypes")
+    @Override
+    public DeleteObjectsResponse deleteObjects(final DeleteObjectsRequest deleteObjectsRequest) {
+
+        // Amazon S3 refuses to delete more than 1000 objects at once
+        if (deleteObjectsRequest.delete().objects().size() > 1000) {
+            throw createS3Exception(400, "MalformedXML",
+                    "The XML you provided was not well-formed or did not validate against our published schema");
+        }
+
+        // Deletes the objects from the bucket, like Amazon S3 deleting a key which does not exist is a success
+        Map<String, MockObject> bucket = this.getBucket(deleteObjectsRequest.bucket());
+        List<DeletedObject> deletedObjects = new ArrayList<>();
+        for (ObjectIdentifier objectIdentifier : deleteObjectsRequest.delete().objects()) {
+            bucket.remove(objectIdentifier.key());
+            deletedObjects.add(DeletedObject.builder().key(objectIdentifier.key()).build());
+        }
+
+        // Create a fake Amazon S3 response, in quiet mode only the errors are returned
+        DeleteObjectsResponse.Builder deleteObjectsResponseBuilder = DeleteObjectsResponse.builder();
+        if (!Boolean.TRUE.equals(deleteObjectsRequest.delete().quiet())) {
+            deleteObjectsResponseBuilder.deleted(deletedObjects);
+        }
+
+        return deleteObjectsResponseBuilder.build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
             final StreamingResponseHandler streamingHandler) {
-        return null;
+
+        MockObject mockObject = this.getMockObject(getObjectRequest.bucket(), getObjectRequest.key());
+        ByteBuffer content = mockObject.content.duplicate();
+
+        if (getObjectRequest.ifMatch() != null && !getObjectRequest.ifMatch().equals(mockObject.eTag)) {
+            throw createS3Exception(412, "PreconditionFailed",
+                    "At least one of the pre-conditions you specified did not hold");
+        }
+
+        // Create a fake Amazon S3 response and streams the content of the object (or of the requested range) to the
+        // handler
+        GetObjectResponse.Builder getObjectResponseBuilder = GetObjectResponse.builder().eTag(mockObject.eTag)
+                .lastModified(mockObject.lastModified).contentType(mockObject.contentType)
+                .contentEncoding(mockObject.contentEncoding).cacheControl(mockObject.cacheControl)
+                .metadata(mockObject.metadata);
+        int contentLength = content.remaining();
+
+        if (getObjectRequest.range() != null) {
+            long[] range = parseRange(getObjectRequest.range(), contentLength);
+            content.position((int) range[0]).limit((int) range[1] + 1);
+            getObjectResponseBuilder.contentRange("bytes " + range[0] + "-" + range[1] + "/" + contentLength);
+        }
+
+        GetObjectResponse getObjectResponse = getObjectResponseBuilder.contentLength((long) content.remaining())
+                .build();
+        AbortableInputStream inputStream = new AbortableInputStream(new ByteBufferInputStream(content), () -> {
+            // Empty
+        });
+
+        try {
+            return (ReturnT) streamingHandler.apply(getObjectResponse, inputStream);
+        } catch (RuntimeException rex) {
+            throw rex;
+        } catch (Exception ex) {
+            throw new SdkClientException(ex);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public PutObjectResponse putObject(final PutObjectRequest putObjectRequest, final RequestBody requestBody) {
+    public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) {
+
+        MockObject mockObject = this.getMockObject(headObjectRequest.bucket(), headObjectRequest.key());
 
-        // this.mockAddMethodCall(__FUNCTION__, ['options' => $options]);
+        // Create a fake Amazon S3 response
+        return HeadObjectResponse.builder().contentLength((long) mockObject.content.remaining()).eTag(mockObject.eTag)
+                .lastModified(mockObject.lastModified).contentType(mockObject.contentType)
+                .contentEncoding(mockObject.contentEncoding).cacheControl(mockObject.cacheControl)
+                .metadata(mockObject.metadata).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsResponse listObjects(final ListObjectsRequest listObjectsRequest) {
+
+        ListPage listPage = this.listPage(listObjectsRequest.bucket(), listObjectsRequest.prefix(),
+                listObjectsRequest.delimiter(), listObjectsRequest.marker(), listObjectsRequest.maxKeys());
+
+        // Create a fake Amazon S3 response, like Amazon S3 the next marker is only returned with a delimiter
+        return ListObjectsResponse.builder().name(listObjectsRequest.bucket()).prefix(listObjectsRequest.prefix())
+                .delimiter(listObjectsRequest.delimiter()).marker(listObjectsRequest.marker())
+                .maxKeys(listPage.maxKeys).contents(listPage.contents).commonPrefixes(listPage.commonPrefixes)
+                .isTruncated(listPage.truncated)
+                .nextMarker(listPage.truncated && listObjectsRequest.delimiter() != null ? listPage.lastKey : null)
+                .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The continuation tokens returned by this mock are the last keys or common prefixes of the returned pages.
+     * </p>
+     */
+    @Override
+    public ListObjectsV2Response listObjectsV2(final ListObjectsV2Request listObjectsV2Request) {
+
+        // The listed keys follow the continuation token or the start key
+        String startAfter = listObjectsV2Request.continuationToken() != null ? listObjectsV2Request.continuationToken()
+                : listObjectsV2Request.startAfter();
+        ListPage listPage = this.listPage(listObjectsV2Request.bucket(), listObjectsV2Request.prefix(),
+                listObjectsV2Request.delimiter(), startAfter, listObjectsV2Request.maxKeys());
+
+        // Create a fake Amazon S3 response
+        return ListObjectsV2Response.builder().name(listObjectsV2Request.bucket()).prefix(listObjectsV2Request.prefix())
+                .delimiter(listObjectsV2Request.delimiter()).startAfter(listObjectsV2Request.startAfter())
+                .maxKeys(listPage.maxKeys).keyCount(listPage.contents.size() + listPage.commonPrefixes.size())
+                .contents(listPage.contents).commonPrefixes(listPage.commonPrefixes).isTruncated(listPage.truncated)
+                .continuationToken(listObjectsV2Request.continuationToken())
+                .nextContinuationToken(listPage.truncated ? listPage.lastKey : null).build();
+    }
 
-        // Creates an empty fake bucket if it does not exists
-        this.initBucket(putObjectRequest.bucket());
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PutObjectResponse putObject(final PutObjectRequest putObjectRequest, final RequestBody requestBody) {
 
         // Put the content of the file into the fake bucket
-        try {
-            byte[] byteArray = IoUtils.toByteArray(requestBody.asStream());
-            this.buckets.get(putObjectRequest.bucket()).put(putObjectRequest.key(), byteArray);
+        ByteBuffer content;
+        try (InputStream inputStream = requestBody.asStream()) {
+            content = readRequestBody(inputStream, requestBody.getContentLength());
         } catch (IOException ioex) {
             throw new SdkClientException(ioex);
-        } finally {
-            try {
-                requestBody.asStream().close();
-            } catch (IOException ioex) {
-                // TODO Auto-generated catch block
-                ioex.printStackTrace();
-            }
         }
+        MockObject mockObject = new MockObject(content, toHex(md5(content)), putObjectRequest.contentType(),
+                putObjectRequest.contentEncoding(), putObjectRequest.cacheControl(), putObjectRequest.metadata());
+        this.getBucket(putObjectRequest.bucket()).put(putObjectRequest.key(), mockObject);
 
         // Create a fake Amazon S3 response
-        return PutObjectResponse.builder().build();
+        return PutObjectResponse.builder().eTag(mockObject.eTag).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest, final RequestBody requestBody) {
+
+        MultipartUpload multipartUpload = this.getMultipartUpload(uploadPartRequest.uploadId());
+
+        // Put the content of the part into the fake upload
+        ByteBuffer part;
+        try (InputStream inputStream = requestBody.asStream()) {
+            part = readRequestBody(inputStream, requestBody.getContentLength());
+        } catch (IOException ioex) {
+            throw new SdkClientException(ioex);
+        }
+        multipartUpload.parts.put(uploadPartRequest.partNumber(), part);
+
+        // Create a fake Amazon S3 response
+        return UploadPartResponse.builder().eTag(toHex(md5(part))).build();
     }
 
     /**
@@ -127,13 +451,475 @@ public class S3Mock implements IS3 {
     }
 
     /**
-     * Initialize a fake Amazon S3 Bucket.
-     * 
-     * @param bucket the name of the fake Amazon S3 Bucket to initialize.
+     * Creates an Amazon S3 exception similar to the one the Amazon S3 Java SDK throws when Amazon S3 returns an error.
+     *
+     * @param statusCode the HTTP status code of the error.
+     * @param errorCode the Amazon S3 error code.
+     * @param message the error message.
+     *
+     * @return the created exception.
+     */
+    private static S3Exception createS3Exception(final int statusCode, final String errorCode, final String message) {
+        S3Exception s3Exception = new S3Exception(message);
+        s3Exception.setStatusCode(statusCode);
+        s3Exception.setErrorCode(errorCode);
+        s3Exception.setServiceName("S3");
+
+        return s3Exception;
+    }
+
+    /**
+     * Allocates an off-heap buffer used to store the content of an object or of a part, so large objects do not fill
+     * the heap.
+     *
+     * @param contentLength the length of the content.
+     *
+     * @return the allocated buffer.
+     */
+    private static ByteBuffer allocateContent(final long contentLength) {
+        if (contentLength > Integer.MAX_VALUE) {
+            throw createS3Exception(400, "EntityTooLarge",
+                    "Your proposed upload exceeds the maximum allowed object size of this mock.");
+        }
+
+        return ByteBuffer.allocateDirect((int) contentLength);
+    }
+
+    /**
+     * Computes the MD5 digest of a content, the hexadecimal form of this digest is the way Amazon S3 computes the ETag
+     * of objects which are not uploaded using a multipart upload.
+     *
+     * @param content the content for which one to compute the digest, its position is not modified.
+     *
+     * @return the MD5 digest of the content.
+     */
+    private static byte[] md5(final ByteBuffer content) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            messageDigest.update(content.duplicate());
+
+            return messageDigest.digest();
+        } catch (NoSuchAlgorithmException nsaex) {
+            throw new IllegalStateException(nsaex);
+        }
+    }
+
+    /**
+     * Reads the content of a request body into an off-heap buffer, the content is never copied into a heap array of its
+     * size.
+     *
+     * @param inputStream the stream of the request body to read, it is not closed.
+     * @param contentLength the length of the request body in bytes.
+     *
+     * @return a read-only buffer which contains the content of the request body.
+     *
+     * @throws IOException if the request body cannot be read.
+     */
+    private static ByteBuffer readRequestBody(final InputStream inputStream, final long contentLength)
+            throws IOException {
+        ByteBuffer content = allocateContent(contentLength);
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+
+        while (content.hasRemaining()) {
+            if (channel.read(content) == -1) {
+                throw createS3Exception(400, "IncompleteBody",
+                        "You did not provide the number of bytes specified by the Content-Length HTTP header");
+            }
+        }
+        content.flip();
+
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * Converts a digest to its hexadecimal form.
+     *
+     * @param digest the digest to convert.
+     *
+     * @return the hexadecimal form of the digest.
+     */
+    private static String toHex(final byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Gets a fake Amazon S3 object.
+     *
+     * @param bucket the name of the bucket of the object.
+     * @param key the key of the object.
+     *
+     * @return the fake Amazon S3 object.
+     *
+     * @throws NoSuchKeyException if the object does not exist.
      */
-    private void initBucket(final String bucket) {
-        if (!this.buckets.containsKey(bucket)) {
-            this.buckets.put(bucket, new HashMap<String, Object>());
+    private MockObject getMockObject(final String bucket, final String key) {
+
+        MockObject mockObject = this.getBucket(bucket).get(key);
+        if (mockObject == null) {
+            NoSuchKeyException noSuchKeyException = NoSuchKeyException.builder()
+                    .message("The specified key does not exist.").build();
+            noSuchKeyException.setStatusCode(404);
+            noSuchKeyException.setErrorCode("NoSuchKey");
+            throw noSuchKeyException;
+        }
+
+        return mockObject;
+    }
+
+    /**
+     * Gets a fake Amazon S3 multipart upload in progress.
+     *
+     * @param uploadId the identifier of the upload.
+     *
+     * @return the fake Amazon S3 multipart upload.
+     */
+    private MultipartUpload getMultipartUpload(final String uploadId) {
+        MultipartUpload multipartUpload = this.multipartUploads.get(uploadId);
+        if (multipartUpload == null) {
+            throw NoSuchUploadException.builder().message("The specified upload does not exist.").build();
+        }
+
+        return multipartUpload;
+    }
+
+    /**
+     * Parses an HTTP <tt>Range</tt> header the same way Amazon S3 does.
+     *
+     * @param range the value of the HTTP <tt>Range</tt> header, for example <tt>bytes=0-99</tt>, <tt>bytes=100-</tt>
+     *            or <tt>bytes=-100</tt>.
+     * @param contentLength the length of the content of the requested object.
+     *
+     * @return an array which contains the first and the last (inclusive) positions of the requested range.
+     */
+    private static long[] parseRange(final String range, final long contentLength) {
+        String[] positions = range.substring(range.indexOf('=') + 1).split("-", -1);
+        long first;
+        long last;
+
+        if (positions[0].isEmpty()) {
+            first = Math.max(0, contentLength - Long.parseLong(positions[1]));
+            last = contentLength - 1;
+        } else {
+            first = Long.parseLong(positions[0]);
+            last = positions[1].isEmpty() ? contentLength - 1
+                    : Math.min(Long.parseLong(positions[1]), contentLength - 1);
+        }
+
+        if (first > last || first >= contentLength) {
+            throw createS3Exception(416, "InvalidRange", "The requested range is not satisfiable");
+        }
+
+        return new long[] { first, last };
+    }
+
+    /**
+     * Lists one page of the keys of a fake Amazon S3 bucket the same way Amazon S3 does.
+     *
+     * @param bucket the name of the bucket.
+     * @param prefix the prefix of the listed keys, <code>null</code> to list all the keys.
+     * @param delimiter the delimiter used to group the keys into common prefixes, <code>null</code> to not group the
+     *            keys.
+     * @param startAfter the key or common prefix after which one to start the listing, <code>null</code> to start at
+     *            the first key.
+     * @param maxKeys the maximum number of keys and common prefixes of the page, <code>null</code> to use the default
+     *            Amazon S3 maximum of <tt>1000</tt>.
+     *
+     * @return the listed page.
+     */
+    private ListPage listPage(final String bucket, final String prefix, final String delimiter,
+            final String startAfter, final Integer maxKeys) {
+
+        String keyPrefix = prefix == null ? "" : prefix;
+        ListPage listPage = new ListPage(maxKeys == null ? 1000 : Math.min(maxKeys, 1000));
+
+        // The keys of a bucket are sorted so the listing starts directly at the first candidate key
+        ConcurrentNavigableMap<String, MockObject> objects = this.getBucket(bucket);
+        Map<String, MockObject> candidates = startAfter == null || startAfter.compareTo(keyPrefix) < 0
+                ? objects.tailMap(keyPrefix, true) : objects.tailMap(startAfter, false);
+
+        // When a listing resumes after a common prefix the keys of this common prefix must be skipped
+        boolean hasDelimiter = delimiter != null && !delimiter.isEmpty();
+        String commonPrefix = hasDelimiter && startAfter != null && startAfter.endsWith(delimiter) ? startAfter : null;
+
+        for (Map.Entry<String, MockObject> entry : candidates.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(keyPrefix)) {
+                break;
+            }
+            if (commonPrefix != null && key.startsWith(commonPrefix)) {
+                continue;
+            }
+            if (listPage.contents.size() + listPage.commonPrefixes.size() == listPage.maxKeys) {
+                listPage.truncated = true;
+                break;
+            }
+
+            int delimiterIndex = hasDelimiter ? key.indexOf(delimiter, keyPrefix.length()) : -1;
+            if (delimiterIndex >= 0) {
+                commonPrefix = key.substring(0, delimiterIndex + delimiter.length());
+                listPage.commonPrefixes.add(CommonPrefix.builder().prefix(commonPrefix).build());
+                listPage.lastKey = commonPrefix;
+            } else {
+                MockObject mockObject = entry.getValue();
+                listPage.contents.add(S3Object.builder().key(key).eTag(mockObject.eTag)
+                        .lastModified(mockObject.lastModified).size(mockObject.content.remaining()).build());
+                listPage.lastKey = key;
+            }
+        }
+
+        return listPage;
+    }
+
+    /**
+     * Gets a fake Amazon S3 bucket, the bucket is created if it does not exist.
+     *
+     * @param bucket the name of the fake Amazon S3 bucket.
+     *
+     * @return the objects of the fake Amazon S3 bucket by key.
+     */
+    private ConcurrentNavigableMap<String, MockObject> getBucket(final String bucket) {
+        return this.buckets.computeIfAbsent(bucket, name -> new ConcurrentSkipListMap<>());
+    }
+
+    /**
+     * Decodes the copy source of a copy request, the plus signs are kept because they are not used to encode spaces
+     * in URL paths.
+     *
+     * @param copySource the copy source to decode.
+     *
+     * @return the decoded copy source.
+     */
+    private static String decodeCopySource(final String copySource) {
+        try {
+            return URLDecoder.decode(copySource.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException ueex) {
+            throw new IllegalStateException(ueex);
+        }
+    }
+
+    /**
+     * An input stream which reads the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        /**
+         * The buffer to read.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Creates a new input stream which reads the remaining bytes of a buffer.
+         *
+         * @param buffer the buffer to read, its position is modified while reading.
+         */
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int read = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, read);
+
+            return read;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long skip(final long n) {
+            int skipped = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+            this.buffer.position(this.buffer.position() + skipped);
+
+            return skipped;
+        }
+    }
+
+    /**
+     * Class which represents a page of a listing.
+     */
+    private static class ListPage {
+
+        /**
+         * The common prefixes of the page.
+         */
+        private final List<CommonPrefix> commonPrefixes = new ArrayList<>();
+
+        /**
+         * The objects of the page.
+         */
+        private final List<S3Object> contents = new ArrayList<>();
+
+        /**
+         * The last key or common prefix of the page.
+         */
+        private String lastKey;
+
+        /**
+         * The maximum number of keys and common prefixes of the page.
+         */
+        private final int maxKeys;
+
+        /**
+         * A boolean which indicates if other keys follow the page.
+         */
+        private boolean truncated;
+
+        /**
+         * Creates a new empty page.
+         *
+         * @param maxKeys the maximum number of keys and common prefixes of the page.
+         */
+        private ListPage(final int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+    }
+
+    /**
+     * Class which represents a fake Amazon S3 object.
+     */
+    private static class MockObject {
+
+        /**
+         * The <tt>Cache-Control</tt> metadata of the object.
+         */
+        private final String cacheControl;
+
+        /**
+         * The content of the object, a read-only off-heap buffer which must be duplicated to be read.
+         */
+        private final ByteBuffer content;
+
+        /**
+         * The <tt>Content-Encoding</tt> metadata of the object.
+         */
+        private final String contentEncoding;
+
+        /**
+         * The <tt>Content-Type</tt> metadata of the object.
+         */
+        private final String contentType;
+
+        /**
+         * The ETag of the object.
+         */
+        private final String eTag;
+
+        /**
+         * The date of the last modification of the object.
+         */
+        private final Instant lastModified = Instant.now();
+
+        /**
+         * The user metadata of the object.
+         */
+        private final Map<String, String> metadata;
+
+        /**
+         * Creates a new fake Amazon S3 object.
+         *
+         * @param content the content of the object.
+         * @param eTag the ETag of the object.
+         * @param contentType the <tt>Content-Type</tt> metadata of the object.
+         * @param contentEncoding the <tt>Content-Encoding</tt> metadata of the object.
+         * @param cacheControl the <tt>Cache-Control</tt> metadata of the object.
+         * @param metadata the user metadata of the object.
+         */
+        private MockObject(final ByteBuffer content, final String eTag, final String contentType,
+                final String contentEncoding, final String cacheControl, final Map<String, String> metadata) {
+            this.content = content;
+            this.eTag = eTag;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.cacheControl = cacheControl;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Class which represents a fake Amazon S3 multipart upload in progress.
+     */
+    private static class MultipartUpload {
+
+        /**
+         * The name of the bucket where to upload the object.
+         */
+        private final String bucket;
+
+        /**
+         * The <tt>Cache-Control</tt> metadata of the object to upload.
+         */
+        private final String cacheControl;
+
+        /**
+         * The <tt>Content-Encoding</tt> metadata of the object to upload.
+         */
+        private final String contentEncoding;
+
+        /**
+         * The <tt>Content-Type</tt> metadata of the object to upload.
+         */
+        private final String contentType;
+
+        /**
+         * The key of the object to upload.
+         */
+        private final String key;
+
+        /**
+         * The user metadata of the object to upload.
+         */
+        private final Map<String, String> metadata;
+
+        /**
+         * The parts uploaded, this map maps part numbers to part contents.
+         */
+        private final Map<Integer, ByteBuffer> parts = new ConcurrentHashMap<>();
+
+        /**
+         * Creates a new fake Amazon S3 multipart upload.
+         *
+         * @param createMultipartUploadRequest the request which created the multipart upload.
+         */
+        private MultipartUpload(final CreateMultipartUploadRequest createMultipartUploadRequest) {
+            this.bucket = createMultipartUploadRequest.bucket();
+            this.key = createMultipartUploadRequest.key();
+            this.contentType = createMultipartUploadRequest.contentType();
+            this.contentEncoding = createMultipartUploadRequest.contentEncoding();
+            this.cacheControl = createMultipartUploadRequest.cacheControl();
+            this.metadata = createMultipartUploadRequest.metadata();
         }
     }
 }
@@ -28,13 +28,29 @@ package com.gomoob.aws.s3;
 import com.gomoob.aws.IS3;
 
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.awssdk.sync.RequestBody;
 import software.amazon.awssdk.sync.StreamingResponseHandler;
 
@@ -61,6 +77,41 @@ public class S3 implements IS3 {
         this.s3Client = s3Client;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(
+            final AbortMultipartUploadRequest abortMultipartUploadRequest) {
+        return this.s3Client.abortMultipartUpload(abortMultipartUploadRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(
+            final CompleteMultipartUploadRequest completeMultipartUploadRequest) {
+        return this.s3Client.completeMultipartUpload(completeMultipartUploadRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CopyObjectResponse copyObject(final CopyObjectRequest copyObjectRequest) {
+        return this.s3Client.copyObject(copyObjectRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(
+            final CreateMultipartUploadRequest createMultipartUploadRequest) {
+        return this.s3Client.createMultipartUpload(createMultipartUploadRequest);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -69,6 +120,14 @@ public class S3 implements IS3 {
         return this.s3Client.deleteObject(deleteObjectRequest);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DeleteObjectsResponse deleteObjects(final DeleteObjectsRequest deleteObjectsRequest) {
+        return this.s3Client.deleteObjects(deleteObjectsRequest);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -78,6 +137,14 @@ public class S3 implements IS3 {
         return this.s3Client.getObject(getObjectRequest, streamingHandler);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) {
+        return this.s3Client.headObject(headObjectRequest);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -86,6 +153,14 @@ public class S3 implements IS3 {
         return this.s3Client.listObjects(listObjectsRequest);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsV2Response listObjectsV2(final ListObjectsV2Request listObjectsV2Request) {
+        return this.s3Client.listObjectsV2(listObjectsV2Request);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -94,6 +169,14 @@ public class S3 implements IS3 {
         return this.s3Client.putObject(putObjectRequest, requestBody);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest, final RequestBody requestBody) {
+        return this.s3Client.uploadPart(uploadPartRequest, requestBody);
+    }
+
     /**
      * {@inheritDoc}
      */
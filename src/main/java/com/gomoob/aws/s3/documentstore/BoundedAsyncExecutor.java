@@ -0,0 +1,120 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An executor which runs asynchronous operations with a bounded number of operations in flight.
+ *
+ * <p>
+ * When the maximum number of operations in flight is reached the thread which submits a new operation is blocked
+ * until one of the running operations completes. This blocking propagates the backpressure to the producers of
+ * operations instead of queuing an unbounded number of transfers.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class BoundedAsyncExecutor {
+
+    /**
+     * The executor used to run the operations.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum number of operations in flight.
+     */
+    private final int maxConcurrency;
+
+    /**
+     * The semaphore which holds one permit for each operation which can still be started.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Creates a new bounded asynchronous executor.
+     *
+     * @param executor the executor used to run the operations.
+     * @param maxConcurrency the maximum number of operations in flight.
+     */
+    BoundedAsyncExecutor(final Executor executor, final int maxConcurrency) {
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Gets the number of operations in flight.
+     *
+     * @return the number of operations in flight.
+     */
+    int getInFlightCount() {
+        return this.maxConcurrency - this.permits.availablePermits();
+    }
+
+    /**
+     * Submits an operation, blocks the calling thread while the maximum number of operations in flight is reached.
+     *
+     * @param operation the operation to execute.
+     *
+     * @return a future completed with the result of the operation or exceptionally with its error. If the calling
+     *         thread is interrupted while waiting the returned future is completed exceptionally with an
+     *         {@link InterruptedException} and the interrupted status of the thread is restored.
+     */
+    <T> CompletableFuture<T> submit(final Callable<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(iex);
+            return future;
+        }
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    T result = operation.call();
+                    this.permits.release();
+                    future.complete(result);
+                } catch (Throwable t) {
+                    this.permits.release();
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException rex) {
+            this.permits.release();
+            future.completeExceptionally(rex);
+        }
+
+        return future;
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Input stream which compresses the bytes read from an other input stream, in the <tt>gzip</tt> (RFC 1952) or the
+ * <tt>zlib</tt> (RFC 1950) format.
+ *
+ * <p>
+ * The compression happens while the stream is read, so a stream of any length can be compressed and uploaded with a
+ * bounded amount of memory and without any additional thread.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class CompressingInputStream extends InputStream {
+
+    /**
+     * The header of the <tt>gzip</tt> format, a deflate compressed member without name, date nor extra field.
+     */
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    /**
+     * The checksum of the uncompressed bytes, <code>null</code> for the <tt>zlib</tt> format.
+     */
+    private final CRC32 crc;
+
+    /**
+     * The compressor.
+     */
+    private final Deflater deflater;
+
+    /**
+     * A boolean which indicates if the end of the stream has been reached.
+     */
+    private boolean eof;
+
+    /**
+     * The uncompressed input stream.
+     */
+    private final InputStream in;
+
+    /**
+     * The buffer used to read the uncompressed input stream.
+     */
+    private final byte[] inputBuffer = new byte[8192];
+
+    /**
+     * The bytes of the header or the trailer which have not been read yet, <code>null</code> if there is none.
+     */
+    private byte[] pending;
+
+    /**
+     * The position of the next byte to read in the pending bytes.
+     */
+    private int pendingPosition;
+
+    /**
+     * A buffer used to read a single byte.
+     */
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * Creates a new compressing input stream.
+     *
+     * @param in the uncompressed input stream.
+     * @param level the compression level, between <tt>0</tt> and <tt>9</tt>.
+     * @param gzip <code>true</code> to write the <tt>gzip</tt> format, <code>false</code> to write the <tt>zlib</tt>
+     *            format.
+     */
+    CompressingInputStream(final InputStream in, final int level, final boolean gzip) {
+        this.in = in;
+        this.deflater = new Deflater(level, gzip);
+        this.crc = gzip ? new CRC32() : null;
+        this.pending = gzip ? GZIP_HEADER.clone() : null;
+    }
+
+    /**
+     * Releases the compressor without closing the uncompressed input stream, the stream cannot be read anymore.
+     */
+    void end() {
+        this.deflater.end();
+    }
+
+    /**
+     * Gets the number of uncompressed bytes read so far.
+     *
+     * @return the number of uncompressed bytes read so far.
+     */
+    long getUncompressedSize() {
+        return this.deflater.getBytesRead();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.deflater.end();
+        this.in.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        return this.read(this.singleByte, 0, 1) == -1 ? -1 : this.singleByte[0] & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (this.pending != null) {
+                int count = Math.min(len, this.pending.length - this.pendingPosition);
+                System.arraycopy(this.pending, this.pendingPosition, b, off, count);
+                this.pendingPosition += count;
+                if (this.pendingPosition == this.pending.length) {
+                    this.pending = null;
+                    this.pendingPosition = 0;
+                }
+                return count;
+            }
+
+            if (this.eof) {
+                return -1;
+            }
+
+            if (this.deflater.finished()) {
+                this.eof = true;
+                if (this.crc != null) {
+                    this.pending = this.createGzipTrailer();
+                }
+                continue;
+            }
+
+            int count = this.deflater.deflate(b, off, len);
+            if (count > 0) {
+                return count;
+            }
+
+            if (this.deflater.needsInput()) {
+                int read = this.in.read(this.inputBuffer);
+                if (read == -1) {
+                    this.deflater.finish();
+                } else if (read > 0) {
+                    if (this.crc != null) {
+                        this.crc.update(this.inputBuffer, 0, read);
+                    }
+                    this.deflater.setInput(this.inputBuffer, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the trailer of the <tt>gzip</tt> format, the checksum and the size modulo <tt>2^32</tt> of the
+     * uncompressed bytes in little endian order.
+     *
+     * @return the trailer of the <tt>gzip</tt> format.
+     */
+    private byte[] createGzipTrailer() {
+        long checksum = this.crc.getValue();
+        long size = this.deflater.getBytesRead();
+        byte[] trailer = new byte[8];
+
+        for (int i = 0; i < 4; ++i) {
+            trailer[i] = (byte) (checksum >>> (8 * i));
+            trailer[i + 4] = (byte) (size >>> (8 * i));
+        }
+
+        return trailer;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+/**
+ * The configuration of a synchronization of a key name prefix to a local directory (see
+ * {@link S3DocumentStore#syncToDirectory(String, java.nio.file.Path, DirectorySyncConfig)}).
+ *
+ * @author agent (agent@local)
+ */
+public class DirectorySyncConfig {
+
+    /**
+     * A boolean which indicates if the local files whose objects have been deleted are deleted.
+     */
+    private boolean deleteRemoved;
+
+    /**
+     * The name of the manifest file written in the synchronized directory.
+     */
+    private String manifestFileName = ".s3sync-manifest";
+
+    /**
+     * The maximum number of objects downloaded concurrently.
+     */
+    private int parallelism = 8;
+
+    /**
+     * Gets the name of the manifest file written in the synchronized directory.
+     *
+     * @return the name of the manifest file written in the synchronized directory.
+     */
+    public String getManifestFileName() {
+        return this.manifestFileName;
+    }
+
+    /**
+     * Gets the maximum number of objects downloaded concurrently.
+     *
+     * @return the maximum number of objects downloaded concurrently.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Gets if the local files whose objects have been deleted are deleted.
+     *
+     * @return <code>true</code> if the local files whose objects have been deleted are deleted, <code>false</code>
+     *         otherwise.
+     */
+    public boolean isDeleteRemoved() {
+        return this.deleteRemoved;
+    }
+
+    /**
+     * Sets if the local files whose objects have been deleted are deleted. Only the files written by a previous
+     * synchronization are deleted, the other files of the directory are never modified.
+     *
+     * @param deleteRemoved <code>true</code> to delete the local files whose objects have been deleted,
+     *            <code>false</code> to keep them.
+     *
+     * @return this instance.
+     */
+    public DirectorySyncConfig setDeleteRemoved(final boolean deleteRemoved) {
+        this.deleteRemoved = deleteRemoved;
+        return this;
+    }
+
+    /**
+     * Sets the name of the manifest file written in the synchronized directory.
+     *
+     * @param manifestFileName the name of the manifest file written in the synchronized directory.
+     *
+     * @return this instance.
+     */
+    public DirectorySyncConfig setManifestFileName(final String manifestFileName) {
+        if (manifestFileName == null || manifestFileName.isEmpty() || manifestFileName.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("The manifest file name must be a non empty file name !");
+        }
+
+        this.manifestFileName = manifestFileName;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of objects downloaded concurrently.
+     *
+     * @param parallelism the maximum number of objects downloaded concurrently, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public DirectorySyncConfig setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be greater than 0 !");
+        }
+
+        this.parallelism = parallelism;
+        return this;
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The result of a synchronization of a key name prefix to a local directory.
+ *
+ * @author agent (agent@local)
+ */
+public class DirectorySyncResult {
+
+    /**
+     * The number of local files which have been deleted because their objects have been deleted.
+     */
+    private final AtomicLong deletedFileCount = new AtomicLong();
+
+    /**
+     * The number of bytes which have been downloaded.
+     */
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    /**
+     * The number of objects which have been downloaded.
+     */
+    private final AtomicLong downloadedFileCount = new AtomicLong();
+
+    /**
+     * The errors of the objects which could not be synchronized, indexed by key name.
+     */
+    private final Map<String, Exception> failures = new ConcurrentSkipListMap<>();
+
+    /**
+     * The number of objects which were already up to date.
+     */
+    private final AtomicLong unchangedFileCount = new AtomicLong();
+
+    /**
+     * Gets the number of local files which have been deleted because their objects have been deleted.
+     *
+     * @return the number of local files which have been deleted.
+     */
+    public long getDeletedFileCount() {
+        return this.deletedFileCount.get();
+    }
+
+    /**
+     * Gets the number of bytes which have been downloaded.
+     *
+     * @return the number of bytes which have been downloaded.
+     */
+    public long getDownloadedBytes() {
+        return this.downloadedBytes.get();
+    }
+
+    /**
+     * Gets the number of objects which have been downloaded.
+     *
+     * @return the number of objects which have been downloaded.
+     */
+    public long getDownloadedFileCount() {
+        return this.downloadedFileCount.get();
+    }
+
+    /**
+     * Gets the errors of the objects which could not be synchronized.
+     *
+     * @return an unmodifiable view of the errors of the objects which could not be synchronized, indexed and sorted by
+     *         key name.
+     */
+    public Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(this.failures);
+    }
+
+    /**
+     * Gets the number of objects which were already up to date.
+     *
+     * @return the number of objects which were already up to date.
+     */
+    public long getUnchangedFileCount() {
+        return this.unchangedFileCount.get();
+    }
+
+    /**
+     * Gets if all the objects have been synchronized.
+     *
+     * @return <code>true</code> if no object has failed, <code>false</code> otherwise.
+     */
+    public boolean isSuccessful() {
+        return this.failures.isEmpty();
+    }
+
+    /**
+     * Records a deleted local file.
+     */
+    void addDeletedFile() {
+        this.deletedFileCount.incrementAndGet();
+    }
+
+    /**
+     * Records a downloaded object.
+     *
+     * @param size the size of the object in bytes.
+     */
+    void addDownloadedFile(final long size) {
+        this.downloadedFileCount.incrementAndGet();
+        this.downloadedBytes.addAndGet(size);
+    }
+
+    /**
+     * Records an object which could not be synchronized.
+     *
+     * @param keyName the key name of the object.
+     * @param error the error which caused the failure.
+     */
+    void addFailure(final String keyName, final Exception error) {
+        this.failures.put(keyName, error);
+    }
+
+    /**
+     * Records an object which was already up to date.
+     */
+    void addUnchangedFile() {
+        this.unchangedFileCount.incrementAndGet();
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The configuration of a directory upload (see {@link S3DocumentStore#uploadDirectory(java.nio.file.Path, String,
+ * S3UploadConfig, DirectoryUploadConfig)}).
+ *
+ * @author agent (agent@local)
+ */
+public class DirectoryUploadConfig {
+
+    /**
+     * The glob patterns of the relative paths of the files which are not uploaded.
+     */
+    private List<String> excludes = Collections.emptyList();
+
+    /**
+     * The glob patterns of the relative paths of the files which are uploaded, all the files are uploaded if empty.
+     */
+    private List<String> includes = Collections.emptyList();
+
+    /**
+     * The listener notified of the progress of the upload, can be <code>null</code>.
+     */
+    private IDirectoryUploadListener listener;
+
+    /**
+     * The maximum cumulated size in bytes of the small files grouped in one batch.
+     */
+    private long maxBatchBytes = 8L * 1024L * 1024L;
+
+    /**
+     * The maximum number of small files grouped in one batch.
+     */
+    private int maxBatchFileCount = 64;
+
+    /**
+     * The maximum number of batches of small files uploaded concurrently.
+     */
+    private int parallelism = 8;
+
+    /**
+     * Gets the glob patterns of the relative paths of the files which are not uploaded.
+     *
+     * @return the glob patterns of the relative paths of the files which are not uploaded.
+     */
+    public List<String> getExcludes() {
+        return this.excludes;
+    }
+
+    /**
+     * Gets the glob patterns of the relative paths of the files which are uploaded.
+     *
+     * @return the glob patterns of the relative paths of the files which are uploaded, all the files are uploaded if
+     *         empty.
+     */
+    public List<String> getIncludes() {
+        return this.includes;
+    }
+
+    /**
+     * Gets the listener notified of the progress of the upload.
+     *
+     * @return the listener notified of the progress of the upload, can be <code>null</code>.
+     */
+    public IDirectoryUploadListener getListener() {
+        return this.listener;
+    }
+
+    /**
+     * Gets the maximum cumulated size in bytes of the small files grouped in one batch.
+     *
+     * @return the maximum cumulated size in bytes of the small files grouped in one batch.
+     */
+    public long getMaxBatchBytes() {
+        return this.maxBatchBytes;
+    }
+
+    /**
+     * Gets the maximum number of small files grouped in one batch.
+     *
+     * @return the maximum number of small files grouped in one batch.
+     */
+    public int getMaxBatchFileCount() {
+        return this.maxBatchFileCount;
+    }
+
+    /**
+     * Gets the maximum number of batches of small files uploaded concurrently.
+     *
+     * @return the maximum number of batches of small files uploaded concurrently.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Sets the glob patterns of the relative paths of the files which are not uploaded, for example <tt>*.tmp</tt> or
+     * <tt>**&#47;.git/**</tt>. The patterns use the syntax of {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * and take precedence over the include patterns.
+     *
+     * @param excludes the glob patterns of the relative paths of the files which are not uploaded.
+     *
+     * @return this instance.
+     */
+    public DirectoryUploadConfig setExcludes(final String... excludes) {
+        this.excludes = Collections.unmodifiableList(Arrays.asList(excludes.clone()));
+        return this;
+    }
+
+    /**
+     * Sets the glob patterns of the relative paths of the files which are uploaded, for example <tt>**.pdf</tt>. The
+     * patterns use the syntax of {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+     *
+     * @param includes the glob patterns of the relative paths of the files which are uploaded, all the files are
+     *            uploaded if no pattern is provided.
+     *
+     * @return this instance.
+     */
+    public DirectoryUploadConfig setIncludes(final String... includes) {
+        this.includes = Collections.unmodifiableList(Arrays.asList(includes.clone()));
+        return this;
+    }
+
+    /**
+     * Sets the listener notified of the progress of the upload.
+     *
+     * @param listener the listener notified of the progress of the upload, can be <code>null</code>.
+     *
+     * @return this instance.
+     */
+    public DirectoryUploadConfig setListener(final IDirectoryUploadListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the maximum cumulated size in bytes of the small files grouped in one batch.
+     *
+     * @param maxBatchBytes the maximum cumulated size in bytes of the small files grouped in one batch, must be greater
+     *            than 0.
+     *
+     * @return this instance.
+     */
+    public DirectoryUploadConfig setMaxBatchBytes(final long maxBatchBytes) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("The maximum batch size must be greater than 0 !");
+        }
+
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of small files grouped in one batch.
+     *
+     * @param maxBatchFileCount the maximum number of small files grouped in one batch, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public DirectoryUploadConfig setMaxBatchFileCount(final int maxBatchFileCount) {
+        if (maxBatchFileCount < 1) {
+            throw new IllegalArgumentException("The maximum batch file count must be greater than 0 !");
+        }
+
+        this.maxBatchFileCount = maxBatchFileCount;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of batches of small files uploaded concurrently.
+     *
+     * @param parallelism the maximum number of batches of small files uploaded concurrently, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public DirectoryUploadConfig setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be greater than 0 !");
+        }
+
+        this.parallelism = parallelism;
+        return this;
+    }
+}
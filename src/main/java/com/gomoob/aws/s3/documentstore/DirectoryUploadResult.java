@@ -0,0 +1,136 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+/**
+ * The result of a directory upload, it is updated while the upload progresses and can be read concurrently.
+ *
+ * @author agent (agent@local)
+ */
+public class DirectoryUploadResult {
+
+    /**
+     * The errors of the files which could not be uploaded, indexed by key name.
+     */
+    private final Map<String, Exception> failures = new ConcurrentSkipListMap<>();
+
+    /**
+     * The number of files which have been skipped by the include and exclude patterns.
+     */
+    private final AtomicLong skippedFileCount = new AtomicLong();
+
+    /**
+     * The number of bytes which have been uploaded.
+     */
+    private final AtomicLong uploadedBytes = new AtomicLong();
+
+    /**
+     * The created document store files, indexed by key name.
+     */
+    private final Map<String, IDocumentStoreFile> uploadedFiles = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets the errors of the files which could not be uploaded.
+     *
+     * @return an unmodifiable view of the errors of the files which could not be uploaded, indexed and sorted by key
+     *         name.
+     */
+    public Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(this.failures);
+    }
+
+    /**
+     * Gets the number of files which have been skipped by the include and exclude patterns.
+     *
+     * @return the number of files which have been skipped by the include and exclude patterns.
+     */
+    public long getSkippedFileCount() {
+        return this.skippedFileCount.get();
+    }
+
+    /**
+     * Gets the number of bytes which have been uploaded.
+     *
+     * @return the number of bytes which have been uploaded.
+     */
+    public long getUploadedBytes() {
+        return this.uploadedBytes.get();
+    }
+
+    /**
+     * Gets the created document store files.
+     *
+     * @return an unmodifiable view of the created document store files, indexed and sorted by key name.
+     */
+    public Map<String, IDocumentStoreFile> getUploadedFiles() {
+        return Collections.unmodifiableMap(this.uploadedFiles);
+    }
+
+    /**
+     * Gets if all the files have been uploaded.
+     *
+     * @return <code>true</code> if no upload has failed, <code>false</code> otherwise.
+     */
+    public boolean isSuccessful() {
+        return this.failures.isEmpty();
+    }
+
+    /**
+     * Records a file which could not be uploaded.
+     *
+     * @param keyName the key name of the file.
+     * @param error the error which caused the failure.
+     */
+    void addFailure(final String keyName, final Exception error) {
+        this.failures.put(keyName, error);
+    }
+
+    /**
+     * Records a file which has been skipped by the include and exclude patterns.
+     */
+    void addSkippedFile() {
+        this.skippedFileCount.incrementAndGet();
+    }
+
+    /**
+     * Records an uploaded file.
+     *
+     * @param keyName the key name of the file.
+     * @param documentStoreFile the created document store file.
+     * @param size the size of the file in bytes.
+     */
+    void addUploadedFile(final String keyName, final IDocumentStoreFile documentStoreFile, final long size) {
+        this.uploadedFiles.put(keyName, documentStoreFile);
+        this.uploadedBytes.addAndGet(size);
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream which reads a region of a file using positional reads on a {@link FileChannel}.
+ *
+ * <p>
+ * Because positional reads do not modify the position of the channel several regions of the same file can be read
+ * concurrently.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class FileRegionInputStream extends InputStream {
+
+    /**
+     * The channel used to read the file.
+     */
+    private final FileChannel fileChannel;
+
+    /**
+     * The position in the file of the end of the region (exclusive).
+     */
+    private final long end;
+
+    /**
+     * The position in the file of the next byte to read.
+     */
+    private long position;
+
+    /**
+     * The position in the file restored by {@link #reset()}.
+     */
+    private long markPosition;
+
+    /**
+     * Creates a new input stream which reads a region of a file.
+     *
+     * @param fileChannel the channel used to read the file, the channel is closed when the stream is closed.
+     * @param offset the position of the first byte of the region in the file.
+     * @param length the length of the region in bytes.
+     */
+    FileRegionInputStream(final FileChannel fileChannel, final long offset, final long length) {
+        this.fileChannel = fileChannel;
+        this.position = offset;
+        this.end = offset + length;
+        this.markPosition = offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, this.end - this.position);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.fileChannel.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void mark(final int readlimit) {
+        this.markPosition = this.position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+
+        return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.position >= this.end) {
+            return -1;
+        }
+
+        int toRead = (int) Math.min(len, this.end - this.position);
+        int read = this.fileChannel.read(ByteBuffer.wrap(b, off, toRead), this.position);
+
+        if (read == -1) {
+            throw new IOException("Unexpected end of file, the file has been truncated while reading it !");
+        }
+
+        this.position += read;
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        this.position = this.markPosition;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(final long n) {
+        long skipped = Math.max(0, Math.min(n, this.end - this.position));
+        this.position += skipped;
+
+        return skipped;
+    }
+}
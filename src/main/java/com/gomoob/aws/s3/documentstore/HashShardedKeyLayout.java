@@ -0,0 +1,163 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A key layout which places each key name in a shard directory chosen by a hash of the key name.
+ *
+ * <p>
+ * The physical key name of <tt>2018/03/22/invoice.pdf</tt> is for example <tt>a7/2018/03/22/invoice.pdf</tt>, the
+ * shard directory is the hexadecimal number of the shard padded to the width of the largest shard number. Amazon S3
+ * partitions the buckets by key name prefix, so sequential key names like dates which would all hit the same partition
+ * are spread over the partitions of the shards.
+ * </p>
+ *
+ * <p>
+ * The shard of a key name only depends on the key name and the number of shards, the number of shards of a bucket must
+ * never change. Listing a prefix requires one listing per shard, the listed files are sorted by key name inside each
+ * shard only.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class HashShardedKeyLayout implements IKeyLayout {
+
+    /**
+     * The maximum number of shards.
+     */
+    public static final int MAX_SHARD_COUNT = 4096;
+
+    /**
+     * The number of shards.
+     */
+    private final int shardCount;
+
+    /**
+     * The number of hexadecimal digits of the shard directories.
+     */
+    private final int shardNameLength;
+
+    /**
+     * Creates a new layout.
+     *
+     * @param shardCount the number of shards, between <tt>1</tt> and {@link #MAX_SHARD_COUNT}.
+     */
+    public HashShardedKeyLayout(final int shardCount) {
+        if (shardCount < 1 || shardCount > MAX_SHARD_COUNT) {
+            throw new IllegalArgumentException("The number of shards must be between 1 and " + MAX_SHARD_COUNT + " !");
+        }
+
+        this.shardCount = shardCount;
+        this.shardNameLength = Math.max(1, Integer.toHexString(shardCount - 1).length());
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    /**
+     * Gets the shard of a key name.
+     *
+     * @param keyName the logical key name.
+     *
+     * @return the shard of the key name, between <tt>0</tt> and the number of shards excluded.
+     */
+    public int getShard(final String keyName) {
+
+        // The hash code of a string is specified by the Java language, it is mixed to spread similar key names
+        int hash = keyName.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+
+        return Integer.remainderUnsigned(hash, this.shardCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The physical key names which are not in a shard directory are returned unchanged.
+     * </p>
+     */
+    @Override
+    public String toLogicalKeyName(final String physicalKeyName) {
+        if (physicalKeyName.length() <= this.shardNameLength || physicalKeyName.charAt(this.shardNameLength) != '/') {
+            return physicalKeyName;
+        }
+
+        return physicalKeyName.substring(this.shardNameLength + 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toPhysicalKeyName(final String keyName) {
+        return this.createShardName(this.getShard(keyName)) + '/' + keyName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> toPhysicalPrefixes(final String prefix) {
+        List<String> physicalPrefixes = new ArrayList<>(this.shardCount);
+
+        for (int shard = 0; shard < this.shardCount; ++shard) {
+            physicalPrefixes.add(this.createShardName(shard) + '/' + prefix);
+        }
+
+        return physicalPrefixes;
+    }
+
+    /**
+     * Creates the name of the directory of a shard.
+     *
+     * @param shard the shard.
+     *
+     * @return the lowercase hexadecimal number of the shard, padded with zeros.
+     */
+    private String createShardName(final int shard) {
+        StringBuilder shardName = new StringBuilder(Integer.toHexString(shard));
+
+        while (shardName.length() < this.shardNameLength) {
+            shardName.insert(0, '0');
+        }
+
+        return shardName.toString();
+    }
+}
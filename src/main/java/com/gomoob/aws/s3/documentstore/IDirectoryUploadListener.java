@@ -0,0 +1,64 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.nio.file.Path;
+
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+/**
+ * Interface of the listeners notified of the progress of a directory upload.
+ *
+ * <p>
+ * The listeners are called by the threads which upload the files, so their implementations must be thread safe and
+ * should return quickly.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public interface IDirectoryUploadListener {
+
+    /**
+     * Function called when the upload of a file fails, the upload of the other files continues.
+     *
+     * @param file the file which could not be uploaded.
+     * @param keyName the key name of the file.
+     * @param error the error which caused the failure.
+     * @param result the result of the directory upload, updated while the upload progresses.
+     */
+    public void onFileFailed(final Path file, final String keyName, final Exception error,
+            final DirectoryUploadResult result);
+
+    /**
+     * Function called when a file has been uploaded.
+     *
+     * @param file the uploaded file.
+     * @param documentStoreFile the created document store file.
+     * @param result the result of the directory upload, updated while the upload progresses.
+     */
+    public void onFileUploaded(final Path file, final IDocumentStoreFile documentStoreFile,
+            final DirectoryUploadResult result);
+}
@@ -0,0 +1,70 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.util.List;
+
+/**
+ * Interface which defines how the key names of a document store are laid out in an Amazon S3 bucket.
+ *
+ * <p>
+ * A layout converts the logical key names used by the callers of the document store into the physical key names of
+ * the Amazon S3 objects and back, the key name prefix of the document store is added after the conversion. The
+ * conversion must be stable, objects written with a layout cannot be found with an other layout.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public interface IKeyLayout {
+
+    /**
+     * Converts a physical key name into its logical key name.
+     *
+     * @param physicalKeyName the physical key name, without the key name prefix of the document store.
+     *
+     * @return the logical key name.
+     */
+    public String toLogicalKeyName(final String physicalKeyName);
+
+    /**
+     * Converts a logical key name into its physical key name.
+     *
+     * @param keyName the logical key name.
+     *
+     * @return the physical key name, without the key name prefix of the document store.
+     */
+    public String toPhysicalKeyName(final String keyName);
+
+    /**
+     * Gets the physical prefixes to list to find all the objects having a logical key name prefix.
+     *
+     * @param prefix the logical key name prefix.
+     *
+     * @return the physical prefixes, without the key name prefix of the document store, in the order they have to be
+     *         listed.
+     */
+    public List<String> toPhysicalPrefixes(final String prefix);
+}
@@ -0,0 +1,215 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream which reads a region of a file through memory-mapped windows of a {@link FileChannel}.
+ *
+ * <p>
+ * The bytes are copied directly from the page cache of the operating system to the arrays of the readers, no
+ * intermediate buffer is used. The region is mapped window by window so regions larger than the maximum size of a
+ * mapping can be read and the address space used by a stream stays bounded. Several regions of the same file can be
+ * read concurrently.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class MappedFileRegionInputStream extends InputStream {
+
+    /**
+     * The maximum size in bytes of a mapped window.
+     */
+    static final long WINDOW_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * The position in the file of the end of the region (exclusive).
+     */
+    private final long end;
+
+    /**
+     * The channel used to map the file.
+     */
+    private final FileChannel fileChannel;
+
+    /**
+     * The position in the file of the first byte after the current window.
+     */
+    private long position;
+
+    /**
+     * The position in the file restored by {@link #reset()}.
+     */
+    private long markPosition;
+
+    /**
+     * The current mapped window, <code>null</code> before the first read.
+     */
+    private MappedByteBuffer window;
+
+    /**
+     * Creates a new input stream which reads a region of a file.
+     *
+     * @param fileChannel the channel used to map the file, the channel is closed when the stream is closed.
+     * @param offset the position of the first byte of the region in the file.
+     * @param length the length of the region in bytes.
+     */
+    MappedFileRegionInputStream(final FileChannel fileChannel, final long offset, final long length) {
+        this.fileChannel = fileChannel;
+        this.position = offset;
+        this.end = offset + length;
+        this.markPosition = offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        long windowRemaining = this.window == null ? 0 : this.window.remaining();
+
+        return (int) Math.min(Integer.MAX_VALUE, this.end - this.position + windowRemaining);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The mapped windows stay valid until they are garbage collected, on some operating systems (Windows for example)
+     * the file cannot be deleted before.
+     * </p>
+     */
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.fileChannel.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void mark(final int readlimit) {
+        this.markPosition = this.window == null ? this.position : this.position - this.window.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        if (!this.mapNextWindowIfNeeded()) {
+            return -1;
+        }
+
+        return this.window.get() & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.mapNextWindowIfNeeded()) {
+            return -1;
+        }
+
+        int read = Math.min(len, this.window.remaining());
+        this.window.get(b, off, read);
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        // The window which contains the mark is mapped again by the next read
+        this.position = this.markPosition;
+        this.window = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(final long n) {
+        long skipped = 0;
+
+        // Skips the remaining bytes of the current window first, the following windows are simply not mapped
+        if (this.window != null && n > 0) {
+            skipped = Math.min(n, this.window.remaining());
+            this.window.position(this.window.position() + (int) skipped);
+        }
+
+        long skippedAfterWindow = Math.max(0, Math.min(n - skipped, this.end - this.position));
+        this.position += skippedAfterWindow;
+
+        return skipped + skippedAfterWindow;
+    }
+
+    /**
+     * Maps the next window of the region if the current window has been fully read.
+     *
+     * @return <code>true</code> if bytes remain to be read, <code>false</code> if the end of the region is reached.
+     *
+     * @throws IOException if the next window cannot be mapped.
+     */
+    private boolean mapNextWindowIfNeeded() throws IOException {
+        if (this.window != null && this.window.hasRemaining()) {
+            return true;
+        }
+        if (this.position >= this.end) {
+            return false;
+        }
+
+        long windowSize = Math.min(WINDOW_SIZE, this.end - this.position);
+        if (this.position + windowSize > this.fileChannel.size()) {
+            throw new IOException("Unexpected end of file, the file has been truncated while reading it !");
+        }
+
+        this.window = this.fileChannel.map(FileChannel.MapMode.READ_ONLY, this.position, windowSize);
+        this.position += windowSize;
+
+        return true;
+    }
+}
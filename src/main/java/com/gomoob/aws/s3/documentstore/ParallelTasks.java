@@ -0,0 +1,165 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Utility class used to execute a set of indexed tasks on an {@link Executor} with a bounded parallelism.
+ *
+ * <p>
+ * At most <tt>parallelism</tt> workers execute the tasks, each worker pulls the index of the next task to execute until
+ * all the tasks are executed. One worker is the calling thread and at most <tt>parallelism - 1</tt> workers are
+ * submitted to the executor, so a transfer never occupies more than <tt>parallelism - 1</tt> threads of the executor
+ * whatever the number of its tasks.
+ * </p>
+ *
+ * <p>
+ * Because the calling thread executes the tasks the workers of the executor have not pulled, the tasks progress even if
+ * all the threads of the executor are busy, for example with the operations which called this class. A bounded
+ * executor only reduces the parallelism of the transfers, it never blocks them.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class ParallelTasks {
+
+    /**
+     * Interface which represents a task identified by its index.
+     */
+    @FunctionalInterface
+    interface Task {
+
+        /**
+         * Executes the task.
+         *
+         * @param index the index of the task to execute.
+         *
+         * @throws Exception if the task fails.
+         */
+        void run(final int index) throws Exception;
+    }
+
+    /**
+     * Private constructor to prevent instanciation of this utility class.
+     */
+    private ParallelTasks() {
+        // Empty
+    }
+
+    /**
+     * Executes tasks having indexes from <tt>0</tt> to <tt>taskCount - 1</tt> and waits for their completion.
+     *
+     * <p>
+     * If one task fails the remaining tasks are not started and the first error encountered is thrown once all the
+     * running tasks are finished.
+     * </p>
+     *
+     * @param executor the executor used to execute the tasks.
+     * @param parallelism the maximum number of tasks to execute concurrently, including the calling thread.
+     * @param taskCount the number of tasks to execute.
+     * @param task the task to execute for each index.
+     *
+     * @throws IOException if a task fails with an input / output error, if a task fails with a checked exception or if
+     *             the current thread is interrupted while waiting.
+     */
+    static void run(final Executor executor, final int parallelism, final int taskCount, final Task task)
+            throws IOException {
+
+        int workerCount = Math.min(parallelism, taskCount);
+        AtomicInteger nextIndex = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        // The latch counts the tasks and not the workers, so a worker the executor never starts is not awaited
+        CountDownLatch latch = new CountDownLatch(taskCount);
+        Runnable worker = () -> {
+            int index;
+            while ((index = nextIndex.getAndIncrement()) < taskCount) {
+                try {
+                    if (error.get() == null) {
+                        task.run(index);
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        };
+
+        for (int i = 1; i < workerCount; ++i) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException reex) {
+                // The executor is saturated or shut down, the remaining tasks are executed by the calling thread
+                break;
+            }
+        }
+        worker.run();
+
+        try {
+            latch.await();
+        } catch (InterruptedException iex) {
+            error.compareAndSet(null, iex);
+            Thread.currentThread().interrupt();
+            InterruptedIOException iioex = new InterruptedIOException("Interrupted while waiting for parallel tasks !");
+            iioex.initCause(iex);
+            throw iioex;
+        }
+
+        rethrow(error.get());
+    }
+
+    /**
+     * Rethrows an error thrown by a task.
+     *
+     * @param error the error to rethrow, can be <code>null</code>.
+     *
+     * @throws IOException if the error is an {@link IOException} or a checked exception.
+     */
+    private static void rethrow(final Throwable error) throws IOException {
+        if (error == null) {
+            return;
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+
+        throw new IOException(error);
+    }
+}
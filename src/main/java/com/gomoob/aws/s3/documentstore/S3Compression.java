@@ -0,0 +1,122 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The compression formats which can be applied to the objects uploaded by a {@link S3DocumentStore}.
+ *
+ * <p>
+ * The format is recorded in the <tt>Content-Encoding</tt> of the objects, so the objects are also decompressed by the
+ * HTTP clients which support this encoding.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public enum S3Compression {
+
+    /**
+     * The <tt>deflate</tt> content encoding, a deflate stream in the <tt>zlib</tt> format (RFC 1950).
+     */
+    DEFLATE("deflate"),
+
+    /**
+     * The <tt>gzip</tt> content encoding (RFC 1952).
+     */
+    GZIP("gzip");
+
+    /**
+     * The HTTP <tt>Content-Encoding</tt> of the format.
+     */
+    private final String contentEncoding;
+
+    /**
+     * Creates a new compression format.
+     *
+     * @param contentEncoding the HTTP <tt>Content-Encoding</tt> of the format.
+     */
+    S3Compression(final String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Gets the compression format of an HTTP <tt>Content-Encoding</tt>.
+     *
+     * @param contentEncoding the HTTP <tt>Content-Encoding</tt>, can be <code>null</code>.
+     *
+     * @return the compression format, <code>null</code> if the content is not compressed or if its encoding is not
+     *         supported.
+     */
+    public static S3Compression fromContentEncoding(final String contentEncoding) {
+        if (contentEncoding != null) {
+            for (S3Compression compression : values()) {
+                if (compression.contentEncoding.equalsIgnoreCase(contentEncoding.trim())) {
+                    return compression;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the HTTP <tt>Content-Encoding</tt> of the format.
+     *
+     * @return the HTTP <tt>Content-Encoding</tt> of the format.
+     */
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+
+    /**
+     * Wraps an input stream so the bytes read are compressed.
+     *
+     * @param inputStream the uncompressed input stream.
+     * @param level the compression level, between <tt>0</tt> and <tt>9</tt>.
+     *
+     * @return the compressed input stream.
+     */
+    CompressingInputStream compress(final InputStream inputStream, final int level) {
+        return new CompressingInputStream(inputStream, level, this == GZIP);
+    }
+
+    /**
+     * Wraps an input stream so the bytes read are decompressed.
+     *
+     * @param inputStream the compressed input stream.
+     *
+     * @return the decompressed input stream.
+     *
+     * @throws IOException if the header of the compressed stream cannot be read.
+     */
+    InputStream decompress(final InputStream inputStream) throws IOException {
+        return this == GZIP ? new GZIPInputStream(inputStream, 8192) : new InflaterInputStream(inputStream);
+    }
+}
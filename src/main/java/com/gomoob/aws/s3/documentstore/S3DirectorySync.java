@@ -0,0 +1,486 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+/**
+ * Class used to synchronize the objects having a key name prefix into a local directory.
+ *
+ * <p>
+ * A manifest file written in the directory records the size, ETag and last modification date of each synchronized
+ * object with the size and last modification date of its local file. An object is downloaded only if its listed
+ * metadata or its local file differ from the manifest, so a synchronization costs a listing of the prefix plus the
+ * download of the changed objects.
+ * </p>
+ *
+ * <p>
+ * The listing is consumed lazily and the changed objects are downloaded concurrently on an executor while the listing
+ * continues, at most <tt>parallelism</tt> downloads are in flight. The objects are downloaded into temporary files
+ * which are then renamed, so a local file is never partially written. The objects larger than the ranged download
+ * range size of the document store are downloaded by the calling thread because their ranges already use the
+ * executor.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3DirectorySync {
+
+    /**
+     * An entry of the manifest.
+     */
+    private static final class ManifestEntry {
+
+        /**
+         * The ETag of the object.
+         */
+        private final String eTag;
+
+        /**
+         * The last modification date of the object in milliseconds, <tt>-1</tt> if unknown.
+         */
+        private final long lastModified;
+
+        /**
+         * The last modification date of the local file in milliseconds.
+         */
+        private final long localLastModified;
+
+        /**
+         * The size of the local file in bytes, it differs from the size of the object when the object is compressed.
+         */
+        private final long localSize;
+
+        /**
+         * The size of the object in bytes.
+         */
+        private final long size;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param size the size of the object in bytes.
+         * @param lastModified the last modification date of the object in milliseconds, <tt>-1</tt> if unknown.
+         * @param localSize the size of the local file in bytes.
+         * @param localLastModified the last modification date of the local file in milliseconds.
+         * @param eTag the ETag of the object.
+         */
+        private ManifestEntry(final long size, final long lastModified, final long localSize,
+                final long localLastModified, final String eTag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.localSize = localSize;
+            this.localLastModified = localLastModified;
+            this.eTag = eTag;
+        }
+    }
+
+    /**
+     * The synchronized directory.
+     */
+    private final Path directory;
+
+    /**
+     * The configuration of the synchronization.
+     */
+    private final DirectorySyncConfig directorySyncConfig;
+
+    /**
+     * The document store from which the objects are downloaded.
+     */
+    private final S3DocumentStore documentStore;
+
+    /**
+     * The executor used to download the objects concurrently.
+     */
+    private final Executor executor;
+
+    /**
+     * The manifest file.
+     */
+    private final Path manifestFile;
+
+    /**
+     * The entries of the manifest of the objects synchronized by this synchronization, indexed by relative key name.
+     */
+    private final Map<String, ManifestEntry> manifest = new ConcurrentHashMap<>();
+
+    /**
+     * The permits of the downloads in flight.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The synchronized key name prefix.
+     */
+    private final String prefix;
+
+    /**
+     * The result of the synchronization.
+     */
+    private final DirectorySyncResult result = new DirectorySyncResult();
+
+    /**
+     * Creates a new synchronization.
+     *
+     * @param documentStore the document store from which the objects are downloaded.
+     * @param executor the executor used to download the objects concurrently.
+     * @param prefix the synchronized key name prefix.
+     * @param directory the synchronized directory.
+     * @param directorySyncConfig the configuration of the synchronization.
+     */
+    S3DirectorySync(final S3DocumentStore documentStore, final Executor executor, final String prefix,
+            final Path directory, final DirectorySyncConfig directorySyncConfig) {
+        this.documentStore = documentStore;
+        this.executor = executor;
+        this.prefix = prefix == null ? "" : prefix;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.directorySyncConfig = directorySyncConfig;
+        this.manifestFile = this.directory.resolve(directorySyncConfig.getManifestFileName());
+        this.permits = new Semaphore(directorySyncConfig.getParallelism());
+    }
+
+    /**
+     * Synchronizes the objects into the directory and waits for the completion of all the downloads, the manifest is
+     * written even if the synchronization fails.
+     *
+     * @return the result of the synchronization.
+     *
+     * @throws IOException if the directory or the manifest cannot be read or written or if the current thread is
+     *             interrupted.
+     */
+    DirectorySyncResult sync() throws IOException {
+        Files.createDirectories(this.directory);
+        Map<String, ManifestEntry> previousManifest = this.readManifest();
+        boolean listed = false;
+
+        try (Stream<IDocumentStoreFile> files = this.documentStore.list(this.prefix)) {
+            this.syncFiles(files.iterator(), previousManifest);
+            listed = true;
+        } finally {
+            this.permits.acquireUninterruptibly(this.directorySyncConfig.getParallelism());
+
+            // The entries of the objects which have not been listed are kept unless the objects have been deleted
+            for (Map.Entry<String, ManifestEntry> entry : previousManifest.entrySet()) {
+                if (!listed || !this.directorySyncConfig.isDeleteRemoved() || !this.deleteFile(entry.getKey())) {
+                    this.manifest.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            this.writeManifest();
+        }
+
+        return this.result;
+    }
+
+    /**
+     * Deletes the local file of an object which has been deleted.
+     *
+     * @param relativeKeyName the key name of the object relative to the prefix.
+     *
+     * @return <code>true</code> if the local file has been deleted, <code>false</code> if it cannot be deleted.
+     */
+    private boolean deleteFile(final String relativeKeyName) {
+        try {
+            if (Files.deleteIfExists(this.resolve(relativeKeyName))) {
+                this.result.addDeletedFile();
+            }
+            return true;
+        } catch (IOException ioex) {
+            this.result.addFailure(this.prefix + relativeKeyName, ioex);
+            return false;
+        }
+    }
+
+    /**
+     * Downloads an object into its local file and records it in the manifest, the errors are recorded instead of
+     * being thrown.
+     *
+     * @param file the listed object.
+     * @param relativeKeyName the key name of the object relative to the prefix.
+     * @param localFile the local file of the object.
+     */
+    private void download(final IDocumentStoreFile file, final String relativeKeyName, final Path localFile) {
+        try {
+            Files.createDirectories(localFile.getParent());
+            Path tmpFile = Files.createTempFile(localFile.getParent(), ".", ".tmp");
+
+            try {
+                // The download refuses to overwrite an existing file
+                Files.deleteIfExists(tmpFile);
+                this.documentStore.download(file.getKeyName(), tmpFile.toString());
+
+                try {
+                    Files.move(tmpFile, localFile, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException amnsex) {
+                    Files.move(tmpFile, localFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+
+            BasicFileAttributes attributes = Files.readAttributes(localFile, BasicFileAttributes.class);
+            this.manifest.put(relativeKeyName, new ManifestEntry(file.getSize(), toMillis(file), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), file.getETag()));
+            this.result.addDownloadedFile(file.getSize());
+        } catch (Exception ex) {
+            this.result.addFailure(file.getKeyName(), ex);
+        }
+    }
+
+    /**
+     * Gets if the local file of an object is up to date.
+     *
+     * @param entry the entry of the manifest of the object, can be <code>null</code>.
+     * @param file the listed object.
+     * @param localFile the local file of the object.
+     *
+     * @return <code>true</code> if the object and its local file did not change since the entry has been written.
+     */
+    private boolean isUnchanged(final ManifestEntry entry, final IDocumentStoreFile file, final Path localFile) {
+        if (entry == null || entry.size != file.getSize() || entry.lastModified != toMillis(file)
+                || !Objects.equals(entry.eTag, file.getETag())) {
+            return false;
+        }
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(localFile, BasicFileAttributes.class);
+            return attributes.isRegularFile() && attributes.size() == entry.localSize
+                    && attributes.lastModifiedTime().toMillis() == entry.localLastModified;
+        } catch (IOException ioex) {
+
+            // The local file does not exist or cannot be read, it is downloaded again
+            return false;
+        }
+    }
+
+    /**
+     * Reads the manifest written by the previous synchronization.
+     *
+     * @return the entries of the manifest indexed by relative key name, empty if the manifest does not exist.
+     *
+     * @throws IOException if the manifest cannot be read.
+     */
+    private Map<String, ManifestEntry> readManifest() throws IOException {
+        Map<String, ManifestEntry> entries = new HashMap<>();
+
+        if (Files.exists(this.manifestFile)) {
+            List<String> lines = Files.readAllLines(this.manifestFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] fields = line.split(" ");
+                if (fields.length != 6) {
+                    continue;
+                }
+
+                String eTag = fields[4].isEmpty() ? null : URLDecoder.decode(fields[4], "UTF-8");
+                entries.put(URLDecoder.decode(fields[5], "UTF-8"), new ManifestEntry(Long.parseLong(fields[0]),
+                        Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]), eTag));
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Resolves the local file of an object.
+     *
+     * @param relativeKeyName the key name of the object relative to the prefix.
+     *
+     * @return the local file of the object.
+     *
+     * @throws IOException if the local file would be outside of the directory.
+     */
+    private Path resolve(final String relativeKeyName) throws IOException {
+        Path localFile = this.directory.resolve(relativeKeyName).normalize();
+
+        if (!localFile.startsWith(this.directory) || localFile.equals(this.directory)
+                || localFile.equals(this.manifestFile)) {
+            throw new IOException("The key name '" + relativeKeyName + "' cannot be written in the directory !");
+        }
+
+        return localFile;
+    }
+
+    /**
+     * Submits the download of an object to the executor, waits if the maximum number of downloads are in flight.
+     *
+     * @param file the listed object.
+     * @param relativeKeyName the key name of the object relative to the prefix.
+     * @param localFile the local file of the object.
+     *
+     * @throws InterruptedIOException if the current thread is interrupted while waiting.
+     */
+    private void submitDownload(final IDocumentStoreFile file, final String relativeKeyName, final Path localFile)
+            throws InterruptedIOException {
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException iioex = new InterruptedIOException(
+                    "Interrupted while synchronizing the directory !");
+            iioex.initCause(iex);
+            throw iioex;
+        }
+
+        Runnable task = () -> {
+            try {
+                this.download(file, relativeKeyName, localFile);
+            } finally {
+                this.permits.release();
+            }
+        };
+
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException reex) {
+            // The executor is saturated or shut down, the object is downloaded by the calling thread
+            task.run();
+        }
+    }
+
+    /**
+     * Synchronizes the listed objects.
+     *
+     * @param files the listed objects.
+     * @param previousManifest the entries of the previous manifest, the entries of the listed objects are removed.
+     *
+     * @throws InterruptedIOException if the current thread is interrupted while waiting for a download to finish.
+     */
+    private void syncFiles(final Iterator<IDocumentStoreFile> files, final Map<String, ManifestEntry> previousManifest)
+            throws InterruptedIOException {
+        long rangeSize = this.documentStore.getRangedDownloadRangeSize();
+
+        while (files.hasNext()) {
+            IDocumentStoreFile file = files.next();
+            String keyName = file.getKeyName();
+
+            // Skips the directory markers
+            String relativeKeyName = keyName.substring(Math.min(this.prefix.length(), keyName.length()));
+            while (relativeKeyName.startsWith("/")) {
+                relativeKeyName = relativeKeyName.substring(1);
+            }
+            if (relativeKeyName.isEmpty() || relativeKeyName.endsWith("/")) {
+                continue;
+            }
+
+            Path localFile;
+            try {
+                localFile = this.resolve(relativeKeyName);
+            } catch (IOException ioex) {
+                this.result.addFailure(keyName, ioex);
+                continue;
+            }
+
+            ManifestEntry entry = previousManifest.remove(relativeKeyName);
+            if (this.isUnchanged(entry, file, localFile)) {
+                this.manifest.put(relativeKeyName, entry);
+                this.result.addUnchangedFile();
+            } else if (rangeSize > 0 && file.getSize() > rangeSize) {
+                this.download(file, relativeKeyName, localFile);
+            } else {
+                this.submitDownload(file, relativeKeyName, localFile);
+            }
+        }
+    }
+
+    /**
+     * Writes the manifest, the manifest file is replaced atomically so an interrupted write never corrupts it.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    private void writeManifest() throws IOException {
+        Path tmpFile = Files.createTempFile(this.directory, ".", ".tmp");
+
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, ManifestEntry> entry : this.manifest.entrySet()) {
+                    ManifestEntry value = entry.getValue();
+                    writer.write(value.size + " " + value.lastModified + " " + value.localSize + " "
+                            + value.localLastModified + " " + (value.eTag == null ? "" : encode(value.eTag)) + " "
+                            + encode(entry.getKey()));
+                    writer.newLine();
+                }
+            }
+
+            try {
+                Files.move(tmpFile, this.manifestFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnsex) {
+                Files.move(tmpFile, this.manifestFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Encodes a string so it can be written in a field of a line of the manifest.
+     *
+     * @param value the string to encode.
+     *
+     * @return the encoded string.
+     */
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException ueex) {
+            throw new IllegalStateException(ueex);
+        }
+    }
+
+    /**
+     * Gets the last modification date of an object.
+     *
+     * @param file the listed object.
+     *
+     * @return the last modification date of the object in milliseconds, <tt>-1</tt> if unknown.
+     */
+    private static long toMillis(final IDocumentStoreFile file) {
+        return file.getLastUpdateDate() == null ? -1 : file.getLastUpdateDate().getTime();
+    }
+}
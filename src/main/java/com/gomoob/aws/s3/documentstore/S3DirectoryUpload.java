@@ -0,0 +1,318 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+/**
+ * Class used to upload the files of a directory tree into a document store.
+ *
+ * <p>
+ * The directory tree is walked lazily, so the memory used does not depend on the number of files. The small files are
+ * grouped in batches uploaded concurrently on an executor, at most <tt>parallelism</tt> batches are in flight and the
+ * walk waits when this limit is reached. The files which reach the multipart threshold of the upload configuration
+ * are uploaded by the calling thread, their parts are already uploaded concurrently.
+ * </p>
+ *
+ * <p>
+ * A file which cannot be uploaded is recorded in the result and does not stop the upload of the other files.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3DirectoryUpload {
+
+    /**
+     * The uploaded directory.
+     */
+    private final Path directory;
+
+    /**
+     * The configuration of the directory upload.
+     */
+    private final DirectoryUploadConfig directoryUploadConfig;
+
+    /**
+     * The document store into which the files are uploaded.
+     */
+    private final S3DocumentStore documentStore;
+
+    /**
+     * The matchers of the relative paths of the files which are not uploaded.
+     */
+    private final List<PathMatcher> excludes = new ArrayList<>();
+
+    /**
+     * The executor used to upload the batches of small files.
+     */
+    private final Executor executor;
+
+    /**
+     * The matchers of the relative paths of the files which are uploaded.
+     */
+    private final List<PathMatcher> includes = new ArrayList<>();
+
+    /**
+     * The prefix added to the relative paths of the files to create their key names.
+     */
+    private final String keyPrefix;
+
+    /**
+     * The permits of the batches in flight.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The result of the upload.
+     */
+    private final DirectoryUploadResult result = new DirectoryUploadResult();
+
+    /**
+     * The configuration used to upload each file.
+     */
+    private final S3UploadConfig uploadConfig;
+
+    /**
+     * Creates a new directory upload.
+     *
+     * @param documentStore the document store into which the files are uploaded.
+     * @param executor the executor used to upload the batches of small files.
+     * @param directory the uploaded directory.
+     * @param keyPrefix the prefix added to the relative paths of the files to create their key names.
+     * @param uploadConfig the configuration used to upload each file.
+     * @param directoryUploadConfig the configuration of the directory upload.
+     */
+    S3DirectoryUpload(final S3DocumentStore documentStore, final Executor executor, final Path directory,
+            final String keyPrefix, final S3UploadConfig uploadConfig,
+            final DirectoryUploadConfig directoryUploadConfig) {
+        this.documentStore = documentStore;
+        this.executor = executor;
+        this.directory = directory;
+        this.keyPrefix = keyPrefix == null ? "" : keyPrefix;
+        this.uploadConfig = uploadConfig;
+        this.directoryUploadConfig = directoryUploadConfig;
+        this.permits = new Semaphore(directoryUploadConfig.getParallelism());
+
+        for (String exclude : directoryUploadConfig.getExcludes()) {
+            this.excludes.add(directory.getFileSystem().getPathMatcher("glob:" + exclude));
+        }
+        for (String include : directoryUploadConfig.getIncludes()) {
+            this.includes.add(directory.getFileSystem().getPathMatcher("glob:" + include));
+        }
+    }
+
+    /**
+     * Uploads the files of the directory tree and waits for the completion of all the uploads.
+     *
+     * @return the result of the upload.
+     *
+     * @throws IOException if the directory tree cannot be walked or if the current thread is interrupted, the batches
+     *             in flight are finished before the error is thrown.
+     */
+    DirectoryUploadResult upload() throws IOException {
+        try (Stream<Path> paths = Files.walk(this.directory)) {
+            this.uploadFiles(paths.iterator());
+        } catch (UncheckedIOException uioex) {
+            throw uioex.getCause();
+        } finally {
+            this.permits.acquireUninterruptibly(this.directoryUploadConfig.getParallelism());
+        }
+
+        return this.result;
+    }
+
+    /**
+     * Creates the key name of a file.
+     *
+     * @param relativePath the path of the file relative to the uploaded directory.
+     *
+     * @return the key name of the file, the names of the path are separated by <tt>/</tt> whatever the platform.
+     */
+    private String createKeyName(final Path relativePath) {
+        StringBuilder keyName = new StringBuilder(this.keyPrefix);
+
+        for (int i = 0; i < relativePath.getNameCount(); ++i) {
+            if (i > 0) {
+                keyName.append('/');
+            }
+            keyName.append(relativePath.getName(i).toString());
+        }
+
+        return keyName.toString();
+    }
+
+    /**
+     * Gets if a file is selected by the include and exclude patterns.
+     *
+     * @param relativePath the path of the file relative to the uploaded directory.
+     *
+     * @return <code>true</code> if the file has to be uploaded, <code>false</code> otherwise.
+     */
+    private boolean isIncluded(final Path relativePath) {
+        for (PathMatcher exclude : this.excludes) {
+            if (exclude.matches(relativePath)) {
+                return false;
+            }
+        }
+
+        if (this.includes.isEmpty()) {
+            return true;
+        }
+
+        for (PathMatcher include : this.includes) {
+            if (include.matches(relativePath)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Submits a batch of small files to the executor, waits if the maximum number of batches are in flight.
+     *
+     * @param batch the files of the batch.
+     *
+     * @throws InterruptedIOException if the current thread is interrupted while waiting.
+     */
+    private void submitBatch(final List<Path> batch) throws InterruptedIOException {
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException iioex = new InterruptedIOException("Interrupted while uploading the directory !");
+            iioex.initCause(iex);
+            throw iioex;
+        }
+
+        Runnable task = () -> {
+            try {
+                for (Path file : batch) {
+                    this.uploadFile(file);
+                }
+            } finally {
+                this.permits.release();
+            }
+        };
+
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException reex) {
+            // The executor is saturated or shut down, the batch is uploaded by the calling thread
+            task.run();
+        }
+    }
+
+    /**
+     * Uploads a file and records the result, the errors are recorded instead of being thrown.
+     *
+     * @param file the file to upload.
+     */
+    private void uploadFile(final Path file) {
+        String keyName = this.createKeyName(this.directory.relativize(file));
+        IDirectoryUploadListener listener = this.directoryUploadConfig.getListener();
+
+        try {
+            long size = Files.size(file);
+            IDocumentStoreFile documentStoreFile = this.documentStore.createFromUploadedFile(file.toString(), keyName,
+                    this.uploadConfig);
+            this.result.addUploadedFile(keyName, documentStoreFile, size);
+
+            if (listener != null) {
+                listener.onFileUploaded(file, documentStoreFile, this.result);
+            }
+        } catch (Exception ex) {
+            this.result.addFailure(keyName, ex);
+
+            if (listener != null) {
+                listener.onFileFailed(file, keyName, ex, this.result);
+            }
+        }
+    }
+
+    /**
+     * Uploads the files returned by a walk of the directory tree.
+     *
+     * @param paths the paths returned by the walk of the directory tree.
+     *
+     * @throws InterruptedIOException if the current thread is interrupted while waiting for a batch to finish.
+     */
+    private void uploadFiles(final Iterator<Path> paths) throws InterruptedIOException {
+        List<Path> batch = new ArrayList<>();
+        long batchBytes = 0;
+
+        while (paths.hasNext()) {
+            Path file = paths.next();
+            if (!Files.isRegularFile(file)) {
+                continue;
+            }
+            if (!this.isIncluded(this.directory.relativize(file))) {
+                this.result.addSkippedFile();
+                continue;
+            }
+
+            // An unreadable size is reported by the upload of the file
+            long size;
+            try {
+                size = Files.size(file);
+            } catch (IOException ioex) {
+                size = 0;
+            }
+
+            if (size >= this.uploadConfig.getMultipartThreshold()) {
+                this.uploadFile(file);
+                continue;
+            }
+
+            batch.add(file);
+            batchBytes += size;
+            if (batch.size() >= this.directoryUploadConfig.getMaxBatchFileCount()
+                    || batchBytes >= this.directoryUploadConfig.getMaxBatchBytes()) {
+                this.submitBatch(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            this.submitBatch(batch);
+        }
+    }
+}
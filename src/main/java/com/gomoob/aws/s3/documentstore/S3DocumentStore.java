@@ -28,18 +28,60 @@ package com.gomoob.aws.s3.documentstore;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.gomoob.aws.IS3;
+import com.gomoob.documentstore.IAsyncDocumentStore;
 import com.gomoob.documentstore.IDocumentStore;
 import com.gomoob.documentstore.IDocumentStoreFile;
+import com.gomoob.documentstore.buffer.ByteBufferPool;
+import com.gomoob.documentstore.cache.DocumentStoreFileCache;
+import com.gomoob.documentstore.cache.DownloadCache;
 import com.gomoob.documentstore.filesystem.DocumentStoreFile;
 
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 import software.amazon.awssdk.sync.RequestBody;
 import software.amazon.awssdk.sync.StreamingResponseHandler;
@@ -49,19 +91,141 @@ import software.amazon.awssdk.sync.StreamingResponseHandler;
  *
  * @author Jiaming LIANG (jiaming.liang@gomoob.com)
  */
-public class S3DocumentStore implements IDocumentStore<S3UploadConfig> {
+public class S3DocumentStore implements IDocumentStore<S3UploadConfig>, IAsyncDocumentStore<S3UploadConfig> {
+
+    /**
+     * The name of the Amazon S3 user metadata which holds the SHA-256 hash of the content of the deduplicated objects.
+     */
+    public static final String CONTENT_HASH_METADATA = "sha256";
+
+    /**
+     * The name of the Amazon S3 user metadata which holds the size of the uncompressed content of the compressed
+     * objects, when it is known before the upload.
+     */
+    public static final String UNCOMPRESSED_SIZE_METADATA = "uncompressed-size";
+
+    /**
+     * The size of the buffer used to hash the files.
+     */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The size of the largest object Amazon S3 accepts to copy with one copy request.
+     */
+    private static final long MAX_COPY_SIZE = 5L * 1024L * 1024L * 1024L;
+
+    /**
+     * The maximum number of keys Amazon S3 accepts to delete with one multi-object delete request.
+     */
+    private static final int MAX_DELETE_BATCH_SIZE = 1000;
+
+    /**
+     * The maximum number of objects Amazon S3 returns with one listing request.
+     */
+    private static final int MAX_LIST_PAGE_SIZE = 1000;
+
+    /**
+     * The executor used to run the asynchronous operations, <code>null</code> until a dedicated thread pool is created
+     * the first time an asynchronous operation is submitted.
+     */
+    private Executor asyncExecutor;
+
+    /**
+     * The maximum number of asynchronous operations in flight.
+     */
+    private int asyncMaxConcurrency = 64;
+
+    /**
+     * The executor which bounds the number of asynchronous operations in flight, created lazily.
+     */
+    private BoundedAsyncExecutor boundedAsyncExecutor;
 
     /**
      * The name of the Amazon S3 Bucket to use.
      */
     private String bucket;
 
+    /**
+     * The pool of the buffers used by the transfers, created lazily.
+     */
+    private ByteBufferPool bufferPool;
+
+    /**
+     * The prefix of the content-addressed keys used to deduplicate the uploads, the key name of the reference copy of
+     * a content is this prefix followed by the SHA-256 hash of the content.
+     */
+    private String contentAddressedKeyPrefix = "sha256/";
+
+    /**
+     * The maximum number of multi-object delete requests sent concurrently.
+     */
+    private int deleteParallelism = 4;
+
+    /**
+     * The local cache of the downloaded files, <code>null</code> if no cache is used.
+     */
+    private DownloadCache downloadCache;
+
+    /**
+     * The executor service used to execute the parallel parts of the transfers (multipart upload parts for example).
+     */
+    private ExecutorService executorService;
+
+    /**
+     * The layout used to convert the key names passed as arguments to the functions of this class into the key names
+     * of the Amazon S3 objects.
+     */
+    private IKeyLayout keyLayout = new FlatKeyLayout();
+
     /**
      * A prefix to be placed before all the key names passed as arguments to the functions of this class. The purpose of
      * the prefix is to manage files inside a subdirectory of an Amazon S3 bucket.
      */
     private String keyNamePrefix = "";
 
+    /**
+     * The maximum number of objects requested by each listing request.
+     */
+    private int listPageSize = MAX_LIST_PAGE_SIZE;
+
+    /**
+     * The cache of the file descriptions returned by {@link #find(String)}, <code>null</code> if no cache is used.
+     */
+    private DocumentStoreFileCache metadataCache;
+
+    /**
+     * The maximum number of byte ranges fetched concurrently by a ranged download.
+     */
+    private int rangedDownloadParallelism = 4;
+
+    /**
+     * The size in bytes of the byte ranges fetched by a ranged download, <tt>0</tt> if ranged downloads are disabled.
+     */
+    private long rangedDownloadRangeSize = 0;
+
+    /**
+     * The number of chunks fetched in the background ahead of the chunk being read by the streams returned by
+     * {@link #openStream(String)}.
+     */
+    private int readAheadChunkCount = 2;
+
+    /**
+     * The size in bytes of the chunks fetched by the streams returned by {@link #openStream(String)}.
+     */
+    private int readAheadChunkSize = 1024 * 1024;
+
+    /**
+     * The maximum number of bytes between two byte ranges merged into a single request by
+     * {@link #read(String, List)}.
+     */
+    private int readMergeGap = 64 * 1024;
+
+    /**
+     * The maximum number of bytes requested by a request which merges several byte ranges in
+     * {@link #read(String, List)}.
+     */
+    private long readMergedMaxSize = 8L * 1024L * 1024L;
+
     /**
      * An instance of the GOMOOB Amazon S3 facade.
      */
@@ -78,6 +242,14 @@ public class S3DocumentStore implements IDocumentStore<S3UploadConfig> {
 
     /**
      * {@inheritDoc}
+     *
+     * <p>
+     * When the upload configuration is deduplicated the SHA-256 hash of the file is computed before the upload. If the
+     * document store already contains the content under its content-addressed key (see
+     * {@link #setContentAddressedKeyPrefix(String)}) the file is created by a server-side copy, otherwise the file is
+     * uploaded and then copied to its content-addressed key. The hash is stored in the {@value #CONTENT_HASH_METADATA}
+     * user metadata of the object and returned by {@link IDocumentStoreFile#getContentHash()}.
+     * </p>
      */
     @Override
     public IDocumentStoreFile createFromUploadedFile(final String serverFilePath, final String keyName,
@@ -89,133 +261,1149 @@ public class S3DocumentStore implements IDocumentStore<S3UploadConfig> {
             throw new IOException("Fail to open file with path '" + serverFilePath + "' !");
         }
 
+        if (uploadConfig.isDeduplicated()) {
+            return this.uploadDeduplicated(file, keyName, uploadConfig);
+        }
+
+        return this.uploadFile(file, keyName, uploadConfig);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A stream which supports mark / reset is sent as is, an other stream is read into pooled buffers like
+     * {@link #createFromUploadedFile(InputStream, String, S3UploadConfig)} does so the request can be sent again if it
+     * is throttled. In both cases exactly <code>fileSize</code> bytes are uploaded, the bytes which follow are not
+     * read and a stream shorter than <code>fileSize</code> makes the upload fail.
+     * </p>
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
+            final long fileSize) throws IOException {
+        if (!serverFileInputStream.markSupported()) {
+            return this.createFromUploadedFile(new SizedInputStream(serverFileInputStream, fileSize), keyName,
+                    new S3UploadConfig());
+        }
+
         // Creates the request body
-        RequestBody requestBody = RequestBody.of(file);
+        RequestBody requestBody = RequestBody.of(serverFileInputStream, fileSize);
+
+        return this.uploadToS3(requestBody, keyName, fileSize, new S3UploadConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName)
+            throws IOException {
+        return this.createFromUploadedFile(serverFileInputStream, keyName, new S3UploadConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The stream is read into parts of the multipart part size of the upload configuration which are uploaded while
+     * the next parts are read, at most <tt>multipartParallelism + 1</tt> parts are held in memory. A stream shorter
+     * than one part is uploaded with a single request.
+     * </p>
+     *
+     * <p>
+     * When the upload configuration is compressed the parts are compressed while they are read. The length of the
+     * stream is not known before the upload, so {@link #find(String)} reports the stored size of the object as its
+     * size, the returned file has both sizes.
+     * </p>
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+        if (uploadConfig.getCompression() != null) {
+            return this.uploadCompressed(serverFileInputStream, keyName, uploadConfig);
+        }
+
+        String prefixedKeyName = this.createKeyNameWithPrefix(keyName);
+        S3StreamUpload streamUpload = new S3StreamUpload(this.s3, this.getExecutorService(), this.getBufferPool(),
+                this.getBucket(), prefixedKeyName, uploadConfig);
+        String eTag = streamUpload.upload(serverFileInputStream);
+
+        return this.createUploadedDocumentStoreFile(prefixedKeyName, streamUpload.getSize(), eTag, uploadConfig);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final String serverFilePath,
+            final String keyName) {
+        return this.getBoundedAsyncExecutor().submit(() -> this.createFromUploadedFile(serverFilePath, keyName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final String serverFilePath,
+            final String keyName, final S3UploadConfig uploadConfig) {
+        return this.getBoundedAsyncExecutor()
+                .submit(() -> this.createFromUploadedFile(serverFilePath, keyName, uploadConfig));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final InputStream serverFileInputStream,
+            final String keyName, final long fileSize) {
+        return this.getBoundedAsyncExecutor()
+                .submit(() -> this.createFromUploadedFile(serverFileInputStream, keyName, fileSize));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final InputStream serverFileInputStream,
+            final String keyName) {
+        return this.getBoundedAsyncExecutor().submit(() -> this.createFromUploadedFile(serverFileInputStream, keyName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final InputStream serverFileInputStream,
+            final String keyName, final S3UploadConfig uploadConfig) {
+        return this.getBoundedAsyncExecutor()
+                .submit(() -> this.createFromUploadedFile(serverFileInputStream, keyName, uploadConfig));
+    }
+
+    /**
+     * Gets the number of asynchronous operations in flight.
+     *
+     * @return the number of asynchronous operations in flight.
+     */
+    public int getAsyncInFlightCount() {
+        return this.getBoundedAsyncExecutor().getInFlightCount();
+    }
+
+    /**
+     * Gets the maximum number of asynchronous operations in flight.
+     *
+     * @return the maximum number of asynchronous operations in flight.
+     */
+    public int getAsyncMaxConcurrency() {
+        return this.asyncMaxConcurrency;
+    }
+
+    /**
+     * Gets the name of the Amazon S3 Bucket to use.
+     *
+     * @return the name of the Amazon S3 Bucket to use.
+     */
+    public String getBucket() {
+        if (this.bucket == null) {
+            throw new IllegalStateException("No bucket name has been configured !");
+        }
+
+        return this.bucket;
+    }
+
+    /**
+     * Gets the pool of the direct buffers used by the transfers (stream upload parts and ranged download copies).
+     *
+     * <p>
+     * If no pool has been configured a pool with the default caps of the {@link ByteBufferPool} class is created the
+     * first time this function is called.
+     * </p>
+     *
+     * @return the pool of the direct buffers used by the transfers.
+     */
+    public synchronized ByteBufferPool getBufferPool() {
+        if (this.bufferPool == null) {
+            this.bufferPool = new ByteBufferPool();
+        }
+
+        return this.bufferPool;
+    }
+
+    /**
+     * Gets the prefix of the content-addressed keys used to deduplicate the uploads.
+     *
+     * @return the prefix of the content-addressed keys used to deduplicate the uploads.
+     */
+    public String getContentAddressedKeyPrefix() {
+        return this.contentAddressedKeyPrefix;
+    }
+
+    /**
+     * Gets the maximum number of multi-object delete requests sent concurrently.
+     *
+     * @return the maximum number of multi-object delete requests sent concurrently.
+     */
+    public int getDeleteParallelism() {
+        return this.deleteParallelism;
+    }
+
+    /**
+     * Gets the local cache of the downloaded files.
+     *
+     * @return the local cache of the downloaded files, <code>null</code> if no cache is used.
+     */
+    public DownloadCache getDownloadCache() {
+        return this.downloadCache;
+    }
+
+    /**
+     * Gets the executor service used to execute the parallel parts of the transfers.
+     *
+     * <p>
+     * If no executor service has been configured a cached thread pool of daemon threads is created the first time this
+     * function is called.
+     * </p>
+     *
+     * @return the executor service used to execute the parallel parts of the transfers.
+     */
+    public synchronized ExecutorService getExecutorService() {
+        if (this.executorService == null) {
+            this.executorService = newDaemonThreadPool("s3-document-store-");
+        }
+
+        return this.executorService;
+    }
+
+    /**
+     * Gets the layout used to convert the key names into the key names of the Amazon S3 objects.
+     *
+     * @return the layout used to convert the key names into the key names of the Amazon S3 objects.
+     */
+    public IKeyLayout getKeyLayout() {
+        return this.keyLayout;
+    }
+
+    /**
+     * Gets the maximum number of objects requested by each listing request.
+     *
+     * @return the maximum number of objects requested by each listing request.
+     */
+    public int getListPageSize() {
+        return this.listPageSize;
+    }
+
+    /**
+     * Gets the cache of the file descriptions returned by {@link #find(String)}.
+     *
+     * @return the cache of the file descriptions returned by {@link #find(String)}, <code>null</code> if no cache is
+     *         used.
+     */
+    public DocumentStoreFileCache getMetadataCache() {
+        return this.metadataCache;
+    }
+
+    /**
+     * Gets the maximum number of byte ranges fetched concurrently by a ranged download.
+     *
+     * @return the maximum number of byte ranges fetched concurrently by a ranged download.
+     */
+    public int getRangedDownloadParallelism() {
+        return this.rangedDownloadParallelism;
+    }
+
+    /**
+     * Gets the size in bytes of the byte ranges fetched by a ranged download.
+     *
+     * @return the size in bytes of the byte ranges fetched by a ranged download, <tt>0</tt> if ranged downloads are
+     *         disabled.
+     */
+    public long getRangedDownloadRangeSize() {
+        return this.rangedDownloadRangeSize;
+    }
+
+    /**
+     * Gets the number of chunks fetched in the background ahead of the chunk being read by the streams returned by
+     * {@link #openStream(String)}.
+     *
+     * @return the number of chunks fetched in the background ahead of the chunk being read.
+     */
+    public int getReadAheadChunkCount() {
+        return this.readAheadChunkCount;
+    }
+
+    /**
+     * Gets the size in bytes of the chunks fetched by the streams returned by {@link #openStream(String)}.
+     *
+     * @return the size in bytes of the chunks fetched by the streams.
+     */
+    public int getReadAheadChunkSize() {
+        return this.readAheadChunkSize;
+    }
+
+    /**
+     * Gets the maximum number of bytes between two byte ranges merged into a single request by
+     * {@link #read(String, List)}.
+     *
+     * @return the maximum number of bytes between two byte ranges merged into a single request.
+     */
+    public int getReadMergeGap() {
+        return this.readMergeGap;
+    }
+
+    /**
+     * Gets the maximum number of bytes requested by a request which merges several byte ranges in
+     * {@link #read(String, List)}.
+     *
+     * @return the maximum number of bytes requested by a request which merges several byte ranges.
+     */
+    public long getReadMergedMaxSize() {
+        return this.readMergedMaxSize;
+    }
+
+    /**
+     * Gets the instance of the GOMOOB Amazon S3 facade used by the document store.
+     *
+     * @return the instance of the GOMOOB Amazon S3 facade used by the document store.
+     */
+    IS3 getS3() {
+        return this.s3;
+    }
+
+    /**
+     * Gets the absolute url of the uploaded file having the key name.
+     *
+     * @param keyName the key name of the uploaded file.
+     *
+     * @return the absolute url of the uploaded file.
+     */
+    public String getUrl(final String keyName) {
+        return "https://s3.amazonaws.com/" + this.bucket + "/" + this.createKeyNameWithPrefix(keyName);
+    }
+
+    /**
+     * Sets the executor used to run the asynchronous operations.
+     *
+     * <p>
+     * The operations in flight never wait for each other and the parts of their transfers are executed by the
+     * operations themselves when the executor service of the transfers is busy (see
+     * {@link #setExecutorService(ExecutorService)}). So any executor works, an executor having less threads than the
+     * maximum number of asynchronous operations in flight (see {@link #setAsyncMaxConcurrency(int)}) only queues the
+     * operations beyond its number of threads. The executor can be the executor service of the transfers, the
+     * operations then share its threads with the parts of the transfers.
+     * </p>
+     *
+     * <p>
+     * By default a cached thread pool of daemon threads distinct from the executor service of the transfers is created,
+     * it never has more threads than the maximum number of asynchronous operations in flight.
+     * </p>
+     *
+     * @param asyncExecutor the executor used to run the asynchronous operations.
+     */
+    public synchronized void setAsyncExecutor(final Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        this.boundedAsyncExecutor = null;
+    }
+
+    /**
+     * Sets the maximum number of asynchronous operations in flight.
+     *
+     * <p>
+     * When this maximum is reached the <tt>xxxAsync(...)</tt> functions block the calling thread until one of the
+     * operations in flight completes, this allows to propagate backpressure to the callers.
+     * </p>
+     *
+     * @param asyncMaxConcurrency the maximum number of asynchronous operations in flight, must be greater than 0.
+     */
+    public synchronized void setAsyncMaxConcurrency(final int asyncMaxConcurrency) {
+        if (asyncMaxConcurrency < 1) {
+            throw new IllegalArgumentException("The asynchronous maximum concurrency must be greater than 0 !");
+        }
+
+        this.asyncMaxConcurrency = asyncMaxConcurrency;
+        this.boundedAsyncExecutor = null;
+    }
+
+    /**
+     * Sets the name of the bucket.
+     *
+     * @param bucket the name of the bucket.
+     */
+    public void setBucket(final String bucket) {
+        this.bucket = bucket;
+    }
+
+    /**
+     * Sets the pool of the direct buffers used by the transfers, a pool can be shared by several document stores.
+     *
+     * @param bufferPool the pool of the direct buffers used by the transfers.
+     */
+    public synchronized void setBufferPool(final ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Sets the prefix of the content-addressed keys used to deduplicate the uploads (see
+     * {@link S3UploadConfig#setDeduplicated(boolean)}).
+     *
+     * <p>
+     * Each deduplicated content is copied once under this prefix. Those reference copies are not documents, they are
+     * excluded from {@link #list(String)} and so from {@link #syncToDirectory(String, Path)}, and they are never
+     * deleted by the deletion of the files. They are deleted by {@link #deleteContentAddressedCopies(Date)} or by an
+     * Amazon S3 lifecycle rule which expires the objects of this prefix.
+     * </p>
+     *
+     * @param contentAddressedKeyPrefix the prefix of the content-addressed keys, it is placed after the key name
+     *            prefix of the document store, must not be empty.
+     */
+    public void setContentAddressedKeyPrefix(final String contentAddressedKeyPrefix) {
+        if (contentAddressedKeyPrefix == null || contentAddressedKeyPrefix.isEmpty()) {
+            throw new IllegalArgumentException("The content-addressed key prefix must not be empty !");
+        }
+
+        this.contentAddressedKeyPrefix = contentAddressedKeyPrefix;
+    }
+
+    /**
+     * Sets the maximum number of multi-object delete requests sent concurrently by {@link #delete(Collection)}.
+     *
+     * @param deleteParallelism the maximum number of multi-object delete requests sent concurrently, must be greater
+     *            than 0.
+     */
+    public void setDeleteParallelism(final int deleteParallelism) {
+        if (deleteParallelism < 1) {
+            throw new IllegalArgumentException("The delete parallelism must be greater than 0 !");
+        }
+
+        this.deleteParallelism = deleteParallelism;
+    }
+
+    /**
+     * Sets the local cache of the downloaded files.
+     *
+     * <p>
+     * The {@link #download(String, String)} function copies the cached files without accessing Amazon S3. The
+     * document store invalidates the cached files it creates or deletes, the files modified by other clients of the
+     * bucket are only refreshed when they are evicted from the cache.
+     * </p>
+     *
+     * @param downloadCache the local cache of the downloaded files, <code>null</code> to disable the cache.
+     */
+    public void setDownloadCache(final DownloadCache downloadCache) {
+        this.downloadCache = downloadCache;
+    }
+
+    /**
+     * Sets the executor service used to execute the parallel parts of the transfers.
+     *
+     * <p>
+     * The parallelism of each transfer is bounded by its configuration. The multipart uploads, the stream uploads, the
+     * ranged downloads, the listings and the read-ahead streams execute with the calling thread the parts the executor
+     * has not started, so they progress even if all the threads of the executor are busy, including with the
+     * operations which started them. For these transfers an executor having less threads than the configured
+     * parallelism only slows them down.
+     * </p>
+     *
+     * <p>
+     * The directory uploads and synchronizations (see {@link #uploadDirectory(Path, String, S3UploadConfig)} and
+     * {@link #syncToDirectory(String, Path)}) wait for the files they submit to the executor, so they must not be
+     * called from a thread of a bounded executor service.
+     * </p>
+     *
+     * @param executorService the executor service used to execute the parallel parts of the transfers.
+     */
+    public synchronized void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Sets the layout used to convert the key names into the key names of the Amazon S3 objects, for example a
+     * {@link HashShardedKeyLayout} to spread the requests over the partitions of the bucket.
+     *
+     * <p>
+     * The layout is applied after the key name prefix is removed and before it is added, the callers always see the
+     * same key names. The objects written with an other layout are not found anymore, so the layout of a bucket must
+     * not change once objects have been written.
+     * </p>
+     *
+     * @param keyLayout the layout used to convert the key names into the key names of the Amazon S3 objects.
+     */
+    public void setKeyLayout(final IKeyLayout keyLayout) {
+        if (keyLayout == null) {
+            throw new IllegalArgumentException("The key layout must not be null !");
+        }
+
+        this.keyLayout = keyLayout;
+    }
+
+    /**
+     * Sets the prefix of key name of the bucket.
+     *
+     * @param keyNamePrefix the prefix of key name of the bucket.
+     */
+    public void setKeyNamePrefix(final String keyNamePrefix) {
+        this.keyNamePrefix = keyNamePrefix;
+    }
+
+    /**
+     * Sets the maximum number of objects requested by each listing request.
+     *
+     * @param listPageSize the maximum number of objects requested by each listing request, must be between <tt>1</tt>
+     *            and <tt>1000</tt>.
+     */
+    public void setListPageSize(final int listPageSize) {
+        if (listPageSize < 1 || listPageSize > MAX_LIST_PAGE_SIZE) {
+            throw new IllegalArgumentException("The list page size must be between 1 and 1000 !");
+        }
+
+        this.listPageSize = listPageSize;
+    }
+
+    /**
+     * Sets the cache of the file descriptions returned by {@link #find(String)}.
+     *
+     * <p>
+     * The document store invalidates the cached descriptions of the files it creates or deletes, the files modified by
+     * other clients of the bucket are only refreshed when their entries expire.
+     * </p>
+     *
+     * @param metadataCache the cache of the file descriptions returned by {@link #find(String)}, <code>null</code> to
+     *            disable the cache.
+     */
+    public void setMetadataCache(final DocumentStoreFileCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Sets the maximum number of byte ranges fetched concurrently by a ranged download.
+     *
+     * @param rangedDownloadParallelism the maximum number of byte ranges fetched concurrently, must be greater than 0.
+     */
+    public void setRangedDownloadParallelism(final int rangedDownloadParallelism) {
+        if (rangedDownloadParallelism < 1) {
+            throw new IllegalArgumentException("The ranged download parallelism must be greater than 0 !");
+        }
+
+        this.rangedDownloadParallelism = rangedDownloadParallelism;
+    }
+
+    /**
+     * Sets the size in bytes of the byte ranges fetched by a ranged download.
+     *
+     * <p>
+     * When this size is greater than <tt>0</tt> the {@link #download(String, String)} function splits the objects into
+     * byte ranges of this size and fetches them concurrently.
+     * </p>
+     *
+     * @param rangedDownloadRangeSize the size in bytes of the byte ranges fetched by a ranged download, <tt>0</tt> to
+     *            disable ranged downloads.
+     */
+    public void setRangedDownloadRangeSize(final long rangedDownloadRangeSize) {
+        if (rangedDownloadRangeSize < 0) {
+            throw new IllegalArgumentException("The ranged download range size must be positive !");
+        }
+
+        this.rangedDownloadRangeSize = rangedDownloadRangeSize;
+    }
+
+    /**
+     * Sets the number of chunks fetched in the background ahead of the chunk being read by the streams returned by
+     * {@link #openStream(String)}.
+     *
+     * @param readAheadChunkCount the number of chunks fetched in the background ahead of the chunk being read,
+     *            <tt>0</tt> to fetch each chunk when it is needed, must be positive.
+     */
+    public void setReadAheadChunkCount(final int readAheadChunkCount) {
+        if (readAheadChunkCount < 0) {
+            throw new IllegalArgumentException("The read-ahead chunk count must be positive !");
+        }
+
+        this.readAheadChunkCount = readAheadChunkCount;
+    }
+
+    /**
+     * Sets the size in bytes of the chunks fetched by the streams returned by {@link #openStream(String)}.
+     *
+     * @param readAheadChunkSize the size in bytes of the chunks fetched by the streams, must be greater than 0.
+     */
+    public void setReadAheadChunkSize(final int readAheadChunkSize) {
+        if (readAheadChunkSize < 1) {
+            throw new IllegalArgumentException("The read-ahead chunk size must be greater than 0 !");
+        }
+
+        this.readAheadChunkSize = readAheadChunkSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes between two byte ranges merged into a single request by
+     * {@link #read(String, List)}.
+     *
+     * <p>
+     * The bytes between the merged ranges are downloaded and discarded, merging saves a request each time the gap costs
+     * less to download than the latency of a request.
+     * </p>
+     *
+     * @param readMergeGap the maximum number of bytes between two byte ranges merged into a single request, <tt>0</tt>
+     *            to merge only the contiguous ranges, must be positive.
+     */
+    public void setReadMergeGap(final int readMergeGap) {
+        if (readMergeGap < 0) {
+            throw new IllegalArgumentException("The read merge gap must be positive !");
+        }
+
+        this.readMergeGap = readMergeGap;
+    }
+
+    /**
+     * Sets the maximum number of bytes requested by a request which merges several byte ranges in
+     * {@link #read(String, List)}, so large reads are still split into concurrent requests.
+     *
+     * @param readMergedMaxSize the maximum number of bytes requested by a request which merges several byte ranges,
+     *            must be greater than 0.
+     */
+    public void setReadMergedMaxSize(final long readMergedMaxSize) {
+        if (readMergedMaxSize < 1) {
+            throw new IllegalArgumentException("The read merged max size must be greater than 0 !");
+        }
+
+        this.readMergedMaxSize = readMergedMaxSize;
+    }
+
+    /**
+     * Sets the instance of the GOMOOB Amazon S3 facade.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade.
+     */
+    public void setS3(final IS3 s3) {
+        this.s3 = s3;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete(final String keyName) {
+        String prefixedKeyName = this.createKeyNameWithPrefix(keyName);
+        DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder().bucket(this.getBucket())
+                .key(prefixedKeyName).build();
+
+        try {
+            this.s3.deleteObject(deleteObjectRequest);
+        } finally {
+            this.invalidateCaches(prefixedKeyName);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The keys are grouped into Amazon S3 multi-object delete requests of at most 1000 keys, those requests are sent
+     * concurrently (see {@link #setDeleteParallelism(int)}). If a whole request fails all its keys are reported with
+     * the error message of the request.
+     * </p>
+     */
+    @Override
+    public Map<String, String> delete(final Collection<String> keyNames) {
+
+        // Maps the prefixed key names to the key names provided
+        Map<String, String> keyNamesByPrefixedKeyName = new HashMap<>();
+        for (String keyName : keyNames) {
+            keyNamesByPrefixedKeyName.put(this.createKeyNameWithPrefix(keyName), keyName);
+        }
+
+        // Splits the keys into batches
+        List<List<ObjectIdentifier>> batches = new ArrayList<>();
+        List<ObjectIdentifier> batch = null;
+        for (String prefixedKeyName : keyNamesByPrefixedKeyName.keySet()) {
+            if (batch == null || batch.size() == MAX_DELETE_BATCH_SIZE) {
+                batch = new ArrayList<>(MAX_DELETE_BATCH_SIZE);
+                batches.add(batch);
+            }
+            batch.add(ObjectIdentifier.builder().key(prefixedKeyName).build());
+        }
+
+        // Sends the batches concurrently, a failed batch does not prevent the other batches from being sent
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        String bucket = this.getBucket();
+
+        try {
+            ParallelTasks.run(this.getExecutorService(), this.deleteParallelism, batches.size(), index -> {
+                List<ObjectIdentifier> objectIdentifiers = batches.get(index);
+
+                try {
+                    DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder().bucket(bucket)
+                            .delete(Delete.builder().objects(objectIdentifiers).quiet(true).build()).build();
+                    DeleteObjectsResponse deleteObjectsResponse = this.s3.deleteObjects(deleteObjectsRequest);
+
+                    if (deleteObjectsResponse.errors() != null) {
+                        for (S3Error s3Error : deleteObjectsResponse.errors()) {
+                            failures.put(keyNamesByPrefixedKeyName.getOrDefault(s3Error.key(), s3Error.key()),
+                                    s3Error.code() + ": " + s3Error.message());
+                        }
+                    }
+                } catch (RuntimeException rex) {
+                    for (ObjectIdentifier objectIdentifier : objectIdentifiers) {
+                        failures.put(keyNamesByPrefixedKeyName.get(objectIdentifier.key()), String.valueOf(rex));
+                    }
+                }
+            });
+        } catch (IOException ioex) {
+
+            // Only an interruption can stop the batches before their end
+            for (String keyName : keyNamesByPrefixedKeyName.values()) {
+                failures.putIfAbsent(keyName, String.valueOf(ioex));
+            }
+        } finally {
+            for (String prefixedKeyName : keyNamesByPrefixedKeyName.keySet()) {
+                this.invalidateCaches(prefixedKeyName);
+            }
+        }
+
+        return new HashMap<>(failures);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> deleteAsync(final String keyName) {
+        return this.getBoundedAsyncExecutor().submit(() -> {
+            this.delete(keyName);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Map<String, String>> deleteAsync(final Collection<String> keyNames) {
+        return this.getBoundedAsyncExecutor().submit(() -> this.delete(keyNames));
+    }
+
+    /**
+     * Deletes the reference copies of the deduplicated contents which have not been written since a date.
+     *
+     * <p>
+     * The files uploaded with deduplication are full copies of their reference copies, so deleting a reference copy
+     * never deletes the content of a file, the next deduplicated upload of the same content transfers it again. This
+     * function can be called periodically, an Amazon S3 lifecycle rule which expires the objects of the
+     * content-addressed key prefix does the same cleanup without listing them.
+     * </p>
+     *
+     * @param modifiedBefore the date before which the reference copies have been written to be deleted.
+     *
+     * @return the error messages of the reference copies which could not be deleted indexed by key name, empty if all
+     *         the reference copies have been deleted.
+     */
+    public Map<String, String> deleteContentAddressedCopies(final Date modifiedBefore) {
+        List<String> keyNames;
+        try (Stream<IDocumentStoreFile> documentStoreFiles = this.listObjects(this.contentAddressedKeyPrefix)) {
+            keyNames = documentStoreFiles
+                    .filter(documentStoreFile -> documentStoreFile.getLastUpdateDate() == null
+                            || documentStoreFile.getLastUpdateDate().before(modifiedBefore))
+                    .map(IDocumentStoreFile::getKeyName).collect(Collectors.toList());
+        }
+
+        return this.delete(keyNames);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The content is written to a temporary file of the destination directory which replaces the destination file
+     * once the content is complete, so a failed download never leaves a partial destination file.
+     * </p>
+     */
+    @Override
+    public String download(final String keyName, final String destination) throws IOException {
+        File destinationFile = new File(destination);
+        String prefixedKeyName = this.createKeyNameWithPrefix(keyName);
+
+        // The generation is read before the download so a file downloaded before an invalidation is not cached
+        DownloadCache cache = this.downloadCache;
+        long cacheGeneration = 0;
+        if (cache != null) {
+            if (cache.copyTo(prefixedKeyName, destinationFile.toPath())) {
+                return destinationFile.getAbsolutePath();
+            }
+            cacheGeneration = cache.getGeneration();
+        }
+
+        if (this.rangedDownloadRangeSize > 0) {
+
+            // Large objects are fetched using concurrent ranged requests
+            new S3RangedDownload(this.s3, this.getExecutorService(), this.getBufferPool(), this.getBucket(),
+                    prefixedKeyName, this.rangedDownloadRangeSize, this.rangedDownloadParallelism)
+                            .download(destinationFile.toPath());
+        } else {
+
+            // The content is written to a temporary file which replaces the destination file once it is complete
+            Path destinationPath = destinationFile.toPath();
+            Path temporaryFile = Files.createTempFile(destinationPath.toAbsolutePath().getParent(),
+                    "." + destinationPath.getFileName(), ".part");
+            try {
+                GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(this.getBucket())
+                        .key(prefixedKeyName).build();
+                this.s3.getObject(getObjectRequest,
+                        (StreamingResponseHandler<GetObjectResponse, Void>) (response, inputStream) -> {
+                            S3Compression compression = S3Compression
+                                    .fromContentEncoding(response.contentEncoding());
+                            if (compression == null) {
+                                Files.copy(inputStream, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+                                return null;
+                            }
+
+                            // The content is decompressed while it is received
+                            try (InputStream decompressedInputStream = compression.decompress(inputStream)) {
+                                Files.copy(decompressedInputStream, temporaryFile,
+                                        StandardCopyOption.REPLACE_EXISTING);
+                            }
+                            return null;
+                        });
+                S3RangedDownload.moveAtomically(temporaryFile, destinationPath);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(temporaryFile);
+                throw ex;
+            }
+        }
 
-        return this.uploadToS3(requestBody, keyName, file.length(), uploadConfig);
+        if (cache != null) {
+            try {
+                cache.put(prefixedKeyName, destinationFile.toPath(), cacheGeneration);
+            } catch (IOException ioex) {
 
+                // The file has been downloaded, a cache failure only prevents the next downloads from being faster
+            }
+        }
+
+        return destinationFile.getAbsolutePath();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<String> downloadAsync(final String keyName, final String destination) {
+        return this.getBoundedAsyncExecutor().submit(() -> this.download(keyName, destination));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile find(final String keyName) {
+
+        IDocumentStoreFile documentStoreFile = null;
+        String prefixedKeyName = this.createKeyNameWithPrefix(keyName);
+
+        // The generation is read before the HEAD request so a description read before an invalidation is not cached
+        DocumentStoreFileCache cache = this.metadataCache;
+        long cacheGeneration = 0;
+        if (cache != null) {
+            documentStoreFile = cache.get(prefixedKeyName);
+            if (documentStoreFile != null) {
+                return documentStoreFile;
+            }
+            cacheGeneration = cache.getGeneration();
+        }
+
+        // A HEAD request returns all the metadata of the object without listing the bucket
+        try {
+            HeadObjectRequest headObjectRequest = HeadObjectRequest.builder().bucket(this.getBucket())
+                    .key(prefixedKeyName).build();
+            HeadObjectResponse headObjectResponse = this.s3.headObject(headObjectRequest);
+
+            documentStoreFile = new DocumentStoreFile();
+            documentStoreFile.setKeyName(this.extractKeyNameWithoutPrefix(prefixedKeyName));
+            documentStoreFile.setName(prefixedKeyName.substring(prefixedKeyName.lastIndexOf('/') + 1));
+            documentStoreFile.setLastAccessDate(null);
+            documentStoreFile.setLastUpdateDate(
+                    headObjectResponse.lastModified() == null ? null : Date.from(headObjectResponse.lastModified()));
+            documentStoreFile.setStoredSize(
+                    headObjectResponse.contentLength() == null ? 0 : headObjectResponse.contentLength());
+            documentStoreFile.setSize(getLogicalSize(headObjectResponse));
+            documentStoreFile.setETag(headObjectResponse.eTag());
+            documentStoreFile.setContentType(headObjectResponse.contentType());
+            documentStoreFile.setContentHash(headObjectResponse.metadata() == null ? null
+                    : headObjectResponse.metadata().get(CONTENT_HASH_METADATA));
+
+            if (cache != null) {
+                cache.put(prefixedKeyName, documentStoreFile, cacheGeneration);
+            }
+        } catch (S3Exception s3ex) {
+
+            // Amazon S3 answers HEAD requests on missing keys with a 404 status code and no error details
+            if (!(s3ex instanceof NoSuchKeyException) && s3ex.getStatusCode() != 404) {
+                throw s3ex;
+            }
+        }
+
+        return documentStoreFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<IDocumentStoreFile> findAsync(final String keyName) {
+        return this.getBoundedAsyncExecutor().submit(() -> this.find(keyName));
     }
 
     /**
      * {@inheritDoc}
+     *
+     * <p>
+     * The objects are listed page by page using the continuation tokens of Amazon S3, the next page is requested in the
+     * background while the current page is consumed (see {@link #setListPageSize(int)}). The listed files are sorted by
+     * key name inside each physical prefix of the key layout (see {@link #setKeyLayout(IKeyLayout)}), their last
+     * access date and content type are not filled.
+     * </p>
+     *
+     * <p>
+     * The reference copies of the deduplicated contents stored under the content-addressed key prefix (see
+     * {@link #setContentAddressedKeyPrefix(String)}) are not documents, they are never listed.
+     * </p>
      */
     @Override
-    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
-            final long fileSize) throws IOException {
-
-        // Creates the request body
-        RequestBody requestBody = RequestBody.of(serverFileInputStream, fileSize);
+    public Stream<IDocumentStoreFile> list(final String prefix) {
+        String contentAddressedKeyPrefix = this.contentAddressedKeyPrefix;
 
-        return this.uploadToS3(requestBody, keyName, fileSize, new S3UploadConfig());
+        return this.listObjects(prefix == null ? "" : prefix)
+                .filter(documentStoreFile -> !documentStoreFile.getKeyName().startsWith(contentAddressedKeyPrefix));
     }
 
     /**
-     * Gets the name of the Amazon S3 Bucket to use.
+     * Opens a stream which reads the content of a file directly from Amazon S3, without writing it to a local file.
      *
-     * @return the name of the Amazon S3 Bucket to use.
+     * <p>
+     * The file is read by chunks fetched with ranged requests (see {@link #setReadAheadChunkSize(int)}), the next
+     * chunks are fetched in the background on the executor service while the current chunk is read (see
+     * {@link #setReadAheadChunkCount(int)}), so a consumer which reads at the network speed never waits for a request.
+     * A compressed file is decompressed while it is read. The first chunk is fetched before this function returns, so
+     * a missing file is reported here.
+     * </p>
+     *
+     * @param keyName the key name of the file to read.
+     *
+     * @return the stream which reads the content of the file, it must be closed to release its buffers.
+     *
+     * @throws IOException if an input / output error occurs while fetching the first chunk.
      */
-    public String getBucket() {
-        if (this.bucket == null) {
-            throw new IllegalStateException("No bucket name has been configured !");
+    public InputStream openStream(final String keyName) throws IOException {
+        S3ReadAheadInputStream inputStream = new S3ReadAheadInputStream(this.s3, this.getExecutorService(),
+                this.getBufferPool(), this.getBucket(), this.createKeyNameWithPrefix(keyName), this.readAheadChunkSize,
+                this.readAheadChunkCount);
+
+        GetObjectResponse firstResponse = inputStream.start();
+        S3Compression compression = firstResponse == null ? null
+                : S3Compression.fromContentEncoding(firstResponse.contentEncoding());
+        if (compression == null) {
+            return inputStream;
         }
 
-        return this.bucket;
+        try {
+            return compression.decompress(inputStream);
+        } catch (IOException | RuntimeException ex) {
+            inputStream.close();
+            throw ex;
+        }
     }
 
     /**
-     * Gets the absolute url of the uploaded file having the key name.
+     * Reads a byte range of a file into a buffer supplied by the caller, see {@link #read(String, List)}.
      *
-     * @param keyName the key name of the uploaded file.
+     * @param keyName the key name of the file to read.
+     * @param offset the offset of the range in the file.
+     * @param length the length of the range in bytes.
+     * @param destination the buffer which receives the bytes from its position, its position is moved after the bytes
+     *            read.
      *
-     * @return the absolute url of the uploaded file.
+     * @return the number of bytes read, less than <tt>length</tt> if the range goes past the end of the file.
+     *
+     * @throws IOException if an input / output error occurs while reading the range or if the file is compressed.
      */
-    public String getUrl(final String keyName) {
-        return "https://s3.amazonaws.com/" + this.bucket + "/" + this.createKeyNameWithPrefix(keyName);
+    public int read(final String keyName, final long offset, final int length, final ByteBuffer destination)
+            throws IOException {
+        S3ReadRange range = new S3ReadRange(offset, length, destination);
+        this.read(keyName, Collections.singletonList(range));
+
+        return range.getReadLength();
     }
 
     /**
-     * Sets the name of the bucket.
+     * Reads several byte ranges of a file into buffers supplied by the caller, for example the central directory of a
+     * ZIP file or the footer of a Parquet file.
      *
-     * @param bucket the name of the bucket.
+     * <p>
+     * The ranges separated by less than {@link #setReadMergeGap(int)} bytes are merged into a single ranged request,
+     * the bytes are read from the responses directly into the buffers of the ranges. The requests are sent
+     * concurrently, at most {@link #setRangedDownloadParallelism(int)} at a time, with an <tt>If-Match</tt> condition
+     * so all the ranges are read from the same version of the file. The ranges are read from the stored bytes, so the
+     * ranges of a file uploaded with compression cannot be read.
+     * </p>
+     *
+     * @param keyName the key name of the file to read.
+     * @param ranges the ranges to read, the number of bytes read is set in each range and the position of its buffer is
+     *            moved after the bytes read.
+     *
+     * @throws IOException if an input / output error occurs while reading the ranges or if the file is compressed.
      */
-    public void setBucket(final String bucket) {
-        this.bucket = bucket;
+    public void read(final String keyName, final List<S3ReadRange> ranges) throws IOException {
+        new S3VectoredRead(this.s3, this.getExecutorService(), this.getBufferPool(), this.getBucket(),
+                this.createKeyNameWithPrefix(keyName), this.readMergeGap, this.readMergedMaxSize,
+                this.rangedDownloadParallelism).read(ranges);
     }
 
     /**
-     * Sets the prefix of key name of the bucket.
+     * Synchronizes the files having a key name prefix into a local directory, see
+     * {@link #syncToDirectory(String, Path, DirectorySyncConfig)}.
      *
-     * @param keyNamePrefix the prefix of key name of the bucket.
+     * @param prefix the key name prefix of the files to synchronize, for example <tt>reports/</tt>.
+     * @param directory the local directory, it is created if it does not exist.
+     *
+     * @return the numbers of downloaded, unchanged and deleted files and the files which could not be synchronized.
+     *
+     * @throws IOException if the directory or its manifest cannot be read or written.
      */
-    public void setKeyNamePrefix(final String keyNamePrefix) {
-        this.keyNamePrefix = keyNamePrefix;
+    public DirectorySyncResult syncToDirectory(final String prefix, final Path directory) throws IOException {
+        return this.syncToDirectory(prefix, directory, new DirectorySyncConfig());
     }
 
     /**
-     * Sets the instance of the GOMOOB Amazon S3 facade.
+     * Synchronizes the files having a key name prefix into a local directory, the local path of each file is its key
+     * name without the prefix.
      *
-     * @param s3 the instance of the GOMOOB Amazon S3 facade.
+     * <p>
+     * The size, ETag and last update date returned by {@link #list(String)} are compared with a manifest written in
+     * the directory by the previous synchronization, so only the files which changed remotely or locally are
+     * downloaded and a synchronization costs a listing pass plus the changed files. The downloads run concurrently on
+     * the executor of the document store (see {@link #setExecutorService(ExecutorService)}) while the listing
+     * continues. A file which cannot be downloaded does not stop the synchronization, it is reported in the result and
+     * downloaded again by the next synchronization.
+     * </p>
+     *
+     * @param prefix the key name prefix of the files to synchronize, for example <tt>reports/</tt>.
+     * @param directory the local directory, it is created if it does not exist.
+     * @param directorySyncConfig the parallelism, manifest file name and deletion policy of the synchronization.
+     *
+     * @return the numbers of downloaded, unchanged and deleted files and the files which could not be synchronized.
+     *
+     * @throws IOException if the directory or its manifest cannot be read or written, or if the current thread is
+     *             interrupted.
      */
-    public void setS3(final IS3 s3) {
-        this.s3 = s3;
+    public DirectorySyncResult syncToDirectory(final String prefix, final Path directory,
+            final DirectorySyncConfig directorySyncConfig) throws IOException {
+        return new S3DirectorySync(this, this.getExecutorService(), prefix, directory, directorySyncConfig).sync();
     }
 
     /**
-     * {@inheritDoc}
+     * Uploads all the files of a directory tree, see
+     * {@link #uploadDirectory(Path, String, S3UploadConfig, DirectoryUploadConfig)}.
+     *
+     * @param directory the directory to upload.
+     * @param keyPrefix the prefix added to the relative paths of the files to create their key names, for example
+     *            <tt>backups/2018/</tt>.
+     * @param uploadConfig the configuration used to upload each file.
+     *
+     * @return the uploaded files and the files which could not be uploaded.
+     *
+     * @throws IOException if the directory does not exist or cannot be walked.
      */
-    @Override
-    public void delete(final String keyName) {
-        DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder().bucket(this.getBucket())
-                .key(this.createKeyNameWithPrefix(keyName)).build();
-        this.s3.deleteObject(deleteObjectRequest);
+    public DirectoryUploadResult uploadDirectory(final Path directory, final String keyPrefix,
+            final S3UploadConfig uploadConfig) throws IOException {
+        return this.uploadDirectory(directory, keyPrefix, uploadConfig, new DirectoryUploadConfig());
     }
 
     /**
-     * {@inheritDoc}
+     * Uploads the files of a directory tree, the key name of each file is the key prefix followed by the path of the
+     * file relative to the directory.
+     *
+     * <p>
+     * The directory tree is walked lazily. The small files are grouped in batches uploaded concurrently on the executor
+     * of the document store (see {@link #setExecutorService(ExecutorService)}), the files which reach the multipart
+     * threshold of the upload configuration are uploaded one after the other using concurrent multipart uploads. A
+     * file which cannot be uploaded does not stop the upload, its error is reported in the result and to the listener
+     * of the directory upload configuration.
+     * </p>
+     *
+     * @param directory the directory to upload.
+     * @param keyPrefix the prefix added to the relative paths of the files to create their key names, for example
+     *            <tt>backups/2018/</tt>.
+     * @param uploadConfig the configuration used to upload each file.
+     * @param directoryUploadConfig the parallelism, filters and progress listener of the directory upload.
+     *
+     * @return the uploaded files and the files which could not be uploaded.
+     *
+     * @throws IOException if the directory does not exist or cannot be walked, or if the current thread is interrupted.
      */
-    @Override
-    public String download(final String keyName, final String destination) throws IOException {
-        File destinationFile = new File(destination);
-        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(this.getBucket())
-                .key(this.createKeyNameWithPrefix(keyName)).build();
-        this.s3.getObject(getObjectRequest, StreamingResponseHandler.toFile(destinationFile.toPath()));
+    public DirectoryUploadResult uploadDirectory(final Path directory, final String keyPrefix,
+            final S3UploadConfig uploadConfig, final DirectoryUploadConfig directoryUploadConfig) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Fail to open directory with path '" + directory + "' !");
+        }
 
-        return destinationFile.getAbsolutePath();
+        return new S3DirectoryUpload(this, this.getExecutorService(), directory, keyPrefix, uploadConfig,
+                directoryUploadConfig).upload();
     }
 
     /**
-     * {@inheritDoc}
+     * Gets the executor which bounds the number of asynchronous operations in flight.
+     *
+     * @return the executor which bounds the number of asynchronous operations in flight.
      */
-    @Override
-    public IDocumentStoreFile find(final String keyName) {
+    private synchronized BoundedAsyncExecutor getBoundedAsyncExecutor() {
+        if (this.boundedAsyncExecutor == null) {
+            if (this.asyncExecutor == null) {
+                this.asyncExecutor = newDaemonThreadPool("s3-document-store-async-");
+            }
+            this.boundedAsyncExecutor = new BoundedAsyncExecutor(this.asyncExecutor, this.asyncMaxConcurrency);
+        }
 
-        IDocumentStoreFile documentStoreFile = null;
+        return this.boundedAsyncExecutor;
+    }
 
-        ListObjectsRequest listObjectsRequest = ListObjectsRequest.builder().bucket(this.getBucket())
-                .prefix(this.createKeyNameWithPrefix(keyName)).build();
-        ListObjectsResponse listObjectsResponse = this.s3.listObjects(listObjectsRequest);
+    /**
+     * Creates a cached thread pool of daemon threads.
+     *
+     * @param threadNamePrefix the prefix of the names of the threads, followed by the number of each thread.
+     *
+     * @return the created thread pool.
+     */
+    private static ExecutorService newDaemonThreadPool(final String threadNamePrefix) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
 
-        // If one file has been found
-        if (listObjectsResponse.contents() != null && listObjectsResponse.contents().size() == 1) {
-            S3Object s3Object = listObjectsResponse.contents().get(0);
-            documentStoreFile = new DocumentStoreFile();
-            documentStoreFile.setKeyName(this.extractKeyNameWithoutPrefix(s3Object.key()));
-            documentStoreFile.setName(s3Object.key().substring(s3Object.key().lastIndexOf('/') + 1));
-            documentStoreFile.setLastAccessDate(null);
-            documentStoreFile.setLastUpdateDate(Date.from(s3Object.lastModified()));
-        }
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
 
-        return documentStoreFile;
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, threadNamePrefix + this.threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     /**
-     * Function used to create a key name with the key name prefixed configured in the document store.
+     * Function used to create a key name with the key name prefixed configured in the document store, the key layout
+     * is applied before the prefix is added.
      *
      * @param keyName the provided key name.
      *
+     * @return the key name modified with the configured layout and prefix.
+     */
+    String createKeyNameWithPrefix(final String keyName) {
+        return this.addKeyNamePrefix(this.keyLayout.toPhysicalKeyName(keyName));
+    }
+
+    /**
+     * Function used to add the key name prefix configured in the document store to a physical key name.
+     *
+     * @param keyName the physical key name.
+     *
      * @return the key name modified with the configured prefix.
      */
-    private String createKeyNameWithPrefix(final String keyName) {
+    private String addKeyNamePrefix(final String keyName) {
         String prefix = this.keyNamePrefix;
         String keyNameWithPrefix;
 
@@ -239,7 +1427,8 @@ public class S3DocumentStore implements IDocumentStore<S3UploadConfig> {
     }
 
     /**
-     * Extract the key name with the prefix from a key name with a prefix.
+     * Extract the key name with the prefix from a key name with a prefix, the key layout is reversed after the prefix
+     * is removed.
      *
      * @param keyNameWithPrefix the key name without prefix.
      *
@@ -252,7 +1441,260 @@ public class S3DocumentStore implements IDocumentStore<S3UploadConfig> {
             keyName = keyNameWithPrefix.substring(this.keyNamePrefix.length() + 1);
         }
 
-        return keyName;
+        return this.keyLayout.toLogicalKeyName(keyName);
+    }
+
+    /**
+     * Uploads a file to Amazon S3, using a multipart upload if the file is large.
+     *
+     * @param file the file to upload.
+     * @param keyName the key name of the file to create.
+     * @param uploadConfig the upload configuration options.
+     *
+     * @return the description of the created file.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private IDocumentStoreFile uploadFile(final File file, final String keyName, final S3UploadConfig uploadConfig)
+            throws IOException {
+
+        // The size of a compressed file is recorded so find() reports the size of its content
+        if (uploadConfig.getCompression() != null) {
+            S3UploadConfig compressedUploadConfig = uploadConfig.copy();
+            Map<String, String> metadata = new HashMap<>();
+            if (uploadConfig.getMetadata() != null) {
+                metadata.putAll(uploadConfig.getMetadata());
+            }
+            metadata.put(UNCOMPRESSED_SIZE_METADATA, Long.toString(file.length()));
+            compressedUploadConfig.setMetadata(metadata);
+
+            try (InputStream fileInputStream = Files.newInputStream(file.toPath())) {
+                return this.uploadCompressed(fileInputStream, keyName, compressedUploadConfig);
+            }
+        }
+
+        // Large files are uploaded in parts
+        if (file.length() >= uploadConfig.getMultipartThreshold()) {
+            return this.uploadToS3InParts(file, keyName, uploadConfig);
+        }
+
+        // The body supports mark / reset so a throttled request can be sent again, a memory-mapped body is read without
+        // intermediate copies
+        long fileSize = file.length();
+        try (InputStream fileInputStream = this.openFileRegion(file, 0, fileSize, uploadConfig)) {
+            return this.uploadToS3(RequestBody.of(fileInputStream, fileSize), keyName, fileSize, uploadConfig);
+        }
+
+    }
+
+    /**
+     * Uploads the compressed content of an input stream to Amazon S3, the content is compressed while it is uploaded.
+     *
+     * @param inputStream the input stream to upload, it is not closed.
+     * @param keyName the key name of the file to create.
+     * @param uploadConfig the upload configuration options, with a compression.
+     *
+     * @return the description of the created file, with the size of the uncompressed content and the stored size.
+     *
+     * @throws IOException if the input stream cannot be read or the upload fails.
+     */
+    private IDocumentStoreFile uploadCompressed(final InputStream inputStream, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+        String prefixedKeyName = this.createKeyNameWithPrefix(keyName);
+        S3StreamUpload streamUpload = new S3StreamUpload(this.s3, this.getExecutorService(), this.getBufferPool(),
+                this.getBucket(), prefixedKeyName, uploadConfig);
+        CompressingInputStream compressedInputStream = uploadConfig.getCompression().compress(inputStream,
+                uploadConfig.getCompressionLevel());
+        String eTag;
+        long uncompressedSize;
+
+        try {
+            eTag = streamUpload.upload(compressedInputStream);
+            uncompressedSize = compressedInputStream.getUncompressedSize();
+        } finally {
+            compressedInputStream.end();
+        }
+
+        IDocumentStoreFile documentStoreFile = this.createUploadedDocumentStoreFile(prefixedKeyName, uncompressedSize,
+                eTag, uploadConfig);
+        documentStoreFile.setStoredSize(streamUpload.getSize());
+
+        return documentStoreFile;
+    }
+
+    /**
+     * Uploads a file to Amazon S3 unless the document store already contains its content, in which case the file is
+     * created by a server-side copy of the content-addressed reference copy of the content.
+     *
+     * @param file the file to upload.
+     * @param keyName the key name of the file to create.
+     * @param uploadConfig the upload configuration options.
+     *
+     * @return the description of the created file, with its content hash.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private IDocumentStoreFile uploadDeduplicated(final File file, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+
+        String contentHash = this.computeContentHash(file);
+        String prefixedKeyName = this.createKeyNameWithPrefix(keyName);
+        String contentKeyName = this.createKeyNameWithPrefix(this.contentAddressedKeyPrefix + contentHash);
+        long fileSize = file.length();
+
+        // The hash is attached to the object so it is also returned by find()
+        Map<String, String> metadata = new HashMap<>();
+        if (uploadConfig.getMetadata() != null) {
+            metadata.putAll(uploadConfig.getMetadata());
+        }
+        metadata.put(CONTENT_HASH_METADATA, contentHash);
+
+        IDocumentStoreFile documentStoreFile = null;
+
+        // Amazon S3 cannot copy objects larger than 5 GB with a single request, those files are always uploaded
+        HeadObjectResponse content = fileSize <= MAX_COPY_SIZE ? this.findContent(contentKeyName, fileSize) : null;
+        if (content != null) {
+
+            // The reference copy keeps its encoding, the copy must describe it like the reference copy does
+            Map<String, String> copyMetadata = new HashMap<>(metadata);
+            copyMetadata.remove(UNCOMPRESSED_SIZE_METADATA);
+            if (content.contentEncoding() != null) {
+                copyMetadata.put(UNCOMPRESSED_SIZE_METADATA, Long.toString(fileSize));
+            }
+
+            try {
+                CopyObjectRequest copyObjectRequest = CopyObjectRequest.builder().bucket(this.getBucket())
+                        .key(prefixedKeyName).copySource(encodeCopySource(this.getBucket(), contentKeyName))
+                        .metadataDirective(MetadataDirective.REPLACE).contentType(uploadConfig.getContentType())
+                        .contentEncoding(content.contentEncoding()).cacheControl(uploadConfig.getCacheControl())
+                        .metadata(copyMetadata).build();
+                String eTag = this.s3.copyObject(copyObjectRequest).copyObjectResult().eTag();
+                documentStoreFile = this.createUploadedDocumentStoreFile(prefixedKeyName, fileSize, eTag, uploadConfig);
+                documentStoreFile.setStoredSize(content.contentLength());
+            } catch (S3Exception s3ex) {
+
+                // The reference copy has been deleted since it has been found, the file is uploaded
+                if (!(s3ex instanceof NoSuchKeyException) && s3ex.getStatusCode() != 404) {
+                    throw s3ex;
+                }
+            }
+        }
+
+        if (documentStoreFile == null) {
+            S3UploadConfig hashedUploadConfig = uploadConfig.copy().setMetadata(metadata);
+            documentStoreFile = this.uploadFile(file, keyName, hashedUploadConfig);
+
+            // The uploaded object becomes the reference copy of its content, the copy does not transfer the content
+            if (fileSize <= MAX_COPY_SIZE) {
+                this.s3.copyObject(CopyObjectRequest.builder().bucket(this.getBucket()).key(contentKeyName)
+                        .copySource(encodeCopySource(this.getBucket(), prefixedKeyName)).build());
+            }
+        }
+
+        documentStoreFile.setContentHash(contentHash);
+
+        return documentStoreFile;
+    }
+
+    /**
+     * Computes the SHA-256 hash of the content of a file.
+     *
+     * @param file the file to hash.
+     *
+     * @return the lowercase hexadecimal SHA-256 hash of the content of the file.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private String computeContentHash(final File file) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsaex) {
+            throw new IllegalStateException("The SHA-256 algorithm is not available !", nsaex);
+        }
+
+        ByteBufferPool pool = this.getBufferPool();
+        ByteBuffer buffer = pool.acquire(HASH_BUFFER_SIZE);
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (fileChannel.read(buffer) != -1) {
+                buffer.flip();
+                messageDigest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            pool.release(buffer);
+        }
+
+        StringBuilder contentHash = new StringBuilder();
+        for (byte b : messageDigest.digest()) {
+            contentHash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return contentHash.toString();
+    }
+
+    /**
+     * Encodes the Amazon S3 copy source of an object.
+     *
+     * @param bucket the name of the Amazon S3 bucket of the object.
+     * @param prefixedKeyName the Amazon S3 key of the object.
+     *
+     * @return the URL encoded copy source.
+     */
+    private static String encodeCopySource(final String bucket, final String prefixedKeyName) {
+        try {
+            return URLEncoder.encode(bucket + "/" + prefixedKeyName, "UTF-8").replace("+", "%20").replace("%2F", "/");
+        } catch (UnsupportedEncodingException ueex) {
+            throw new IllegalStateException("The UTF-8 encoding is not available !", ueex);
+        }
+    }
+
+    /**
+     * Gets the size of the content of an object, which is its uncompressed size when it is compressed.
+     *
+     * @param headObjectResponse the metadata of the object.
+     *
+     * @return the uncompressed size recorded in the user metadata of the object if any, its stored size otherwise.
+     */
+    private static long getLogicalSize(final HeadObjectResponse headObjectResponse) {
+        if (headObjectResponse.metadata() != null) {
+            String uncompressedSize = headObjectResponse.metadata().get(UNCOMPRESSED_SIZE_METADATA);
+            if (uncompressedSize != null) {
+                try {
+                    return Long.parseLong(uncompressedSize);
+                } catch (NumberFormatException nfex) {
+                    // The metadata has not been written by the document store, the stored size is reported
+                }
+            }
+        }
+
+        return headObjectResponse.contentLength() == null ? 0 : headObjectResponse.contentLength();
+    }
+
+    /**
+     * Finds the content-addressed reference copy of a content.
+     *
+     * @param prefixedKeyName the prefixed key name of the reference copy.
+     * @param size the size of the content.
+     *
+     * @return the metadata of the reference copy, <code>null</code> if it does not exist or if its content does not
+     *         have the expected size.
+     */
+    private HeadObjectResponse findContent(final String prefixedKeyName, final long size) {
+        try {
+            HeadObjectResponse headObjectResponse = this.s3
+                    .headObject(HeadObjectRequest.builder().bucket(this.getBucket()).key(prefixedKeyName).build());
+
+            return headObjectResponse.contentLength() != null && getLogicalSize(headObjectResponse) == size
+                    ? headObjectResponse : null;
+        } catch (S3Exception s3ex) {
+            if (!(s3ex instanceof NoSuchKeyException) && s3ex.getStatusCode() != 404) {
+                throw s3ex;
+            }
+        }
+
+        return null;
     }
 
     /**
@@ -276,7 +1718,73 @@ public class S3DocumentStore implements IDocumentStore<S3UploadConfig> {
                 .contentType(uploadConfig.getContentType()).cacheControl(uploadConfig.getCacheControl())
                 .metadata(uploadConfig.getMetadata()).build();
 
-        this.s3.putObject(putObjectRequest, requestBody);
+        String eTag = this.s3.putObject(putObjectRequest, requestBody).eTag();
+
+        return this.createUploadedDocumentStoreFile(prefixedKeyName, fileSize, eTag, uploadConfig);
+    }
+
+    /**
+     * Utility function used to put a file to S3 using a multipart upload, the parts of the file are uploaded
+     * concurrently.
+     *
+     * <p>
+     * If one part fails the multipart upload is aborted, so no orphan parts are left on Amazon S3.
+     * </p>
+     *
+     * @param file the file to put.
+     * @param keyName the key name of the file.
+     * @param uploadConfig additional upload configuration options.
+     *
+     * @return the document store file.
+     *
+     * @throws IOException if an input / output error occurs while reading the file or uploading the parts.
+     */
+    private IDocumentStoreFile uploadToS3InParts(final File file, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+
+        // Create the prefixed key name
+        String prefixedKeyName = this.createKeyNameWithPrefix(keyName);
+
+        long fileSize = file.length();
+        long partSize = S3MultipartUpload.computePartSize(fileSize, uploadConfig);
+        int partCount = (int) ((fileSize + partSize - 1) / partSize);
+
+        S3MultipartUpload multipartUpload = new S3MultipartUpload(this.s3, this.getBucket(), prefixedKeyName,
+                uploadConfig);
+        String eTag;
+
+        try {
+            ParallelTasks.run(this.getExecutorService(), uploadConfig.getMultipartParallelism(), partCount, index -> {
+                long offset = index * partSize;
+                long length = Math.min(partSize, fileSize - offset);
+
+                try (InputStream partInputStream = this.openFileRegion(file, offset, length, uploadConfig)) {
+                    multipartUpload.uploadPart(index + 1, RequestBody.of(partInputStream, length));
+                }
+            });
+            eTag = multipartUpload.complete();
+        } catch (IOException | RuntimeException ex) {
+            multipartUpload.abort(ex);
+            throw ex;
+        }
+
+        return this.createUploadedDocumentStoreFile(prefixedKeyName, fileSize, eTag, uploadConfig);
+    }
+
+    /**
+     * Creates the Document Store File description of a file which has just been uploaded.
+     *
+     * @param prefixedKeyName the prefixed key name of the uploaded file.
+     * @param fileSize the size of the uploaded file.
+     * @param eTag the ETag returned by Amazon S3 for the uploaded file.
+     * @param uploadConfig the upload configuration options used to upload the file.
+     *
+     * @return the document store file.
+     */
+    private IDocumentStoreFile createUploadedDocumentStoreFile(final String prefixedKeyName, final long fileSize,
+            final String eTag, final S3UploadConfig uploadConfig) {
+
+        this.invalidateCaches(prefixedKeyName);
 
         // Creates the Document Store File description to return
         // FIXME: problem of key name and prefixed key name for the attributes keyName and name.
@@ -287,8 +1795,91 @@ public class S3DocumentStore implements IDocumentStore<S3UploadConfig> {
         documentStoreFile.setLastUpdateDate(currentDate);
         documentStoreFile.setName(prefixedKeyName);
         documentStoreFile.setSize(fileSize);
+        documentStoreFile.setStoredSize(fileSize);
+        documentStoreFile.setETag(eTag);
+        documentStoreFile.setContentType(uploadConfig.getContentType());
+
+        return documentStoreFile;
+    }
+
+    /**
+     * Creates the description of a listed object.
+     *
+     * @param s3Object the listed object.
+     *
+     * @return the document store file.
+     */
+    private IDocumentStoreFile createListedDocumentStoreFile(final S3Object s3Object) {
+        String prefixedKeyName = s3Object.key();
+
+        IDocumentStoreFile documentStoreFile = new DocumentStoreFile();
+        documentStoreFile.setKeyName(this.extractKeyNameWithoutPrefix(prefixedKeyName));
+        documentStoreFile.setName(prefixedKeyName.substring(prefixedKeyName.lastIndexOf('/') + 1));
+        documentStoreFile
+                .setLastUpdateDate(s3Object.lastModified() == null ? null : Date.from(s3Object.lastModified()));
+        documentStoreFile.setSize(s3Object.size() == null ? 0 : s3Object.size());
+        documentStoreFile.setStoredSize(documentStoreFile.getSize());
+        documentStoreFile.setETag(s3Object.eTag());
 
         return documentStoreFile;
     }
 
+    /**
+     * Lists all the objects whose key names start with a prefix, including the reference copies of the deduplicated
+     * contents.
+     *
+     * @param prefix the prefix of the key names of the objects to list.
+     *
+     * @return a lazy stream of the listed objects, it must be closed if it is not fully consumed.
+     */
+    private Stream<IDocumentStoreFile> listObjects(final String prefix) {
+        List<String> physicalPrefixes = new ArrayList<>();
+        for (String physicalPrefix : this.keyLayout.toPhysicalPrefixes(prefix)) {
+            physicalPrefixes.add(this.addKeyNamePrefix(physicalPrefix));
+        }
+
+        S3ListingIterator iterator = new S3ListingIterator(this.s3, this.getExecutorService(), this.getBucket(),
+                physicalPrefixes, this.listPageSize, this::createListedDocumentStoreFile);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false).onClose(iterator::close);
+    }
+
+    /**
+     * Opens an input stream which reads a region of a file.
+     *
+     * @param file the file to read.
+     * @param offset the position of the first byte of the region in the file.
+     * @param length the length of the region in bytes.
+     * @param uploadConfig the upload configuration options which indicate how the file must be read.
+     *
+     * @return the input stream which reads the region.
+     *
+     * @throws IOException if the file cannot be opened.
+     */
+    private InputStream openFileRegion(final File file, final long offset, final long length,
+            final S3UploadConfig uploadConfig) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        return uploadConfig.isMemoryMapped() ? new MappedFileRegionInputStream(fileChannel, offset, length)
+                : new FileRegionInputStream(fileChannel, offset, length);
+    }
+
+    /**
+     * Invalidates the cached data of a file created or deleted by the document store.
+     *
+     * @param prefixedKeyName the prefixed key name of the file.
+     */
+    private void invalidateCaches(final String prefixedKeyName) {
+        DocumentStoreFileCache cache = this.metadataCache;
+        if (cache != null) {
+            cache.invalidate(prefixedKeyName);
+        }
+
+        DownloadCache downloadCache = this.downloadCache;
+        if (downloadCache != null) {
+            downloadCache.invalidate(prefixedKeyName);
+        }
+    }
+
 }
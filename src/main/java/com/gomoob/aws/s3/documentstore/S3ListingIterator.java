@@ -0,0 +1,253 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import com.gomoob.aws.IS3;
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Iterator which lazily lists the objects of an Amazon S3 bucket having one of several prefixes.
+ *
+ * <p>
+ * The objects are listed page by page using the continuation tokens of the <tt>ListObjectsV2</tt> requests. When a
+ * page is consumed the request of the next page is already running in the background, so at most two pages are held
+ * in memory whatever the number of listed objects and the network latency overlaps with the processing of the objects.
+ * </p>
+ *
+ * <p>
+ * The prefixes are listed one after the other, the first page of a prefix is requested in the background while the
+ * last page of the previous prefix is consumed.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3ListingIterator implements Iterator<IDocumentStoreFile>, AutoCloseable {
+
+    /**
+     * The name of the listed bucket.
+     */
+    private final String bucket;
+
+    /**
+     * A boolean which indicates if the iterator has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The executor used to request the next pages.
+     */
+    private final Executor executor;
+
+    /**
+     * The function used to convert the listed objects.
+     */
+    private final Function<S3Object, IDocumentStoreFile> mapper;
+
+    /**
+     * The request of the next page, <code>null</code> if the last page has been requested.
+     */
+    private FutureTask<ListObjectsV2Response> nextPage;
+
+    /**
+     * The maximum number of objects of a page.
+     */
+    private final int pageSize;
+
+    /**
+     * The objects of the current page which have not been returned yet, <code>null</code> before the first page.
+     */
+    private Iterator<S3Object> page;
+
+    /**
+     * The index of the prefix of the last requested page.
+     */
+    private int prefixIndex;
+
+    /**
+     * The prefixes of the listed objects.
+     */
+    private final List<String> prefixes;
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade.
+     */
+    private final IS3 s3;
+
+    /**
+     * Creates a new iterator, no request is sent before the first call to {@link #hasNext()}.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade.
+     * @param executor the executor used to request the next pages.
+     * @param bucket the name of the listed bucket.
+     * @param prefixes the prefixes of the listed objects, listed in this order.
+     * @param pageSize the maximum number of objects of a page.
+     * @param mapper the function used to convert the listed objects.
+     */
+    S3ListingIterator(final IS3 s3, final Executor executor, final String bucket,
+            final List<String> prefixes, final int pageSize, final Function<S3Object, IDocumentStoreFile> mapper) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.bucket = bucket;
+        if (prefixes.isEmpty()) {
+            throw new IllegalArgumentException("At least one prefix must be listed !");
+        }
+
+        this.prefixes = prefixes;
+        this.pageSize = pageSize;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Closes the iterator, the request of the next page is cancelled if it is still running.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+
+        FutureTask<ListObjectsV2Response> nextPage = this.nextPage;
+        if (nextPage != null) {
+            nextPage.cancel(true);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        if (this.closed) {
+            return false;
+        }
+
+        // The first page is requested by the calling thread because nothing can be done before it is received
+        if (this.page == null) {
+            this.page = this.acceptPage(this.s3.listObjectsV2(this.createRequest(this.prefixes.get(0), null)));
+        }
+
+        while (!this.page.hasNext()) {
+            if (this.nextPage == null) {
+                return false;
+            }
+
+            // The page is requested by the calling thread if the executor has not started its request
+            this.nextPage.run();
+            try {
+                this.page = this.acceptPage(this.nextPage.get());
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException iioex = new InterruptedIOException("Interrupted while listing the objects !");
+                iioex.initCause(iex);
+                throw new UncheckedIOException(iioex);
+            } catch (ExecutionException eex) {
+                this.nextPage = null;
+                if (eex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) eex.getCause();
+                }
+                throw new IllegalStateException(eex.getCause());
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return this.mapper.apply(this.page.next());
+    }
+
+    /**
+     * Accepts a received page, the request of the following page is sent in the background if the page is truncated or
+     * if prefixes remain to be listed.
+     *
+     * @param response the received page.
+     *
+     * @return the objects of the received page.
+     */
+    private Iterator<S3Object> acceptPage(final ListObjectsV2Response response) {
+        if (Boolean.TRUE.equals(response.isTruncated()) && response.nextContinuationToken() != null) {
+            this.requestNextPage(this.createRequest(this.prefixes.get(this.prefixIndex),
+                    response.nextContinuationToken()));
+        } else if (this.prefixIndex + 1 < this.prefixes.size()) {
+            this.requestNextPage(this.createRequest(this.prefixes.get(++this.prefixIndex), null));
+        } else {
+            this.nextPage = null;
+        }
+
+        return response.contents() == null ? Collections.<S3Object> emptyIterator() : response.contents().iterator();
+    }
+
+    /**
+     * Creates the request of a page.
+     *
+     * @param prefix the prefix of the listed objects.
+     * @param continuationToken the continuation token of the page, <code>null</code> for the first page.
+     *
+     * @return the request of the page.
+     */
+    private ListObjectsV2Request createRequest(final String prefix, final String continuationToken) {
+        return ListObjectsV2Request.builder().bucket(this.bucket).prefix(prefix).maxKeys(this.pageSize)
+                .continuationToken(continuationToken).build();
+    }
+
+    /**
+     * Sends the request of the next page in the background.
+     *
+     * @param request the request of the next page.
+     */
+    private void requestNextPage(final ListObjectsV2Request request) {
+        this.nextPage = new FutureTask<>(() -> this.s3.listObjectsV2(request));
+
+        try {
+            this.executor.execute(this.nextPage);
+        } catch (RejectedExecutionException reex) {
+            // The executor is saturated or shut down, the page is requested by the calling thread when it is needed
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.gomoob.aws.IS3;
+
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.sync.RequestBody;
+
+/**
+ * Class which represents one Amazon S3 multipart upload.
+ *
+ * <p>
+ * Parts can be uploaded concurrently from several threads, the upload is completed with the parts sorted by part
+ * number. If anything fails the upload has to be aborted with {@link #abort(Throwable)} to release the parts already
+ * stored by Amazon S3.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3MultipartUpload {
+
+    /**
+     * The maximum number of parts allowed by Amazon S3 for one multipart upload.
+     */
+    static final int MAX_PART_COUNT = 10000;
+
+    /**
+     * The name of the Amazon S3 bucket where to upload the object.
+     */
+    private final String bucket;
+
+    /**
+     * The parts which have been uploaded, sorted by part number.
+     */
+    private final Map<Integer, CompletedPart> completedParts = new ConcurrentSkipListMap<>();
+
+    /**
+     * The Amazon S3 key of the object to upload.
+     */
+    private final String key;
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade used to upload the parts.
+     */
+    private final IS3 s3;
+
+    /**
+     * The identifier of the upload returned by Amazon S3.
+     */
+    private final String uploadId;
+
+    /**
+     * Creates a new Amazon S3 multipart upload.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade used to upload the parts.
+     * @param bucket the name of the Amazon S3 bucket where to upload the object.
+     * @param key the Amazon S3 key of the object to upload.
+     * @param uploadConfig additional upload configuration options.
+     */
+    S3MultipartUpload(final IS3 s3, final String bucket, final String key, final S3UploadConfig uploadConfig) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+
+        CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                .bucket(bucket).key(key).contentType(uploadConfig.getContentType())
+                .cacheControl(uploadConfig.getCacheControl()).contentEncoding(uploadConfig.getContentEncoding())
+                .metadata(uploadConfig.getMetadata()).build();
+        this.uploadId = this.s3.createMultipartUpload(createMultipartUploadRequest).uploadId();
+    }
+
+    /**
+     * Computes the size of the parts to use to upload an object, the part size configured is increased if the object
+     * would be split into more than {@link #MAX_PART_COUNT} parts.
+     *
+     * @param objectSize the size of the object to upload in bytes.
+     * @param uploadConfig additional upload configuration options.
+     *
+     * @return the size of the parts to use in bytes.
+     */
+    static long computePartSize(final long objectSize, final S3UploadConfig uploadConfig) {
+        long minimumPartSize = (objectSize + MAX_PART_COUNT - 1) / MAX_PART_COUNT;
+
+        return Math.max(uploadConfig.getMultipartPartSize(), minimumPartSize);
+    }
+
+    /**
+     * Aborts the multipart upload.
+     *
+     * <p>
+     * If the abort request fails its error is attached as a suppressed exception to the error which caused the abort.
+     * </p>
+     *
+     * @param cause the error which caused the abort.
+     */
+    void abort(final Throwable cause) {
+        try {
+            AbortMultipartUploadRequest abortMultipartUploadRequest = AbortMultipartUploadRequest.builder()
+                    .bucket(this.bucket).key(this.key).uploadId(this.uploadId).build();
+            this.s3.abortMultipartUpload(abortMultipartUploadRequest);
+        } catch (RuntimeException rex) {
+            cause.addSuppressed(rex);
+        }
+    }
+
+    /**
+     * Completes the multipart upload with all the parts uploaded.
+     *
+     * @return the ETag of the uploaded object.
+     */
+    String complete() {
+        List<CompletedPart> parts = new ArrayList<>(this.completedParts.values());
+        CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
+                .bucket(this.bucket).key(this.key).uploadId(this.uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()).build();
+
+        return this.s3.completeMultipartUpload(completeMultipartUploadRequest).eTag();
+    }
+
+    /**
+     * Uploads one part, this function can be called concurrently.
+     *
+     * @param partNumber the number of the part to upload, part numbers start at <tt>1</tt>.
+     * @param requestBody the content of the part.
+     */
+    void uploadPart(final int partNumber, final RequestBody requestBody) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder().bucket(this.bucket).key(this.key)
+                .uploadId(this.uploadId).partNumber(partNumber).contentLength(requestBody.getContentLength()).build();
+        UploadPartResponse uploadPartResponse = this.s3.uploadPart(uploadPartRequest, requestBody);
+
+        this.completedParts.put(partNumber,
+                CompletedPart.builder().partNumber(partNumber).eTag(uploadPartResponse.eTag()).build());
+    }
+}
@@ -0,0 +1,1905 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.gomoob.documentstore.IDocumentStore;
+import com.gomoob.documentstore.IDocumentStoreFile;
+import com.gomoob.documentstore.filesystem.DocumentStoreFile;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * A document store which packs small documents into larger Amazon S3 objects, so a document does not cost the round
+ * trip and the fee of its own <tt>PUT</tt> request.
+ *
+ * <p>
+ * The documents written concurrently are appended to the same open pack, the thread which opened the pack uploads it
+ * after a short delay (see {@link #setPackDelayMillis(long)}) or as soon as it is full. The pack object is uploaded
+ * first, then the index of the pack which lists the offset, the length and the metadata of each of its documents. A
+ * write returns once the index of its pack is uploaded, so a written document is durable and a pack object without
+ * index is never read.
+ * </p>
+ *
+ * <p>
+ * The documents larger than {@link #setMaxPackedDocumentSize(int)} are not packed, they are streamed to their own
+ * object under {@value #OBJECT_KEY_PREFIX} and the index of the next pack references that object. So a document is
+ * never held in memory unless it is small enough to be packed.
+ * </p>
+ *
+ * <p>
+ * The indexes are read and merged in memory when the document store is first used, the documents are then read with
+ * ranged <tt>GET</tt> requests into their packs. A deletion writes a tombstone in the index of the next pack. The bytes
+ * of the deleted and replaced documents are reclaimed by a compaction which copies the live documents of the mostly
+ * dead packs into new packs and then deletes those packs. A compaction is started in the background on the executor
+ * service of the underlying document store when a pack becomes mostly dead (see
+ * {@link #setCompactionLiveRatio(double)}), it can also be run with {@link #compact()}.
+ * </p>
+ *
+ * <p>
+ * The key names have the same semantics as with the {@link S3DocumentStore} class. The packs are stored by an
+ * underlying {@link S3DocumentStore} under {@value #PACK_KEY_PREFIX} and the indexes under {@value #INDEX_KEY_PREFIX}.
+ * A single instance must write and compact a set of packs, other instances can read them concurrently: an instance
+ * reads the indexes written since its last read when a key name is not found, when a pack has been deleted by a
+ * compaction or when the documents are listed (see {@link #setIndexRefreshIntervalMillis(long)}). The identifiers of
+ * the packs end with a random identifier of their writer, so two instances which write by mistake never overwrite the
+ * packs of each other.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class S3PackedDocumentStore implements IDocumentStore<S3UploadConfig> {
+
+    /**
+     * The prefix of the key names of the pack indexes.
+     */
+    public static final String INDEX_KEY_PREFIX = "packs/index/";
+
+    /**
+     * The prefix of the key names of the documents which are too large to be packed.
+     */
+    public static final String OBJECT_KEY_PREFIX = "packs/objects/";
+
+    /**
+     * The prefix of the key names of the pack objects.
+     */
+    public static final String PACK_KEY_PREFIX = "packs/data/";
+
+    /**
+     * The size of the buffer used to read the documents.
+     */
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The maximum number of pack indexes read concurrently when the document store is first used.
+     */
+    private static final int LOAD_PARALLELISM = 8;
+
+    /**
+     * The separator of the sequence number and of the writer identifier in the identifiers of the packs.
+     */
+    private static final char PACK_ID_SEPARATOR = '-';
+
+    /**
+     * The format of the sequence numbers of the packs in their identifiers, the sequence numbers are zero padded so
+     * the key names are listed in the order of the packs.
+     */
+    private static final String PACK_SEQUENCE_FORMAT = "%019d";
+
+    /**
+     * An upload of a document to its own object.
+     */
+    private interface ObjectUpload {
+
+        /**
+         * Uploads the document.
+         *
+         * @param objectKeyName the key name of the object of the document.
+         *
+         * @return the description of the uploaded object.
+         *
+         * @throws IOException if the document cannot be uploaded.
+         */
+        IDocumentStoreFile upload(final String objectKeyName) throws IOException;
+    }
+
+    /**
+     * A pack which receives the documents written concurrently, it is uploaded by the thread which opened it.
+     */
+    private static final class OpenPack {
+
+        /**
+         * The content of the pack.
+         */
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        /**
+         * The future completed once the index of the pack is uploaded.
+         */
+        private final CompletableFuture<Void> flushed = new CompletableFuture<>();
+
+        /**
+         * If the upload of the pack has been started.
+         */
+        private boolean flushStarted;
+
+        /**
+         * The key names of the records of the pack.
+         */
+        private final Set<String> keyNames = new HashSet<>();
+
+        /**
+         * The thread which opened the pack and uploads it.
+         */
+        private final Thread leader = Thread.currentThread();
+
+        /**
+         * The identifier of the pack, <code>null</code> until the pack is closed.
+         */
+        private String packId;
+
+        /**
+         * The records of the pack, in the order of the writes.
+         */
+        private final List<PackRecord> records = new ArrayList<>();
+
+        /**
+         * Gets if the pack is closed, a closed pack does not receive documents anymore.
+         *
+         * @return <code>true</code> if the pack is closed, <code>false</code> otherwise.
+         */
+        private boolean isClosed() {
+            return this.packId != null;
+        }
+    }
+
+    /**
+     * An entry of the in-memory index, the last record written for a key name.
+     */
+    private static final class PackEntry {
+
+        /**
+         * The identifier of the pack of the record.
+         */
+        private final String packId;
+
+        /**
+         * The record.
+         */
+        private final PackRecord record;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param packId the identifier of the pack of the record.
+         * @param record the record.
+         */
+        private PackEntry(final String packId, final PackRecord record) {
+            this.packId = packId;
+            this.record = record;
+        }
+    }
+
+    /**
+     * A record of a pack index, the location and the metadata of a document or a tombstone.
+     */
+    private static final class PackRecord {
+
+        /**
+         * The content type of the document, can be <code>null</code>.
+         */
+        private final String contentType;
+
+        /**
+         * The ETag of the document, the hexadecimal MD5 hash of its content, <code>null</code> for a tombstone.
+         */
+        private final String eTag;
+
+        /**
+         * The key name of the document.
+         */
+        private final String keyName;
+
+        /**
+         * The date of the write of the document in milliseconds.
+         */
+        private final long lastModified;
+
+        /**
+         * The length of the document in bytes.
+         */
+        private final long length;
+
+        /**
+         * The key name of the object of a document which is not packed, <code>null</code> for a packed document or a
+         * tombstone.
+         */
+        private final String objectKeyName;
+
+        /**
+         * The offset of the document in its pack, <tt>-1</tt> for a tombstone.
+         */
+        private final long offset;
+
+        /**
+         * Creates a new record.
+         *
+         * @param keyName the key name of the document.
+         * @param offset the offset of the document in its pack, <tt>-1</tt> for a tombstone.
+         * @param length the length of the document in bytes.
+         * @param lastModified the date of the write of the document in milliseconds.
+         * @param eTag the ETag of the document, <code>null</code> for a tombstone.
+         * @param contentType the content type of the document, can be <code>null</code>.
+         * @param objectKeyName the key name of the object of a document which is not packed, <code>null</code> for a
+         *            packed document or a tombstone.
+         */
+        private PackRecord(final String keyName, final long offset, final long length, final long lastModified,
+                final String eTag, final String contentType, final String objectKeyName) {
+            this.keyName = keyName;
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+            this.contentType = contentType;
+            this.objectKeyName = objectKeyName;
+        }
+
+        /**
+         * Gets if the record describes a document stored in its own object.
+         *
+         * @return <code>true</code> if the document is stored in its own object, <code>false</code> if it is packed or
+         *         if the record is a tombstone.
+         */
+        private boolean isExternal() {
+            return this.objectKeyName != null;
+        }
+
+        /**
+         * Gets if the record describes a document stored in its pack.
+         *
+         * @return <code>true</code> if the document is stored in its pack, <code>false</code> otherwise.
+         */
+        private boolean isPacked() {
+            return !this.isTombstone() && !this.isExternal();
+        }
+
+        /**
+         * Gets if the record is a tombstone.
+         *
+         * @return <code>true</code> if the record is a tombstone, <code>false</code> if it describes a document.
+         */
+        private boolean isTombstone() {
+            return this.offset < 0;
+        }
+    }
+
+    /**
+     * The sizes of a pack, they are guarded by the lock of the document store.
+     */
+    private static final class PackStats {
+
+        /**
+         * The size of the content of the pack in bytes.
+         */
+        private final long dataSize;
+
+        /**
+         * The number of records of the pack which are still in the index, including the documents which are not packed.
+         */
+        private int liveCount;
+
+        /**
+         * The size of the packed documents of the pack which are still in the index in bytes.
+         */
+        private long liveSize;
+
+        /**
+         * The number of tombstones of the pack which still hide older records.
+         */
+        private int tombstoneCount;
+
+        /**
+         * Creates new sizes.
+         *
+         * @param dataSize the size of the content of the pack in bytes.
+         */
+        private PackStats(final long dataSize) {
+            this.dataSize = dataSize;
+        }
+
+        /**
+         * Counts a record of the pack which enters or leaves the index.
+         *
+         * @param record the record, it is not a tombstone.
+         * @param delta <tt>1</tt> if the record enters the index, <tt>-1</tt> if it leaves the index.
+         */
+        private void count(final PackRecord record, final int delta) {
+            this.liveCount += delta;
+            if (record.isPacked()) {
+                this.liveSize += delta * record.length;
+            }
+        }
+    }
+
+    /**
+     * The packs closed and not yet applied to the index, in the order of their identifiers.
+     */
+    private final Deque<OpenPack> closedPacks = new ArrayDeque<>();
+
+    /**
+     * The ratio of live bytes under which a pack is compacted in the background.
+     */
+    private double compactionLiveRatio = 0.5;
+
+    /**
+     * The lock held by the running compaction.
+     */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    /**
+     * The underlying document store used to store the packs.
+     */
+    private final S3DocumentStore documentStore;
+
+    /**
+     * The in-memory index which maps the key names of the documents to their last records.
+     */
+    private final ConcurrentSkipListMap<String, PackEntry> index = new ConcurrentSkipListMap<>();
+
+    /**
+     * The minimum time in milliseconds between two reads of the indexes written by other instances.
+     */
+    private long indexRefreshIntervalMillis = 1000;
+
+    /**
+     * The sequence number of the last pack, guarded by the lock.
+     */
+    private long lastPackSequence;
+
+    /**
+     * The time in milliseconds of the last read of the indexes, guarded by the load lock.
+     */
+    private long lastRefreshMillis;
+
+    /**
+     * If the indexes have been read.
+     */
+    private volatile boolean loaded;
+
+    /**
+     * The lock which serializes the reads of the indexes.
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * The lock which guards the open pack, the closed packs, the sizes of the packs and the tombstones.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The maximum number of documents of a pack.
+     */
+    private int maxPackDocumentCount = 1000;
+
+    /**
+     * The maximum size in bytes of a packed document, the larger documents are stored in their own objects.
+     */
+    private int maxPackedDocumentSize = 1024 * 1024;
+
+    /**
+     * The size in bytes from which a pack is closed.
+     */
+    private int maxPackSize = 4 * 1024 * 1024;
+
+    /**
+     * The pack which receives the documents written, <code>null</code> if no document is waiting.
+     */
+    private OpenPack openPack;
+
+    /**
+     * The maximum time in milliseconds a pack waits for other documents before it is uploaded.
+     */
+    private long packDelayMillis = 10;
+
+    /**
+     * The sizes of the packs indexed by pack identifier.
+     */
+    private final TreeMap<String, PackStats> packStats = new TreeMap<>();
+
+    /**
+     * The identifiers of the packs of the tombstones which still hide older records, indexed by key name.
+     */
+    private final Map<String, String> tombstones = new HashMap<>();
+
+    /**
+     * The key names of the objects of the documents being written which are not packed, guarded by the lock.
+     */
+    private final Set<String> uploadingObjectKeyNames = new HashSet<>();
+
+    /**
+     * The random identifier of the document store which ends the identifiers of its packs.
+     */
+    private final String writerId = UUID.randomUUID().toString().replace("-", "");
+
+    /**
+     * Creates a new packed document store.
+     *
+     * @param documentStore the underlying document store used to store the packs, its bucket, key name prefix, key
+     *            layout and executor service are used.
+     */
+    public S3PackedDocumentStore(final S3DocumentStore documentStore) {
+        this.documentStore = documentStore;
+    }
+
+    /**
+     * Reclaims the bytes of the deleted and replaced documents.
+     *
+     * <p>
+     * The live documents of the packs having a ratio of live bytes lower than the compaction live ratio are copied
+     * into new packs, then those packs are deleted with the packs which do not contain live documents anymore. The
+     * pack objects left without index by an interrupted upload and the objects of the documents which are not packed
+     * and not referenced anymore are also deleted. If a compaction is already running this function waits for its end
+     * before it compacts.
+     * </p>
+     *
+     * @throws IOException if a pack cannot be read, written or deleted.
+     */
+    public void compact() throws IOException {
+        this.load();
+        this.compactionLock.lock();
+
+        try {
+            this.compactPacks();
+            this.deleteOrphanObjects();
+        } finally {
+            this.compactionLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final String serverFilePath, final String keyName)
+            throws IOException {
+        return this.createFromUploadedFile(serverFilePath, keyName, new S3UploadConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A packed document only records the content type of the upload configuration, a file larger than the maximum
+     * packed document size is uploaded to its own object with the upload configuration.
+     * </p>
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final String serverFilePath, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+
+        // Checks the file
+        File file = new File(serverFilePath);
+        if (!file.exists()) {
+            throw new IOException("Fail to open file with path '" + serverFilePath + "' !");
+        }
+
+        if (file.length() > this.maxPackedDocumentSize) {
+            return this.writeObject(keyName, uploadConfig.getContentType(),
+                    objectKeyName -> this.documentStore.createFromUploadedFile(serverFilePath, objectKeyName,
+                            uploadConfig));
+        }
+
+        return this.write(keyName, Files.readAllBytes(file.toPath()), uploadConfig.getContentType());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Exactly <code>fileSize</code> bytes are read, a stream larger than the maximum packed document size is streamed
+     * to its own object.
+     * </p>
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
+            final long fileSize) throws IOException {
+        if (fileSize > this.maxPackedDocumentSize) {
+            return this.writeObject(keyName, null, objectKeyName -> this.documentStore
+                    .createFromUploadedFile(serverFileInputStream, objectKeyName, fileSize));
+        }
+
+        return this.write(keyName, toByteArray(new SizedInputStream(serverFileInputStream, fileSize), fileSize), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName)
+            throws IOException {
+        return this.createFromUploadedFile(serverFileInputStream, keyName, new S3UploadConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * At most the maximum packed document size plus one buffer is read in memory. A packed document only records the
+     * content type of the upload configuration, a longer stream is streamed to its own object with the upload
+     * configuration.
+     * </p>
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+        byte[] head = toByteArray(serverFileInputStream, this.maxPackedDocumentSize);
+
+        if (head.length > this.maxPackedDocumentSize) {
+            return this.writeObject(keyName, uploadConfig.getContentType(),
+                    objectKeyName -> this.documentStore.createFromUploadedFile(
+                            new SequenceInputStream(new ByteArrayInputStream(head), serverFileInputStream),
+                            objectKeyName, uploadConfig));
+        }
+
+        return this.write(keyName, head, uploadConfig.getContentType());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException if the tombstone of the document cannot be written.
+     */
+    @Override
+    public void delete(final String keyName) {
+        Map<String, String> failures = this.delete(Collections.singleton(keyName));
+
+        if (!failures.isEmpty()) {
+            throw new UncheckedIOException(new IOException(failures.get(keyName)));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The tombstones of the documents are written in the same packs, the key names which do not exist are ignored.
+     * </p>
+     */
+    @Override
+    public Map<String, String> delete(final Collection<String> keyNames) {
+        Map<String, String> failures = new HashMap<>();
+
+        try {
+            this.load();
+        } catch (IOException ioex) {
+            for (String keyName : keyNames) {
+                failures.put(keyName, ioex.getMessage());
+            }
+            return failures;
+        }
+
+        // The tombstones of the key names are appended to the open packs
+        Map<String, OpenPack> packsByKeyName = new LinkedHashMap<>();
+        synchronized (this.lock) {
+            long now = System.currentTimeMillis();
+            for (String keyName : keyNames) {
+                if (this.index.containsKey(keyName) || this.isPending(keyName)) {
+                    packsByKeyName.put(keyName, this.append(createTombstone(keyName, now), null, 0));
+                }
+            }
+        }
+
+        Set<OpenPack> packs = new LinkedHashSet<>(packsByKeyName.values());
+        this.flushLedPacks(packs);
+
+        for (Map.Entry<String, OpenPack> packByKeyName : packsByKeyName.entrySet()) {
+            try {
+                awaitFlushed(packByKeyName.getValue());
+            } catch (IOException ioex) {
+                failures.put(packByKeyName.getKey(), ioex.getMessage());
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The document is read with a ranged <tt>GET</tt> request into its pack, or downloaded from its own object if it
+     * is not packed, the destination file is replaced if it already exists.
+     * </p>
+     */
+    @Override
+    public String download(final String keyName, final String destination) throws IOException {
+        Path destinationFile = new File(destination).toPath();
+        PackEntry entry = this.findEntry(keyName);
+        boolean refreshed = false;
+
+        while (true) {
+            if (entry == null) {
+                NoSuchKeyException noSuchKeyException = NoSuchKeyException.builder()
+                        .message("The key '" + keyName + "' does not exist !").build();
+                noSuchKeyException.setStatusCode(404);
+                throw noSuchKeyException;
+            }
+
+            // Amazon S3 refuses any range on empty objects
+            if (entry.record.length == 0) {
+                Files.write(destinationFile, new byte[0]);
+                return destinationFile.toAbsolutePath().toString();
+            }
+
+            try {
+                if (entry.record.isExternal()) {
+                    this.documentStore.download(entry.record.objectKeyName, destination);
+                } else {
+                    this.readRecord(entry, destinationFile);
+                }
+                return destinationFile.toAbsolutePath().toString();
+            } catch (S3Exception s3ex) {
+                if (!(s3ex instanceof NoSuchKeyException) && s3ex.getStatusCode() != 404) {
+                    throw s3ex;
+                }
+
+                // The pack has been compacted since the entry has been read, the document is read from its new pack.
+                // The indexes are read again once if the pack has been compacted by an other instance.
+                PackEntry currentEntry = this.index.get(keyName);
+                if (currentEntry == entry && !refreshed) {
+                    this.refresh(true);
+                    refreshed = true;
+                    currentEntry = this.index.get(keyName);
+                }
+                if (currentEntry == entry) {
+                    throw s3ex;
+                }
+                entry = currentEntry;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The indexes written by other instances are read if the key name is not found (see
+     * {@link #setIndexRefreshIntervalMillis(long)}).
+     * </p>
+     *
+     * @throws UncheckedIOException if the indexes cannot be read.
+     */
+    @Override
+    public IDocumentStoreFile find(final String keyName) {
+        PackEntry entry;
+        try {
+            entry = this.findEntry(keyName);
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+
+        return entry == null ? null : createDocumentStoreFile(entry);
+    }
+
+    /**
+     * Gets the ratio of live bytes under which a pack is compacted in the background.
+     *
+     * @return the ratio of live bytes under which a pack is compacted in the background, <tt>0</tt> if background
+     *         compactions are disabled.
+     */
+    public double getCompactionLiveRatio() {
+        return this.compactionLiveRatio;
+    }
+
+    /**
+     * Gets the size of the deleted and replaced documents which are still stored in packs.
+     *
+     * @return the size in bytes of the deleted and replaced documents which are still stored in packs.
+     *
+     * @throws UncheckedIOException if the indexes cannot be read.
+     */
+    public long getDeadSize() {
+        this.loadUnchecked();
+        long deadSize = 0;
+
+        synchronized (this.lock) {
+            for (PackStats stats : this.packStats.values()) {
+                deadSize += stats.dataSize - stats.liveSize;
+            }
+        }
+
+        return deadSize;
+    }
+
+    /**
+     * Gets the underlying document store used to store the packs.
+     *
+     * @return the underlying document store used to store the packs.
+     */
+    public S3DocumentStore getDocumentStore() {
+        return this.documentStore;
+    }
+
+    /**
+     * Gets the minimum time in milliseconds between two reads of the indexes written by other instances.
+     *
+     * @return the minimum time in milliseconds between two reads of the indexes written by other instances.
+     */
+    public long getIndexRefreshIntervalMillis() {
+        return this.indexRefreshIntervalMillis;
+    }
+
+    /**
+     * Gets the maximum number of documents of a pack.
+     *
+     * @return the maximum number of documents of a pack.
+     */
+    public int getMaxPackDocumentCount() {
+        return this.maxPackDocumentCount;
+    }
+
+    /**
+     * Gets the maximum size in bytes of a packed document.
+     *
+     * @return the maximum size in bytes of a packed document.
+     */
+    public int getMaxPackedDocumentSize() {
+        return this.maxPackedDocumentSize;
+    }
+
+    /**
+     * Gets the size in bytes from which a pack is closed.
+     *
+     * @return the size in bytes from which a pack is closed.
+     */
+    public int getMaxPackSize() {
+        return this.maxPackSize;
+    }
+
+    /**
+     * Gets the number of packs stored.
+     *
+     * @return the number of packs stored.
+     *
+     * @throws UncheckedIOException if the indexes cannot be read.
+     */
+    public int getPackCount() {
+        this.loadUnchecked();
+
+        synchronized (this.lock) {
+            return this.packStats.size();
+        }
+    }
+
+    /**
+     * Gets the maximum time in milliseconds a pack waits for other documents before it is uploaded.
+     *
+     * @return the maximum time in milliseconds a pack waits for other documents before it is uploaded.
+     */
+    public long getPackDelayMillis() {
+        return this.packDelayMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The files are listed from the in-memory index, in the lexicographical order of their key names, once the
+     * indexes written by other instances have been read (see {@link #setIndexRefreshIntervalMillis(long)}). A
+     * <code>null</code> prefix lists all the files.
+     * </p>
+     *
+     * @throws UncheckedIOException if the indexes cannot be read.
+     */
+    @Override
+    public Stream<IDocumentStoreFile> list(final String prefix) {
+        try {
+            this.refresh(false);
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+
+        String listedPrefix = prefix == null ? "" : prefix;
+        return this.index.subMap(listedPrefix, listedPrefix + Character.MAX_VALUE).values().stream()
+                .map(S3PackedDocumentStore::createDocumentStoreFile);
+    }
+
+    /**
+     * Sets the ratio of live bytes under which a pack is compacted in the background.
+     *
+     * <p>
+     * The packs without live documents are always deleted by {@link #compact()}, whatever this ratio.
+     * </p>
+     *
+     * @param compactionLiveRatio the ratio of live bytes under which a pack is compacted in the background, between
+     *            <tt>0</tt> and <tt>1</tt>, <tt>0</tt> to disable background compactions.
+     */
+    public void setCompactionLiveRatio(final double compactionLiveRatio) {
+        if (compactionLiveRatio < 0 || compactionLiveRatio > 1) {
+            throw new IllegalArgumentException("The compaction live ratio must be between 0 and 1 !");
+        }
+
+        this.compactionLiveRatio = compactionLiveRatio;
+    }
+
+    /**
+     * Sets the minimum time in milliseconds between two reads of the indexes written by other instances.
+     *
+     * <p>
+     * The indexes are read when a key name is not found and when the documents are listed, unless they have been read
+     * less than this interval ago. They are always read when a pack has been deleted by a compaction.
+     * </p>
+     *
+     * @param indexRefreshIntervalMillis the minimum time in milliseconds between two reads of the indexes, must be
+     *            positive.
+     */
+    public void setIndexRefreshIntervalMillis(final long indexRefreshIntervalMillis) {
+        if (indexRefreshIntervalMillis < 0) {
+            throw new IllegalArgumentException("The index refresh interval must be positive !");
+        }
+
+        this.indexRefreshIntervalMillis = indexRefreshIntervalMillis;
+    }
+
+    /**
+     * Sets the maximum number of documents of a pack.
+     *
+     * @param maxPackDocumentCount the maximum number of documents of a pack, must be greater than 0.
+     */
+    public void setMaxPackDocumentCount(final int maxPackDocumentCount) {
+        if (maxPackDocumentCount < 1) {
+            throw new IllegalArgumentException("The maximum pack document count must be greater than 0 !");
+        }
+
+        this.maxPackDocumentCount = maxPackDocumentCount;
+    }
+
+    /**
+     * Sets the maximum size in bytes of a packed document, the larger documents are streamed to their own objects
+     * through the underlying document store so they are never held in memory.
+     *
+     * @param maxPackedDocumentSize the maximum size in bytes of a packed document, must be positive, <tt>0</tt> stores
+     *            all the non empty documents in their own objects.
+     */
+    public void setMaxPackedDocumentSize(final int maxPackedDocumentSize) {
+        if (maxPackedDocumentSize < 0) {
+            throw new IllegalArgumentException("The maximum packed document size must be positive !");
+        }
+
+        this.maxPackedDocumentSize = maxPackedDocumentSize;
+    }
+
+    /**
+     * Sets the size in bytes from which a pack is closed, a document larger than this size is stored alone in its
+     * pack.
+     *
+     * @param maxPackSize the size in bytes from which a pack is closed, must be greater than 0.
+     */
+    public void setMaxPackSize(final int maxPackSize) {
+        if (maxPackSize < 1) {
+            throw new IllegalArgumentException("The maximum pack size must be greater than 0 !");
+        }
+
+        this.maxPackSize = maxPackSize;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a pack waits for other documents before it is uploaded.
+     *
+     * <p>
+     * A longer delay packs more documents when they are written concurrently, but each write waits up to this delay
+     * before its pack is uploaded.
+     * </p>
+     *
+     * @param packDelayMillis the maximum time in milliseconds a pack waits for other documents, must be positive.
+     */
+    public void setPackDelayMillis(final long packDelayMillis) {
+        if (packDelayMillis < 0) {
+            throw new IllegalArgumentException("The pack delay must be positive !");
+        }
+
+        this.packDelayMillis = packDelayMillis;
+    }
+
+    /**
+     * Waits until a pack is uploaded.
+     *
+     * @param pack the pack to wait for.
+     *
+     * @throws IOException if the pack cannot be uploaded or if the current thread is interrupted while waiting.
+     */
+    private static void awaitFlushed(final OpenPack pack) throws IOException {
+        try {
+            pack.flushed.get();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException iioex = new InterruptedIOException("Interrupted while waiting for a pack upload !");
+            iioex.initCause(iex);
+            throw iioex;
+        } catch (ExecutionException eex) {
+            throw new IOException("The pack '" + pack.packId + "' cannot be uploaded !", eex.getCause());
+        }
+    }
+
+    /**
+     * Computes the ETag of a document, like Amazon S3 does for the objects uploaded with a single request.
+     *
+     * @param content the content of the document.
+     *
+     * @return the lowercase hexadecimal MD5 hash of the content of the document.
+     */
+    private static String computeETag(final byte[] content) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException nsaex) {
+            throw new IllegalStateException("The MD5 algorithm is not available !", nsaex);
+        }
+
+        StringBuilder eTag = new StringBuilder();
+        for (byte b : messageDigest.digest(content)) {
+            eTag.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return eTag.toString();
+    }
+
+    /**
+     * Creates the description of a document.
+     *
+     * @param entry the entry of the document in the index.
+     *
+     * @return the description of the document.
+     */
+    private static IDocumentStoreFile createDocumentStoreFile(final PackEntry entry) {
+        PackRecord record = entry.record;
+
+        IDocumentStoreFile documentStoreFile = new DocumentStoreFile();
+        documentStoreFile.setKeyName(record.keyName);
+        documentStoreFile.setName(record.keyName.substring(record.keyName.lastIndexOf('/') + 1));
+        documentStoreFile.setLastUpdateDate(new Date(record.lastModified));
+        documentStoreFile.setSize(record.length);
+        documentStoreFile.setStoredSize(record.length);
+        documentStoreFile.setETag(record.eTag);
+        documentStoreFile.setContentType(record.contentType);
+
+        return documentStoreFile;
+    }
+
+    /**
+     * Creates the tombstone of a document.
+     *
+     * @param keyName the key name of the document.
+     * @param lastModified the date of the deletion of the document in milliseconds.
+     *
+     * @return the tombstone.
+     */
+    private static PackRecord createTombstone(final String keyName, final long lastModified) {
+        return new PackRecord(keyName, -1, 0, lastModified, null, null, null);
+    }
+
+    /**
+     * Decodes a field of a pack index.
+     *
+     * @param field the field to decode.
+     *
+     * @return the decoded field, <code>null</code> if the field is empty.
+     *
+     * @throws UnsupportedEncodingException never, the UTF-8 encoding is always available.
+     */
+    private static String decode(final String field) throws UnsupportedEncodingException {
+        return field.isEmpty() ? null : URLDecoder.decode(field, "UTF-8");
+    }
+
+    /**
+     * Encodes a field of a pack index so it does not contain spaces or line separators.
+     *
+     * @param field the field to encode, can be <code>null</code>.
+     *
+     * @return the encoded field, empty if the field is <code>null</code>.
+     */
+    private static String encode(final String field) {
+        try {
+            return field == null ? "" : URLEncoder.encode(field, "UTF-8");
+        } catch (UnsupportedEncodingException ueex) {
+            throw new IllegalStateException("The UTF-8 encoding is not available !", ueex);
+        }
+    }
+
+    /**
+     * Formats the records of a pack as the content of its index, one record per line.
+     *
+     * @param records the records of the pack.
+     *
+     * @return the content of the index.
+     */
+    private static byte[] formatIndex(final List<PackRecord> records) {
+        StringBuilder content = new StringBuilder();
+
+        for (PackRecord record : records) {
+            content.append(record.offset).append(' ').append(record.length).append(' ').append(record.lastModified)
+                    .append(' ').append(encode(record.eTag)).append(' ').append(encode(record.contentType))
+                    .append(' ').append(encode(record.keyName)).append(' ').append(encode(record.objectKeyName))
+                    .append('\n');
+        }
+
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Formats the sequence number of a pack as it appears at the start of the identifier of the pack.
+     *
+     * @param packSequence the sequence number of the pack.
+     *
+     * @return the formatted sequence number.
+     */
+    private static String formatPackSequence(final long packSequence) {
+        return String.format(PACK_SEQUENCE_FORMAT, packSequence);
+    }
+
+    /**
+     * Parses the content of a pack index, the indexes written before the documents could be stored in their own
+     * objects do not have the last field.
+     *
+     * @param content the content of the index.
+     *
+     * @return the records of the pack, in the order of the writes.
+     *
+     * @throws IOException if the index is corrupted.
+     */
+    private static List<PackRecord> parseIndex(final byte[] content) throws IOException {
+        List<PackRecord> records = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", -1);
+                if (fields.length != 6 && fields.length != 7) {
+                    throw new IOException("Invalid pack index line '" + line + "' !");
+                }
+
+                try {
+                    records.add(new PackRecord(decode(fields[5]), Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), decode(fields[3]), decode(fields[4]),
+                            fields.length == 7 ? decode(fields[6]) : null));
+                } catch (IllegalArgumentException iaex) {
+                    throw new IOException("Invalid pack index line '" + line + "' !", iaex);
+                }
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Parses the sequence number of a pack from its identifier, the identifiers of the packs written before they
+     * ended with the identifier of their writer only contain the sequence number.
+     *
+     * @param packId the identifier of the pack.
+     *
+     * @return the sequence number of the pack.
+     *
+     * @throws NumberFormatException if the identifier is not the identifier of a pack.
+     */
+    private static long parsePackSequence(final String packId) {
+        int separatorIndex = packId.indexOf(PACK_ID_SEPARATOR);
+
+        return Long.parseLong(separatorIndex < 0 ? packId : packId.substring(0, separatorIndex));
+    }
+
+    /**
+     * Reads an input stream until its end.
+     *
+     * @param inputStream the input stream to read.
+     *
+     * @return the bytes read.
+     *
+     * @throws IOException if the input stream cannot be read.
+     */
+    private static byte[] toByteArray(final InputStream inputStream) throws IOException {
+        return toByteArray(inputStream, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads an input stream until its end or until more than a number of bytes have been read, the bytes which follow
+     * are left in the input stream.
+     *
+     * @param inputStream the input stream to read.
+     * @param maxSize the number of bytes after which the reading stops, at most one buffer more is read.
+     *
+     * @return the bytes read.
+     *
+     * @throws IOException if the input stream cannot be read.
+     */
+    private static byte[] toByteArray(final InputStream inputStream, final long maxSize) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int read;
+
+        while (content.size() <= maxSize && (read = inputStream.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+
+        return content.toByteArray();
+    }
+
+    /**
+     * Appends a record to the open pack, a pack is opened if no pack is open and the pack is closed once it is full.
+     * The lock must be held.
+     *
+     * @param record the record to append, the offset of a packed document is replaced by its offset in the pack.
+     * @param content the bytes which contain the content of a packed document, <code>null</code> for a tombstone or
+     *            for a document stored in its own object.
+     * @param contentOffset the offset of the content of the document in the bytes.
+     *
+     * @return the pack the record has been appended to.
+     */
+    private OpenPack append(final PackRecord record, final byte[] content, final int contentOffset) {
+        if (this.openPack == null) {
+            this.openPack = new OpenPack();
+        }
+
+        OpenPack pack = this.openPack;
+        PackRecord appendedRecord = record;
+        if (content != null) {
+            appendedRecord = new PackRecord(record.keyName, pack.data.size(), record.length, record.lastModified,
+                    record.eTag, record.contentType, null);
+            pack.data.write(content, contentOffset, (int) record.length);
+        }
+        pack.records.add(appendedRecord);
+        pack.keyNames.add(record.keyName);
+
+        if (pack.data.size() >= this.maxPackSize || pack.records.size() >= this.maxPackDocumentCount) {
+            this.closePack(pack);
+        }
+
+        return pack;
+    }
+
+    /**
+     * Applies the records of a pack to the in-memory index. The lock must be held.
+     *
+     * <p>
+     * The packs written by other instances can be read after newer packs, so a record is ignored if the index already
+     * holds a record of its key name from a newer pack.
+     * </p>
+     *
+     * @param packId the identifier of the pack.
+     * @param records the records of the pack, in the order of the writes.
+     */
+    private void apply(final String packId, final List<PackRecord> records) {
+        long dataSize = 0;
+        for (PackRecord record : records) {
+            if (record.isPacked()) {
+                dataSize += record.length;
+            }
+        }
+
+        PackStats stats = new PackStats(dataSize);
+        this.packStats.put(packId, stats);
+
+        for (PackRecord record : records) {
+            PackEntry previousEntry = this.index.get(record.keyName);
+            String previousTombstonePackId = this.tombstones.get(record.keyName);
+            if (previousEntry != null && previousEntry.packId.compareTo(packId) > 0
+                    || previousTombstonePackId != null && previousTombstonePackId.compareTo(packId) > 0) {
+                continue;
+            }
+
+            if (record.isTombstone()) {
+                this.index.remove(record.keyName);
+                this.tombstones.put(record.keyName, packId);
+                ++stats.tombstoneCount;
+            } else {
+                this.index.put(record.keyName, new PackEntry(packId, record));
+                this.tombstones.remove(record.keyName);
+                stats.count(record, 1);
+            }
+
+            if (previousEntry != null) {
+                this.packStats.get(previousEntry.packId).count(previousEntry.record, -1);
+            }
+            if (previousTombstonePackId != null) {
+                --this.packStats.get(previousTombstonePackId).tombstoneCount;
+            }
+        }
+
+        this.lastPackSequence = Math.max(this.lastPackSequence, parsePackSequence(packId));
+    }
+
+    /**
+     * Closes a pack, it is assigned its identifier and it does not receive documents anymore. The lock must be held.
+     *
+     * @param pack the pack to close.
+     */
+    private void closePack(final OpenPack pack) {
+        this.lastPackSequence = Math.max(this.lastPackSequence + 1, System.currentTimeMillis() * 1000);
+        pack.packId = formatPackSequence(this.lastPackSequence) + PACK_ID_SEPARATOR + this.writerId;
+        this.closedPacks.addLast(pack);
+
+        if (this.openPack == pack) {
+            this.openPack = null;
+        }
+        this.lock.notifyAll();
+    }
+
+    /**
+     * Copies the live documents of the mostly dead packs into new packs and deletes the packs without live documents.
+     *
+     * @throws IOException if a pack cannot be read, written or deleted.
+     */
+    private void compactPacks() throws IOException {
+        Map<String, Boolean> candidates;
+        Map<String, List<PackEntry>> liveEntries = new TreeMap<>();
+        List<String> carriedTombstones = new ArrayList<>();
+
+        synchronized (this.lock) {
+            candidates = this.selectCompactionCandidates();
+            if (candidates.isEmpty()) {
+                return;
+            }
+
+            for (PackEntry entry : this.index.values()) {
+                if (candidates.containsKey(entry.packId)) {
+                    liveEntries.computeIfAbsent(entry.packId, packId -> new ArrayList<>()).add(entry);
+                }
+            }
+
+            // A tombstone is only needed while an older pack which can contain a record of its key name is kept
+            for (Map.Entry<String, String> tombstone : this.tombstones.entrySet()) {
+                if (Boolean.TRUE.equals(candidates.get(tombstone.getValue()))) {
+                    carriedTombstones.add(tombstone.getKey());
+                }
+            }
+        }
+
+        // The documents are copied unless they are replaced or deleted while the compaction runs, only the records of
+        // the documents which are not packed are copied
+        Set<OpenPack> packs = new LinkedHashSet<>();
+        for (Map.Entry<String, List<PackEntry>> packEntries : liveEntries.entrySet()) {
+            byte[] content = null;
+            if (packEntries.getValue().stream().anyMatch(entry -> entry.record.isPacked())) {
+                content = this.getObject(PACK_KEY_PREFIX + packEntries.getKey());
+            }
+
+            synchronized (this.lock) {
+                for (PackEntry entry : packEntries.getValue()) {
+                    PackRecord record = entry.record;
+                    if (this.index.get(record.keyName) == entry && !this.isPending(record.keyName)) {
+                        packs.add(this.append(record, record.isPacked() ? content : null, (int) record.offset));
+                    }
+                }
+            }
+            this.flushLedPacks(packs);
+        }
+
+        synchronized (this.lock) {
+            long now = System.currentTimeMillis();
+            for (String keyName : carriedTombstones) {
+                String packId = this.tombstones.get(keyName);
+                if (packId != null && candidates.containsKey(packId) && !this.isPending(keyName)) {
+                    packs.add(this.append(createTombstone(keyName, now), null, 0));
+                }
+            }
+        }
+        this.flushLedPacks(packs);
+
+        for (OpenPack pack : packs) {
+            awaitFlushed(pack);
+        }
+
+        // A pack is kept if a document has not been copied because its new version could not be written
+        List<String> deletedPackIds = new ArrayList<>();
+        synchronized (this.lock) {
+            for (Map.Entry<String, Boolean> candidate : candidates.entrySet()) {
+                PackStats stats = this.packStats.get(candidate.getKey());
+                if (stats != null && stats.liveCount == 0 && (stats.tombstoneCount == 0 || !candidate.getValue())) {
+                    deletedPackIds.add(candidate.getKey());
+                }
+            }
+        }
+
+        this.deletePacks(deletedPackIds);
+    }
+
+    /**
+     * Deletes packs, their indexes are deleted before the pack objects so an index never references a deleted pack
+     * object.
+     *
+     * @param packIds the identifiers of the packs to delete.
+     *
+     * @throws IOException if a pack cannot be deleted.
+     */
+    private void deletePacks(final List<String> packIds) throws IOException {
+        if (packIds.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> packIdsByIndexKeyName = new HashMap<>();
+        for (String packId : packIds) {
+            packIdsByIndexKeyName.put(INDEX_KEY_PREFIX + packId, packId);
+        }
+        Map<String, String> failures = this.documentStore.delete(packIdsByIndexKeyName.keySet());
+
+        List<String> packKeyNames = new ArrayList<>();
+        synchronized (this.lock) {
+            for (Map.Entry<String, String> packIdByIndexKeyName : packIdsByIndexKeyName.entrySet()) {
+                if (!failures.containsKey(packIdByIndexKeyName.getKey())) {
+                    String packId = packIdByIndexKeyName.getValue();
+                    this.packStats.remove(packId);
+                    this.tombstones.values().removeIf(packId::equals);
+                    packKeyNames.add(PACK_KEY_PREFIX + packId);
+                }
+            }
+        }
+
+        // The pack objects which cannot be deleted are deleted with the orphan packs by the next compaction
+        failures.putAll(this.documentStore.delete(packKeyNames));
+        if (!failures.isEmpty()) {
+            throw new IOException("Failed to delete the compacted packs " + failures + " !");
+        }
+    }
+
+    /**
+     * Deletes the pack objects without index, they are left by the uploads interrupted before their index has been
+     * uploaded, and the objects of the documents which are not packed and not referenced by the index anymore.
+     *
+     * @throws IOException if an object cannot be deleted.
+     */
+    private void deleteOrphanObjects() throws IOException {
+        List<String> packKeyNames = this.documentStore.list(PACK_KEY_PREFIX).map(IDocumentStoreFile::getKeyName)
+                .collect(Collectors.toList());
+        List<String> objectKeyNames = this.documentStore.list(OBJECT_KEY_PREFIX).map(IDocumentStoreFile::getKeyName)
+                .collect(Collectors.toList());
+        List<String> orphanKeyNames = new ArrayList<>();
+
+        synchronized (this.lock) {
+            Set<String> uploadingPackIds = new HashSet<>();
+            Set<String> referencedObjectKeyNames = new HashSet<>(this.uploadingObjectKeyNames);
+            List<OpenPack> pendingPacks = new ArrayList<>(this.closedPacks);
+            if (this.openPack != null) {
+                pendingPacks.add(this.openPack);
+            }
+            for (OpenPack pack : pendingPacks) {
+                uploadingPackIds.add(pack.packId);
+                for (PackRecord record : pack.records) {
+                    referencedObjectKeyNames.add(record.objectKeyName);
+                }
+            }
+            for (PackEntry entry : this.index.values()) {
+                referencedObjectKeyNames.add(entry.record.objectKeyName);
+            }
+
+            for (String packKeyName : packKeyNames) {
+                String packId = packKeyName.substring(PACK_KEY_PREFIX.length());
+                long packSequence;
+                try {
+                    packSequence = parsePackSequence(packId);
+                } catch (NumberFormatException nfex) {
+                    continue;
+                }
+
+                // The packs closed after the listing are newer than the last pack
+                if (packSequence <= this.lastPackSequence && !this.packStats.containsKey(packId)
+                        && !uploadingPackIds.contains(packId)) {
+                    orphanKeyNames.add(packKeyName);
+                }
+            }
+
+            // The objects uploaded after the listing are not listed
+            for (String objectKeyName : objectKeyNames) {
+                if (!referencedObjectKeyNames.contains(objectKeyName)) {
+                    orphanKeyNames.add(objectKeyName);
+                }
+            }
+        }
+
+        Map<String, String> failures = this.documentStore.delete(orphanKeyNames);
+        if (!failures.isEmpty()) {
+            throw new IOException("Failed to delete the orphan objects " + failures + " !");
+        }
+    }
+
+    /**
+     * Drops a pack deleted by an other instance from the in-memory index. The lock must be held.
+     *
+     * @param packId the identifier of the pack.
+     */
+    private void dropPack(final String packId) {
+        this.packStats.remove(packId);
+        this.index.values().removeIf(entry -> packId.equals(entry.packId));
+        this.tombstones.values().removeIf(packId::equals);
+    }
+
+    /**
+     * Gets the entry of a document in the index, the indexes written by other instances are read if the document is
+     * not found.
+     *
+     * @param keyName the key name of the document.
+     *
+     * @return the entry of the document, <code>null</code> if the document does not exist.
+     *
+     * @throws IOException if the indexes cannot be read.
+     */
+    private PackEntry findEntry(final String keyName) throws IOException {
+        this.load();
+        PackEntry entry = this.index.get(keyName);
+
+        if (entry == null) {
+            this.refresh(false);
+            entry = this.index.get(keyName);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Uploads a pack and its index then applies it to the in-memory index, the pack is closed after the pack delay if
+     * it is still open. Called by the thread which opened the pack.
+     *
+     * @param pack the pack to upload.
+     */
+    private void flush(final OpenPack pack) {
+        pack.flushStarted = true;
+        boolean interrupted = false;
+
+        // Waits for other documents, a full pack is closed by the write which fills it
+        synchronized (this.lock) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.packDelayMillis);
+            long remaining;
+            while (!pack.isClosed() && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this.lock, remaining);
+                } catch (InterruptedException iex) {
+
+                    // The pack is uploaded anyway because other threads are waiting for it
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (!pack.isClosed()) {
+                this.closePack(pack);
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            String packId = pack.packId;
+            byte[] content = pack.data.toByteArray();
+            if (content.length > 0) {
+                this.documentStore.createFromUploadedFile(new ByteArrayInputStream(content), PACK_KEY_PREFIX + packId,
+                        content.length);
+            }
+            byte[] indexContent = formatIndex(pack.records);
+            this.documentStore.createFromUploadedFile(new ByteArrayInputStream(indexContent),
+                    INDEX_KEY_PREFIX + packId, indexContent.length);
+        } catch (IOException | RuntimeException ex) {
+            failure = ex;
+        }
+
+        // The packs are applied in the order of their identifiers, which is the order of their writes
+        boolean compactionNeeded = false;
+        synchronized (this.lock) {
+            while (this.closedPacks.peekFirst() != pack) {
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException iex) {
+                    interrupted = true;
+                }
+            }
+
+            if (failure == null) {
+                this.apply(pack.packId, pack.records);
+                compactionNeeded = this.compactionLiveRatio > 0 && !this.compactionLock.isLocked()
+                        && !this.selectCompactionCandidates().isEmpty();
+            }
+            this.closedPacks.removeFirst();
+            this.lock.notifyAll();
+        }
+
+        if (failure == null) {
+            pack.flushed.complete(null);
+        } else {
+            pack.flushed.completeExceptionally(failure);
+        }
+
+        if (compactionNeeded) {
+            this.startCompaction();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Uploads the packs opened by the current thread which are not uploaded yet, in the order of the packs.
+     *
+     * @param packs the packs written by the current thread.
+     */
+    private void flushLedPacks(final Collection<OpenPack> packs) {
+        for (OpenPack pack : packs) {
+            if (pack.leader == Thread.currentThread() && !pack.flushStarted) {
+                this.flush(pack);
+            }
+        }
+    }
+
+    /**
+     * Reads an object of the underlying document store.
+     *
+     * @param keyName the key name of the object.
+     *
+     * @return the content of the object.
+     */
+    private byte[] getObject(final String keyName) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(this.documentStore.getBucket())
+                .key(this.documentStore.createKeyNameWithPrefix(keyName)).build();
+
+        return this.documentStore.getS3().getObject(getObjectRequest,
+                (StreamingResponseHandler<GetObjectResponse, byte[]>) (response, inputStream) -> toByteArray(
+                        inputStream));
+    }
+
+    /**
+     * Gets if a record of a key name is waiting to be applied to the in-memory index. The lock must be held.
+     *
+     * @param keyName the key name.
+     *
+     * @return <code>true</code> if a record of the key name is in the open pack or in a closed pack.
+     */
+    private boolean isPending(final String keyName) {
+        if (this.openPack != null && this.openPack.keyNames.contains(keyName)) {
+            return true;
+        }
+
+        for (OpenPack pack : this.closedPacks) {
+            if (pack.keyNames.contains(keyName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the pack indexes and merges them in the in-memory index, only the first call reads the indexes.
+     *
+     * @throws IOException if an index cannot be read.
+     */
+    private void load() throws IOException {
+        if (this.loaded) {
+            return;
+        }
+
+        synchronized (this.loadLock) {
+            if (!this.loaded) {
+                this.readIndexes();
+                this.loaded = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the pack indexes if they have not been read yet, from a function which cannot throw an
+     * {@link IOException}.
+     *
+     * @throws UncheckedIOException if an index cannot be read.
+     */
+    private void loadUnchecked() {
+        try {
+            this.load();
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+    }
+
+    /**
+     * Reads the pack indexes which are not in the in-memory index yet and drops the packs which have been deleted.
+     * The load lock must be held.
+     *
+     * @throws IOException if an index cannot be read.
+     */
+    private void readIndexes() throws IOException {
+        Set<String> knownPackIds;
+        synchronized (this.lock) {
+            knownPackIds = new HashSet<>(this.packStats.keySet());
+        }
+        long refreshMillis = System.currentTimeMillis();
+
+        // The key names are listed in the order of the packs
+        Set<String> listedPackIds = new HashSet<>();
+        List<String> newPackIds = new ArrayList<>();
+        for (String indexKeyName : this.documentStore.list(INDEX_KEY_PREFIX).map(IDocumentStoreFile::getKeyName)
+                .sorted().collect(Collectors.toList())) {
+            String packId = indexKeyName.substring(INDEX_KEY_PREFIX.length());
+            try {
+                parsePackSequence(packId);
+            } catch (NumberFormatException nfex) {
+                throw new IOException("Invalid pack index key name '" + indexKeyName + "' !", nfex);
+            }
+            listedPackIds.add(packId);
+            if (!knownPackIds.contains(packId)) {
+                newPackIds.add(packId);
+            }
+        }
+
+        // The indexes deleted since the listing are skipped
+        byte[][] indexContents = new byte[newPackIds.size()][];
+        ParallelTasks.run(this.documentStore.getExecutorService(), LOAD_PARALLELISM, newPackIds.size(), index -> {
+            try {
+                indexContents[index] = this.getObject(INDEX_KEY_PREFIX + newPackIds.get(index));
+            } catch (S3Exception s3ex) {
+                if (!(s3ex instanceof NoSuchKeyException) && s3ex.getStatusCode() != 404) {
+                    throw s3ex;
+                }
+            }
+        });
+
+        synchronized (this.lock) {
+            for (String packId : knownPackIds) {
+                if (!listedPackIds.contains(packId)) {
+                    this.dropPack(packId);
+                }
+            }
+
+            // The packs written by this document store are applied by their upload
+            Set<String> closedPackIds = new HashSet<>();
+            for (OpenPack pack : this.closedPacks) {
+                closedPackIds.add(pack.packId);
+            }
+            for (int i = 0; i < newPackIds.size(); ++i) {
+                String packId = newPackIds.get(i);
+                if (indexContents[i] != null && !this.packStats.containsKey(packId)
+                        && !closedPackIds.contains(packId)) {
+                    this.apply(packId, parseIndex(indexContents[i]));
+                }
+            }
+        }
+
+        this.lastRefreshMillis = refreshMillis;
+    }
+
+    /**
+     * Reads a document into a file with a ranged request into its pack.
+     *
+     * @param entry the entry of the document in the index.
+     * @param destination the destination file, it is replaced if it already exists.
+     */
+    private void readRecord(final PackEntry entry, final Path destination) {
+        PackRecord record = entry.record;
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(this.documentStore.getBucket())
+                .key(this.documentStore.createKeyNameWithPrefix(PACK_KEY_PREFIX + entry.packId))
+                .range("bytes=" + record.offset + "-" + (record.offset + record.length - 1)).build();
+
+        this.documentStore.getS3().getObject(getObjectRequest,
+                (StreamingResponseHandler<GetObjectResponse, Long>) (response, inputStream) -> Files.copy(inputStream,
+                        destination, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    /**
+     * Reads the pack indexes written by other instances since the last read.
+     *
+     * @param forced <code>true</code> to read the indexes even if they have been read less than the index refresh
+     *            interval ago.
+     *
+     * @throws IOException if an index cannot be read.
+     */
+    private void refresh(final boolean forced) throws IOException {
+        if (!this.loaded) {
+            this.load();
+            return;
+        }
+
+        synchronized (this.loadLock) {
+            if (forced || System.currentTimeMillis() - this.lastRefreshMillis >= this.indexRefreshIntervalMillis) {
+                this.readIndexes();
+            }
+        }
+    }
+
+    /**
+     * Selects the packs to compact. The lock must be held.
+     *
+     * <p>
+     * The packs are walked from the oldest, a pack is compacted if its ratio of live bytes is lower than the
+     * compaction live ratio or if it does not contain live documents and its tombstones are not needed anymore. The
+     * tombstones of a pack are needed while an older pack is kept.
+     * </p>
+     *
+     * @return the identifiers of the packs to compact, each mapped to <code>true</code> if an older pack is kept.
+     */
+    private Map<String, Boolean> selectCompactionCandidates() {
+        Map<String, Boolean> candidates = new LinkedHashMap<>();
+        boolean olderPackKept = false;
+
+        for (Map.Entry<String, PackStats> packStatsEntry : this.packStats.entrySet()) {
+            PackStats stats = packStatsEntry.getValue();
+            boolean dead = stats.liveCount == 0 && (stats.tombstoneCount == 0 || !olderPackKept);
+            boolean sparse = stats.dataSize > 0 && stats.liveSize < stats.dataSize * this.compactionLiveRatio;
+
+            if (dead || sparse) {
+                candidates.put(packStatsEntry.getKey(), olderPackKept);
+            } else {
+                olderPackKept = true;
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Starts a compaction in the background on the executor service of the underlying document store.
+     */
+    private void startCompaction() {
+        try {
+            this.documentStore.getExecutorService().execute(() -> {
+
+                // Nothing is done if a compaction is already running
+                if (!this.compactionLock.tryLock()) {
+                    return;
+                }
+
+                try {
+                    this.compactPacks();
+                    this.deleteOrphanObjects();
+                } catch (IOException | RuntimeException ex) {
+                    // The dead bytes are reclaimed by the next compaction
+                } finally {
+                    this.compactionLock.unlock();
+                }
+            });
+        } catch (RuntimeException rex) {
+            // The executor rejected the compaction, it is started again by the next write
+        }
+    }
+
+    /**
+     * Writes a document and waits until its pack is uploaded.
+     *
+     * @param keyName the key name of the document.
+     * @param content the content of the document.
+     * @param contentType the content type of the document, can be <code>null</code>.
+     *
+     * @return the description of the written document.
+     *
+     * @throws IOException if the indexes cannot be read or if the pack of the document cannot be uploaded.
+     */
+    private IDocumentStoreFile write(final String keyName, final byte[] content, final String contentType)
+            throws IOException {
+        this.load();
+
+        return this.writeRecord(new PackRecord(keyName, 0, content.length, System.currentTimeMillis(),
+                computeETag(content), contentType, null), content);
+    }
+
+    /**
+     * Uploads a document to its own object, then writes its record and waits until its pack is uploaded.
+     *
+     * <p>
+     * The object is protected from the deletion of the orphan objects while it is written. If the upload or the pack
+     * fails the object is deleted by the next compaction.
+     * </p>
+     *
+     * @param keyName the key name of the document.
+     * @param contentType the content type of the document, can be <code>null</code>.
+     * @param objectUpload the upload of the document to its object.
+     *
+     * @return the description of the written document.
+     *
+     * @throws IOException if the indexes cannot be read, if the document cannot be uploaded or if the pack of the
+     *             document cannot be uploaded.
+     */
+    private IDocumentStoreFile writeObject(final String keyName, final String contentType,
+            final ObjectUpload objectUpload) throws IOException {
+        this.load();
+        String objectKeyName = OBJECT_KEY_PREFIX + UUID.randomUUID();
+        synchronized (this.lock) {
+            this.uploadingObjectKeyNames.add(objectKeyName);
+        }
+
+        try {
+            IDocumentStoreFile objectFile = objectUpload.upload(objectKeyName);
+
+            return this.writeRecord(new PackRecord(keyName, 0, objectFile.getSize(), System.currentTimeMillis(),
+                    objectFile.getETag(), contentType, objectKeyName), null);
+        } finally {
+            synchronized (this.lock) {
+                this.uploadingObjectKeyNames.remove(objectKeyName);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the open pack and waits until the pack is uploaded.
+     *
+     * @param record the record to write.
+     * @param content the content of a packed document, <code>null</code> for a document stored in its own object.
+     *
+     * @return the description of the written document.
+     *
+     * @throws IOException if the pack of the document cannot be uploaded.
+     */
+    private IDocumentStoreFile writeRecord(final PackRecord record, final byte[] content) throws IOException {
+        OpenPack pack;
+        PackRecord appendedRecord;
+
+        synchronized (this.lock) {
+            pack = this.append(record, content, 0);
+            appendedRecord = pack.records.get(pack.records.size() - 1);
+        }
+
+        this.flushLedPacks(Collections.singleton(pack));
+        awaitFlushed(pack);
+
+        return createDocumentStoreFile(new PackEntry(pack.packId, appendedRecord));
+    }
+}
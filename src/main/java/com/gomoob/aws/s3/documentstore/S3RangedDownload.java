@@ -0,0 +1,303 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+
+import com.gomoob.aws.IS3;
+import com.gomoob.documentstore.buffer.ByteBufferPool;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * Class used to download an Amazon S3 object by fetching byte ranges of the object concurrently.
+ *
+ * <p>
+ * Each range is written directly at its offset inside a temporary file using a {@link FileChannel}, the temporary file
+ * is then renamed to the destination file. So the destination file is never seen partially written.
+ * </p>
+ *
+ * <p>
+ * The first range request also gives the total size of the object and its ETag, all the other ranges are requested
+ * with an <tt>If-Match</tt> condition on this ETag to never mix the bytes of two versions of the object.
+ * </p>
+ *
+ * <p>
+ * The ranges of a compressed object are its compressed bytes, a compressed object is decompressed from the temporary
+ * file into a second temporary file once all its ranges are downloaded.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3RangedDownload {
+
+    /**
+     * The size of the buffer used to copy a range from the network to the destination file.
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The name of the Amazon S3 bucket of the object to download.
+     */
+    private final String bucket;
+
+    /**
+     * The pool of the buffers used to copy the ranges.
+     */
+    private final ByteBufferPool bufferPool;
+
+    /**
+     * The executor used to download the ranges concurrently.
+     */
+    private final Executor executor;
+
+    /**
+     * The Amazon S3 key of the object to download.
+     */
+    private final String key;
+
+    /**
+     * The maximum number of ranges downloaded concurrently.
+     */
+    private final int parallelism;
+
+    /**
+     * The size of the ranges in bytes.
+     */
+    private final long rangeSize;
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade used to download the ranges.
+     */
+    private final IS3 s3;
+
+    /**
+     * Creates a new ranged download.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade used to download the ranges.
+     * @param executor the executor used to download the ranges concurrently.
+     * @param bufferPool the pool of the buffers used to copy the ranges.
+     * @param bucket the name of the Amazon S3 bucket of the object to download.
+     * @param key the Amazon S3 key of the object to download.
+     * @param rangeSize the size of the ranges in bytes.
+     * @param parallelism the maximum number of ranges downloaded concurrently.
+     */
+    S3RangedDownload(final IS3 s3, final Executor executor, final ByteBufferPool bufferPool, final String bucket,
+            final String key, final long rangeSize, final int parallelism) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.bucket = bucket;
+        this.key = key;
+        this.rangeSize = rangeSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Parses the total length of an object from an HTTP <tt>Content-Range</tt> header.
+     *
+     * @param contentRange the HTTP <tt>Content-Range</tt> header, for example <tt>bytes 0-99/1234</tt>.
+     *
+     * @return the total length of the object.
+     *
+     * @throws IOException if the header cannot be parsed.
+     */
+    static long parseTotalLength(final String contentRange) throws IOException {
+        int slashIndex = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+
+        try {
+            return Long.parseLong(contentRange.substring(slashIndex + 1).trim());
+        } catch (RuntimeException rex) {
+            throw new IOException("Invalid 'Content-Range' header '" + contentRange + "' !", rex);
+        }
+    }
+
+    /**
+     * Downloads the object to a destination file.
+     *
+     * @param destination the path of the destination file, if the file already exists it is replaced.
+     *
+     * @throws IOException if an input / output error occurs while downloading the object or writing the file.
+     */
+    void download(final Path destination) throws IOException {
+        Path directory = destination.toAbsolutePath().getParent();
+        Path temporaryFile = Files.createTempFile(directory, "." + destination.getFileName(), ".part");
+        Path decompressedFile = null;
+
+        try {
+            GetObjectResponse firstResponse;
+            try (FileChannel fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                firstResponse = this.downloadRanges(fileChannel);
+            }
+
+            S3Compression compression = firstResponse == null ? null
+                    : S3Compression.fromContentEncoding(firstResponse.contentEncoding());
+            if (compression == null) {
+                moveAtomically(temporaryFile, destination);
+            } else {
+                decompressedFile = Files.createTempFile(directory, "." + destination.getFileName(), ".part");
+                try (InputStream inputStream = compression.decompress(Files.newInputStream(temporaryFile))) {
+                    Files.copy(inputStream, decompressedFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                moveAtomically(decompressedFile, destination);
+                Files.delete(temporaryFile);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temporaryFile);
+            if (decompressedFile != null) {
+                Files.deleteIfExists(decompressedFile);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Moves a file atomically if the file system supports it.
+     *
+     * @param source the file to move.
+     * @param target the target path.
+     *
+     * @throws IOException if the file cannot be moved.
+     */
+    static void moveAtomically(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnsex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Downloads all the ranges of the object into a file channel.
+     *
+     * @param fileChannel the file channel where to write the ranges.
+     *
+     * @return the response to the first range request, <code>null</code> if the object is empty.
+     *
+     * @throws IOException if an input / output error occurs while downloading the ranges or writing the file.
+     */
+    private GetObjectResponse downloadRanges(final FileChannel fileChannel) throws IOException {
+        GetObjectResponse firstResponse;
+
+        // The first range gives the total length and the ETag of the object
+        try {
+            firstResponse = this.downloadRange(fileChannel, 0, this.rangeSize, null);
+        } catch (S3Exception s3ex) {
+
+            // Amazon S3 refuses any range on empty objects
+            if (s3ex.getStatusCode() == 416) {
+                return null;
+            }
+            throw s3ex;
+        }
+
+        long totalLength = parseTotalLength(firstResponse.contentRange());
+        String eTag = firstResponse.eTag();
+        int rangeCount = (int) ((totalLength + this.rangeSize - 1) / this.rangeSize);
+
+        ParallelTasks.run(this.executor, this.parallelism, rangeCount - 1, index -> {
+            long offset = (index + 1) * this.rangeSize;
+            this.downloadRange(fileChannel, offset, Math.min(this.rangeSize, totalLength - offset), eTag);
+        });
+
+        return firstResponse;
+    }
+
+    /**
+     * Downloads one range of the object and writes it at its offset in a file channel.
+     *
+     * @param fileChannel the file channel where to write the range.
+     * @param offset the offset of the range.
+     * @param length the length of the range.
+     * @param eTag the ETag the object must have, <code>null</code> to accept any version of the object.
+     *
+     * @return the Amazon S3 response.
+     *
+     * @throws IOException if an input / output error occurs while downloading the range or writing the file.
+     */
+    private GetObjectResponse downloadRange(final FileChannel fileChannel, final long offset, final long length,
+            final String eTag) throws IOException {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(this.bucket).key(this.key)
+                .range("bytes=" + offset + "-" + (offset + length - 1)).ifMatch(eTag).build();
+
+        return this.s3.getObject(getObjectRequest,
+                (StreamingResponseHandler<GetObjectResponse, GetObjectResponse>) (response, inputStream) -> {
+                    long written = this.writeAt(inputStream, fileChannel, offset);
+                    if (written != response.contentLength()) {
+                        throw new IOException("Range '" + getObjectRequest.range() + "' of '" + this.key
+                                + "' truncated, " + written + " bytes received instead of "
+                                + response.contentLength() + " !");
+                    }
+                    return response;
+                });
+    }
+
+    /**
+     * Copies an input stream at a position of a file channel through a pooled direct buffer.
+     *
+     * @param inputStream the input stream to copy.
+     * @param fileChannel the file channel where to write.
+     * @param position the position where to write the first byte.
+     *
+     * @return the number of bytes written.
+     *
+     * @throws IOException if an input / output error occurs.
+     */
+    private long writeAt(final InputStream inputStream, final FileChannel fileChannel, final long position)
+            throws IOException {
+        ReadableByteChannel inputChannel = Channels.newChannel(inputStream);
+        ByteBuffer buffer = this.bufferPool.acquire(COPY_BUFFER_SIZE);
+        long written = 0;
+
+        try {
+            while (inputChannel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += fileChannel.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+        } finally {
+            this.bufferPool.release(buffer);
+        }
+
+        return written;
+    }
+}
@@ -0,0 +1,507 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import com.gomoob.aws.IS3;
+import com.gomoob.documentstore.buffer.ByteBufferPool;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * An input stream which reads an Amazon S3 object by chunks fetched with ranged requests, the next chunks are fetched
+ * in the background while the current chunk is read.
+ *
+ * <p>
+ * The first chunk is fetched by {@link #start()}, it also gives the total size of the object and its ETag. The other
+ * chunks are requested with an <tt>If-Match</tt> condition on this ETag to never mix the bytes of two versions of the
+ * object. Each chunk is received into a pooled direct buffer which is released once it has been read.
+ * </p>
+ *
+ * <p>
+ * The chunks of a compressed object are its compressed bytes, the stream must be decompressed by the caller using the
+ * <tt>Content-Encoding</tt> of the response returned by {@link #start()}.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3ReadAheadInputStream extends InputStream {
+
+    /**
+     * A chunk of the object, fetched by the executor or by the reading thread if the executor did not start it yet.
+     */
+    private final class Chunk implements Runnable {
+
+        /**
+         * The buffer which contains the bytes of the chunk once it has been fetched.
+         */
+        private ByteBuffer buffer;
+
+        /**
+         * If the chunk has been fetched, successfully or not.
+         */
+        private boolean done;
+
+        /**
+         * The error which occurred while fetching the chunk.
+         */
+        private Throwable error;
+
+        /**
+         * The length of the chunk in bytes.
+         */
+        private final int length;
+
+        /**
+         * The offset of the chunk in the object.
+         */
+        private final long offset;
+
+        /**
+         * If the chunk is not needed anymore because the stream has been closed, its buffer is released once fetched.
+         */
+        private boolean released;
+
+        /**
+         * If the fetching of the chunk has started.
+         */
+        private boolean started;
+
+        /**
+         * Creates a new chunk.
+         *
+         * @param offset the offset of the chunk in the object.
+         * @param length the length of the chunk in bytes.
+         */
+        private Chunk(final long offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Waits until the chunk is fetched, the chunk is fetched by the current thread if it has not been started.
+         *
+         * @return the buffer which contains the bytes of the chunk.
+         *
+         * @throws IOException if the chunk cannot be fetched or if the current thread is interrupted while waiting.
+         */
+        private ByteBuffer await() throws IOException {
+            this.run();
+
+            synchronized (this) {
+                while (!this.done) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException iex) {
+                        Thread.currentThread().interrupt();
+                        InterruptedIOException iioex = new InterruptedIOException(
+                                "Interrupted while waiting for a chunk !");
+                        iioex.initCause(iex);
+                        throw iioex;
+                    }
+                }
+
+                if (this.error instanceof IOException) {
+                    throw (IOException) this.error;
+                } else if (this.error instanceof RuntimeException) {
+                    throw (RuntimeException) this.error;
+                } else if (this.error instanceof Error) {
+                    throw (Error) this.error;
+                } else if (this.error != null) {
+                    throw new IOException(this.error);
+                }
+
+                return this.buffer;
+            }
+        }
+
+        /**
+         * Releases the chunk, its buffer is given back to the pool now if it has been fetched or once it is fetched.
+         */
+        private synchronized void release() {
+            this.released = true;
+            if (this.buffer != null) {
+                S3ReadAheadInputStream.this.bufferPool.release(this.buffer);
+                this.buffer = null;
+            }
+        }
+
+        /**
+         * Fetches the chunk, only the first call has an effect.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (this.started || this.released) {
+                    return;
+                }
+                this.started = true;
+            }
+
+            ByteBuffer fetchedBuffer = S3ReadAheadInputStream.this.bufferPool.acquire(this.length);
+            Throwable fetchError = null;
+            try {
+                S3ReadAheadInputStream.this.fetch(fetchedBuffer, this.offset, S3ReadAheadInputStream.this.eTag);
+            } catch (Throwable t) {
+                fetchError = t;
+            }
+
+            synchronized (this) {
+                if (this.released || fetchError != null) {
+                    S3ReadAheadInputStream.this.bufferPool.release(fetchedBuffer);
+                } else {
+                    this.buffer = fetchedBuffer;
+                }
+                this.error = fetchError;
+                this.done = true;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The name of the Amazon S3 bucket of the object to read.
+     */
+    private final String bucket;
+
+    /**
+     * The pool of the buffers which receive the chunks.
+     */
+    private final ByteBufferPool bufferPool;
+
+    /**
+     * The size of the chunks in bytes.
+     */
+    private final int chunkSize;
+
+    /**
+     * If the stream has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * The chunk being read, <code>null</code> if no chunk is being read.
+     */
+    private Chunk currentChunk;
+
+    /**
+     * The buffer of the chunk being read.
+     */
+    private ByteBuffer currentBuffer;
+
+    /**
+     * The ETag of the object, known once the first chunk has been fetched.
+     */
+    private String eTag;
+
+    /**
+     * The executor used to fetch the next chunks in the background.
+     */
+    private final Executor executor;
+
+    /**
+     * The Amazon S3 key of the object to read.
+     */
+    private final String key;
+
+    /**
+     * The offset of the first chunk not scheduled yet.
+     */
+    private long nextOffset;
+
+    /**
+     * The chunks scheduled and not read yet, in the order of their offsets.
+     */
+    private final Deque<Chunk> pendingChunks = new ArrayDeque<>();
+
+    /**
+     * The number of chunks fetched in the background ahead of the chunk being read.
+     */
+    private final int readAheadChunkCount;
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade used to fetch the chunks.
+     */
+    private final IS3 s3;
+
+    /**
+     * The total size of the object in bytes, known once the first chunk has been fetched.
+     */
+    private long totalLength;
+
+    /**
+     * Creates a new read-ahead input stream, {@link #start()} must be called before reading it.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade used to fetch the chunks.
+     * @param executor the executor used to fetch the next chunks in the background.
+     * @param bufferPool the pool of the buffers which receive the chunks.
+     * @param bucket the name of the Amazon S3 bucket of the object to read.
+     * @param key the Amazon S3 key of the object to read.
+     * @param chunkSize the size of the chunks in bytes.
+     * @param readAheadChunkCount the number of chunks fetched in the background ahead of the chunk being read,
+     *            <tt>0</tt> to fetch each chunk when it is needed.
+     */
+    S3ReadAheadInputStream(final IS3 s3, final Executor executor, final ByteBufferPool bufferPool, final String bucket,
+            final String key, final int chunkSize, final int readAheadChunkCount) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.bucket = bucket;
+        this.key = key;
+        this.chunkSize = chunkSize;
+        this.readAheadChunkCount = readAheadChunkCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() throws IOException {
+        this.ensureOpen();
+
+        return this.currentBuffer == null ? 0 : this.currentBuffer.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The chunks being fetched are abandoned, their buffers are released once they are received.
+     * </p>
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.currentBuffer = null;
+        if (this.currentChunk != null) {
+            this.currentChunk.release();
+            this.currentChunk = null;
+        }
+        for (Chunk pendingChunk : this.pendingChunks) {
+            pendingChunk.release();
+        }
+        this.pendingChunks.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        return this.nextBuffer() ? this.currentBuffer.get() & 0xFF : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.nextBuffer()) {
+            return -1;
+        }
+
+        int read = Math.min(len, this.currentBuffer.remaining());
+        this.currentBuffer.get(b, off, read);
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The chunks skipped entirely are still fetched, so skipping is only efficient inside the chunks already fetched.
+     * </p>
+     */
+    @Override
+    public long skip(final long n) throws IOException {
+        long skipped = 0;
+
+        while (skipped < n && this.nextBuffer()) {
+            int skippedInChunk = (int) Math.min(n - skipped, this.currentBuffer.remaining());
+            this.currentBuffer.position(this.currentBuffer.position() + skippedInChunk);
+            skipped += skippedInChunk;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Fetches the first chunk of the object and starts fetching the next chunks in the background.
+     *
+     * @return the response to the first chunk request, <code>null</code> if the object is empty.
+     *
+     * @throws IOException if an input / output error occurs while fetching the first chunk.
+     */
+    GetObjectResponse start() throws IOException {
+        ByteBuffer firstBuffer = this.bufferPool.acquire(this.chunkSize);
+        GetObjectResponse firstResponse;
+
+        try {
+            firstResponse = this.fetch(firstBuffer, 0, null);
+        } catch (IOException | RuntimeException ex) {
+            this.bufferPool.release(firstBuffer);
+
+            // Amazon S3 refuses any range on empty objects
+            if (ex instanceof S3Exception && ((S3Exception) ex).getStatusCode() == 416) {
+                return null;
+            }
+            throw ex;
+        }
+
+        this.totalLength = S3RangedDownload.parseTotalLength(firstResponse.contentRange());
+        this.eTag = firstResponse.eTag();
+        this.nextOffset = firstBuffer.remaining();
+
+        // The first chunk is read like the others, it is already fetched
+        this.currentChunk = new Chunk(0, firstBuffer.remaining());
+        this.currentChunk.started = true;
+        this.currentChunk.done = true;
+        this.currentChunk.buffer = firstBuffer;
+        this.currentBuffer = firstBuffer;
+        this.schedule(this.readAheadChunkCount);
+
+        return firstResponse;
+    }
+
+    /**
+     * Checks that the stream is not closed.
+     *
+     * @throws IOException if the stream is closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("The stream is closed !");
+        }
+    }
+
+    /**
+     * Fetches a range of the object into a buffer, the buffer is flipped so its remaining bytes are the bytes received.
+     *
+     * @param buffer the buffer which receives the range, the length of the range is its remaining size.
+     * @param offset the offset of the range.
+     * @param ifMatch the ETag the object must have, <code>null</code> to accept any version of the object.
+     *
+     * @return the Amazon S3 response.
+     *
+     * @throws IOException if an input / output error occurs while fetching the range.
+     */
+    private GetObjectResponse fetch(final ByteBuffer buffer, final long offset, final String ifMatch)
+            throws IOException {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(this.bucket).key(this.key)
+                .range("bytes=" + offset + "-" + (offset + buffer.remaining() - 1)).ifMatch(ifMatch).build();
+
+        return this.s3.getObject(getObjectRequest,
+                (StreamingResponseHandler<GetObjectResponse, GetObjectResponse>) (response, inputStream) -> {
+                    ReadableByteChannel inputChannel = Channels.newChannel(inputStream);
+                    while (buffer.hasRemaining() && inputChannel.read(buffer) != -1) {
+                        // Reads until the buffer is full or the range is entirely received
+                    }
+                    buffer.flip();
+
+                    if (buffer.remaining() != response.contentLength()) {
+                        throw new IOException("Range '" + getObjectRequest.range() + "' of '" + this.key
+                                + "' truncated, " + buffer.remaining() + " bytes received instead of "
+                                + response.contentLength() + " !");
+                    }
+                    return response;
+                });
+    }
+
+    /**
+     * Makes the buffer of the next chunk with remaining bytes the current buffer, the buffers read are released.
+     *
+     * @return <code>true</code> if a buffer with remaining bytes is available, <code>false</code> at the end of the
+     *         object.
+     *
+     * @throws IOException if the stream is closed or if the next chunk cannot be fetched.
+     */
+    private boolean nextBuffer() throws IOException {
+        this.ensureOpen();
+
+        while (this.currentBuffer == null || !this.currentBuffer.hasRemaining()) {
+            if (this.currentChunk != null) {
+                this.currentChunk.release();
+                this.currentChunk = null;
+                this.currentBuffer = null;
+            }
+
+            // The next chunk is scheduled if the read-ahead is disabled, then fetched by this thread
+            this.schedule(Math.max(1, this.readAheadChunkCount));
+            Chunk nextChunk = this.pendingChunks.pollFirst();
+            if (nextChunk == null) {
+                return false;
+            }
+            this.currentChunk = nextChunk;
+            this.currentBuffer = nextChunk.await();
+            this.schedule(this.readAheadChunkCount);
+        }
+
+        return true;
+    }
+
+    /**
+     * Schedules the next chunks until a number of chunks are pending or the end of the object is reached, the chunks
+     * are submitted to the executor if the read-ahead is enabled.
+     *
+     * @param pendingChunkCount the number of chunks which must be pending.
+     */
+    private void schedule(final int pendingChunkCount) {
+        while (this.pendingChunks.size() < pendingChunkCount && this.nextOffset < this.totalLength) {
+            int length = (int) Math.min(this.chunkSize, this.totalLength - this.nextOffset);
+            Chunk chunk = new Chunk(this.nextOffset, length);
+            this.pendingChunks.addLast(chunk);
+            this.nextOffset += chunk.length;
+
+            if (this.readAheadChunkCount > 0) {
+                try {
+                    this.executor.execute(chunk);
+                } catch (RuntimeException rex) {
+                    // The executor rejected the chunk, it is fetched by the reading thread when it is needed
+                }
+            }
+        }
+    }
+}
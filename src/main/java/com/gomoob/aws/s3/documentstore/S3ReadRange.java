@@ -0,0 +1,127 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A byte range of a file to read into a buffer supplied by the caller, see
+ * {@link S3DocumentStore#read(String, java.util.List)}.
+ *
+ * @author agent (agent@local)
+ */
+public class S3ReadRange {
+
+    /**
+     * The buffer which receives the bytes of the range.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The length of the range in bytes.
+     */
+    private final int length;
+
+    /**
+     * The offset of the range in the file.
+     */
+    private final long offset;
+
+    /**
+     * The number of bytes read, less than the length of the range if the range goes past the end of the file.
+     */
+    private volatile int readLength;
+
+    /**
+     * Creates a new byte range.
+     *
+     * @param offset the offset of the range in the file, must be positive.
+     * @param length the length of the range in bytes, must be positive.
+     * @param buffer the buffer which receives the bytes of the range from its position, it must have at least
+     *            <tt>length</tt> remaining bytes and must not be shared with an other range read at the same time.
+     */
+    public S3ReadRange(final long offset, final int length, final ByteBuffer buffer) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("The offset of a range must be positive !");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("The length of a range must be positive !");
+        }
+        if (buffer.remaining() < length) {
+            throw new IllegalArgumentException("The buffer of a range must have at least " + length
+                    + " remaining bytes !");
+        }
+
+        this.offset = offset;
+        this.length = length;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Gets the buffer which receives the bytes of the range, its position is moved after the bytes read.
+     *
+     * @return the buffer which receives the bytes of the range.
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Gets the length of the range in bytes.
+     *
+     * @return the length of the range in bytes.
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Gets the offset of the range in the file.
+     *
+     * @return the offset of the range in the file.
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Gets the number of bytes read once the range has been read.
+     *
+     * @return the number of bytes read, less than the length of the range if the range goes past the end of the file.
+     */
+    public int getReadLength() {
+        return this.readLength;
+    }
+
+    /**
+     * Sets the number of bytes read.
+     *
+     * @param readLength the number of bytes read.
+     */
+    void setReadLength(final int readLength) {
+        this.readLength = readLength;
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.gomoob.aws.IS3;
+import com.gomoob.documentstore.buffer.ByteBufferPool;
+
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.sync.RequestBody;
+
+/**
+ * Class which uploads an input stream of unknown length to Amazon S3 with a bounded amount of memory.
+ *
+ * <p>
+ * The stream is read part by part into a small set of reusable buffers, each filled buffer is uploaded as a part of an
+ * Amazon S3 multipart upload while the next buffer is filled. At most <tt>parallelism + 1</tt> buffers of the part size
+ * are acquired, one being filled while at most <tt>parallelism</tt> parts are uploaded, so the memory used does not
+ * depend on the size of the stream. A stream shorter than one part is uploaded with a single <tt>PUT</tt> request.
+ * </p>
+ *
+ * <p>
+ * The buffers are direct buffers acquired from a {@link ByteBufferPool}, they are given back to the pool when the
+ * upload is finished, whatever its outcome.
+ * </p>
+ *
+ * <p>
+ * When the uploading thread has to wait for a part, it uploads itself the parts the executor has not started yet. So
+ * the upload progresses even if all the threads of the executor are busy, for example with the operations which
+ * started this upload.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3StreamUpload {
+
+    /**
+     * The buffers acquired from the pool by the upload.
+     */
+    private final List<ByteBuffer> acquiredBuffers = new ArrayList<>();
+
+    /**
+     * The name of the Amazon S3 bucket where to upload the object.
+     */
+    private final String bucket;
+
+    /**
+     * The pool of the buffers used to hold the parts.
+     */
+    private final ByteBufferPool bufferPool;
+
+    /**
+     * The first error which occurred while uploading a part, <code>null</code> if no error occurred.
+     */
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    /**
+     * The executor used to upload the parts.
+     */
+    private final Executor executor;
+
+    /**
+     * The buffers which are not used.
+     */
+    private final BlockingQueue<ByteBuffer> freeBuffers = new LinkedBlockingQueue<>();
+
+    /**
+     * The Amazon S3 key of the object to upload.
+     */
+    private final String key;
+
+    /**
+     * The maximum number of buffers acquired by the upload.
+     */
+    private final int maxBufferCount;
+
+    /**
+     * The size in bytes of the parts.
+     */
+    private final int partSize;
+
+    /**
+     * The uploads of the parts submitted to the executor, the uploads done are removed when a buffer is awaited.
+     */
+    private final List<FutureTask<Void>> partUploads = new ArrayList<>();
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade.
+     */
+    private final IS3 s3;
+
+    /**
+     * The number of bytes read from the stream.
+     */
+    private long size;
+
+    /**
+     * The upload configuration options.
+     */
+    private final S3UploadConfig uploadConfig;
+
+    /**
+     * Creates a new upload.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade.
+     * @param executor the executor used to upload the parts.
+     * @param bufferPool the pool of the buffers used to hold the parts.
+     * @param bucket the name of the Amazon S3 bucket where to upload the object.
+     * @param key the Amazon S3 key of the object to upload.
+     * @param uploadConfig the upload configuration options, its multipart part size must not exceed
+     *            {@link Integer#MAX_VALUE} because each part is held in memory.
+     */
+    S3StreamUpload(final IS3 s3, final Executor executor, final ByteBufferPool bufferPool, final String bucket,
+            final String key, final S3UploadConfig uploadConfig) {
+        if (uploadConfig.getMultipartPartSize() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The multipart part size of a stream upload must not exceed "
+                    + Integer.MAX_VALUE + " bytes !");
+        }
+
+        this.s3 = s3;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.bucket = bucket;
+        this.key = key;
+        this.uploadConfig = uploadConfig;
+        this.partSize = (int) uploadConfig.getMultipartPartSize();
+        this.maxBufferCount = uploadConfig.getMultipartParallelism() + 1;
+    }
+
+    /**
+     * Gets the number of bytes read from the stream.
+     *
+     * @return the number of bytes read from the stream.
+     */
+    long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Uploads a stream, the stream is read until its end but is not closed.
+     *
+     * @param inputStream the stream to upload.
+     *
+     * @return the ETag of the uploaded object.
+     *
+     * @throws IOException if the stream cannot be read or the upload fails.
+     */
+    String upload(final InputStream inputStream) throws IOException {
+        try {
+            return this.doUpload(Channels.newChannel(inputStream));
+        } finally {
+
+            // No part upload uses the buffers anymore
+            this.acquiredBuffers.forEach(this.bufferPool::release);
+            this.acquiredBuffers.clear();
+        }
+    }
+
+    /**
+     * Acquires a buffer, a new buffer is acquired from the pool if no buffer is free and the maximum number of buffers
+     * is not reached, otherwise this function waits until a part upload releases its buffer.
+     *
+     * @return the acquired buffer, cleared.
+     *
+     * @throws InterruptedIOException if the current thread is interrupted while waiting.
+     */
+    private ByteBuffer acquireBuffer() throws InterruptedIOException {
+        ByteBuffer buffer = this.freeBuffers.poll();
+
+        while (buffer == null) {
+            if (this.acquiredBuffers.size() < this.maxBufferCount) {
+                buffer = this.bufferPool.acquire(this.partSize);
+                this.acquiredBuffers.add(buffer);
+                return buffer;
+            }
+
+            // A part not started by the executor is uploaded by this thread, which releases its buffer, otherwise all
+            // the pending parts are running and one of them will release its buffer
+            if (this.runPendingPartUpload()) {
+                buffer = this.freeBuffers.poll();
+                continue;
+            }
+
+            try {
+                buffer = this.freeBuffers.take();
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException iioex = new InterruptedIOException("Interrupted while waiting for a buffer !");
+                iioex.initCause(iex);
+                throw iioex;
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Uploads the content of a channel, the part uploads are done when this function returns.
+     *
+     * @param inputChannel the channel to upload.
+     *
+     * @return the ETag of the uploaded object.
+     *
+     * @throws IOException if the channel cannot be read or the upload fails.
+     */
+    private String doUpload(final ReadableByteChannel inputChannel) throws IOException {
+        ByteBuffer buffer = this.acquireBuffer();
+        boolean endOfStream = this.fill(inputChannel, buffer);
+
+        // A stream shorter than one part does not need a multipart upload
+        if (endOfStream) {
+            buffer.flip();
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket(this.bucket).key(this.key)
+                    .contentType(this.uploadConfig.getContentType()).cacheControl(this.uploadConfig.getCacheControl())
+                    .contentEncoding(this.uploadConfig.getContentEncoding()).metadata(this.uploadConfig.getMetadata())
+                    .build();
+
+            return this.s3.putObject(putObjectRequest,
+                    RequestBody.of(new ByteBufferInputStream(buffer), buffer.remaining())).eTag();
+        }
+
+        S3MultipartUpload multipartUpload = new S3MultipartUpload(this.s3, this.bucket, this.key, this.uploadConfig);
+
+        try {
+            int partNumber = 0;
+            while (buffer != null) {
+                if (++partNumber > S3MultipartUpload.MAX_PART_COUNT) {
+                    throw new IOException("The stream is too large to be uploaded with parts of " + this.partSize
+                            + " bytes !");
+                }
+
+                // The next buffer is acquired before the part is submitted, this bounds the parts uploaded concurrently
+                ByteBuffer nextBuffer = this.acquireBuffer();
+                this.submitPart(multipartUpload, partNumber, buffer);
+                buffer = nextBuffer;
+                this.throwIfPartFailed();
+
+                if (!endOfStream) {
+                    endOfStream = this.fill(inputChannel, buffer);
+                }
+                if (buffer.position() == 0) {
+                    this.releaseBuffer(buffer);
+                    buffer = null;
+                }
+            }
+
+            this.awaitPartUploads();
+            this.throwIfPartFailed();
+
+            return multipartUpload.complete();
+        } catch (IOException | RuntimeException ex) {
+            this.awaitPartUploads();
+            multipartUpload.abort(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits until all the part uploads are done, whatever their outcome. The parts cannot be cancelled so this
+     * function waits even if the current thread is interrupted, the interrupted status of the thread is then restored.
+     */
+    private void awaitPartUploads() {
+        boolean interrupted = false;
+
+        for (FutureTask<Void> partUpload : this.partUploads) {
+
+            // The parts not started by the executor are uploaded by this thread
+            partUpload.run();
+            while (true) {
+                try {
+                    partUpload.get();
+                    break;
+                } catch (InterruptedException iex) {
+                    interrupted = true;
+                } catch (ExecutionException eex) {
+
+                    // The errors are reported by the part uploads themselves
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fills a buffer with the next bytes of the stream.
+     *
+     * @param inputChannel the channel to read.
+     * @param buffer the buffer to fill.
+     *
+     * @return <code>true</code> if the end of the stream has been reached, <code>false</code> if the buffer is full.
+     *
+     * @throws IOException if the stream cannot be read.
+     */
+    private boolean fill(final ReadableByteChannel inputChannel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = inputChannel.read(buffer);
+            if (read == -1) {
+                return true;
+            }
+            this.size += read;
+        }
+
+        return false;
+    }
+
+    /**
+     * Releases a buffer so it can be reused by the next parts, the buffer stays acquired from the pool.
+     *
+     * @param buffer the buffer to release.
+     */
+    private void releaseBuffer(final ByteBuffer buffer) {
+        buffer.clear().limit(this.partSize);
+        this.freeBuffers.add(buffer);
+    }
+
+    /**
+     * Uploads the first part not started by the executor with the current thread, the part uploads done are removed.
+     *
+     * @return <code>true</code> if a part has been uploaded, <code>false</code> if all the pending parts are being
+     *         uploaded by the executor.
+     */
+    private boolean runPendingPartUpload() {
+        this.partUploads.removeIf(FutureTask::isDone);
+
+        for (FutureTask<Void> partUpload : this.partUploads) {
+
+            // Running a task already started by the executor has no effect
+            partUpload.run();
+            if (partUpload.isDone()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Submits the upload of a part to the executor, the buffer of the part is released when the upload is done. The
+     * part is skipped if an other part has already failed.
+     *
+     * @param multipartUpload the multipart upload.
+     * @param partNumber the number of the part.
+     * @param buffer the buffer which contains the part.
+     */
+    private void submitPart(final S3MultipartUpload multipartUpload, final int partNumber, final ByteBuffer buffer) {
+        buffer.flip();
+
+        FutureTask<Void> partUpload = new FutureTask<>(() -> {
+            try {
+                if (this.error.get() == null) {
+                    multipartUpload.uploadPart(partNumber,
+                            RequestBody.of(new ByteBufferInputStream(buffer), buffer.remaining()));
+                }
+            } catch (Throwable t) {
+                this.error.compareAndSet(null, t);
+            } finally {
+                this.releaseBuffer(buffer);
+            }
+        }, null);
+        this.partUploads.add(partUpload);
+
+        try {
+            this.executor.execute(partUpload);
+        } catch (RejectedExecutionException reex) {
+            // The executor is saturated or shut down, the part is uploaded by this thread when a buffer is awaited
+        }
+    }
+
+    /**
+     * Throws the error of the first part upload which failed, if any.
+     *
+     * @throws IOException if a part upload failed with an input / output error or an error which is not a runtime
+     *             exception.
+     */
+    private void throwIfPartFailed() throws IOException {
+        Throwable partError = this.error.get();
+
+        if (partError instanceof RuntimeException) {
+            throw (RuntimeException) partError;
+        } else if (partError instanceof IOException) {
+            throw (IOException) partError;
+        } else if (partError != null) {
+            throw new IOException("A part upload failed !", partError);
+        }
+    }
+}
@@ -25,7 +25,9 @@
  */
 package com.gomoob.aws.s3.documentstore;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 import com.gomoob.documentstore.IUploadConfig;
 
@@ -41,16 +43,56 @@ public class S3UploadConfig implements IUploadConfig {
      */
     private String cacheControl;
 
+    /**
+     * The compression applied to the content of the object to upload, <code>null</code> to upload it uncompressed.
+     */
+    private S3Compression compression;
+
+    /**
+     * The level of the compression applied to the content of the object to upload, between <tt>0</tt> and <tt>9</tt>.
+     */
+    private int compressionLevel = Deflater.BEST_SPEED;
+
     /**
      * The Amazon S3 <tt>Content-Type</tt> metadata to attache to the object to upload.
      */
     private String contentType;
 
+    /**
+     * A boolean which indicates if the uploads are deduplicated using the SHA-256 hash of their content.
+     */
+    private boolean deduplicated;
+
+    /**
+     * A boolean which indicates if the files are read through memory-mapped regions instead of read calls.
+     */
+    private boolean memoryMapped;
+
     /**
      * The Amazon S3 metadata to attach to the object to upload.
      */
     private Map<String, String> metadata;
 
+    /**
+     * The maximum number of parts uploaded concurrently while uploading a file using an Amazon S3 multipart upload.
+     */
+    private int multipartParallelism = 4;
+
+    /**
+     * The size in bytes of the parts uploaded while uploading a file using an Amazon S3 multipart upload.
+     *
+     * <p>
+     * Please note that Amazon S3 rejects parts smaller than 5 MB (except for the last part of an upload).
+     * </p>
+     */
+    private long multipartPartSize = 8L * 1024L * 1024L;
+
+    /**
+     * The file size in bytes from which one files are uploaded using an Amazon S3 multipart upload instead of a single
+     * <tt>PUT</tt> request.
+     */
+    private long multipartThreshold = 16L * 1024L * 1024L;
+
     /**
      * Gets the Amazon S3 <tt>Cache-Control</tt> metadata to attache to the object to upload.
      *
@@ -60,6 +102,25 @@ public class S3UploadConfig implements IUploadConfig {
         return this.cacheControl;
     }
 
+    /**
+     * Gets the compression applied to the content of the object to upload.
+     *
+     * @return the compression applied to the content of the object to upload, <code>null</code> if it is uploaded
+     *         uncompressed.
+     */
+    public S3Compression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * Gets the level of the compression applied to the content of the object to upload.
+     *
+     * @return the level of the compression, between <tt>0</tt> and <tt>9</tt>.
+     */
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
     /**
      * Gets the Amazon S3 <tt>Content-Type</tt> metadata to attache to the object to upload.
      *
@@ -69,6 +130,15 @@ public class S3UploadConfig implements IUploadConfig {
         return this.contentType;
     }
 
+    /**
+     * Gets a boolean which indicates if the uploads are deduplicated using the SHA-256 hash of their content.
+     *
+     * @return <code>true</code> if the uploads are deduplicated, <code>false</code> otherwise.
+     */
+    public boolean isDeduplicated() {
+        return this.deduplicated;
+    }
+
     /**
      * Gets the Amazon S3 metadata to attach to the object to upload.
      *
@@ -78,6 +148,43 @@ public class S3UploadConfig implements IUploadConfig {
         return this.metadata;
     }
 
+    /**
+     * Gets a boolean which indicates if the files are read through memory-mapped regions instead of read calls.
+     *
+     * @return <code>true</code> if the files are read through memory-mapped regions, <code>false</code> otherwise.
+     */
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
+    /**
+     * Gets the maximum number of parts uploaded concurrently while uploading a file using an Amazon S3 multipart
+     * upload.
+     *
+     * @return the maximum number of parts uploaded concurrently.
+     */
+    public int getMultipartParallelism() {
+        return this.multipartParallelism;
+    }
+
+    /**
+     * Gets the size in bytes of the parts uploaded while uploading a file using an Amazon S3 multipart upload.
+     *
+     * @return the size in bytes of the multipart upload parts.
+     */
+    public long getMultipartPartSize() {
+        return this.multipartPartSize;
+    }
+
+    /**
+     * Gets the file size in bytes from which one files are uploaded using an Amazon S3 multipart upload.
+     *
+     * @return the file size in bytes from which one files are uploaded using an Amazon S3 multipart upload.
+     */
+    public long getMultipartThreshold() {
+        return this.multipartThreshold;
+    }
+
     /**
      * Sets the Amazon S3 <tt>Cache-Control</tt> metadata to attache to the object to upload.
      *
@@ -90,6 +197,43 @@ public class S3UploadConfig implements IUploadConfig {
         return this;
     }
 
+    /**
+     * Sets the compression applied to the content of the object to upload.
+     *
+     * <p>
+     * The content is compressed while it is streamed to Amazon S3 and the compression is recorded in the
+     * <tt>Content-Encoding</tt> of the object, the downloads decompress the content transparently. The compressed
+     * uploads always use the streaming upload path, their parts are compressed while the previous parts are uploaded.
+     * </p>
+     *
+     * @param compression the compression applied to the content of the object to upload, <code>null</code> to upload
+     *            it uncompressed.
+     *
+     * @return this instance.
+     */
+    public S3UploadConfig setCompression(final S3Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Sets the level of the compression applied to the content of the object to upload, the default level is the
+     * fastest one.
+     *
+     * @param compressionLevel the level of the compression, between <tt>0</tt> (no compression) and <tt>9</tt> (best
+     *            compression).
+     *
+     * @return this instance.
+     */
+    public S3UploadConfig setCompressionLevel(final int compressionLevel) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level must be between 0 and 9 !");
+        }
+
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
     /**
      * Sets the Amazon S3 <tt>Content-Type</tt> metadata to attache to the object to upload.
      *
@@ -102,6 +246,43 @@ public class S3UploadConfig implements IUploadConfig {
         return this;
     }
 
+    /**
+     * Sets a boolean which indicates if the uploads are deduplicated using the SHA-256 hash of their content.
+     *
+     * <p>
+     * A deduplicated file is hashed before it is uploaded, if the document store already contains a file with the same
+     * content the new file is created by an Amazon S3 server-side copy and its content is not transferred again.
+     * </p>
+     *
+     * @param deduplicated <code>true</code> to deduplicate the uploads, <code>false</code> to always transfer their
+     *            content.
+     *
+     * @return this instance.
+     */
+    public S3UploadConfig setDeduplicated(final boolean deduplicated) {
+        this.deduplicated = deduplicated;
+        return this;
+    }
+
+    /**
+     * Sets a boolean which indicates if the files are read through memory-mapped regions instead of read calls.
+     *
+     * <p>
+     * Memory-mapped regions avoid copying the content of the files through intermediate buffers, which reduces the CPU
+     * and memory used by large uploads. Please note that on some operating systems (Windows for example) a file cannot
+     * be deleted while it is mapped, and that a mapping is only released when it is garbage collected.
+     * </p>
+     *
+     * @param memoryMapped <code>true</code> to read the files through memory-mapped regions, <code>false</code> to
+     *            use read calls.
+     *
+     * @return this instance.
+     */
+    public S3UploadConfig setMemoryMapped(final boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
     /**
      * Sets the Amazon S3 metadata to attach to the object to upload.
      *
@@ -111,4 +292,82 @@ public class S3UploadConfig implements IUploadConfig {
         this.metadata = metadata;
         return this;
     }
+
+    /**
+     * Sets the maximum number of parts uploaded concurrently while uploading a file using an Amazon S3 multipart
+     * upload.
+     *
+     * @param multipartParallelism the maximum number of parts uploaded concurrently, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public S3UploadConfig setMultipartParallelism(final int multipartParallelism) {
+        if (multipartParallelism < 1) {
+            throw new IllegalArgumentException("The multipart parallelism must be greater than 0 !");
+        }
+
+        this.multipartParallelism = multipartParallelism;
+        return this;
+    }
+
+    /**
+     * Sets the size in bytes of the parts uploaded while uploading a file using an Amazon S3 multipart upload.
+     *
+     * @param multipartPartSize the size in bytes of the multipart upload parts, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public S3UploadConfig setMultipartPartSize(final long multipartPartSize) {
+        if (multipartPartSize < 1) {
+            throw new IllegalArgumentException("The multipart part size must be greater than 0 !");
+        }
+
+        this.multipartPartSize = multipartPartSize;
+        return this;
+    }
+
+    /**
+     * Sets the file size in bytes from which one files are uploaded using an Amazon S3 multipart upload instead of a
+     * single <tt>PUT</tt> request.
+     *
+     * @param multipartThreshold the file size in bytes from which one files are uploaded using an Amazon S3 multipart
+     *            upload, use {@link Long#MAX_VALUE} to disable multipart uploads.
+     *
+     * @return this instance.
+     */
+    public S3UploadConfig setMultipartThreshold(final long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+        return this;
+    }
+
+    /**
+     * Gets the HTTP <tt>Content-Encoding</tt> of the object to upload.
+     *
+     * @return the HTTP <tt>Content-Encoding</tt> of the compression, <code>null</code> if the object is uploaded
+     *         uncompressed.
+     */
+    String getContentEncoding() {
+        return this.compression == null ? null : this.compression.getContentEncoding();
+    }
+
+    /**
+     * Creates a copy of this configuration.
+     *
+     * @return the copy of this configuration, its metadata map is a copy too.
+     */
+    S3UploadConfig copy() {
+        S3UploadConfig copy = new S3UploadConfig();
+        copy.cacheControl = this.cacheControl;
+        copy.compression = this.compression;
+        copy.compressionLevel = this.compressionLevel;
+        copy.contentType = this.contentType;
+        copy.deduplicated = this.deduplicated;
+        copy.memoryMapped = this.memoryMapped;
+        copy.metadata = this.metadata == null ? null : new HashMap<>(this.metadata);
+        copy.multipartParallelism = this.multipartParallelism;
+        copy.multipartPartSize = this.multipartPartSize;
+        copy.multipartThreshold = this.multipartThreshold;
+
+        return copy;
+    }
 }
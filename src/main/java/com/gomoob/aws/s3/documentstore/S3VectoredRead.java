@@ -0,0 +1,292 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.gomoob.aws.IS3;
+import com.gomoob.documentstore.buffer.ByteBufferPool;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * Class used to read several byte ranges of an Amazon S3 object into buffers supplied by the caller.
+ *
+ * <p>
+ * The ranges are sorted by offset and the ranges separated by small gaps are merged into a single ranged request, the
+ * bytes of a merged request are read from the response stream directly into the buffers of its ranges and the bytes of
+ * the gaps are discarded. The ranges which overlap are never merged, they are read with different requests.
+ * </p>
+ *
+ * <p>
+ * The first request gives the ETag of the object, the other requests are sent concurrently with an <tt>If-Match</tt>
+ * condition on this ETag to never mix the bytes of two versions of the object.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+final class S3VectoredRead {
+
+    /**
+     * The size of the buffer which receives the discarded bytes of the gaps.
+     */
+    private static final int GAP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The name of the Amazon S3 bucket of the object to read.
+     */
+    private final String bucket;
+
+    /**
+     * The pool of the buffers which receive the bytes of the gaps.
+     */
+    private final ByteBufferPool bufferPool;
+
+    /**
+     * The executor used to send the requests concurrently.
+     */
+    private final Executor executor;
+
+    /**
+     * The Amazon S3 key of the object to read.
+     */
+    private final String key;
+
+    /**
+     * The maximum number of bytes between two ranges merged into a single request.
+     */
+    private final int maxMergeGap;
+
+    /**
+     * The maximum number of bytes requested by a merged request.
+     */
+    private final long maxMergedSize;
+
+    /**
+     * The maximum number of requests sent concurrently.
+     */
+    private final int parallelism;
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade used to send the requests.
+     */
+    private final IS3 s3;
+
+    /**
+     * Creates a new vectored read.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade used to send the requests.
+     * @param executor the executor used to send the requests concurrently.
+     * @param bufferPool the pool of the buffers which receive the bytes of the gaps.
+     * @param bucket the name of the Amazon S3 bucket of the object to read.
+     * @param key the Amazon S3 key of the object to read.
+     * @param maxMergeGap the maximum number of bytes between two ranges merged into a single request.
+     * @param maxMergedSize the maximum number of bytes requested by a merged request.
+     * @param parallelism the maximum number of requests sent concurrently.
+     */
+    S3VectoredRead(final IS3 s3, final Executor executor, final ByteBufferPool bufferPool, final String bucket,
+            final String key, final int maxMergeGap, final long maxMergedSize, final int parallelism) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.bucket = bucket;
+        this.key = key;
+        this.maxMergeGap = maxMergeGap;
+        this.maxMergedSize = maxMergedSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Merges byte ranges into the groups of ranges read by a single request.
+     *
+     * @param ranges the ranges to merge, the ranges of length <tt>0</tt> are ignored.
+     * @param maxMergeGap the maximum number of bytes between two ranges of the same group.
+     * @param maxMergedSize the maximum number of bytes from the start of the first range of a group to the end of its
+     *            last range, a range larger than this size is alone in its group.
+     *
+     * @return the groups of ranges, the ranges of a group are sorted by offset and do not overlap.
+     */
+    static List<List<S3ReadRange>> merge(final List<S3ReadRange> ranges, final int maxMergeGap,
+            final long maxMergedSize) {
+        List<S3ReadRange> sortedRanges = new ArrayList<>();
+        for (S3ReadRange range : ranges) {
+            if (range.getLength() > 0) {
+                sortedRanges.add(range);
+            }
+        }
+        sortedRanges.sort(Comparator.comparingLong(S3ReadRange::getOffset));
+
+        List<List<S3ReadRange>> groups = new ArrayList<>();
+        List<S3ReadRange> group = null;
+        long groupStart = 0;
+        long groupEnd = 0;
+        for (S3ReadRange range : sortedRanges) {
+            long rangeEnd = range.getOffset() + range.getLength();
+            if (group == null || range.getOffset() < groupEnd || range.getOffset() - groupEnd > maxMergeGap
+                    || rangeEnd - groupStart > maxMergedSize) {
+                group = new ArrayList<>();
+                groups.add(group);
+                groupStart = range.getOffset();
+            }
+            group.add(range);
+            groupEnd = rangeEnd;
+        }
+
+        return groups;
+    }
+
+    /**
+     * Reads byte ranges of the object into their buffers, the position of each buffer is moved after the bytes read
+     * and the number of bytes read is set in each range.
+     *
+     * @param ranges the ranges to read.
+     *
+     * @throws IOException if an input / output error occurs while reading the ranges or if the object is compressed.
+     */
+    void read(final List<S3ReadRange> ranges) throws IOException {
+        for (S3ReadRange range : ranges) {
+            range.setReadLength(0);
+        }
+
+        List<List<S3ReadRange>> groups = merge(ranges, this.maxMergeGap, this.maxMergedSize);
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        // The first request gives the ETag of the object
+        String eTag = this.readGroup(groups.get(0), null);
+        ParallelTasks.run(this.executor, this.parallelism, groups.size() - 1,
+                index -> this.readGroup(groups.get(index + 1), eTag));
+    }
+
+    /**
+     * Reads a group of ranges with a single request.
+     *
+     * @param group the ranges to read, sorted by offset and not overlapping.
+     * @param ifMatch the ETag the object must have, <code>null</code> to accept any version of the object.
+     *
+     * @return the ETag of the object, <code>ifMatch</code> if the group starts after the end of the object.
+     *
+     * @throws IOException if an input / output error occurs while reading the ranges or if the object is compressed.
+     */
+    private String readGroup(final List<S3ReadRange> group, final String ifMatch) throws IOException {
+        long start = group.get(0).getOffset();
+        S3ReadRange lastRange = group.get(group.size() - 1);
+        long end = lastRange.getOffset() + lastRange.getLength();
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(this.bucket).key(this.key)
+                .range("bytes=" + start + "-" + (end - 1)).ifMatch(ifMatch).build();
+
+        GetObjectResponse response;
+        try {
+            response = this.s3.getObject(getObjectRequest,
+                    (StreamingResponseHandler<GetObjectResponse, GetObjectResponse>) (getObjectResponse,
+                            inputStream) -> {
+
+                        // The bytes of a compressed object are not the bytes the ranges refer to
+                        if (S3Compression.fromContentEncoding(getObjectResponse.contentEncoding()) == null) {
+                            this.readRanges(Channels.newChannel(inputStream), start, group);
+                        }
+                        return getObjectResponse;
+                    });
+        } catch (S3Exception s3ex) {
+
+            // Amazon S3 refuses the ranges which start after the end of the object, nothing is read
+            if (s3ex.getStatusCode() == 416) {
+                return ifMatch;
+            }
+            throw s3ex;
+        }
+
+        if (S3Compression.fromContentEncoding(response.contentEncoding()) != null) {
+            throw new IOException("The object '" + this.key + "' is compressed, its byte ranges cannot be read !");
+        }
+
+        return response.eTag();
+    }
+
+    /**
+     * Reads the ranges of a group from the response to its request.
+     *
+     * @param inputChannel the channel which reads the response to the request.
+     * @param start the offset of the first byte of the response.
+     * @param group the ranges to read, sorted by offset and not overlapping.
+     *
+     * @throws IOException if an input / output error occurs while reading the response.
+     */
+    private void readRanges(final ReadableByteChannel inputChannel, final long start, final List<S3ReadRange> group)
+            throws IOException {
+        long position = start;
+        ByteBuffer gapBuffer = null;
+
+        try {
+            for (S3ReadRange range : group) {
+
+                // The bytes between the ranges are discarded
+                while (position < range.getOffset()) {
+                    if (gapBuffer == null) {
+                        gapBuffer = this.bufferPool.acquire(GAP_BUFFER_SIZE);
+                    }
+                    gapBuffer.clear().limit((int) Math.min(GAP_BUFFER_SIZE, range.getOffset() - position));
+                    int read = inputChannel.read(gapBuffer);
+                    if (read == -1) {
+                        return;
+                    }
+                    position += read;
+                }
+
+                // The bytes of the range are read directly into the buffer of the caller
+                ByteBuffer target = range.getBuffer().duplicate();
+                target.limit(target.position() + range.getLength());
+                int read = 0;
+                while (target.hasRemaining() && read != -1) {
+                    read = inputChannel.read(target);
+                }
+
+                int readLength = range.getLength() - target.remaining();
+                range.getBuffer().position(target.position());
+                range.setReadLength(readLength);
+                position += readLength;
+                if (read == -1) {
+                    return;
+                }
+            }
+        } finally {
+            if (gapBuffer != null) {
+                this.bufferPool.release(gapBuffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,1223 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.gomoob.documentstore.IDocumentStore;
+import com.gomoob.documentstore.IDocumentStoreFile;
+import com.gomoob.documentstore.filesystem.DocumentStoreFile;
+
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * A document store which writes the documents to a local journal and uploads them to Amazon S3 in the background, so
+ * the writes return without waiting for Amazon S3.
+ *
+ * <p>
+ * A write copies the document into the journal directory and forces it to the disk, then it returns. A flusher thread
+ * takes the pending writes and deletions by batches, uploads the documents of a batch concurrently and deletes the
+ * deleted documents with multi-object delete requests, then removes them from the journal. Only the last pending
+ * operation of a key name is sent and the operations of a key name are never sent concurrently. An operation which
+ * fails stays in the journal and is retried after a delay (see {@link #setRetryDelayMillis(long)}).
+ * </p>
+ *
+ * <p>
+ * The journal is replayed when the document store is opened (see {@link #open()}), so the operations not sent before
+ * a restart are sent after it. The reads of a key name which has a pending operation are served from the journal, the
+ * other reads are delegated to the underlying {@link S3DocumentStore}.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class S3WriteBehindDocumentStore implements IDocumentStore<S3UploadConfig>, Closeable {
+
+    /**
+     * The extension of the files which contain the documents of the journal entries.
+     */
+    private static final String DATA_FILE_EXTENSION = ".data";
+
+    /**
+     * The extension of the files which describe the journal entries.
+     */
+    private static final String ENTRY_FILE_EXTENSION = ".entry";
+
+    /**
+     * The prefix of the properties of the journal entries which hold the user metadata of the documents.
+     */
+    private static final String METADATA_PROPERTY_PREFIX = "metadata.";
+
+    /**
+     * The format of the sequence numbers of the journal entries in their file names.
+     */
+    private static final String SEQUENCE_FORMAT = "%019d";
+
+    /**
+     * The extension of the files being written.
+     */
+    private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+    /**
+     * An operation of the journal.
+     */
+    private static final class JournalEntry {
+
+        /**
+         * The date of the operation in milliseconds.
+         */
+        private final long created;
+
+        /**
+         * If the operation is a deletion.
+         */
+        private final boolean deletion;
+
+        /**
+         * The key name of the document.
+         */
+        private final String keyName;
+
+        /**
+         * The sequence number of the operation, the operations are sent in the order of their sequence numbers.
+         */
+        private final long sequence;
+
+        /**
+         * The size of the document in bytes, <tt>0</tt> for a deletion.
+         */
+        private final long size;
+
+        /**
+         * The upload configuration options of the document, <code>null</code> for a deletion.
+         */
+        private final S3UploadConfig uploadConfig;
+
+        /**
+         * Creates a new operation.
+         *
+         * @param sequence the sequence number of the operation.
+         * @param keyName the key name of the document.
+         * @param deletion if the operation is a deletion.
+         * @param size the size of the document in bytes, <tt>0</tt> for a deletion.
+         * @param created the date of the operation in milliseconds.
+         * @param uploadConfig the upload configuration options of the document, <code>null</code> for a deletion.
+         */
+        private JournalEntry(final long sequence, final String keyName, final boolean deletion, final long size,
+                final long created, final S3UploadConfig uploadConfig) {
+            this.sequence = sequence;
+            this.keyName = keyName;
+            this.deletion = deletion;
+            this.size = size;
+            this.created = created;
+            this.uploadConfig = uploadConfig;
+        }
+    }
+
+    /**
+     * The pending operations of a key name, they are guarded by the lock of the document store.
+     */
+    private static final class PendingKey {
+
+        /**
+         * The number of consecutive failures of the operations of the key name.
+         */
+        private int failureCount;
+
+        /**
+         * The operation being sent, <code>null</code> if no operation is being sent.
+         */
+        private JournalEntry inFlight;
+
+        /**
+         * The date in milliseconds before which the waiting operation is not sent.
+         */
+        private long retryAt;
+
+        /**
+         * The last operation waiting to be sent, <code>null</code> if no operation is waiting.
+         */
+        private JournalEntry waiting;
+
+        /**
+         * Gets the last operation of the key name.
+         *
+         * @return the last operation of the key name.
+         */
+        private JournalEntry getLast() {
+            return this.waiting != null ? this.waiting : this.inFlight;
+        }
+    }
+
+    /**
+     * The maximum number of operations sent by batch.
+     */
+    private int batchSize = 64;
+
+    /**
+     * If the document store has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * The underlying document store used to send the operations.
+     */
+    private final S3DocumentStore documentStore;
+
+    /**
+     * The number of operations which failed, they are retried.
+     */
+    private long failureCount;
+
+    /**
+     * The maximum number of documents uploaded concurrently.
+     */
+    private int flushParallelism = 8;
+
+    /**
+     * The thread which sends the operations, <code>null</code> until the document store is opened.
+     */
+    private Thread flusher;
+
+    /**
+     * The directory of the journal.
+     */
+    private final Path journalDirectory;
+
+    /**
+     * The lock which guards the pending operations.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The sequence number of the last operation, guarded by the lock.
+     */
+    private long lastSequence;
+
+    /**
+     * If the journal has been replayed, guarded by the lock.
+     */
+    private boolean opened;
+
+    /**
+     * The pending operations indexed by key name.
+     */
+    private final Map<String, PendingKey> pendingKeys = new HashMap<>();
+
+    /**
+     * The key names which have an operation waiting to be sent and no operation being sent, in the order of the
+     * operations.
+     */
+    private final Set<String> readyKeyNames = new LinkedHashSet<>();
+
+    /**
+     * The delay in milliseconds before a failed operation is retried.
+     */
+    private long retryDelayMillis = 1000;
+
+    /**
+     * Creates a new write-behind document store.
+     *
+     * @param documentStore the underlying document store used to send the operations.
+     * @param journalDirectory the directory of the journal, it is created if it does not exist. The directory must not
+     *            be shared by several document stores.
+     */
+    public S3WriteBehindDocumentStore(final S3DocumentStore documentStore, final Path journalDirectory) {
+        this.documentStore = documentStore;
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * Stops the flusher thread, the pending operations stay in the journal and are sent once a new document store is
+     * opened on the journal directory.
+     *
+     * @throws IOException if the current thread is interrupted while waiting for the flusher thread.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread flusherThread;
+
+        synchronized (this.lock) {
+            this.closed = true;
+            flusherThread = this.flusher;
+            this.lock.notifyAll();
+        }
+
+        if (flusherThread != null) {
+            try {
+                flusherThread.join();
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException iioex = new InterruptedIOException("Interrupted while closing the flusher !");
+                iioex.initCause(iex);
+                throw iioex;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final String serverFilePath, final String keyName)
+            throws IOException {
+        return this.createFromUploadedFile(serverFilePath, keyName, new S3UploadConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The file is copied into the journal, it is uploaded in the background with the upload configuration options.
+     * </p>
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final String serverFilePath, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+
+        // Checks the file
+        File file = new File(serverFilePath);
+        if (!file.exists()) {
+            throw new IOException("Fail to open file with path '" + serverFilePath + "' !");
+        }
+
+        try (InputStream fileInputStream = Files.newInputStream(file.toPath())) {
+            return this.write(fileInputStream, keyName, uploadConfig);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
+            final long fileSize) throws IOException {
+        return this.createFromUploadedFile(serverFileInputStream, keyName, new S3UploadConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName)
+            throws IOException {
+        return this.createFromUploadedFile(serverFileInputStream, keyName, new S3UploadConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The stream is copied into the journal, it is uploaded in the background with the upload configuration options.
+     * </p>
+     */
+    @Override
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+        return this.write(serverFileInputStream, keyName, uploadConfig);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException if the deletion cannot be written to the journal.
+     */
+    @Override
+    public void delete(final String keyName) {
+        Map<String, String> failures = this.delete(Collections.singleton(keyName));
+
+        if (!failures.isEmpty()) {
+            throw new UncheckedIOException(new IOException(failures.get(keyName)));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The deletions are written to the journal, they are sent in the background using multi-object delete requests.
+     * </p>
+     */
+    @Override
+    public Map<String, String> delete(final Collection<String> keyNames) {
+        Map<String, String> failures = new HashMap<>();
+
+        for (String keyName : keyNames) {
+            try {
+                this.open();
+                this.append(this.writeEntry(keyName, true, null, null));
+            } catch (IOException ioex) {
+                failures.put(keyName, ioex.getMessage());
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A document which has a pending operation is read from the journal.
+     * </p>
+     */
+    @Override
+    public String download(final String keyName, final String destination) throws IOException {
+        this.open();
+
+        while (true) {
+            JournalEntry entry = this.getLastEntry(keyName);
+            if (entry == null) {
+                return this.documentStore.download(keyName, destination);
+            }
+
+            if (entry.deletion) {
+                NoSuchKeyException noSuchKeyException = NoSuchKeyException.builder()
+                        .message("The key '" + keyName + "' is deleted !").build();
+                noSuchKeyException.setStatusCode(404);
+                throw noSuchKeyException;
+            }
+
+            try {
+                Path destinationFile = new File(destination).toPath();
+                Files.copy(this.getDataFile(entry.sequence), destinationFile, StandardCopyOption.REPLACE_EXISTING);
+
+                return destinationFile.toAbsolutePath().toString();
+            } catch (NoSuchFileException nsfex) {
+
+                // The operation has been sent if it is still the last one, otherwise it has been replaced
+                if (this.getLastEntry(keyName) == entry) {
+                    return this.documentStore.download(keyName, destination);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A document which has a pending operation is described from the journal, without ETag.
+     * </p>
+     *
+     * @throws UncheckedIOException if the journal cannot be replayed.
+     */
+    @Override
+    public IDocumentStoreFile find(final String keyName) {
+        this.openUnchecked();
+        JournalEntry entry = this.getLastEntry(keyName);
+
+        if (entry == null) {
+            return this.documentStore.find(keyName);
+        }
+
+        return entry.deletion ? null : createDocumentStoreFile(entry);
+    }
+
+    /**
+     * Waits until all the pending operations are sent.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     *
+     * @return <code>true</code> if all the pending operations have been sent, <code>false</code> if the timeout
+     *         elapsed before.
+     *
+     * @throws IOException if the journal cannot be replayed or if the current thread is interrupted while waiting.
+     */
+    public boolean flush(final long timeout, final TimeUnit unit) throws IOException {
+        this.open();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        synchronized (this.lock) {
+            long remaining;
+            while (!this.pendingKeys.isEmpty()) {
+                remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this.lock, remaining);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException iioex = new InterruptedIOException(
+                            "Interrupted while waiting for the pending operations !");
+                    iioex.initCause(iex);
+                    throw iioex;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the maximum number of operations sent by batch.
+     *
+     * @return the maximum number of operations sent by batch.
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Gets the underlying document store used to send the operations.
+     *
+     * @return the underlying document store used to send the operations.
+     */
+    public S3DocumentStore getDocumentStore() {
+        return this.documentStore;
+    }
+
+    /**
+     * Gets the number of operations which failed since the document store has been opened, the failed operations are
+     * retried.
+     *
+     * @return the number of operations which failed.
+     */
+    public long getFailureCount() {
+        synchronized (this.lock) {
+            return this.failureCount;
+        }
+    }
+
+    /**
+     * Gets the maximum number of documents uploaded concurrently.
+     *
+     * @return the maximum number of documents uploaded concurrently.
+     */
+    public int getFlushParallelism() {
+        return this.flushParallelism;
+    }
+
+    /**
+     * Gets the directory of the journal.
+     *
+     * @return the directory of the journal.
+     */
+    public Path getJournalDirectory() {
+        return this.journalDirectory;
+    }
+
+    /**
+     * Gets the number of key names which have pending operations.
+     *
+     * @return the number of key names which have pending operations.
+     */
+    public int getPendingCount() {
+        synchronized (this.lock) {
+            return this.pendingKeys.size();
+        }
+    }
+
+    /**
+     * Gets the delay in milliseconds before a failed operation is retried.
+     *
+     * @return the delay in milliseconds before a failed operation is retried.
+     */
+    public long getRetryDelayMillis() {
+        return this.retryDelayMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The files listed by the underlying document store are followed by the documents of the pending operations, in
+     * the lexicographical order of their key names. A <code>null</code> prefix lists all the documents.
+     * </p>
+     *
+     * @throws UncheckedIOException if the journal cannot be replayed.
+     */
+    @Override
+    public Stream<IDocumentStoreFile> list(final String prefix) {
+        this.openUnchecked();
+
+        String listedPrefix = prefix == null ? "" : prefix;
+        TreeMap<String, JournalEntry> entries = new TreeMap<>();
+        synchronized (this.lock) {
+            for (Map.Entry<String, PendingKey> pendingKey : this.pendingKeys.entrySet()) {
+                if (pendingKey.getKey().startsWith(listedPrefix)) {
+                    entries.put(pendingKey.getKey(), pendingKey.getValue().getLast());
+                }
+            }
+        }
+
+        return Stream.concat(
+                this.documentStore.list(listedPrefix).filter(file -> !entries.containsKey(file.getKeyName())),
+                entries.values().stream().filter(entry -> !entry.deletion)
+                        .map(S3WriteBehindDocumentStore::createDocumentStoreFile));
+    }
+
+    /**
+     * Replays the journal and starts the flusher thread, only the first call has an effect. The other functions open
+     * the document store when they are first called, this function can be called at startup to send the operations of
+     * the journal without waiting for the first call.
+     *
+     * @throws IOException if the journal cannot be read.
+     */
+    public void open() throws IOException {
+        synchronized (this.lock) {
+            if (this.opened) {
+                return;
+            }
+            if (this.closed) {
+                throw new IllegalStateException("The document store is closed !");
+            }
+
+            Files.createDirectories(this.journalDirectory);
+
+            // The entry files are written last, the files of an interrupted write are deleted
+            TreeMap<Long, JournalEntry> entries = new TreeMap<>();
+            Map<Long, Path> dataFiles = new LinkedHashMap<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(this.journalDirectory)) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    if (fileName.endsWith(ENTRY_FILE_EXTENSION)) {
+                        JournalEntry entry = this.readEntry(file);
+                        entries.put(entry.sequence, entry);
+                    } else if (fileName.endsWith(DATA_FILE_EXTENSION)) {
+                        dataFiles.put(parseSequence(fileName, DATA_FILE_EXTENSION), file);
+                    } else if (fileName.endsWith(TEMPORARY_FILE_EXTENSION)) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            for (Map.Entry<Long, Path> dataFile : dataFiles.entrySet()) {
+                if (!entries.containsKey(dataFile.getKey())) {
+                    Files.delete(dataFile.getValue());
+                }
+            }
+
+            for (JournalEntry entry : entries.values()) {
+                this.lastSequence = Math.max(this.lastSequence, entry.sequence);
+                this.append(entry);
+            }
+
+            this.flusher = new Thread(this::runFlusher, "s3-write-behind-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+            this.opened = true;
+        }
+    }
+
+    /**
+     * Sets the maximum number of operations sent by batch.
+     *
+     * @param batchSize the maximum number of operations sent by batch, must be greater than 0.
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0 !");
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the maximum number of documents uploaded concurrently.
+     *
+     * <p>
+     * The documents are uploaded on the executor service of the underlying document store, except the documents larger
+     * than the multipart threshold of their upload configuration which are uploaded by the flusher thread because
+     * their parts already use the executor.
+     * </p>
+     *
+     * @param flushParallelism the maximum number of documents uploaded concurrently, must be greater than 0.
+     */
+    public void setFlushParallelism(final int flushParallelism) {
+        if (flushParallelism < 1) {
+            throw new IllegalArgumentException("The flush parallelism must be greater than 0 !");
+        }
+
+        this.flushParallelism = flushParallelism;
+    }
+
+    /**
+     * Sets the delay in milliseconds before a failed operation is retried.
+     *
+     * @param retryDelayMillis the delay in milliseconds before a failed operation is retried, must be positive.
+     */
+    public void setRetryDelayMillis(final long retryDelayMillis) {
+        if (retryDelayMillis < 0) {
+            throw new IllegalArgumentException("The retry delay must be positive !");
+        }
+
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Creates the description of the document of a pending operation.
+     *
+     * @param entry the pending operation, it is not a deletion.
+     *
+     * @return the description of the document.
+     */
+    private static IDocumentStoreFile createDocumentStoreFile(final JournalEntry entry) {
+        IDocumentStoreFile documentStoreFile = new DocumentStoreFile();
+        documentStoreFile.setKeyName(entry.keyName);
+        documentStoreFile.setName(entry.keyName.substring(entry.keyName.lastIndexOf('/') + 1));
+        documentStoreFile.setLastUpdateDate(new Date(entry.created));
+        documentStoreFile.setSize(entry.size);
+        documentStoreFile.setStoredSize(entry.size);
+        documentStoreFile.setContentType(entry.uploadConfig.getContentType());
+
+        return documentStoreFile;
+    }
+
+    /**
+     * Forces a file to the disk.
+     *
+     * @param file the file to force.
+     *
+     * @throws IOException if the file cannot be forced.
+     */
+    private static void force(final Path file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            fileChannel.force(true);
+        }
+    }
+
+    /**
+     * Forces a directory to the disk so the files renamed in the directory survive a crash. Some platforms cannot open
+     * or force a directory, the directory is not forced on those platforms.
+     *
+     * @param directory the directory to force.
+     */
+    private static void forceDirectory(final Path directory) {
+        try (FileChannel fileChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            fileChannel.force(true);
+        } catch (IOException ioex) {
+            // The directories cannot be forced on this platform
+        }
+    }
+
+    /**
+     * Moves a file atomically if the file system supports it.
+     *
+     * @param source the file to move.
+     * @param target the target path.
+     *
+     * @throws IOException if the file cannot be moved.
+     */
+    private static void moveAtomically(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnsex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Parses the sequence number of a journal file.
+     *
+     * @param fileName the name of the file.
+     * @param extension the extension of the file.
+     *
+     * @return the sequence number of the file.
+     *
+     * @throws IOException if the name of the file is not the name of a journal file.
+     */
+    private static long parseSequence(final String fileName, final String extension) throws IOException {
+        try {
+            return Long.parseLong(fileName.substring(0, fileName.length() - extension.length()));
+        } catch (NumberFormatException nfex) {
+            throw new IOException("Invalid journal file name '" + fileName + "' !", nfex);
+        }
+    }
+
+    /**
+     * Adds an operation to the pending operations, the operation waiting for the same key name is replaced. The lock
+     * must be held.
+     *
+     * @param entry the operation to add.
+     *
+     * @return the replaced operation whose files must be deleted, <code>null</code> if no operation is replaced.
+     */
+    private JournalEntry addPendingEntry(final JournalEntry entry) {
+        PendingKey pendingKey = this.pendingKeys.computeIfAbsent(entry.keyName, keyName -> new PendingKey());
+        JournalEntry replacedEntry = pendingKey.waiting;
+
+        pendingKey.waiting = entry;
+        if (pendingKey.inFlight == null) {
+            this.readyKeyNames.add(entry.keyName);
+        }
+        this.lock.notifyAll();
+
+        return replacedEntry;
+    }
+
+    /**
+     * Adds an operation written in the journal to the pending operations, the files of the operation it replaces are
+     * deleted.
+     *
+     * @param entry the operation to add.
+     *
+     * @throws IOException if the files of the replaced operation cannot be deleted.
+     */
+    private void append(final JournalEntry entry) throws IOException {
+        JournalEntry replacedEntry;
+
+        synchronized (this.lock) {
+            replacedEntry = this.addPendingEntry(entry);
+        }
+
+        if (replacedEntry != null) {
+            this.deleteEntry(replacedEntry);
+        }
+    }
+
+    /**
+     * Completes a batch of operations, the operations sent are removed from the journal and the failed operations are
+     * scheduled to be retried unless they have been replaced.
+     *
+     * @param entries the operations of the batch.
+     * @param failures the errors of the failed operations, indexed by sequence number.
+     */
+    private void complete(final List<JournalEntry> entries, final Map<Long, Exception> failures) {
+        List<JournalEntry> deletedEntries = new ArrayList<>();
+
+        // The operations sent are removed from the journal before they stop being pending, so a flush which returns
+        // leaves an empty journal
+        for (JournalEntry entry : entries) {
+            if (!failures.containsKey(entry.sequence)) {
+                this.deleteEntryQuietly(entry);
+            }
+        }
+
+        synchronized (this.lock) {
+            long now = System.currentTimeMillis();
+
+            for (JournalEntry entry : entries) {
+                PendingKey pendingKey = this.pendingKeys.get(entry.keyName);
+                pendingKey.inFlight = null;
+
+                if (failures.containsKey(entry.sequence)) {
+                    ++this.failureCount;
+                    ++pendingKey.failureCount;
+                    pendingKey.retryAt = now + this.retryDelayMillis;
+                    if (pendingKey.waiting == null) {
+                        pendingKey.waiting = entry;
+                    } else {
+                        deletedEntries.add(entry);
+                    }
+                } else {
+                    pendingKey.failureCount = 0;
+                    pendingKey.retryAt = 0;
+                }
+
+                if (pendingKey.waiting == null) {
+                    this.pendingKeys.remove(entry.keyName);
+                } else {
+                    this.readyKeyNames.add(entry.keyName);
+                }
+            }
+
+            this.lock.notifyAll();
+        }
+
+        for (JournalEntry deletedEntry : deletedEntries) {
+            this.deleteEntryQuietly(deletedEntry);
+        }
+    }
+
+    /**
+     * Deletes the files of an operation, the entry file first so the operation is never replayed without its data.
+     *
+     * @param entry the operation.
+     *
+     * @throws IOException if a file cannot be deleted.
+     */
+    private void deleteEntry(final JournalEntry entry) throws IOException {
+        Files.deleteIfExists(this.getEntryFile(entry.sequence));
+        Files.deleteIfExists(this.getDataFile(entry.sequence));
+    }
+
+    /**
+     * Deletes the files of an operation which has been sent or replaced, an operation whose files cannot be deleted is
+     * sent again if the journal is replayed, which does not change the result.
+     *
+     * @param entry the operation.
+     */
+    private void deleteEntryQuietly(final JournalEntry entry) {
+        try {
+            this.deleteEntry(entry);
+        } catch (IOException ioex) {
+            // The operation is replayed, see the documentation of the function
+        }
+    }
+
+    /**
+     * Sends a batch of operations, the deletions with multi-object delete requests and the documents concurrently.
+     *
+     * @param entries the operations of the batch.
+     */
+    private void flushBatch(final List<JournalEntry> entries) {
+        Map<Long, Exception> failures = new HashMap<>();
+        Map<String, JournalEntry> deletions = new HashMap<>();
+        List<JournalEntry> smallUploads = new ArrayList<>();
+        List<JournalEntry> largeUploads = new ArrayList<>();
+
+        for (JournalEntry entry : entries) {
+            if (entry.deletion) {
+                deletions.put(entry.keyName, entry);
+            } else if (entry.size >= entry.uploadConfig.getMultipartThreshold()) {
+                largeUploads.add(entry);
+            } else {
+                smallUploads.add(entry);
+            }
+        }
+
+        if (!deletions.isEmpty()) {
+            try {
+                for (Map.Entry<String, String> failure : this.documentStore.delete(deletions.keySet()).entrySet()) {
+                    failures.put(deletions.get(failure.getKey()).sequence, new IOException(failure.getValue()));
+                }
+            } catch (RuntimeException rex) {
+                for (JournalEntry deletion : deletions.values()) {
+                    failures.put(deletion.sequence, rex);
+                }
+            }
+        }
+
+        // The errors are recorded by the tasks so one failed upload does not cancel the others
+        Exception[] uploadFailures = new Exception[smallUploads.size()];
+        try {
+            ParallelTasks.run(this.documentStore.getExecutorService(), this.flushParallelism, smallUploads.size(),
+                    index -> {
+                        try {
+                            this.upload(smallUploads.get(index));
+                        } catch (IOException | RuntimeException ex) {
+                            uploadFailures[index] = ex;
+                        }
+                    });
+        } catch (IOException | RuntimeException ex) {
+            for (int i = 0; i < uploadFailures.length; ++i) {
+                uploadFailures[i] = uploadFailures[i] == null ? ex : uploadFailures[i];
+            }
+        }
+        for (int i = 0; i < uploadFailures.length; ++i) {
+            if (uploadFailures[i] != null) {
+                failures.put(smallUploads.get(i).sequence, uploadFailures[i]);
+            }
+        }
+
+        for (JournalEntry largeUpload : largeUploads) {
+            try {
+                this.upload(largeUpload);
+            } catch (IOException | RuntimeException ex) {
+                failures.put(largeUpload.sequence, ex);
+            }
+        }
+
+        this.complete(entries, failures);
+    }
+
+    /**
+     * Gets the path of the file which contains the document of an operation.
+     *
+     * @param sequence the sequence number of the operation.
+     *
+     * @return the path of the file which contains the document of the operation.
+     */
+    private Path getDataFile(final long sequence) {
+        return this.journalDirectory.resolve(String.format(SEQUENCE_FORMAT, sequence) + DATA_FILE_EXTENSION);
+    }
+
+    /**
+     * Gets the path of the file which describes an operation.
+     *
+     * @param sequence the sequence number of the operation.
+     *
+     * @return the path of the file which describes the operation.
+     */
+    private Path getEntryFile(final long sequence) {
+        return this.journalDirectory.resolve(String.format(SEQUENCE_FORMAT, sequence) + ENTRY_FILE_EXTENSION);
+    }
+
+    /**
+     * Gets the last pending operation of a key name.
+     *
+     * @param keyName the key name.
+     *
+     * @return the last pending operation of the key name, <code>null</code> if the key name has no pending operation.
+     */
+    private JournalEntry getLastEntry(final String keyName) {
+        synchronized (this.lock) {
+            PendingKey pendingKey = this.pendingKeys.get(keyName);
+
+            return pendingKey == null ? null : pendingKey.getLast();
+        }
+    }
+
+    /**
+     * Replays the journal if it has not been replayed yet, from a function which cannot throw an {@link IOException}.
+     *
+     * @throws UncheckedIOException if the journal cannot be replayed.
+     */
+    private void openUnchecked() {
+        try {
+            this.open();
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+    }
+
+    /**
+     * Reads the file which describes an operation.
+     *
+     * @param entryFile the file which describes the operation.
+     *
+     * @return the operation.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private JournalEntry readEntry(final Path entryFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(entryFile)) {
+            properties.load(inputStream);
+        }
+
+        long sequence = parseSequence(entryFile.getFileName().toString(), ENTRY_FILE_EXTENSION);
+        String keyName = properties.getProperty("keyName");
+        if (keyName == null) {
+            throw new IOException("The journal entry '" + entryFile + "' has no key name !");
+        }
+
+        try {
+            long created = Long.parseLong(properties.getProperty("created"));
+            if (Boolean.parseBoolean(properties.getProperty("deletion"))) {
+                return new JournalEntry(sequence, keyName, true, 0, created, null);
+            }
+
+            Map<String, String> metadata = new HashMap<>();
+            for (String propertyName : properties.stringPropertyNames()) {
+                if (propertyName.startsWith(METADATA_PROPERTY_PREFIX)) {
+                    metadata.put(propertyName.substring(METADATA_PROPERTY_PREFIX.length()),
+                            properties.getProperty(propertyName));
+                }
+            }
+
+            String compression = properties.getProperty("compression");
+            S3UploadConfig uploadConfig = new S3UploadConfig().setCacheControl(properties.getProperty("cacheControl"))
+                    .setCompression(compression == null ? null : S3Compression.valueOf(compression))
+                    .setCompressionLevel(Integer.parseInt(properties.getProperty("compressionLevel")))
+                    .setContentType(properties.getProperty("contentType"))
+                    .setDeduplicated(Boolean.parseBoolean(properties.getProperty("deduplicated")))
+                    .setMemoryMapped(Boolean.parseBoolean(properties.getProperty("memoryMapped")))
+                    .setMetadata(metadata.isEmpty() ? null : metadata)
+                    .setMultipartParallelism(Integer.parseInt(properties.getProperty("multipartParallelism")))
+                    .setMultipartPartSize(Long.parseLong(properties.getProperty("multipartPartSize")))
+                    .setMultipartThreshold(Long.parseLong(properties.getProperty("multipartThreshold")));
+
+            return new JournalEntry(sequence, keyName, false, Long.parseLong(properties.getProperty("size")), created,
+                    uploadConfig);
+        } catch (IllegalArgumentException iaex) {
+            throw new IOException("The journal entry '" + entryFile + "' is corrupted !", iaex);
+        }
+    }
+
+    /**
+     * Sends the pending operations by batches until the document store is closed.
+     */
+    private void runFlusher() {
+        while (true) {
+            List<JournalEntry> batch = new ArrayList<>();
+
+            synchronized (this.lock) {
+                while (!this.closed && batch.isEmpty()) {
+                    long now = System.currentTimeMillis();
+                    long nextRetryAt = Long.MAX_VALUE;
+
+                    // The operations which failed recently are skipped until their retry date
+                    Iterator<String> readyKeyNameIterator = this.readyKeyNames.iterator();
+                    while (readyKeyNameIterator.hasNext() && batch.size() < this.batchSize) {
+                        PendingKey pendingKey = this.pendingKeys.get(readyKeyNameIterator.next());
+                        if (pendingKey.retryAt > now) {
+                            nextRetryAt = Math.min(nextRetryAt, pendingKey.retryAt);
+                            continue;
+                        }
+
+                        readyKeyNameIterator.remove();
+                        pendingKey.inFlight = pendingKey.waiting;
+                        pendingKey.waiting = null;
+                        batch.add(pendingKey.inFlight);
+                    }
+
+                    if (batch.isEmpty()) {
+                        try {
+                            this.lock.wait(nextRetryAt == Long.MAX_VALUE ? 0 : Math.max(1, nextRetryAt - now));
+                        } catch (InterruptedException iex) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
+
+            // The operations taken before the document store has been closed are sent anyway
+            if (batch.isEmpty()) {
+                return;
+            }
+            this.flushBatch(batch);
+        }
+    }
+
+    /**
+     * Uploads the document of an operation.
+     *
+     * @param entry the operation.
+     *
+     * @throws IOException if the document cannot be uploaded.
+     */
+    private void upload(final JournalEntry entry) throws IOException {
+        this.documentStore.createFromUploadedFile(this.getDataFile(entry.sequence).toString(), entry.keyName,
+                entry.uploadConfig);
+    }
+
+    /**
+     * Writes a document to the journal and adds it to the pending operations.
+     *
+     * @param inputStream the input stream of the document.
+     * @param keyName the key name of the document.
+     * @param uploadConfig the upload configuration options of the document.
+     *
+     * @return the description of the document.
+     *
+     * @throws IOException if the document cannot be written to the journal.
+     */
+    private IDocumentStoreFile write(final InputStream inputStream, final String keyName,
+            final S3UploadConfig uploadConfig) throws IOException {
+        this.open();
+        JournalEntry entry = this.writeEntry(keyName, false, inputStream, uploadConfig);
+        this.append(entry);
+
+        return createDocumentStoreFile(entry);
+    }
+
+    /**
+     * Writes an operation to the journal, the files are forced to the disk and the entry file is written last.
+     *
+     * @param keyName the key name of the document.
+     * @param deletion if the operation is a deletion.
+     * @param inputStream the input stream of the document, <code>null</code> for a deletion.
+     * @param uploadConfig the upload configuration options of the document, <code>null</code> for a deletion.
+     *
+     * @return the operation written.
+     *
+     * @throws IOException if the operation cannot be written.
+     */
+    private JournalEntry writeEntry(final String keyName, final boolean deletion, final InputStream inputStream,
+            final S3UploadConfig uploadConfig) throws IOException {
+        long sequence;
+        synchronized (this.lock) {
+            sequence = ++this.lastSequence;
+        }
+
+        Path entryFile = this.getEntryFile(sequence);
+        Path temporaryFile = entryFile.resolveSibling(entryFile.getFileName() + TEMPORARY_FILE_EXTENSION);
+        Properties properties = new Properties();
+        long created = System.currentTimeMillis();
+        long size = 0;
+
+        properties.setProperty("keyName", keyName);
+        properties.setProperty("created", Long.toString(created));
+        properties.setProperty("deletion", Boolean.toString(deletion));
+
+        try {
+            if (!deletion) {
+                Path dataFile = this.getDataFile(sequence);
+                size = Files.copy(inputStream, dataFile, StandardCopyOption.REPLACE_EXISTING);
+                force(dataFile);
+
+                properties.setProperty("size", Long.toString(size));
+                if (uploadConfig.getCacheControl() != null) {
+                    properties.setProperty("cacheControl", uploadConfig.getCacheControl());
+                }
+                if (uploadConfig.getCompression() != null) {
+                    properties.setProperty("compression", uploadConfig.getCompression().name());
+                }
+                properties.setProperty("compressionLevel", Integer.toString(uploadConfig.getCompressionLevel()));
+                if (uploadConfig.getContentType() != null) {
+                    properties.setProperty("contentType", uploadConfig.getContentType());
+                }
+                properties.setProperty("deduplicated", Boolean.toString(uploadConfig.isDeduplicated()));
+                properties.setProperty("memoryMapped", Boolean.toString(uploadConfig.isMemoryMapped()));
+                if (uploadConfig.getMetadata() != null) {
+                    for (Map.Entry<String, String> metadata : uploadConfig.getMetadata().entrySet()) {
+                        properties.setProperty(METADATA_PROPERTY_PREFIX + metadata.getKey(), metadata.getValue());
+                    }
+                }
+                properties.setProperty("multipartParallelism",
+                        Integer.toString(uploadConfig.getMultipartParallelism()));
+                properties.setProperty("multipartPartSize", Long.toString(uploadConfig.getMultipartPartSize()));
+                properties.setProperty("multipartThreshold", Long.toString(uploadConfig.getMultipartThreshold()));
+            }
+
+            try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                properties.store(outputStream, null);
+            }
+            force(temporaryFile);
+            moveAtomically(temporaryFile, entryFile);
+            forceDirectory(this.journalDirectory);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temporaryFile);
+            Files.deleteIfExists(this.getDataFile(sequence));
+            throw ex;
+        }
+
+        return new JournalEntry(sequence, keyName, deletion, size, created, deletion ? null : uploadConfig.copy());
+    }
+}
@@ -0,0 +1,672 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.hedging;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import com.gomoob.aws.IS3;
+import com.gomoob.aws.s3.metrics.LatencyHistogram;
+import com.gomoob.aws.s3.metrics.S3Operation;
+
+import software.amazon.awssdk.SdkClientException;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * An {@link IS3} decorator which hedges the reads delegated to an other {@link IS3} instance to cut their tail latency.
+ *
+ * <p>
+ * The <tt>GET</tt> and <tt>HEAD</tt> requests are sent on an executor. If a request has not received its response
+ * headers, so its first byte, after a delay computed from a percentile of the first byte latencies observed so far, a
+ * duplicate request is sent. The first request which receives its response wins, the response of the other request
+ * is aborted as soon as it arrives and its task is cancelled. Only the winner calls the response handler, so a
+ * download never writes twice.
+ * </p>
+ *
+ * <p>
+ * The hedges are limited by a budget, each read adds a fraction of hedge to the budget and each hedge consumes one
+ * hedge, so hedging never adds more than this fraction of extra reads (see {@link HedgingConfig}). The other calls are
+ * delegated without hedging because they are not idempotent or not latency sensitive.
+ * </p>
+ *
+ * <p>
+ * The executor must be able to run two requests for each concurrent read, an unbounded executor like a cached thread
+ * pool is recommended.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class HedgedS3 implements IS3 {
+
+    /**
+     * The number of thousandths of hedge in one hedge, the hedge budget is counted in thousandths of hedge.
+     */
+    private static final long BUDGET_SCALE = 1000;
+
+    /**
+     * The number of recorded latencies between two computations of the hedge delay.
+     */
+    private static final int DELAY_REFRESH_INTERVAL = 64;
+
+    /**
+     * An error used to stop a request which has lost the race, it never reaches the callers.
+     */
+    private static final class HedgeLostException extends RuntimeException {
+
+        /**
+         * The serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a new error, without stack trace because it does not describe a failure.
+         */
+        private HedgeLostException() {
+            super("The request has lost the race !", null, false, false);
+        }
+    }
+
+    /**
+     * The hedge delay of an operation, computed from the first byte latencies of the operation.
+     */
+    private final class HedgeDelay {
+
+        /**
+         * The current delay in nanoseconds.
+         */
+        private volatile long delayNanos = TimeUnit.MILLISECONDS.toNanos(HedgedS3.this.config.getInitialDelayMillis());
+
+        /**
+         * The first byte latencies of the operation.
+         */
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * The number of recorded latencies.
+         */
+        private final AtomicLong sampleCount = new AtomicLong();
+
+        /**
+         * Records a first byte latency, the delay is computed again at regular intervals once enough latencies have
+         * been recorded.
+         *
+         * @param latencyNanos the first byte latency in nanoseconds.
+         */
+        private void record(final long latencyNanos) {
+            this.latencies.record(latencyNanos);
+
+            long count = this.sampleCount.incrementAndGet();
+            int minSampleCount = HedgedS3.this.config.getMinSampleCount();
+            if (count == minSampleCount || count > minSampleCount && count % DELAY_REFRESH_INTERVAL == 0) {
+                long percentileNanos = this.latencies.getValueAtPercentile(HedgedS3.this.config.getDelayPercentile());
+                this.delayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(HedgedS3.this.config.getMaxDelayMillis()),
+                        Math.max(TimeUnit.MILLISECONDS.toNanos(HedgedS3.this.config.getMinDelayMillis()),
+                                percentileNanos));
+            }
+        }
+    }
+
+    /**
+     * Interface which represents one of the requests of a hedged read.
+     *
+     * @param <T> the type of the result of the read.
+     */
+    @FunctionalInterface
+    private interface HedgedRequest<T> {
+
+        /**
+         * Sends the request.
+         *
+         * @param claim the function the request calls when its first byte is received, it returns <code>true</code> if
+         *            the request wins the race, <code>false</code> if the request has to be abandoned.
+         *
+         * @return the result of the read, ignored if the request has lost the race.
+         */
+        T send(final BooleanSupplier claim);
+    }
+
+    /**
+     * The state of the race between the requests of a hedged read.
+     *
+     * @param <T> the type of the result of the read.
+     */
+    private static final class Race<T> {
+
+        /**
+         * The first error of the requests which failed before a request won the race.
+         */
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+        /**
+         * Completed when a request wins the race.
+         */
+        private final CompletableFuture<Void> firstByte = new CompletableFuture<>();
+
+        /**
+         * The number of requests which are running and have not won the race.
+         */
+        private final AtomicInteger pendingCount = new AtomicInteger();
+
+        /**
+         * The result of the read.
+         */
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        /**
+         * The tasks of the requests, indexed by request number.
+         */
+        @SuppressWarnings("unchecked")
+        private final Future<Object>[] tasks = new Future[2];
+
+        /**
+         * The number of the request which won the race, <tt>-1</tt> while no request has won.
+         */
+        private final AtomicInteger winner = new AtomicInteger(-1);
+
+        /**
+         * Records the end of a request which has not won the race, the read fails if no request is running anymore.
+         *
+         * @param requestError the error of the request, <code>null</code> if it has lost the race.
+         */
+        private void abandon(final RuntimeException requestError) {
+            if (requestError != null && !(requestError instanceof HedgeLostException)) {
+                this.error.compareAndSet(null, requestError);
+            }
+            if (this.pendingCount.decrementAndGet() == 0 && this.winner.get() < 0) {
+                this.result.completeExceptionally(this.error.get());
+            }
+        }
+
+        /**
+         * Cancels the tasks of the requests which did not win the race.
+         */
+        private void cancelLosers() {
+            int winnerNumber = this.winner.get();
+            for (int i = 0; i < this.tasks.length; ++i) {
+                if (i != winnerNumber && this.tasks[i] != null) {
+                    this.tasks[i].cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * The configuration of the hedging.
+     */
+    private final HedgingConfig config;
+
+    /**
+     * The executor used to send the requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The hedge delay of the <tt>GET</tt> requests.
+     */
+    private final HedgeDelay getObjectDelay;
+
+    /**
+     * The number of hedges available in the hedge budget, in thousandths of hedge.
+     */
+    private final AtomicLong hedgeBudget;
+
+    /**
+     * The number of reads which have not been hedged because the hedge budget was exhausted.
+     */
+    private final LongAdder hedgeBudgetExhaustedCount = new LongAdder();
+
+    /**
+     * The number of hedges.
+     */
+    private final LongAdder hedgeCount = new LongAdder();
+
+    /**
+     * The number of hedges which won the race.
+     */
+    private final LongAdder hedgeWinCount = new LongAdder();
+
+    /**
+     * The hedge delay of the <tt>HEAD</tt> requests.
+     */
+    private final HedgeDelay headObjectDelay;
+
+    /**
+     * The number of hedged reads.
+     */
+    private final LongAdder readCount = new LongAdder();
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     */
+    private final IS3 s3;
+
+    /**
+     * Creates a new hedged Amazon S3 facade with the default configuration.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     * @param executor the executor used to send the requests.
+     */
+    public HedgedS3(final IS3 s3, final ExecutorService executor) {
+        this(s3, new HedgingConfig(), executor);
+    }
+
+    /**
+     * Creates a new hedged Amazon S3 facade.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     * @param config the configuration of the hedging, it must not be modified afterwards.
+     * @param executor the executor used to send the requests.
+     */
+    public HedgedS3(final IS3 s3, final HedgingConfig config, final ExecutorService executor) {
+        this.s3 = s3;
+        this.config = config;
+        this.executor = executor;
+        this.hedgeBudget = new AtomicLong(config.getMaxHedgeBudget() * BUDGET_SCALE);
+        this.getObjectDelay = new HedgeDelay();
+        this.headObjectDelay = new HedgeDelay();
+    }
+
+    /**
+     * Gets the number of hedges available in the hedge budget.
+     *
+     * @return the number of hedges available in the hedge budget.
+     */
+    public double getHedgeBudget() {
+        return this.hedgeBudget.get() / (double) BUDGET_SCALE;
+    }
+
+    /**
+     * Gets the number of reads which have not been hedged because the hedge budget was exhausted.
+     *
+     * @return the number of reads which have not been hedged because the hedge budget was exhausted.
+     */
+    public long getHedgeBudgetExhaustedCount() {
+        return this.hedgeBudgetExhaustedCount.sum();
+    }
+
+    /**
+     * Gets the number of hedges, so the number of extra requests.
+     *
+     * @return the number of hedges.
+     */
+    public long getHedgeCount() {
+        return this.hedgeCount.sum();
+    }
+
+    /**
+     * Gets the current delay after which one a read is hedged.
+     *
+     * @param operation the operation, {@link S3Operation#GET_OBJECT} or {@link S3Operation#HEAD_OBJECT}.
+     *
+     * @return the current delay after which one a read of the operation is hedged in nanoseconds.
+     */
+    public long getHedgeDelayNanos(final S3Operation operation) {
+        return this.getHedgeDelay(operation).delayNanos;
+    }
+
+    /**
+     * Gets the number of hedges which received their response before the original request.
+     *
+     * @return the number of hedges which won the race.
+     */
+    public long getHedgeWinCount() {
+        return this.hedgeWinCount.sum();
+    }
+
+    /**
+     * Gets the observed first byte latencies.
+     *
+     * @param operation the operation, {@link S3Operation#GET_OBJECT} or {@link S3Operation#HEAD_OBJECT}.
+     *
+     * @return the observed first byte latencies of the operation in nanoseconds.
+     */
+    public LatencyHistogram getLatencies(final S3Operation operation) {
+        return this.getHedgeDelay(operation).latencies;
+    }
+
+    /**
+     * Gets the number of reads sent through the hedging.
+     *
+     * @return the number of reads sent through the hedging.
+     */
+    public long getReadCount() {
+        return this.readCount.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(
+            final AbortMultipartUploadRequest abortMultipartUploadRequest) {
+        return this.s3.abortMultipartUpload(abortMultipartUploadRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(
+            final CompleteMultipartUploadRequest completeMultipartUploadRequest) {
+        return this.s3.completeMultipartUpload(completeMultipartUploadRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CopyObjectResponse copyObject(final CopyObjectRequest copyObjectRequest) {
+        return this.s3.copyObject(copyObjectRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(
+            final CreateMultipartUploadRequest createMultipartUploadRequest) {
+        return this.s3.createMultipartUpload(createMultipartUploadRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DeleteObjectResponse deleteObject(final DeleteObjectRequest deleteObjectRequest) {
+        return this.s3.deleteObject(deleteObjectRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DeleteObjectsResponse deleteObjects(final DeleteObjectsRequest deleteObjectsRequest) {
+        return this.s3.deleteObjects(deleteObjectsRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The request is hedged, the response handler is only called with the response of the winning request.
+     * </p>
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
+            final StreamingResponseHandler streamingHandler) {
+        return this.hedge(this.getObjectDelay, claim -> this.s3.<ReturnT> getObject(getObjectRequest,
+                (StreamingResponseHandler<GetObjectResponse, ReturnT>) (response, inputStream) -> {
+                    if (!claim.getAsBoolean()) {
+                        inputStream.abort();
+                        throw new HedgeLostException();
+                    }
+
+                    return (ReturnT) streamingHandler.apply(response, inputStream);
+                }));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The request is hedged.
+     * </p>
+     */
+    @Override
+    public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) {
+        return this.hedge(this.headObjectDelay, claim -> {
+            HeadObjectResponse headObjectResponse = this.s3.headObject(headObjectRequest);
+            return claim.getAsBoolean() ? headObjectResponse : null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsResponse listObjects(final ListObjectsRequest listObjectsRequest) {
+        return this.s3.listObjects(listObjectsRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsV2Response listObjectsV2(final ListObjectsV2Request listObjectsV2Request) {
+        return this.s3.listObjectsV2(listObjectsV2Request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PutObjectResponse putObject(final PutObjectRequest putObjectRequest, final RequestBody requestBody) {
+        return this.s3.putObject(putObjectRequest, requestBody);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest, final RequestBody requestBody) {
+        return this.s3.uploadPart(uploadPartRequest, requestBody);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        this.s3.close();
+    }
+
+    /**
+     * Adds the fraction of hedge of a read to the hedge budget.
+     */
+    private void depositHedgeBudget() {
+        long maxHedgeBudget = this.config.getMaxHedgeBudget() * BUDGET_SCALE;
+        long deposit = (long) (this.config.getHedgeBudgetRatio() * BUDGET_SCALE);
+        long current;
+
+        while ((current = this.hedgeBudget.get()) < maxHedgeBudget) {
+            if (this.hedgeBudget.compareAndSet(current, Math.min(maxHedgeBudget, current + deposit))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the hedge delay of an operation.
+     *
+     * @param operation the operation.
+     *
+     * @return the hedge delay of the operation.
+     */
+    private HedgeDelay getHedgeDelay(final S3Operation operation) {
+        switch (operation) {
+            case GET_OBJECT:
+                return this.getObjectDelay;
+            case HEAD_OBJECT:
+                return this.headObjectDelay;
+            default:
+                throw new IllegalArgumentException("The operation '" + operation + "' is not hedged !");
+        }
+    }
+
+    /**
+     * Executes a read, a duplicate request is sent if the first request has not received its first byte after the
+     * hedge delay and if the hedge budget allows it.
+     *
+     * @param hedgeDelay the hedge delay of the operation of the read.
+     * @param request the request of the read.
+     *
+     * @return the result of the winning request.
+     */
+    private <T> T hedge(final HedgeDelay hedgeDelay, final HedgedRequest<T> request) {
+        this.readCount.increment();
+        this.depositHedgeBudget();
+
+        Race<T> race = new Race<>();
+        this.send(race, 0, hedgeDelay, request);
+
+        try {
+            try {
+                CompletableFuture.anyOf(race.firstByte, race.result).get(hedgeDelay.delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException tex) {
+                if (this.withdrawHedgeBudget()) {
+                    this.hedgeCount.increment();
+                    this.send(race, 1, hedgeDelay, request);
+                } else {
+                    this.hedgeBudgetExhaustedCount.increment();
+                }
+            } catch (ExecutionException eex) {
+
+                // The read has failed, the error is thrown below
+            }
+
+            T result = race.result.get();
+            if (race.winner.get() == 1) {
+                this.hedgeWinCount.increment();
+            }
+
+            return result;
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("Interrupted while waiting for a response !", iex);
+        } catch (ExecutionException eex) {
+            if (eex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) eex.getCause();
+            }
+            if (eex.getCause() instanceof Error) {
+                throw (Error) eex.getCause();
+            }
+            throw new SdkClientException("The read has failed !", eex.getCause());
+        } finally {
+            race.cancelLosers();
+        }
+    }
+
+    /**
+     * Sends one of the requests of a read on the executor.
+     *
+     * @param race the race between the requests of the read.
+     * @param number the number of the request, <tt>0</tt> for the original request and <tt>1</tt> for the hedge.
+     * @param hedgeDelay the hedge delay of the operation of the read.
+     * @param request the request of the read.
+     */
+    private <T> void send(final Race<T> race, final int number, final HedgeDelay hedgeDelay,
+            final HedgedRequest<T> request) {
+        race.pendingCount.incrementAndGet();
+
+        try {
+            race.tasks[number] = this.executor.submit(() -> {
+                long start = System.nanoTime();
+                BooleanSupplier claim = () -> {
+                    hedgeDelay.record(System.nanoTime() - start);
+                    if (race.winner.compareAndSet(-1, number)) {
+                        race.firstByte.complete(null);
+                        return true;
+                    }
+                    return false;
+                };
+
+                try {
+                    T result = request.send(claim);
+                    if (race.winner.get() == number) {
+                        race.result.complete(result);
+                    } else {
+                        race.abandon(null);
+                    }
+                } catch (Throwable t) {
+                    if (race.winner.get() == number) {
+                        race.result.completeExceptionally(t);
+                    } else {
+                        race.abandon(t instanceof RuntimeException ? (RuntimeException) t
+                                : new SdkClientException("The request has failed !", t));
+                    }
+                }
+
+                return null;
+            });
+        } catch (RuntimeException rex) {
+
+            // The executor rejected the request
+            race.abandon(rex);
+        }
+    }
+
+    /**
+     * Consumes one hedge from the hedge budget.
+     *
+     * @return <code>true</code> if a hedge has been consumed, <code>false</code> if the hedge budget is exhausted.
+     */
+    private boolean withdrawHedgeBudget() {
+        long current;
+
+        while ((current = this.hedgeBudget.get()) >= BUDGET_SCALE) {
+            if (this.hedgeBudget.compareAndSet(current, current - BUDGET_SCALE)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
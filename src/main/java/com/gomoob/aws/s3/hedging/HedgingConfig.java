@@ -0,0 +1,245 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.hedging;
+
+/**
+ * The configuration of a {@link HedgedS3} instance.
+ *
+ * @author agent (agent@local)
+ */
+public class HedgingConfig {
+
+    /**
+     * The percentile of the observed first byte latencies after which one a read is hedged.
+     */
+    private double delayPercentile = 95;
+
+    /**
+     * The number of hedges added to the hedge budget by each read, so the fraction of the reads which can be hedged.
+     */
+    private double hedgeBudgetRatio = 0.05;
+
+    /**
+     * The delay before a read is hedged in milliseconds while too few latencies have been observed.
+     */
+    private long initialDelayMillis = 100;
+
+    /**
+     * The maximum delay before a read is hedged in milliseconds.
+     */
+    private long maxDelayMillis = 1000;
+
+    /**
+     * The maximum number of hedges the hedge budget can hold, also its initial number of hedges.
+     */
+    private int maxHedgeBudget = 10;
+
+    /**
+     * The minimum delay before a read is hedged in milliseconds.
+     */
+    private long minDelayMillis = 5;
+
+    /**
+     * The number of first byte latencies to observe before the delay is computed from their percentile.
+     */
+    private int minSampleCount = 100;
+
+    /**
+     * Gets the percentile of the observed first byte latencies after which one a read is hedged.
+     *
+     * @return the percentile of the observed first byte latencies after which one a read is hedged.
+     */
+    public double getDelayPercentile() {
+        return this.delayPercentile;
+    }
+
+    /**
+     * Gets the number of hedges added to the hedge budget by each read.
+     *
+     * @return the number of hedges added to the hedge budget by each read.
+     */
+    public double getHedgeBudgetRatio() {
+        return this.hedgeBudgetRatio;
+    }
+
+    /**
+     * Gets the delay before a read is hedged while too few latencies have been observed.
+     *
+     * @return the delay before a read is hedged while too few latencies have been observed in milliseconds.
+     */
+    public long getInitialDelayMillis() {
+        return this.initialDelayMillis;
+    }
+
+    /**
+     * Gets the maximum delay before a read is hedged.
+     *
+     * @return the maximum delay before a read is hedged in milliseconds.
+     */
+    public long getMaxDelayMillis() {
+        return this.maxDelayMillis;
+    }
+
+    /**
+     * Gets the maximum number of hedges the hedge budget can hold, also its initial number of hedges.
+     *
+     * @return the maximum number of hedges the hedge budget can hold.
+     */
+    public int getMaxHedgeBudget() {
+        return this.maxHedgeBudget;
+    }
+
+    /**
+     * Gets the minimum delay before a read is hedged.
+     *
+     * @return the minimum delay before a read is hedged in milliseconds.
+     */
+    public long getMinDelayMillis() {
+        return this.minDelayMillis;
+    }
+
+    /**
+     * Gets the number of first byte latencies to observe before the delay is computed from their percentile.
+     *
+     * @return the number of first byte latencies to observe before the delay is computed from their percentile.
+     */
+    public int getMinSampleCount() {
+        return this.minSampleCount;
+    }
+
+    /**
+     * Sets the percentile of the observed first byte latencies after which one a read is hedged.
+     *
+     * @param delayPercentile the percentile, between <tt>0</tt> excluded and <tt>100</tt>.
+     *
+     * @return this instance.
+     */
+    public HedgingConfig setDelayPercentile(final double delayPercentile) {
+        if (delayPercentile <= 0 || delayPercentile > 100) {
+            throw new IllegalArgumentException("The delay percentile must be greater than 0 and lower than 100 !");
+        }
+
+        this.delayPercentile = delayPercentile;
+        return this;
+    }
+
+    /**
+     * Sets the number of hedges added to the hedge budget by each read, for example <tt>0.05</tt> allows hedging 5% of
+     * the reads on average.
+     *
+     * @param hedgeBudgetRatio the number of hedges added to the hedge budget by each read, must not be negative.
+     *
+     * @return this instance.
+     */
+    public HedgingConfig setHedgeBudgetRatio(final double hedgeBudgetRatio) {
+        if (hedgeBudgetRatio < 0) {
+            throw new IllegalArgumentException("The hedge budget ratio must not be negative !");
+        }
+
+        this.hedgeBudgetRatio = hedgeBudgetRatio;
+        return this;
+    }
+
+    /**
+     * Sets the delay before a read is hedged while too few latencies have been observed.
+     *
+     * @param initialDelayMillis the delay in milliseconds, must not be negative.
+     *
+     * @return this instance.
+     */
+    public HedgingConfig setInitialDelayMillis(final long initialDelayMillis) {
+        if (initialDelayMillis < 0) {
+            throw new IllegalArgumentException("The initial delay must not be negative !");
+        }
+
+        this.initialDelayMillis = initialDelayMillis;
+        return this;
+    }
+
+    /**
+     * Sets the maximum delay before a read is hedged.
+     *
+     * @param maxDelayMillis the maximum delay in milliseconds, must not be negative.
+     *
+     * @return this instance.
+     */
+    public HedgingConfig setMaxDelayMillis(final long maxDelayMillis) {
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("The maximum delay must not be negative !");
+        }
+
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of hedges the hedge budget can hold, also its initial number of hedges.
+     *
+     * @param maxHedgeBudget the maximum number of hedges the hedge budget can hold, must not be negative.
+     *
+     * @return this instance.
+     */
+    public HedgingConfig setMaxHedgeBudget(final int maxHedgeBudget) {
+        if (maxHedgeBudget < 0) {
+            throw new IllegalArgumentException("The maximum hedge budget must not be negative !");
+        }
+
+        this.maxHedgeBudget = maxHedgeBudget;
+        return this;
+    }
+
+    /**
+     * Sets the minimum delay before a read is hedged.
+     *
+     * @param minDelayMillis the minimum delay in milliseconds, must not be negative.
+     *
+     * @return this instance.
+     */
+    public HedgingConfig setMinDelayMillis(final long minDelayMillis) {
+        if (minDelayMillis < 0) {
+            throw new IllegalArgumentException("The minimum delay must not be negative !");
+        }
+
+        this.minDelayMillis = minDelayMillis;
+        return this;
+    }
+
+    /**
+     * Sets the number of first byte latencies to observe before the delay is computed from their percentile.
+     *
+     * @param minSampleCount the number of first byte latencies, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public HedgingConfig setMinSampleCount(final int minSampleCount) {
+        if (minSampleCount < 1) {
+            throw new IllegalArgumentException("The minimum sample count must be greater than 0 !");
+        }
+
+        this.minSampleCount = minSampleCount;
+        return this;
+    }
+}
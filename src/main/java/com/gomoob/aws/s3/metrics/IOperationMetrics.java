@@ -0,0 +1,85 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.metrics;
+
+/**
+ * Interface which describes the metrics of one Amazon S3 operation.
+ *
+ * <p>
+ * The values are read without locking the recording threads, so the values read while calls are recorded can be
+ * slightly inconsistent with each other. All the values are cumulative since the creation of the metrics, which makes
+ * them easy to export as counters to monitoring systems like JMX or Micrometer.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public interface IOperationMetrics {
+
+    /**
+     * Gets the number of bytes received by the calls, the bytes of the downloaded object contents.
+     *
+     * @return the number of bytes received by the calls.
+     */
+    public long getBytesIn();
+
+    /**
+     * Gets the number of bytes sent by the calls, the bytes of the uploaded request bodies.
+     *
+     * @return the number of bytes sent by the calls.
+     */
+    public long getBytesOut();
+
+    /**
+     * Gets the number of calls, including the failed calls.
+     *
+     * @return the number of calls.
+     */
+    public long getCallCount();
+
+    /**
+     * Gets the number of calls which have thrown an exception.
+     *
+     * @return the number of calls which have thrown an exception.
+     */
+    public long getErrorCount();
+
+    /**
+     * Gets the latency of the calls at a percentile, the precision of the returned value is about 2%.
+     *
+     * @param percentile the percentile, between <tt>0</tt> and <tt>100</tt>, for example <tt>99.9</tt>.
+     *
+     * @return the latency in nanoseconds under which the percentile of the calls completed, <tt>0</tt> if no call has
+     *         been recorded.
+     */
+    public long getLatencyAtPercentile(final double percentile);
+
+    /**
+     * Gets the highest latency of the calls.
+     *
+     * @return the highest latency of the calls in nanoseconds, <tt>0</tt> if no call has been recorded.
+     */
+    public long getMaxLatency();
+}
@@ -0,0 +1,276 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.gomoob.aws.IS3;
+
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * An {@link IS3} decorator which records metrics on the calls delegated to an other {@link IS3} instance.
+ *
+ * <p>
+ * For each operation the decorator records the number of calls, the number of failed calls, the number of bytes sent
+ * and received and a histogram of the latencies. The metrics are read through the {@link IS3Metrics} interface, they
+ * can be bridged to monitoring systems like JMX or Micrometer by polling their getters.
+ * </p>
+ *
+ * <p>
+ * The recording is lock-free, each call only allocates the lambda which delegates it and, for the <tt>getObject</tt>
+ * calls, the streaming handler wrapper which counts the received bytes.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class InstrumentedS3 implements IS3, IS3Metrics {
+
+    /**
+     * The clock used to measure the latencies, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * The metrics of each operation.
+     */
+    private final Map<S3Operation, OperationMetrics> operationMetrics = new EnumMap<>(S3Operation.class);
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     */
+    private final IS3 s3;
+
+    /**
+     * Creates a new instrumented Amazon S3 facade.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     */
+    public InstrumentedS3(final IS3 s3) {
+        this(s3, System::nanoTime);
+    }
+
+    /**
+     * Creates a new instrumented Amazon S3 facade which uses a specific clock.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     * @param nanoClock the clock used to measure the latencies, in nanoseconds.
+     */
+    InstrumentedS3(final IS3 s3, final LongSupplier nanoClock) {
+        this.s3 = s3;
+        this.nanoClock = nanoClock;
+        for (S3Operation operation : S3Operation.values()) {
+            this.operationMetrics.put(operation, new OperationMetrics());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(
+            final AbortMultipartUploadRequest abortMultipartUploadRequest) {
+        return this.timed(S3Operation.ABORT_MULTIPART_UPLOAD,
+                () -> this.s3.abortMultipartUpload(abortMultipartUploadRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(
+            final CompleteMultipartUploadRequest completeMultipartUploadRequest) {
+        return this.timed(S3Operation.COMPLETE_MULTIPART_UPLOAD,
+                () -> this.s3.completeMultipartUpload(completeMultipartUploadRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CopyObjectResponse copyObject(final CopyObjectRequest copyObjectRequest) {
+        return this.timed(S3Operation.COPY_OBJECT, () -> this.s3.copyObject(copyObjectRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(
+            final CreateMultipartUploadRequest createMultipartUploadRequest) {
+        return this.timed(S3Operation.CREATE_MULTIPART_UPLOAD,
+                () -> this.s3.createMultipartUpload(createMultipartUploadRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DeleteObjectResponse deleteObject(final DeleteObjectRequest deleteObjectRequest) {
+        return this.timed(S3Operation.DELETE_OBJECT, () -> this.s3.deleteObject(deleteObjectRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DeleteObjectsResponse deleteObjects(final DeleteObjectsRequest deleteObjectsRequest) {
+        return this.timed(S3Operation.DELETE_OBJECTS, () -> this.s3.deleteObjects(deleteObjectsRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The latency of a <tt>getObject</tt> call includes the time spent by the streaming handler to consume the content
+     * of the object.
+     * </p>
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
+            final StreamingResponseHandler streamingHandler) {
+        OperationMetrics metrics = this.operationMetrics.get(S3Operation.GET_OBJECT);
+        StreamingResponseHandler<GetObjectResponse, ReturnT> countingHandler = (response, inputStream) -> {
+            if (response.contentLength() != null) {
+                metrics.recordBytesIn(response.contentLength());
+            }
+            return (ReturnT) streamingHandler.apply(response, inputStream);
+        };
+
+        return this.timed(S3Operation.GET_OBJECT, () -> this.s3.getObject(getObjectRequest, countingHandler));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) {
+        return this.timed(S3Operation.HEAD_OBJECT, () -> this.s3.headObject(headObjectRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsResponse listObjects(final ListObjectsRequest listObjectsRequest) {
+        return this.timed(S3Operation.LIST_OBJECTS, () -> this.s3.listObjects(listObjectsRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsV2Response listObjectsV2(final ListObjectsV2Request listObjectsV2Request) {
+        return this.timed(S3Operation.LIST_OBJECTS_V2, () -> this.s3.listObjectsV2(listObjectsV2Request));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PutObjectResponse putObject(final PutObjectRequest putObjectRequest, final RequestBody requestBody) {
+        this.operationMetrics.get(S3Operation.PUT_OBJECT).recordBytesOut(requestBody.getContentLength());
+
+        return this.timed(S3Operation.PUT_OBJECT, () -> this.s3.putObject(putObjectRequest, requestBody));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest, final RequestBody requestBody) {
+        this.operationMetrics.get(S3Operation.UPLOAD_PART).recordBytesOut(requestBody.getContentLength());
+
+        return this.timed(S3Operation.UPLOAD_PART, () -> this.s3.uploadPart(uploadPartRequest, requestBody));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IOperationMetrics getOperationMetrics(final S3Operation operation) {
+        return this.operationMetrics.get(operation);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        this.s3.close();
+    }
+
+    /**
+     * Executes a call and records its latency and its failure in the metrics of its operation.
+     *
+     * @param operation the operation of the call.
+     * @param call the call.
+     *
+     * @return the result of the call.
+     */
+    private <T> T timed(final S3Operation operation, final Supplier<T> call) {
+        OperationMetrics metrics = this.operationMetrics.get(operation);
+        long start = this.nanoClock.getAsLong();
+        boolean failed = true;
+
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            metrics.recordCall(this.nanoClock.getAsLong() - start, failed);
+        }
+    }
+}
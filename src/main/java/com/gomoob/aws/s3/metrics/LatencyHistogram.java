@@ -0,0 +1,188 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with log-linear buckets, in the spirit of the HDR histograms.
+ *
+ * <p>
+ * The values lower than <tt>2^SUB_BUCKET_BITS</tt> are counted exactly, each greater power of two range is split into
+ * <tt>2^SUB_BUCKET_BITS</tt> buckets of equal width, so a recorded value is known with a relative error lower than
+ * <tt>2^-SUB_BUCKET_BITS</tt> whatever its magnitude. The values greater than {@link #MAX_VALUE} are counted as
+ * {@link #MAX_VALUE}.
+ * </p>
+ *
+ * <p>
+ * Recording a value increments one atomic counter and does not allocate, the percentiles are computed by scanning the
+ * buckets when they are read.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The highest value distinguished by the histogram, about 73 minutes in nanoseconds.
+     */
+    public static final long MAX_VALUE = (1L << 42) - 1;
+
+    /**
+     * The number of bits of the sub buckets of each power of two range.
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /**
+     * The number of sub buckets of each power of two range.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of values recorded in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+
+    /**
+     * The highest value recorded.
+     */
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Gets the index of the bucket of a value.
+     *
+     * @param value the value, between <tt>0</tt> and {@link #MAX_VALUE}.
+     *
+     * @return the index of the bucket of the value.
+     */
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Gets the highest value counted in a bucket.
+     *
+     * @param index the index of the bucket.
+     *
+     * @return the highest value counted in the bucket.
+     */
+    private static long highestValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long lowestValue = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+
+        return lowestValue + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+
+        for (int i = 0; i < this.counts.length(); ++i) {
+            count += this.counts.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the highest recorded value.
+     *
+     * @return the highest recorded value, <tt>0</tt> if no value has been recorded.
+     */
+    public long getMaxValue() {
+        return this.maxValue.get();
+    }
+
+    /**
+     * Gets the value at a percentile.
+     *
+     * @param percentile the percentile, between <tt>0</tt> and <tt>100</tt>.
+     *
+     * @return the highest value of the bucket which contains the percentile, bounded by the highest recorded value,
+     *         <tt>0</tt> if no value has been recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100 !");
+        }
+
+        // The buckets are read once, the values recorded while reading only shift the result slightly
+        long[] snapshot = new long[this.counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; ++i) {
+            snapshot[i] = this.counts.get(i);
+            count += snapshot[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long cumulatedCount = 0;
+        for (int i = 0; i < snapshot.length; ++i) {
+            cumulatedCount += snapshot[i];
+            if (cumulatedCount >= rank) {
+                return Math.min(highestValue(i), this.maxValue.get());
+            }
+        }
+
+        return this.maxValue.get();
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value to record, the negative values are counted as <tt>0</tt>.
+     */
+    public void record(final long value) {
+        long boundedValue = Math.min(Math.max(value, 0), MAX_VALUE);
+        this.counts.incrementAndGet(bucketIndex(boundedValue));
+
+        long currentMax;
+        while (boundedValue > (currentMax = this.maxValue.get())) {
+            if (this.maxValue.compareAndSet(currentMax, boundedValue)) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics recorded for one Amazon S3 operation, the counters are {@link LongAdder}s so concurrent calls do not
+ * contend on a single memory location.
+ *
+ * @author agent (agent@local)
+ */
+final class OperationMetrics implements IOperationMetrics {
+
+    /**
+     * The number of bytes received by the calls.
+     */
+    private final LongAdder bytesIn = new LongAdder();
+
+    /**
+     * The number of bytes sent by the calls.
+     */
+    private final LongAdder bytesOut = new LongAdder();
+
+    /**
+     * The number of calls.
+     */
+    private final LongAdder callCount = new LongAdder();
+
+    /**
+     * The number of calls which have thrown an exception.
+     */
+    private final LongAdder errorCount = new LongAdder();
+
+    /**
+     * The histogram of the latencies of the calls, in nanoseconds.
+     */
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCallCount() {
+        return this.callCount.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getErrorCount() {
+        return this.errorCount.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLatencyAtPercentile(final double percentile) {
+        return this.latencyHistogram.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxLatency() {
+        return this.latencyHistogram.getMaxValue();
+    }
+
+    /**
+     * Records the number of bytes received by a call.
+     *
+     * @param bytes the number of bytes received.
+     */
+    void recordBytesIn(final long bytes) {
+        this.bytesIn.add(bytes);
+    }
+
+    /**
+     * Records the number of bytes sent by a call.
+     *
+     * @param bytes the number of bytes sent.
+     */
+    void recordBytesOut(final long bytes) {
+        this.bytesOut.add(bytes);
+    }
+
+    /**
+     * Records a finished call.
+     *
+     * @param latencyNanos the latency of the call in nanoseconds.
+     * @param failed <code>true</code> if the call has thrown an exception, <code>false</code> otherwise.
+     */
+    void recordCall(final long latencyNanos, final boolean failed) {
+        this.callCount.increment();
+        if (failed) {
+            this.errorCount.increment();
+        }
+        this.latencyHistogram.record(latencyNanos);
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.metrics;
+
+/**
+ * The operations of the {@link com.gomoob.aws.IS3} interface measured by an {@link InstrumentedS3} instance.
+ *
+ * @author agent (agent@local)
+ */
+public enum S3Operation {
+
+    /**
+     * The <tt>abortMultipartUpload</tt> operation.
+     */
+    ABORT_MULTIPART_UPLOAD,
+
+    /**
+     * The <tt>completeMultipartUpload</tt> operation.
+     */
+    COMPLETE_MULTIPART_UPLOAD,
+
+    /**
+     * The <tt>copyObject</tt> operation.
+     */
+    COPY_OBJECT,
+
+    /**
+     * The <tt>createMultipartUpload</tt> operation.
+     */
+    CREATE_MULTIPART_UPLOAD,
+
+    /**
+     * The <tt>deleteObject</tt> operation.
+     */
+    DELETE_OBJECT,
+
+    /**
+     * The <tt>deleteObjects</tt> operation.
+     */
+    DELETE_OBJECTS,
+
+    /**
+     * The <tt>getObject</tt> operation.
+     */
+    GET_OBJECT,
+
+    /**
+     * The <tt>headObject</tt> operation.
+     */
+    HEAD_OBJECT,
+
+    /**
+     * The <tt>listObjects</tt> operation.
+     */
+    LIST_OBJECTS,
+
+    /**
+     * The <tt>listObjectsV2</tt> operation.
+     */
+    LIST_OBJECTS_V2,
+
+    /**
+     * The <tt>putObject</tt> operation.
+     */
+    PUT_OBJECT,
+
+    /**
+     * The <tt>uploadPart</tt> operation.
+     */
+    UPLOAD_PART
+}
@@ -0,0 +1,427 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.retry;
+
+/**
+ * The configuration of an {@link AdaptiveRetryS3} instance.
+ *
+ * @author agent (agent@local)
+ */
+public class AdaptiveRetryConfig {
+
+    /**
+     * The base delay of the exponential backoff in milliseconds.
+     */
+    private long baseDelayMillis = 50;
+
+    /**
+     * The maximum number of attempts of a call, including the first attempt.
+     */
+    private int maxAttempts = 4;
+
+    /**
+     * The maximum delay between two attempts in milliseconds.
+     */
+    private long maxDelayMillis = 10_000;
+
+    /**
+     * The maximum rate of the rate limiters in requests per second, also their initial rate.
+     */
+    private double maxRate = 3500;
+
+    /**
+     * The maximum number of rate limiters kept, the least recently used rate limiters are dropped.
+     */
+    private int maxRateLimiterCount = 1024;
+
+    /**
+     * The maximum read limit in bytes used to mark the stream of a request body so it can be sent again.
+     */
+    private int maxReplayBufferSize = 1024 * 1024;
+
+    /**
+     * The maximum number of retries the retry budget can hold, also its initial number of retries.
+     */
+    private int maxRetryBudget = 100;
+
+    /**
+     * The minimum rate of the rate limiters in requests per second.
+     */
+    private double minRate = 1;
+
+    /**
+     * The number of key name segments which identify the prefix of a rate limiter.
+     */
+    private int prefixDepth = 1;
+
+    /**
+     * The factor applied to the rate of a rate limiter when a request is throttled.
+     */
+    private double rateDecreaseFactor = 0.5;
+
+    /**
+     * The rate added to a rate limiter, in requests per second, when a request succeeds.
+     */
+    private double rateIncrease = 1;
+
+    /**
+     * The number of retries added to the retry budget when a call succeeds.
+     */
+    private double retryBudgetRatio = 0.1;
+
+    /**
+     * Gets the base delay of the exponential backoff.
+     *
+     * @return the base delay of the exponential backoff in milliseconds.
+     */
+    public long getBaseDelayMillis() {
+        return this.baseDelayMillis;
+    }
+
+    /**
+     * Gets the maximum number of attempts of a call, including the first attempt.
+     *
+     * @return the maximum number of attempts of a call.
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * Gets the maximum delay between two attempts.
+     *
+     * @return the maximum delay between two attempts in milliseconds.
+     */
+    public long getMaxDelayMillis() {
+        return this.maxDelayMillis;
+    }
+
+    /**
+     * Gets the maximum rate of the rate limiters, also their initial rate.
+     *
+     * @return the maximum rate of the rate limiters in requests per second.
+     */
+    public double getMaxRate() {
+        return this.maxRate;
+    }
+
+    /**
+     * Gets the maximum number of rate limiters kept.
+     *
+     * @return the maximum number of rate limiters kept.
+     */
+    public int getMaxRateLimiterCount() {
+        return this.maxRateLimiterCount;
+    }
+
+    /**
+     * Gets the maximum read limit used to mark the stream of a request body so it can be sent again.
+     *
+     * @return the maximum read limit used to mark the stream of a request body, in bytes.
+     */
+    public int getMaxReplayBufferSize() {
+        return this.maxReplayBufferSize;
+    }
+
+    /**
+     * Gets the maximum number of retries the retry budget can hold, also its initial number of retries.
+     *
+     * @return the maximum number of retries the retry budget can hold.
+     */
+    public int getMaxRetryBudget() {
+        return this.maxRetryBudget;
+    }
+
+    /**
+     * Gets the minimum rate of the rate limiters.
+     *
+     * @return the minimum rate of the rate limiters in requests per second.
+     */
+    public double getMinRate() {
+        return this.minRate;
+    }
+
+    /**
+     * Gets the number of key name segments which identify the prefix of a rate limiter.
+     *
+     * @return the number of key name segments which identify the prefix of a rate limiter.
+     */
+    public int getPrefixDepth() {
+        return this.prefixDepth;
+    }
+
+    /**
+     * Gets the factor applied to the rate of a rate limiter when a request is throttled.
+     *
+     * @return the factor applied to the rate of a rate limiter when a request is throttled.
+     */
+    public double getRateDecreaseFactor() {
+        return this.rateDecreaseFactor;
+    }
+
+    /**
+     * Gets the rate added to a rate limiter when a request succeeds.
+     *
+     * @return the rate added to a rate limiter when a request succeeds, in requests per second.
+     */
+    public double getRateIncrease() {
+        return this.rateIncrease;
+    }
+
+    /**
+     * Gets the number of retries added to the retry budget when a call succeeds.
+     *
+     * @return the number of retries added to the retry budget when a call succeeds.
+     */
+    public double getRetryBudgetRatio() {
+        return this.retryBudgetRatio;
+    }
+
+    /**
+     * Sets the base delay of the exponential backoff, the delay before the retry <tt>n</tt> is a random duration
+     * between <tt>0</tt> and <tt>min(maxDelay, baseDelay * 2^(n - 1))</tt>.
+     *
+     * @param baseDelayMillis the base delay of the exponential backoff in milliseconds, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setBaseDelayMillis(final long baseDelayMillis) {
+        if (baseDelayMillis < 1) {
+            throw new IllegalArgumentException("The base delay must be greater than 0 !");
+        }
+
+        this.baseDelayMillis = baseDelayMillis;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of attempts of a call, including the first attempt.
+     *
+     * @param maxAttempts the maximum number of attempts of a call, <tt>1</tt> to never retry.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setMaxAttempts(final int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("The maximum number of attempts must be greater than 0 !");
+        }
+
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Sets the maximum delay between two attempts.
+     *
+     * @param maxDelayMillis the maximum delay between two attempts in milliseconds.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setMaxDelayMillis(final long maxDelayMillis) {
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("The maximum delay must be positive !");
+        }
+
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    /**
+     * Sets the maximum rate of the rate limiters, also their initial rate.
+     *
+     * <p>
+     * Amazon S3 supports at least 3500 <tt>PUT</tt> / <tt>COPY</tt> / <tt>POST</tt> / <tt>DELETE</tt> requests per
+     * second and per prefix, the limiters start at this rate and only slow down when Amazon S3 throttles requests.
+     * </p>
+     *
+     * @param maxRate the maximum rate of the rate limiters in requests per second.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setMaxRate(final double maxRate) {
+        if (maxRate <= 0) {
+            throw new IllegalArgumentException("The maximum rate must be greater than 0 !");
+        }
+
+        this.maxRate = maxRate;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of rate limiters kept.
+     *
+     * <p>
+     * A rate limiter is created for each bucket and key prefix, the least recently used rate limiter is dropped when
+     * this number is exceeded, so the key prefixes made of dates or user identifiers do not accumulate rate limiters.
+     * A dropped rate limiter is created again at the maximum rate when its prefix is used again.
+     * </p>
+     *
+     * @param maxRateLimiterCount the maximum number of rate limiters kept, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setMaxRateLimiterCount(final int maxRateLimiterCount) {
+        if (maxRateLimiterCount < 1) {
+            throw new IllegalArgumentException("The maximum rate limiter count must be greater than 0 !");
+        }
+
+        this.maxRateLimiterCount = maxRateLimiterCount;
+        return this;
+    }
+
+    /**
+     * Sets the maximum read limit used to mark the stream of a request body so it can be sent again.
+     *
+     * <p>
+     * The stream is marked with the content length of the body limited to this size. A stream which keeps the bytes
+     * read since its mark in memory, like a {@link java.io.BufferedInputStream}, holds at most this size and loses its
+     * mark when a larger body is read, the call then fails without being retried. The file and buffer streams used by
+     * the document store read their content again without buffering it, their bodies are sent again whatever their
+     * size.
+     * </p>
+     *
+     * @param maxReplayBufferSize the maximum read limit used to mark the stream of a request body, in bytes.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setMaxReplayBufferSize(final int maxReplayBufferSize) {
+        if (maxReplayBufferSize < 0) {
+            throw new IllegalArgumentException("The maximum replay buffer size must be positive !");
+        }
+
+        this.maxReplayBufferSize = maxReplayBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of retries the retry budget can hold, also its initial number of retries.
+     *
+     * <p>
+     * The retry budget is shared by all the calls, each retry takes one retry from the budget and each successful call
+     * gives back {@link #getRetryBudgetRatio()} retry. When the budget is empty the calls fail without being retried,
+     * so an outage cannot multiply the load sent to Amazon S3 by the maximum number of attempts.
+     * </p>
+     *
+     * @param maxRetryBudget the maximum number of retries the retry budget can hold, <tt>0</tt> to never retry.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setMaxRetryBudget(final int maxRetryBudget) {
+        if (maxRetryBudget < 0) {
+            throw new IllegalArgumentException("The maximum retry budget must be positive !");
+        }
+
+        this.maxRetryBudget = maxRetryBudget;
+        return this;
+    }
+
+    /**
+     * Sets the minimum rate of the rate limiters.
+     *
+     * @param minRate the minimum rate of the rate limiters in requests per second, must be greater than 0.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setMinRate(final double minRate) {
+        if (minRate <= 0) {
+            throw new IllegalArgumentException("The minimum rate must be greater than 0 !");
+        }
+
+        this.minRate = minRate;
+        return this;
+    }
+
+    /**
+     * Sets the number of key name segments which identify the prefix of a rate limiter.
+     *
+     * <p>
+     * For example with a depth of <tt>1</tt> the keys <tt>a/b/c</tt> and <tt>a/d</tt> share the limiter of the prefix
+     * <tt>a/</tt>, with a depth of <tt>0</tt> all the keys of a bucket share the same limiter.
+     * </p>
+     *
+     * @param prefixDepth the number of key name segments which identify the prefix of a rate limiter.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setPrefixDepth(final int prefixDepth) {
+        if (prefixDepth < 0) {
+            throw new IllegalArgumentException("The prefix depth must be positive !");
+        }
+
+        this.prefixDepth = prefixDepth;
+        return this;
+    }
+
+    /**
+     * Sets the factor applied to the rate of a rate limiter when a request is throttled.
+     *
+     * @param rateDecreaseFactor the factor applied to the rate of a rate limiter when a request is throttled, between
+     *            <tt>0</tt> and <tt>1</tt>.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setRateDecreaseFactor(final double rateDecreaseFactor) {
+        if (rateDecreaseFactor <= 0 || rateDecreaseFactor >= 1) {
+            throw new IllegalArgumentException("The rate decrease factor must be between 0 and 1 !");
+        }
+
+        this.rateDecreaseFactor = rateDecreaseFactor;
+        return this;
+    }
+
+    /**
+     * Sets the rate added to a rate limiter when a request succeeds.
+     *
+     * @param rateIncrease the rate added to a rate limiter when a request succeeds, in requests per second.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setRateIncrease(final double rateIncrease) {
+        if (rateIncrease < 0) {
+            throw new IllegalArgumentException("The rate increase must be positive !");
+        }
+
+        this.rateIncrease = rateIncrease;
+        return this;
+    }
+
+    /**
+     * Sets the number of retries added to the retry budget when a call succeeds.
+     *
+     * @param retryBudgetRatio the number of retries added to the retry budget when a call succeeds, for example
+     *            <tt>0.1</tt> allows one retry for ten successful calls.
+     *
+     * @return this instance.
+     */
+    public AdaptiveRetryConfig setRetryBudgetRatio(final double retryBudgetRatio) {
+        if (retryBudgetRatio < 0) {
+            throw new IllegalArgumentException("The retry budget ratio must be positive !");
+        }
+
+        this.retryBudgetRatio = retryBudgetRatio;
+        return this;
+    }
+}
@@ -0,0 +1,517 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.retry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.gomoob.aws.IS3;
+
+import software.amazon.awssdk.SdkClientException;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * An {@link IS3} decorator which adapts the calls delegated to an other {@link IS3} instance to the throttling of
+ * Amazon S3.
+ *
+ * <p>
+ * Each call first waits for a token of the {@link AimdRateLimiter} of its bucket and key prefix, the limiters slow down
+ * when Amazon S3 answers <tt>503 Slow Down</tt> and ramp back up when the requests succeed. The calls which fail with
+ * a throttling or a server error are retried after an exponential backoff with full jitter, as long as the shared
+ * retry budget is not exhausted (see {@link AdaptiveRetryConfig}).
+ * </p>
+ *
+ * <p>
+ * A call which uploads a request body is only retried if the stream of the body supports
+ * {@link InputStream#mark(int)} / {@link InputStream#reset()}, the other bodies cannot be sent again. The stream is
+ * marked with the content length of the body limited to the maximum replay buffer size (see
+ * {@link AdaptiveRetryConfig#setMaxReplayBufferSize(int)}), so a stream which buffers the bytes read since its mark
+ * never holds more than this size and a larger body read from such a stream is not sent again.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class AdaptiveRetryS3 implements IS3 {
+
+    /**
+     * The number of thousandths of retry in one retry, the retry budget is counted in thousandths of retry.
+     */
+    private static final long BUDGET_SCALE = 1000;
+
+    /**
+     * The configuration of the retries and the rate limiters.
+     */
+    private final AdaptiveRetryConfig config;
+
+    /**
+     * The rate limiters by bucket and key prefix, for example <tt>bucket/prefix/</tt>, in access order, the least
+     * recently used rate limiter is the first one.
+     */
+    private final LinkedHashMap<String, AimdRateLimiter> rateLimiters;
+
+    /**
+     * The number of retries available in the retry budget, in thousandths of retry.
+     */
+    private final AtomicLong retryBudget;
+
+    /**
+     * The number of calls which failed without being retried because the retry budget was exhausted.
+     */
+    private final LongAdder retryBudgetExhaustedCount = new LongAdder();
+
+    /**
+     * The number of retries.
+     */
+    private final LongAdder retryCount = new LongAdder();
+
+    /**
+     * The instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     */
+    private final IS3 s3;
+
+    /**
+     * Creates a new adaptive Amazon S3 facade with the default configuration.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     */
+    public AdaptiveRetryS3(final IS3 s3) {
+        this(s3, new AdaptiveRetryConfig());
+    }
+
+    /**
+     * Creates a new adaptive Amazon S3 facade.
+     *
+     * @param s3 the instance of the GOMOOB Amazon S3 facade to which one the calls are delegated.
+     * @param config the configuration of the retries and the rate limiters, it must not be modified afterwards.
+     */
+    public AdaptiveRetryS3(final IS3 s3, final AdaptiveRetryConfig config) {
+        this.s3 = s3;
+        this.config = config;
+        this.retryBudget = new AtomicLong(config.getMaxRetryBudget() * BUDGET_SCALE);
+        this.rateLimiters = new LinkedHashMap<String, AimdRateLimiter>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, AimdRateLimiter> eldest) {
+                return this.size() > AdaptiveRetryS3.this.config.getMaxRateLimiterCount();
+            }
+        };
+    }
+
+    /**
+     * Gets the rate limiters of the buckets and the key prefixes used recently, the least recently used rate limiters
+     * are dropped once there are more than {@link AdaptiveRetryConfig#getMaxRateLimiterCount()} rate limiters.
+     *
+     * @return a read-only copy of the rate limiters by bucket and key prefix, for example <tt>bucket/prefix/</tt>, the
+     *         least recently used rate limiter is the first one.
+     */
+    public Map<String, AimdRateLimiter> getRateLimiters() {
+        synchronized (this.rateLimiters) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(this.rateLimiters));
+        }
+    }
+
+    /**
+     * Gets the number of retries available in the retry budget.
+     *
+     * @return the number of retries available in the retry budget.
+     */
+    public double getRetryBudget() {
+        return this.retryBudget.get() / (double) BUDGET_SCALE;
+    }
+
+    /**
+     * Gets the number of calls which failed without being retried because the retry budget was exhausted.
+     *
+     * @return the number of calls which failed without being retried because the retry budget was exhausted.
+     */
+    public long getRetryBudgetExhaustedCount() {
+        return this.retryBudgetExhaustedCount.sum();
+    }
+
+    /**
+     * Gets the number of retries.
+     *
+     * @return the number of retries.
+     */
+    public long getRetryCount() {
+        return this.retryCount.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(
+            final AbortMultipartUploadRequest abortMultipartUploadRequest) {
+        return this.execute(abortMultipartUploadRequest.bucket(), abortMultipartUploadRequest.key(), null,
+                () -> this.s3.abortMultipartUpload(abortMultipartUploadRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(
+            final CompleteMultipartUploadRequest completeMultipartUploadRequest) {
+        return this.execute(completeMultipartUploadRequest.bucket(), completeMultipartUploadRequest.key(), null,
+                () -> this.s3.completeMultipartUpload(completeMultipartUploadRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CopyObjectResponse copyObject(final CopyObjectRequest copyObjectRequest) {
+        return this.execute(copyObjectRequest.bucket(), copyObjectRequest.key(), null,
+                () -> this.s3.copyObject(copyObjectRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(
+            final CreateMultipartUploadRequest createMultipartUploadRequest) {
+        return this.execute(createMultipartUploadRequest.bucket(), createMultipartUploadRequest.key(), null,
+                () -> this.s3.createMultipartUpload(createMultipartUploadRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DeleteObjectResponse deleteObject(final DeleteObjectRequest deleteObjectRequest) {
+        return this.execute(deleteObjectRequest.bucket(), deleteObjectRequest.key(), null,
+                () -> this.s3.deleteObject(deleteObjectRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A multi-object delete request can target keys of several prefixes, it uses the rate limiter of its bucket.
+     * </p>
+     */
+    @Override
+    public DeleteObjectsResponse deleteObjects(final DeleteObjectsRequest deleteObjectsRequest) {
+        return this.execute(deleteObjectsRequest.bucket(), "", null, () -> this.s3.deleteObjects(deleteObjectsRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
+            final StreamingResponseHandler streamingHandler) {
+        return this.execute(getObjectRequest.bucket(), getObjectRequest.key(), null,
+                () -> this.s3.<ReturnT> getObject(getObjectRequest, streamingHandler));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) {
+        return this.execute(headObjectRequest.bucket(), headObjectRequest.key(), null,
+                () -> this.s3.headObject(headObjectRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsResponse listObjects(final ListObjectsRequest listObjectsRequest) {
+        return this.execute(listObjectsRequest.bucket(), listObjectsRequest.prefix(), null,
+                () -> this.s3.listObjects(listObjectsRequest));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListObjectsV2Response listObjectsV2(final ListObjectsV2Request listObjectsV2Request) {
+        return this.execute(listObjectsV2Request.bucket(), listObjectsV2Request.prefix(), null,
+                () -> this.s3.listObjectsV2(listObjectsV2Request));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PutObjectResponse putObject(final PutObjectRequest putObjectRequest, final RequestBody requestBody) {
+        return this.execute(putObjectRequest.bucket(), putObjectRequest.key(), requestBody,
+                () -> this.s3.putObject(putObjectRequest, requestBody));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest, final RequestBody requestBody) {
+        return this.execute(uploadPartRequest.bucket(), uploadPartRequest.key(), requestBody,
+                () -> this.s3.uploadPart(uploadPartRequest, requestBody));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        this.s3.close();
+    }
+
+    /**
+     * Checks if an Amazon S3 error is caused by the throttling of the requests.
+     *
+     * @param s3Exception the Amazon S3 error.
+     *
+     * @return <code>true</code> if the error is caused by the throttling of the requests, <code>false</code>
+     *         otherwise.
+     */
+    private static boolean isThrottling(final S3Exception s3Exception) {
+        String errorCode = s3Exception.getErrorCode();
+
+        return s3Exception.getStatusCode() == 503 || s3Exception.getStatusCode() == 429 || "SlowDown".equals(errorCode)
+                || "Throttling".equals(errorCode) || "ThrottlingException".equals(errorCode)
+                || "RequestLimitExceeded".equals(errorCode);
+    }
+
+    /**
+     * Checks if a failed request can be sent again.
+     *
+     * @param s3Exception the Amazon S3 error.
+     *
+     * @return <code>true</code> if the request can be sent again, <code>false</code> otherwise.
+     */
+    private static boolean isRetryable(final S3Exception s3Exception) {
+        int statusCode = s3Exception.getStatusCode();
+
+        return isThrottling(s3Exception) || statusCode == 500 || statusCode == 502 || statusCode == 504
+                || "InternalError".equals(s3Exception.getErrorCode())
+                || "RequestTimeout".equals(s3Exception.getErrorCode());
+    }
+
+    /**
+     * Waits for a delay.
+     *
+     * @param nanos the delay in nanoseconds.
+     * @param lastError the last error of the call, <code>null</code> if the call has not been tried yet.
+     *
+     * @throws SdkClientException if the current thread is interrupted while waiting.
+     */
+    private static void sleep(final long nanos, final RuntimeException lastError) {
+        if (nanos <= 0) {
+            return;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            SdkClientException sdkcex = new SdkClientException("Interrupted while waiting to send a request !", iex);
+            if (lastError != null) {
+                sdkcex.addSuppressed(lastError);
+            }
+            throw sdkcex;
+        }
+    }
+
+    /**
+     * Computes the delay before a retry, a random duration between <tt>0</tt> and the exponential backoff delay.
+     *
+     * @param retry the number of the retry, starting at <tt>1</tt>.
+     *
+     * @return the delay before the retry in nanoseconds.
+     */
+    private long computeBackoffNanos(final int retry) {
+        long maxDelayMillis = this.config.getMaxDelayMillis();
+        long delayMillis = retry > 31 || this.config.getBaseDelayMillis() > maxDelayMillis >>> (retry - 1)
+                ? maxDelayMillis
+                : this.config.getBaseDelayMillis() << (retry - 1);
+
+        return ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(delayMillis) + 1);
+    }
+
+    /**
+     * Executes a call with the rate limiter of its key and retries it while it fails with a retryable error.
+     *
+     * @param bucket the name of the Amazon S3 bucket of the call.
+     * @param key the Amazon S3 key or key prefix of the call, <code>null</code> if the call has no key.
+     * @param requestBody the request body sent by the call, <code>null</code> if the call has no body.
+     * @param call the call.
+     *
+     * @return the result of the call.
+     */
+    private <T> T execute(final String bucket, final String key, final RequestBody requestBody,
+            final Supplier<T> call) {
+        AimdRateLimiter rateLimiter = this.getRateLimiter(bucket, key);
+
+        // The body stream is marked so its content can be sent again, without buffering more than the maximum replay
+        // buffer size
+        InputStream body = requestBody == null ? null : requestBody.asStream();
+        boolean replayable = body == null || body.markSupported();
+        if (body != null && replayable) {
+            long contentLength = requestBody.getContentLength();
+            int maxReplayBufferSize = this.config.getMaxReplayBufferSize();
+            body.mark(contentLength < 0 || contentLength > maxReplayBufferSize ? maxReplayBufferSize
+                    : (int) contentLength);
+        }
+
+        for (int attempt = 1;; ++attempt) {
+            sleep(rateLimiter.reserve(), null);
+
+            try {
+                T result = call.get();
+                rateLimiter.onSuccess();
+                this.depositRetryBudget();
+                return result;
+            } catch (S3Exception s3ex) {
+                if (isThrottling(s3ex)) {
+                    rateLimiter.onThrottle();
+                }
+                if (!isRetryable(s3ex) || attempt >= this.config.getMaxAttempts() || !replayable) {
+                    throw s3ex;
+                }
+
+                // The mark of a buffering stream is lost once more than its read limit has been read
+                if (body != null) {
+                    try {
+                        body.reset();
+                    } catch (IOException ioex) {
+                        s3ex.addSuppressed(ioex);
+                        throw s3ex;
+                    }
+                }
+                if (!this.withdrawRetryBudget()) {
+                    this.retryBudgetExhaustedCount.increment();
+                    throw s3ex;
+                }
+
+                this.retryCount.increment();
+                sleep(this.computeBackoffNanos(attempt), s3ex);
+            }
+        }
+    }
+
+    /**
+     * Adds the retries earned by a successful call to the retry budget.
+     */
+    private void depositRetryBudget() {
+        long maxRetryBudget = this.config.getMaxRetryBudget() * BUDGET_SCALE;
+        long deposit = (long) (this.config.getRetryBudgetRatio() * BUDGET_SCALE);
+        long current;
+
+        while ((current = this.retryBudget.get()) < maxRetryBudget) {
+            if (this.retryBudget.compareAndSet(current, Math.min(maxRetryBudget, current + deposit))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the rate limiter of a key, the rate limiter is created if needed and the least recently used rate limiter is
+     * dropped if there are too many rate limiters.
+     *
+     * @param bucket the name of the Amazon S3 bucket.
+     * @param key the Amazon S3 key or key prefix, <code>null</code> to get the rate limiter of the bucket.
+     *
+     * @return the rate limiter of the key.
+     */
+    private AimdRateLimiter getRateLimiter(final String bucket, final String key) {
+        int prefixLength = 0;
+
+        // The prefix is made of the first segments of the key, including their trailing '/'
+        if (key != null) {
+            for (int depth = 0; depth < this.config.getPrefixDepth(); ++depth) {
+                int separatorIndex = key.indexOf('/', prefixLength);
+                if (separatorIndex == -1) {
+                    break;
+                }
+                prefixLength = separatorIndex + 1;
+            }
+        }
+
+        String limiterKey = bucket + "/" + (key == null ? "" : key.substring(0, prefixLength));
+
+        synchronized (this.rateLimiters) {
+            return this.rateLimiters.computeIfAbsent(limiterKey,
+                    k -> new AimdRateLimiter(this.config, System::nanoTime));
+        }
+    }
+
+    /**
+     * Takes one retry from the retry budget.
+     *
+     * @return <code>true</code> if a retry has been taken, <code>false</code> if the retry budget is exhausted.
+     */
+    private boolean withdrawRetryBudget() {
+        long current;
+
+        while ((current = this.retryBudget.get()) >= BUDGET_SCALE) {
+            if (this.retryBudget.compareAndSet(current, current - BUDGET_SCALE)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
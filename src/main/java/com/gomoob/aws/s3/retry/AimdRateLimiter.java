@@ -0,0 +1,192 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.retry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket rate limiter whose rate follows an additive increase / multiplicative decrease (AIMD) law.
+ *
+ * <p>
+ * Each request takes one token from the bucket, the bucket is refilled at the current rate and holds at most one
+ * second of tokens. When the bucket is empty a request reserves the next token and waits until it is available, so the
+ * waiting requests are spread at the current rate. The rate is multiplied by a decrease factor each time Amazon S3
+ * throttles a request and is increased by a fixed amount each time a request succeeds.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class AimdRateLimiter {
+
+    /**
+     * The maximum rate in requests per second.
+     */
+    private final double maxRate;
+
+    /**
+     * The minimum rate in requests per second.
+     */
+    private final double minRate;
+
+    /**
+     * The clock used to refill the bucket, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * The current rate in requests per second.
+     */
+    private double rate;
+
+    /**
+     * The factor applied to the rate when a request is throttled.
+     */
+    private final double rateDecreaseFactor;
+
+    /**
+     * The rate added when a request succeeds, in requests per second.
+     */
+    private final double rateIncrease;
+
+    /**
+     * The time of the last refill of the bucket, in nanoseconds.
+     */
+    private long refillTime;
+
+    /**
+     * The number of successful requests.
+     */
+    private long successCount;
+
+    /**
+     * The number of throttled requests.
+     */
+    private long throttleCount;
+
+    /**
+     * The number of tokens in the bucket, negative when requests wait for reserved tokens.
+     */
+    private double tokens;
+
+    /**
+     * Creates a new rate limiter, its initial rate is its maximum rate.
+     *
+     * @param config the configuration which gives the rates of the limiter.
+     * @param nanoClock the clock used to refill the bucket, in nanoseconds.
+     */
+    AimdRateLimiter(final AdaptiveRetryConfig config, final LongSupplier nanoClock) {
+        this.maxRate = config.getMaxRate();
+        this.minRate = Math.min(config.getMinRate(), config.getMaxRate());
+        this.rateDecreaseFactor = config.getRateDecreaseFactor();
+        this.rateIncrease = config.getRateIncrease();
+        this.nanoClock = nanoClock;
+        this.rate = this.maxRate;
+        this.tokens = this.maxRate;
+        this.refillTime = nanoClock.getAsLong();
+    }
+
+    /**
+     * Gets the current rate.
+     *
+     * @return the current rate in requests per second.
+     */
+    public synchronized double getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Gets the number of successful requests.
+     *
+     * @return the number of successful requests.
+     */
+    public synchronized long getSuccessCount() {
+        return this.successCount;
+    }
+
+    /**
+     * Gets the number of throttled requests.
+     *
+     * @return the number of throttled requests.
+     */
+    public synchronized long getThrottleCount() {
+        return this.throttleCount;
+    }
+
+    /**
+     * Gets the number of tokens available in the bucket.
+     *
+     * @return the number of tokens available in the bucket, negative when requests wait for reserved tokens.
+     */
+    public synchronized double getTokens() {
+        this.refill();
+        return this.tokens;
+    }
+
+    /**
+     * Records a successful request, the rate is increased.
+     */
+    synchronized void onSuccess() {
+        ++this.successCount;
+        this.rate = Math.min(this.maxRate, this.rate + this.rateIncrease);
+    }
+
+    /**
+     * Records a throttled request, the rate is decreased and the burst accumulated in the bucket is dropped.
+     */
+    synchronized void onThrottle() {
+        this.refill();
+        ++this.throttleCount;
+        this.rate = Math.max(this.minRate, this.rate * this.rateDecreaseFactor);
+        this.tokens = Math.min(this.tokens, 0);
+    }
+
+    /**
+     * Reserves a token for a request.
+     *
+     * @return the time to wait before sending the request, in nanoseconds.
+     */
+    synchronized long reserve() {
+        this.refill();
+        this.tokens -= 1;
+
+        return this.tokens >= 0 ? 0 : (long) (-this.tokens / this.rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Refills the bucket with the tokens produced since the last refill at the current rate.
+     */
+    private void refill() {
+        long now = this.nanoClock.getAsLong();
+        double elapsedSeconds = (now - this.refillTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        this.refillTime = now;
+        this.tokens = Math.min(this.rate, this.tokens + elapsedSeconds * this.rate);
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.documentstore;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface which acts as an asynchronous facade to a document store.
+ *
+ * <p>
+ * The functions of this interface are the asynchronous counterparts of the functions of the {@link IDocumentStore}
+ * interface, they return immediately a {@link CompletableFuture} which is completed when the operation is finished.
+ * The failures of the operations (an {@link java.io.IOException} for example) complete the returned futures
+ * exceptionally.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public interface IAsyncDocumentStore<UC extends IUploadConfig> {
+
+    /**
+     * Asynchronously creates a new file in the document store by copying an uploaded file.
+     *
+     * @param serverFilePath the path to the uploaded file to copy into the document store.
+     * @param keyName the key name to be given to the new file to create. The keyn ame is a string which has a format
+     *            which is the same as a relative file path.
+     *
+     * @return a future completed with an object which describes the file which have been uploaded on the document
+     *         store.
+     *
+     * @see IDocumentStore#createFromUploadedFile(String, String)
+     */
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final String serverFilePath,
+            final String keyName);
+
+    /**
+     * Asynchronously creates a new file in the document store by copying an uploaded file.
+     *
+     * @param serverFilePath the path to the uploaded file to copy into the document store.
+     * @param keyName the key name to be given to the new file to create. The keyn ame is a string which has a format
+     *            which is the same as a relative file path.
+     * @param uploadConfig additional upload configuration options.
+     *
+     * @return a future completed with an object which describes the file which have been uploaded on the document
+     *         store.
+     *
+     * @see IDocumentStore#createFromUploadedFile(String, String, IUploadConfig)
+     */
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final String serverFilePath,
+            final String keyName, final UC uploadConfig);
+
+    /**
+     * Asynchronously creates a new file in the document store by copying an uploaded file.
+     *
+     * <p>
+     * The input stream is read by the thread which executes the operation, it must not be used by the caller until the
+     * returned future is completed.
+     * </p>
+     *
+     * @param serverFileInputStream the input stream of the file to copy into the document store.
+     * @param keyName the key name to be given to the new file to create. The keyn ame is a string which has a format
+     *            which is the same as a relative file path.
+     * @param fileSize the size of file.
+     *
+     * @return a future completed with an object which describes the file which have been uploaded on the document
+     *         store.
+     *
+     * @see IDocumentStore#createFromUploadedFile(InputStream, String, long)
+     */
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final InputStream serverFileInputStream,
+            final String keyName, final long fileSize);
+
+    /**
+     * Asynchronously creates a new file in the document store by copying an input stream whose length is not known in
+     * advance.
+     *
+     * <p>
+     * The input stream is read by the thread which executes the operation, it must not be used by the caller until the
+     * returned future is completed.
+     * </p>
+     *
+     * @param serverFileInputStream the input stream of the file to copy into the document store.
+     * @param keyName the key name to be given to the new file to create. The keyn ame is a string which has a format
+     *            which is the same as a relative file path.
+     *
+     * @return a future completed with an object which describes the file which have been uploaded on the document
+     *         store.
+     *
+     * @see IDocumentStore#createFromUploadedFile(InputStream, String)
+     */
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final InputStream serverFileInputStream,
+            final String keyName);
+
+    /**
+     * Asynchronously creates a new file in the document store by copying an input stream whose length is not known in
+     * advance.
+     *
+     * <p>
+     * The input stream is read by the thread which executes the operation, it must not be used by the caller until the
+     * returned future is completed.
+     * </p>
+     *
+     * @param serverFileInputStream the input stream of the file to copy into the document store.
+     * @param keyName the key name to be given to the new file to create. The keyn ame is a string which has a format
+     *            which is the same as a relative file path.
+     * @param uploadConfig additional upload configuration options.
+     *
+     * @return a future completed with an object which describes the file which have been uploaded on the document
+     *         store.
+     *
+     * @see IDocumentStore#createFromUploadedFile(InputStream, String, IUploadConfig)
+     */
+    public CompletableFuture<IDocumentStoreFile> createFromUploadedFileAsync(final InputStream serverFileInputStream,
+            final String keyName, final UC uploadConfig);
+
+    /**
+     * Asynchronously deletes a file associated to a specified key name.
+     *
+     * @param keyName the key name used to find the file to delete from the store.
+     *
+     * @return a future completed when the file is deleted.
+     *
+     * @see IDocumentStore#delete(String)
+     */
+    public CompletableFuture<Void> deleteAsync(final String keyName);
+
+    /**
+     * Asynchronously deletes the files associated to several key names.
+     *
+     * @param keyNames the key names used to find the files to delete from the store.
+     *
+     * @return a future completed with a map which maps the key names of the files which could not be deleted to the
+     *         associated error messages.
+     *
+     * @see IDocumentStore#delete(Collection)
+     */
+    public CompletableFuture<Map<String, String>> deleteAsync(final Collection<String> keyNames);
+
+    /**
+     * Asynchronously downloads a file associated to a specified key name to a generic destination.
+     *
+     * @param keyName the key name used to find the file to download to the destination.
+     * @param destination the place where to download the file.
+     *
+     * @return a future completed with the provided <tt>destination</tt> parameter if the download is successful.
+     *
+     * @see IDocumentStore#download(String, String)
+     */
+    public CompletableFuture<String> downloadAsync(final String keyName, final String destination);
+
+    /**
+     * Asynchronously finds a file associated to a specified key name.
+     *
+     * @param keyName the key name used to find the file in the document store.
+     *
+     * @return a future completed with the found file or <code>null</code>.
+     *
+     * @see IDocumentStore#find(String)
+     */
+    public CompletableFuture<IDocumentStoreFile> findAsync(final String keyName);
+}
@@ -27,6 +27,9 @@ package com.gomoob.documentstore;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Interface which acts as a facade to a document store.
@@ -98,6 +101,45 @@ public interface IDocumentStore<UC extends IUploadConfig> {
     public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
             final long fileSize) throws IOException;
 
+    /**
+     * Creates a new file in the document store by copying an input stream whose length is not known in advance.
+     *
+     * <p>
+     * The stream is read until its end but is not closed, the implementations upload it while it is read and do not
+     * hold the whole stream in memory.
+     * </p>
+     *
+     * @param serverFileInputStream the input stream of the file to copy into the document store.
+     * @param keyName the key name to be given to the new file to create. The keyn ame is a string which has a format
+     *            which is the same as a relative file path.
+     *
+     * @return an object which describes the file which have been uploaded on the document store.
+     *
+     * @throws IOException if an input / output error occurs while reading the stream or creating the file.
+     */
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName)
+            throws IOException;
+
+    /**
+     * Creates a new file in the document store by copying an input stream whose length is not known in advance.
+     *
+     * <p>
+     * The stream is read until its end but is not closed, the implementations upload it while it is read and do not
+     * hold the whole stream in memory.
+     * </p>
+     *
+     * @param serverFileInputStream the input stream of the file to copy into the document store.
+     * @param keyName the key name to be given to the new file to create. The keyn ame is a string which has a format
+     *            which is the same as a relative file path.
+     * @param uploadConfig additional upload configuration options.
+     *
+     * @return an object which describes the file which have been uploaded on the document store.
+     *
+     * @throws IOException if an input / output error occurs while reading the stream or creating the file.
+     */
+    public IDocumentStoreFile createFromUploadedFile(final InputStream serverFileInputStream, final String keyName,
+            final UC uploadConfig) throws IOException;
+
     /**
      * Deletes a file associated to a specified key name.
      *
@@ -105,6 +147,21 @@ public interface IDocumentStore<UC extends IUploadConfig> {
      */
     public void delete(final String keyName);
 
+    /**
+     * Deletes the files associated to several key names.
+     *
+     * <p>
+     * This function does not stop at the first failure, it tries to delete all the files and reports the key names
+     * which could not be deleted.
+     * </p>
+     *
+     * @param keyNames the key names used to find the files to delete from the store.
+     *
+     * @return a map which maps the key names of the files which could not be deleted to the associated error messages,
+     *         this map is empty if all the files have been deleted.
+     */
+    public Map<String, String> delete(final Collection<String> keyNames);
+
     /**
      * Download a file associated to a specified key name to a generic destination. The destination is expressed using a
      * normal file path or a custom URL to "download" the file using SFTP or an other mechanism (the supported
@@ -132,4 +189,19 @@ public interface IDocumentStore<UC extends IUploadConfig> {
      * @return the found file or <code>null</code>.
      */
     public IDocumentStoreFile find(final String keyName);
+
+    /**
+     * Lists the files whose key names start with a prefix.
+     *
+     * <p>
+     * The returned stream is lazy, the files are fetched from the document store while the stream is consumed so
+     * listing a prefix having a lot of files uses a constant amount of memory. The stream should be closed if it is not
+     * fully consumed to release the resources used to fetch the files.
+     * </p>
+     *
+     * @param prefix the prefix of the key names of the files to list, an empty string to list all the files.
+     *
+     * @return a lazy stream of the listed files.
+     */
+    public Stream<IDocumentStoreFile> list(final String prefix);
 }
@@ -34,6 +34,27 @@ import java.util.Date;
  */
 public interface IDocumentStoreFile {
 
+    /**
+     * Gets the hash of the content of the file, the files which have the same content hash have the same content.
+     *
+     * @return the lowercase hexadecimal SHA-256 hash of the content of the file, <code>null</code> if it is unknown.
+     */
+    public String getContentHash();
+
+    /**
+     * Gets the MIME type of the content of the file.
+     *
+     * @return the MIME type of the content of the file, <code>null</code> if it is unknown.
+     */
+    public String getContentType();
+
+    /**
+     * Gets the entity tag of the file, the entity tag changes each time the content of the file changes.
+     *
+     * @return the entity tag of the file, <code>null</code> if it is unknown.
+     */
+    public String getETag();
+
     /**
      * Gets the key name which indicate where the file is stored in the document store.
      *
@@ -65,10 +86,38 @@ public interface IDocumentStoreFile {
     /**
      * Gets the size of the file in bytes.
      *
-     * @return the size of the file in bytes.
+     * @return the size of the file in bytes, the size of its uncompressed content if the file is stored compressed.
      */
     public long getSize();
 
+    /**
+     * Gets the number of bytes used to store the file, lower than its size if the file is stored compressed.
+     *
+     * @return the number of bytes used to store the file.
+     */
+    public long getStoredSize();
+
+    /**
+     * Sets the hash of the content of the file.
+     *
+     * @param contentHash the lowercase hexadecimal SHA-256 hash of the content of the file.
+     */
+    public void setContentHash(final String contentHash);
+
+    /**
+     * Sets the MIME type of the content of the file.
+     *
+     * @param contentType the MIME type of the content of the file.
+     */
+    public void setContentType(final String contentType);
+
+    /**
+     * Sets the entity tag of the file.
+     *
+     * @param eTag the entity tag of the file.
+     */
+    public void setETag(final String eTag);
+
     /**
      * Sets the key name which indicate where the file is stored in the document store.
      *
@@ -100,7 +149,15 @@ public interface IDocumentStoreFile {
     /**
      * Sets the size of the file in bytes.
      *
-     * @param fileSize the size of the file in bytes.
+     * @param fileSize the size of the file in bytes, the size of its uncompressed content if the file is stored
+     *            compressed.
      */
     public void setSize(final long fileSize);
+
+    /**
+     * Sets the number of bytes used to store the file.
+     *
+     * @param storedSize the number of bytes used to store the file.
+     */
+    public void setStoredSize(final long storedSize);
 }
@@ -0,0 +1,334 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.documentstore.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable direct byte buffers used by the transfers of the document stores.
+ *
+ * <p>
+ * The buffers are bucketed by size classes, the size classes are the powers of two between {@link #MIN_BUFFER_SIZE}
+ * and the maximum buffer size of the pool. A request is served by a buffer of the smallest size class which can hold
+ * it, its limit is set to the requested size. The requests larger than the maximum buffer size are served by new
+ * buffers which are not pooled when they are released.
+ * </p>
+ *
+ * <p>
+ * The released buffers are kept in the pool until the bytes they retain reach the maximum pooled bytes of the pool,
+ * the buffers released beyond this cap are dropped and their memory is reclaimed by the garbage collector.
+ * </p>
+ *
+ * <p>
+ * The leak detection (see {@link #setLeakDetection(boolean)}) records where each outstanding buffer has been acquired,
+ * it is intended to be enabled in tests which then call {@link #checkLeaks()}.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class ByteBufferPool {
+
+    /**
+     * The default maximum buffer size of a pool, in bytes.
+     */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The default maximum number of bytes retained by the released buffers of a pool.
+     */
+    public static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024L * 1024L;
+
+    /**
+     * The size of the smallest size class, in bytes.
+     */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * The number of acquisitions served by a pooled buffer.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * The outstanding buffers mapped to the errors which record where they have been acquired, <code>null</code> if the
+     * leak detection is disabled.
+     */
+    private volatile Map<ByteBuffer, Throwable> leakTraces;
+
+    /**
+     * The maximum buffer size of the pool, in bytes.
+     */
+    private final int maxBufferSize;
+
+    /**
+     * The maximum number of bytes retained by the released buffers of the pool.
+     */
+    private final long maxPooledBytes;
+
+    /**
+     * The number of acquisitions which required the allocation of a new buffer.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * The number of bytes of the acquired buffers which have not been released.
+     */
+    private final AtomicLong outstandingBytes = new AtomicLong();
+
+    /**
+     * The number of bytes retained by the released buffers of the pool.
+     */
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * The released buffers of each size class, the index of a size class is the base 2 logarithm of its size minus the
+     * one of {@link #MIN_BUFFER_SIZE}.
+     */
+    private final Deque<ByteBuffer>[] sizeClasses;
+
+    /**
+     * Creates a new pool with the default maximum buffer size and the default maximum pooled bytes.
+     */
+    public ByteBufferPool() {
+        this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxBufferSize the size of the largest pooled buffers, it is rounded up to a power of two and must be
+     *            between {@link #MIN_BUFFER_SIZE} and <tt>2^30</tt>.
+     * @param maxPooledBytes the maximum number of bytes retained by the released buffers of the pool, <tt>0</tt> to
+     *            never retain the released buffers.
+     */
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(final int maxBufferSize, final long maxPooledBytes) {
+        if (maxBufferSize < MIN_BUFFER_SIZE || maxBufferSize > 1 << 30) {
+            throw new IllegalArgumentException("The maximum buffer size must be between " + MIN_BUFFER_SIZE + " and "
+                    + (1 << 30) + " bytes !");
+        }
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("The maximum pooled bytes must be positive !");
+        }
+
+        this.maxBufferSize = roundToSizeClass(maxBufferSize);
+        this.maxPooledBytes = maxPooledBytes;
+        this.sizeClasses = new Deque[sizeClassIndex(this.maxBufferSize) + 1];
+        for (int i = 0; i < this.sizeClasses.length; ++i) {
+            this.sizeClasses[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    /**
+     * Acquires a direct buffer, the returned buffer has a position of <tt>0</tt> and a limit equal to the requested
+     * size, its capacity can be greater. The buffer must be given back using {@link #release(ByteBuffer)} and must not
+     * be used after its release.
+     *
+     * @param size the size of the buffer in bytes.
+     *
+     * @return the acquired buffer.
+     */
+    public ByteBuffer acquire(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size of a buffer must be positive !");
+        }
+
+        ByteBuffer buffer = null;
+
+        if (size <= this.maxBufferSize) {
+            int capacity = roundToSizeClass(size);
+            buffer = this.sizeClasses[sizeClassIndex(capacity)].pollFirst();
+
+            if (buffer != null) {
+                this.pooledBytes.addAndGet(-capacity);
+                this.hitCount.incrementAndGet();
+            } else {
+                buffer = ByteBuffer.allocateDirect(capacity);
+                this.missCount.incrementAndGet();
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(size);
+            this.missCount.incrementAndGet();
+        }
+
+        buffer.clear().limit(size);
+        this.outstandingBytes.addAndGet(buffer.capacity());
+
+        Map<ByteBuffer, Throwable> traces = this.leakTraces;
+        if (traces != null) {
+            traces.put(buffer, new Throwable("Buffer of " + size + " bytes acquired here"));
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Checks that all the buffers acquired while the leak detection was enabled have been released.
+     *
+     * @throws IllegalStateException if some buffers have not been released, the error has the places where the leaked
+     *             buffers have been acquired as suppressed errors.
+     */
+    public void checkLeaks() {
+        Map<ByteBuffer, Throwable> traces = this.leakTraces;
+
+        if (traces != null) {
+            synchronized (traces) {
+                if (!traces.isEmpty()) {
+                    IllegalStateException isex = new IllegalStateException(
+                            traces.size() + " buffer(s) have not been released !");
+                    traces.values().forEach(isex::addSuppressed);
+                    throw isex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of acquisitions served by a pooled buffer.
+     *
+     * @return the number of acquisitions served by a pooled buffer.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Gets the maximum buffer size of the pool.
+     *
+     * @return the size in bytes of the largest pooled buffers.
+     */
+    public int getMaxBufferSize() {
+        return this.maxBufferSize;
+    }
+
+    /**
+     * Gets the maximum number of bytes retained by the released buffers of the pool.
+     *
+     * @return the maximum number of bytes retained by the released buffers of the pool.
+     */
+    public long getMaxPooledBytes() {
+        return this.maxPooledBytes;
+    }
+
+    /**
+     * Gets the number of acquisitions which required the allocation of a new buffer.
+     *
+     * @return the number of acquisitions which required the allocation of a new buffer.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Gets the number of bytes of the acquired buffers which have not been released, the capacity of the buffers is
+     * counted.
+     *
+     * @return the number of bytes of the acquired buffers which have not been released.
+     */
+    public long getOutstandingBytes() {
+        return this.outstandingBytes.get();
+    }
+
+    /**
+     * Gets the number of bytes retained by the released buffers of the pool.
+     *
+     * @return the number of bytes retained by the released buffers of the pool.
+     */
+    public long getPooledBytes() {
+        return this.pooledBytes.get();
+    }
+
+    /**
+     * Gives back a buffer acquired from the pool.
+     *
+     * @param buffer the buffer to release, it must be the buffer returned by {@link #acquire(int)} and not a duplicate
+     *            or a slice of it.
+     *
+     * @throws IllegalArgumentException if the leak detection is enabled and the buffer is not outstanding, because it
+     *             has already been released or has not been acquired from this pool.
+     */
+    public void release(final ByteBuffer buffer) {
+        Map<ByteBuffer, Throwable> traces = this.leakTraces;
+        if (traces != null && traces.remove(buffer) == null) {
+            throw new IllegalArgumentException("The buffer has already been released or does not belong to the pool !");
+        }
+
+        int capacity = buffer.capacity();
+        this.outstandingBytes.addAndGet(-capacity);
+
+        // Only the buffers of a size class are pooled, and only while the pool is under its cap
+        if (capacity <= this.maxBufferSize && capacity == roundToSizeClass(capacity)) {
+            if (this.pooledBytes.addAndGet(capacity) <= this.maxPooledBytes) {
+                buffer.clear();
+                this.sizeClasses[sizeClassIndex(capacity)].offerFirst(buffer);
+            } else {
+                this.pooledBytes.addAndGet(-capacity);
+            }
+        }
+    }
+
+    /**
+     * Enables or disables the leak detection, it has to be enabled before the pool is used because the buffers acquired
+     * while the leak detection is disabled are not recorded.
+     *
+     * @param leakDetection <code>true</code> to record where each buffer is acquired and check the releases,
+     *            <code>false</code> otherwise.
+     */
+    public void setLeakDetection(final boolean leakDetection) {
+        this.leakTraces = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    /**
+     * Rounds a buffer size up to its size class.
+     *
+     * @param size the buffer size, at most <tt>2^30</tt>.
+     *
+     * @return the smallest size class which can hold the size.
+     */
+    private static int roundToSizeClass(final int size) {
+        return size <= MIN_BUFFER_SIZE ? MIN_BUFFER_SIZE : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Gets the index of a size class.
+     *
+     * @param sizeClass the size class.
+     *
+     * @return the index of the size class.
+     */
+    private static int sizeClassIndex(final int sizeClass) {
+        return Integer.numberOfTrailingZeros(sizeClass) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+}
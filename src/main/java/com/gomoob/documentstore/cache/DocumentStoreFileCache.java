@@ -0,0 +1,290 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.documentstore.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.gomoob.documentstore.IDocumentStoreFile;
+import com.gomoob.documentstore.filesystem.DocumentStoreFile;
+
+/**
+ * A bounded in-memory cache of document store file descriptions.
+ *
+ * <p>
+ * Entries expire after a configurable time to live and the least recently used entries are evicted when the cache is
+ * full. Only found files are cached, a lookup of a missing file is never served from the cache.
+ * </p>
+ *
+ * <p>
+ * A document store which uses this cache must invalidate the entries of the files it creates or deletes. To never
+ * cache a description read before a concurrent invalidation the document store reads the current generation of the
+ * cache before its lookup and provides it to {@link #put(String, IDocumentStoreFile, long)}.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class DocumentStoreFileCache {
+
+    /**
+     * The number of lookups served from the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * The number of lookups which could not be served from the cache.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * The entries of the cache in access order, the least recently used entry is the first one.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * The number of invalidations done on the cache.
+     */
+    private long generation;
+
+    /**
+     * The maximum number of entries of the cache.
+     */
+    private final int maxSize;
+
+    /**
+     * The clock used to expire the entries, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * The time to live of the entries in nanoseconds.
+     */
+    private final long ttlNanos;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of entries of the cache.
+     * @param ttl the time to live of the entries.
+     * @param ttlUnit the unit of the time to live.
+     */
+    public DocumentStoreFileCache(final int maxSize, final long ttl, final TimeUnit ttlUnit) {
+        this(maxSize, ttl, ttlUnit, System::nanoTime);
+    }
+
+    /**
+     * Creates a new cache which uses a specific clock.
+     *
+     * @param maxSize the maximum number of entries of the cache.
+     * @param ttl the time to live of the entries.
+     * @param ttlUnit the unit of the time to live.
+     * @param nanoClock the clock used to expire the entries, in nanoseconds.
+     */
+    DocumentStoreFileCache(final int maxSize, final long ttl, final TimeUnit ttlUnit, final LongSupplier nanoClock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The maximum size of the cache must be greater than 0 !");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+        this.nanoClock = nanoClock;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return this.size() > DocumentStoreFileCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a copy of a cached file description.
+     *
+     * @param key the key of the file.
+     *
+     * @return a copy of the cached file description or <code>null</code> if the file is not cached or its entry has
+     *         expired.
+     */
+    public IDocumentStoreFile get(final String key) {
+        Entry entry;
+
+        synchronized (this) {
+            entry = this.entries.get(key);
+            if (entry != null && this.nanoClock.getAsLong() - entry.createdAt >= this.ttlNanos) {
+                this.entries.remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+
+        this.hitCount.incrementAndGet();
+
+        return copy(entry.documentStoreFile);
+    }
+
+    /**
+     * Gets the current generation of the cache, the generation changes each time an entry is invalidated.
+     *
+     * @return the current generation of the cache.
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Gets the number of lookups served from the cache.
+     *
+     * @return the number of lookups served from the cache.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Gets the maximum number of entries of the cache.
+     *
+     * @return the maximum number of entries of the cache.
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Gets the number of lookups which could not be served from the cache.
+     *
+     * @return the number of lookups which could not be served from the cache.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Invalidates the entry of a file.
+     *
+     * @param key the key of the file.
+     */
+    public synchronized void invalidate(final String key) {
+        this.entries.remove(key);
+        ++this.generation;
+    }
+
+    /**
+     * Invalidates all the entries of the cache.
+     */
+    public synchronized void invalidateAll() {
+        this.entries.clear();
+        ++this.generation;
+    }
+
+    /**
+     * Puts a file description in the cache.
+     *
+     * @param key the key of the file.
+     * @param documentStoreFile the file description to cache, a copy of this description is cached.
+     * @param generation the generation of the cache read before reading the file description, if an invalidation
+     *            happened since this generation the file description is not cached.
+     */
+    public void put(final String key, final IDocumentStoreFile documentStoreFile, final long generation) {
+        Entry entry = new Entry(copy(documentStoreFile), this.nanoClock.getAsLong());
+
+        synchronized (this) {
+            if (generation == this.generation) {
+                this.entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries of the cache, including the expired entries not evicted yet.
+     *
+     * @return the number of entries of the cache.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Copies a file description, so the cached descriptions cannot be modified by the callers.
+     *
+     * @param documentStoreFile the file description to copy.
+     *
+     * @return the copy.
+     */
+    private static IDocumentStoreFile copy(final IDocumentStoreFile documentStoreFile) {
+        IDocumentStoreFile copy = new DocumentStoreFile();
+        copy.setContentHash(documentStoreFile.getContentHash());
+        copy.setContentType(documentStoreFile.getContentType());
+        copy.setETag(documentStoreFile.getETag());
+        copy.setKeyName(documentStoreFile.getKeyName());
+        copy.setLastAccessDate(documentStoreFile.getLastAccessDate());
+        copy.setLastUpdateDate(documentStoreFile.getLastUpdateDate());
+        copy.setName(documentStoreFile.getName());
+        copy.setSize(documentStoreFile.getSize());
+        copy.setStoredSize(documentStoreFile.getStoredSize());
+
+        return copy;
+    }
+
+    /**
+     * Class which represents an entry of the cache.
+     */
+    private static class Entry {
+
+        /**
+         * The time when the entry has been created, in nanoseconds.
+         */
+        private final long createdAt;
+
+        /**
+         * The cached file description.
+         */
+        private final IDocumentStoreFile documentStoreFile;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param documentStoreFile the cached file description.
+         * @param createdAt the time when the entry has been created, in nanoseconds.
+         */
+        private Entry(final IDocumentStoreFile documentStoreFile, final long createdAt) {
+            this.documentStoreFile = documentStoreFile;
+            this.createdAt = createdAt;
+        }
+    }
+}
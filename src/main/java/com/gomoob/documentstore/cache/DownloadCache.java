@@ -0,0 +1,462 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.documentstore.cache;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache of downloaded files stored in a local directory.
+ *
+ * <p>
+ * The cached files are stored under a byte budget, the least recently used files are evicted when the budget is
+ * exceeded. The index of the cache is persisted in the cache directory, so the cached files survive restarts. The
+ * index is rewritten each time a file is added or removed, the recency of the cache hits is only persisted with the
+ * next rewrite.
+ * </p>
+ *
+ * <p>
+ * A cache hit does not check the remote file, so a document store which uses this cache must invalidate the files it
+ * creates or deletes. To never cache a file downloaded before a concurrent invalidation the document store reads the
+ * current generation of the cache before its download and provides it to {@link #put(String, Path, long)}.
+ * </p>
+ *
+ * <p>
+ * The cache directory must be dedicated to the cache, the files it contains which are not referenced by the index are
+ * deleted when the cache is opened. This class is thread safe but a cache directory must only be used by one instance
+ * at a time.
+ * </p>
+ *
+ * @author agent (agent@local)
+ */
+public class DownloadCache {
+
+    /**
+     * The name of the index file of the cache.
+     */
+    private static final String INDEX_FILE_NAME = "index";
+
+    /**
+     * The directory which contains the cached files.
+     */
+    private final Path directory;
+
+    /**
+     * The sizes of the cached files by key in access order, the least recently used file is the first one.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The number of invalidations done on the cache.
+     */
+    private long generation;
+
+    /**
+     * A boolean which indicates if the cache hits create hard links instead of copies.
+     */
+    private volatile boolean hardLinks;
+
+    /**
+     * The number of downloads served from the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * The maximum number of bytes of the cached files.
+     */
+    private final long maxSize;
+
+    /**
+     * The number of downloads which could not be served from the cache.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * The number of bytes of the cached files.
+     */
+    private long size;
+
+    /**
+     * Opens a cache directory, the directory is created if it does not exist.
+     *
+     * @param directory the directory which contains the cached files.
+     * @param maxSize the maximum number of bytes of the cached files.
+     *
+     * @throws IOException if the cache directory or its index cannot be read.
+     */
+    public DownloadCache(final Path directory, final long maxSize) throws IOException {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The maximum size of the cache must be greater than 0 !");
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(directory);
+        this.loadIndex();
+    }
+
+    /**
+     * Copies a cached file to a destination, the destination is replaced if it exists.
+     *
+     * @param key the key of the file.
+     * @param destination the destination of the file.
+     *
+     * @return <code>true</code> if the file was cached, <code>false</code> otherwise.
+     *
+     * @throws IOException if the cached file cannot be copied.
+     */
+    public boolean copyTo(final String key, final Path destination) throws IOException {
+        boolean cached;
+
+        synchronized (this) {
+            cached = this.entries.get(key) != null;
+        }
+
+        if (cached) {
+            Path cachedFile = this.getCachedFile(key);
+
+            try {
+                if (this.hardLinks) {
+                    Files.deleteIfExists(destination);
+                    Files.createLink(destination, cachedFile);
+                } else {
+                    Files.copy(cachedFile, destination, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (NoSuchFileException nsfex) {
+
+                // The file has been evicted or invalidated concurrently
+                cached = false;
+            }
+        }
+
+        (cached ? this.hitCount : this.missCount).incrementAndGet();
+
+        return cached;
+    }
+
+    /**
+     * Gets the current generation of the cache, the generation changes each time a file is invalidated.
+     *
+     * @return the current generation of the cache.
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Gets the number of downloads served from the cache.
+     *
+     * @return the number of downloads served from the cache.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Gets the maximum number of bytes of the cached files.
+     *
+     * @return the maximum number of bytes of the cached files.
+     */
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Gets the number of downloads which could not be served from the cache.
+     *
+     * @return the number of downloads which could not be served from the cache.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Gets the number of bytes of the cached files.
+     *
+     * @return the number of bytes of the cached files.
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Invalidates a cached file.
+     *
+     * @param key the key of the file.
+     *
+     * @throws UncheckedIOException if the cached file cannot be deleted or the index of the cache cannot be written.
+     */
+    public synchronized void invalidate(final String key) {
+        ++this.generation;
+
+        try {
+            if (this.remove(key)) {
+                this.writeIndex();
+            }
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+    }
+
+    /**
+     * Gets a boolean which indicates if the cache hits create hard links instead of copies.
+     *
+     * @return <code>true</code> if the cache hits create hard links, <code>false</code> otherwise.
+     */
+    public boolean isHardLinks() {
+        return this.hardLinks;
+    }
+
+    /**
+     * Puts a downloaded file in the cache, files larger than the maximum size of the cache are not cached.
+     *
+     * @param key the key of the file.
+     * @param source the downloaded file, a copy of this file is cached.
+     * @param generation the generation of the cache read before downloading the file, if an invalidation happened
+     *            since this generation the file is not cached.
+     *
+     * @throws IOException if the file cannot be copied or the index of the cache cannot be written.
+     */
+    public void put(final String key, final Path source, final long generation) throws IOException {
+        long fileSize = Files.size(source);
+        if (fileSize > this.maxSize) {
+            return;
+        }
+
+        // The copy is done outside of the lock, the cached file is then replaced atomically
+        Path tmpFile = Files.createTempFile(this.directory, ".", ".tmp");
+
+        try {
+            Files.copy(source, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+
+            synchronized (this) {
+                if (generation != this.generation) {
+                    return;
+                }
+
+                this.remove(key);
+                try {
+                    Files.move(tmpFile, this.getCachedFile(key), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException amnsex) {
+                    Files.move(tmpFile, this.getCachedFile(key), StandardCopyOption.REPLACE_EXISTING);
+                }
+                this.entries.put(key, fileSize);
+                this.size += fileSize;
+
+                this.evict();
+                this.writeIndex();
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Sets a boolean which indicates if the cache hits create hard links instead of copies.
+     *
+     * <p>
+     * Hard links avoid copying the cached files but the destination files then share their content with the cache, so
+     * they must not be modified. If the destination cannot be linked to the cache directory, for example because it is
+     * located on an other file system, the cache hits fail.
+     * </p>
+     *
+     * @param hardLinks <code>true</code> to create hard links, <code>false</code> to create copies.
+     */
+    public void setHardLinks(final boolean hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * Evicts the least recently used files until the size of the cache does not exceed its maximum size, this function
+     * must be called while holding the lock of the cache.
+     *
+     * @throws IOException if a cached file cannot be deleted.
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = this.entries.entrySet().iterator();
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            this.size -= entry.getValue();
+            Files.deleteIfExists(this.getCachedFile(entry.getKey()));
+        }
+    }
+
+    /**
+     * Gets the path of the file which caches a key, the file names are the SHA-256 hashes of the keys so any key can be
+     * cached.
+     *
+     * @param key the key of the file.
+     *
+     * @return the path of the cached file.
+     */
+    private Path getCachedFile(final String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder fileName = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                fileName.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return this.directory.resolve(fileName.toString());
+        } catch (NoSuchAlgorithmException nsaex) {
+            throw new IllegalStateException(nsaex);
+        }
+    }
+
+    /**
+     * Loads the index of the cache, the entries whose file is missing or truncated and the files which are not
+     * referenced by the index are dropped.
+     *
+     * @throws IOException if the cache directory or its index cannot be read.
+     */
+    private void loadIndex() throws IOException {
+        Path indexFile = this.directory.resolve(INDEX_FILE_NAME);
+
+        if (Files.exists(indexFile)) {
+            List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                int separatorIndex = line.indexOf(' ');
+                if (separatorIndex < 0) {
+                    continue;
+                }
+
+                long fileSize = Long.parseLong(line.substring(0, separatorIndex));
+                String key = URLDecoder.decode(line.substring(separatorIndex + 1), "UTF-8");
+                Path cachedFile = this.getCachedFile(key);
+
+                if (Files.isRegularFile(cachedFile) && Files.size(cachedFile) == fileSize) {
+                    this.entries.put(key, fileSize);
+                    this.size += fileSize;
+                }
+            }
+        }
+
+        // Deletes the files which are not referenced by the index, for example temporary files of interrupted copies
+        Set<Path> referencedFiles = new HashSet<>();
+        referencedFiles.add(this.directory.resolve(INDEX_FILE_NAME));
+        for (String key : this.entries.keySet()) {
+            referencedFiles.add(this.getCachedFile(key));
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                if (!referencedFiles.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        // The maximum size of the cache may have been decreased since the last use of the directory
+        this.evict();
+        this.writeIndex();
+    }
+
+    /**
+     * Removes a cached file, this function must be called while holding the lock of the cache.
+     *
+     * @param key the key of the file.
+     *
+     * @return <code>true</code> if the file was cached, <code>false</code> otherwise.
+     *
+     * @throws IOException if the cached file cannot be deleted.
+     */
+    private boolean remove(final String key) throws IOException {
+        Long fileSize = this.entries.remove(key);
+        if (fileSize == null) {
+            return false;
+        }
+
+        this.size -= fileSize;
+        Files.deleteIfExists(this.getCachedFile(key));
+
+        return true;
+    }
+
+    /**
+     * Writes the index of the cache from the least to the most recently used file, the index file is replaced
+     * atomically so an interrupted write never corrupts the index. This function must be called while holding the lock
+     * of the cache.
+     *
+     * @throws IOException if the index cannot be written.
+     */
+    private void writeIndex() throws IOException {
+        Path tmpFile = Files.createTempFile(this.directory, ".", ".tmp");
+
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : this.entries.entrySet()) {
+                    writer.write(entry.getValue() + " " + encode(entry.getKey()));
+                    writer.newLine();
+                }
+            }
+
+            try {
+                Files.move(tmpFile, this.directory.resolve(INDEX_FILE_NAME), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnsex) {
+                Files.move(tmpFile, this.directory.resolve(INDEX_FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Encodes a key so it can be written on one line of the index.
+     *
+     * @param key the key to encode.
+     *
+     * @return the encoded key.
+     */
+    private static String encode(final String key) {
+        try {
+            return URLEncoder.encode(key, "UTF-8");
+        } catch (UnsupportedEncodingException ueex) {
+            throw new IllegalStateException(ueex);
+        }
+    }
+
+}
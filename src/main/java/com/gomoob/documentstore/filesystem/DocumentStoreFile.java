@@ -36,6 +36,21 @@ import com.gomoob.documentstore.IDocumentStoreFile;
  */
 public class DocumentStoreFile implements IDocumentStoreFile {
 
+    /**
+     * The lowercase hexadecimal SHA-256 hash of the content of the file.
+     */
+    private String contentHash;
+
+    /**
+     * The MIME type of the content of the file.
+     */
+    private String contentType;
+
+    /**
+     * The entity tag of the file.
+     */
+    private String eTag;
+
     /**
      * The key name which indicate where the file is stored in the document store.
      */
@@ -61,6 +76,35 @@ public class DocumentStoreFile implements IDocumentStoreFile {
      */
     private long size;
 
+    /**
+     * The number of bytes used to store the file.
+     */
+    private long storedSize;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentHash() {
+        return this.contentHash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getETag() {
+        return this.eTag;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -101,6 +145,38 @@ public class DocumentStoreFile implements IDocumentStoreFile {
         return this.size;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStoredSize() {
+        return this.storedSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setContentHash(final String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setContentType(final String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setETag(final String eTag) {
+        this.eTag = eTag;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -140,4 +216,12 @@ public class DocumentStoreFile implements IDocumentStoreFile {
     public void setSize(final long size) {
         this.size = size;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setStoredSize(final long storedSize) {
+        this.storedSize = storedSize;
+    }
 }
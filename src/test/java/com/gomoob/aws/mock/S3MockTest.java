@@ -0,0 +1,244 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+import software.amazon.awssdk.utils.IoUtils;
+
+/**
+ * Test case for the {@link S3Mock} class.
+ *
+ * @author agent (agent@local)
+ */
+public class S3MockTest {
+
+    /**
+     * The mock to test.
+     */
+    private S3Mock s3Mock = new S3Mock();
+
+    /**
+     * Test method for the concurrent use of the mock.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testConcurrentUse() throws Exception {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        try {
+
+            // Concurrent uploads of objects and of the parts of a multipart upload
+            String uploadId = this.s3Mock.createMultipartUpload(
+                    CreateMultipartUploadRequest.builder().bucket("bucket").key("MULTIPART").build()).uploadId();
+            List<Future<String>> partETags = new ArrayList<>();
+            List<Future<?>> puts = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                String key = String.format("KEY_%03d", i);
+                puts.add(executorService.submit(() -> this.s3Mock.putObject(
+                        PutObjectRequest.builder().bucket("bucket").key(key).build(), RequestBody.of(key))));
+
+                int partNumber = i + 1;
+                partETags.add(executorService.submit(() -> this.s3Mock.uploadPart(UploadPartRequest.builder()
+                        .bucket("bucket").key("MULTIPART").uploadId(uploadId).partNumber(partNumber).build(),
+                        RequestBody.of(String.valueOf(partNumber % 10))).eTag()));
+            }
+            for (Future<?> put : puts) {
+                put.get();
+            }
+
+            List<CompletedPart> completedParts = new ArrayList<>();
+            for (int i = 0; i < partETags.size(); ++i) {
+                completedParts.add(CompletedPart.builder().partNumber(i + 1).eTag(partETags.get(i).get()).build());
+            }
+            String eTag = this.s3Mock.completeMultipartUpload(CompleteMultipartUploadRequest.builder().bucket("bucket")
+                    .key("MULTIPART").uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build()).build())
+                    .eTag();
+            assertTrue(eTag.endsWith("-100"));
+
+            StringBuilder expectedContent = new StringBuilder();
+            for (int i = 1; i <= 100; ++i) {
+                expectedContent.append(i % 10);
+            }
+            assertEquals(expectedContent.toString(), this.getObject("bucket", "MULTIPART", null));
+
+            // All the objects are listed in lexicographical order
+            List<S3Object> contents = this.s3Mock
+                    .listObjectsV2(ListObjectsV2Request.builder().bucket("bucket").prefix("KEY_").build()).contents();
+            assertEquals(100, contents.size());
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(String.format("KEY_%03d", i), contents.get(i).key());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Test method for {@link S3Mock#copyObject(CopyObjectRequest)}.
+     */
+    @Test
+    public void testCopyObject() {
+
+        this.s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("dir/SOURCE +1").contentType("text/plain")
+                .build(), RequestBody.of("CONTENT"));
+
+        // The metadata are copied by default
+        this.s3Mock.copyObject(CopyObjectRequest.builder().bucket("other-bucket").key("COPY")
+                .copySource("bucket/dir/SOURCE%20+1").build());
+        HeadObjectResponse headObjectResponse = this.s3Mock
+                .headObject(HeadObjectRequest.builder().bucket("other-bucket").key("COPY").build());
+        assertEquals("text/plain", headObjectResponse.contentType());
+        assertEquals("CONTENT", this.getObject("other-bucket", "COPY", null));
+
+        // An object cannot be copied to itself without replacing its metadata
+        try {
+            this.s3Mock.copyObject(CopyObjectRequest.builder().bucket("other-bucket").key("COPY")
+                    .copySource("other-bucket/COPY").build());
+            fail("Must have thrown an S3Exception !");
+        } catch (S3Exception s3ex) {
+            assertEquals(400, s3ex.getStatusCode());
+        }
+        this.s3Mock.copyObject(CopyObjectRequest.builder().bucket("other-bucket").key("COPY")
+                .copySource("other-bucket/COPY").metadataDirective(MetadataDirective.REPLACE)
+                .contentType("application/json").build());
+        headObjectResponse = this.s3Mock
+                .headObject(HeadObjectRequest.builder().bucket("other-bucket").key("COPY").build());
+        assertEquals("application/json", headObjectResponse.contentType());
+    }
+
+    /**
+     * Test method for {@link S3Mock#getObject(GetObjectRequest, StreamingResponseHandler)} with byte ranges.
+     */
+    @Test
+    public void testGetObjectRange() {
+
+        this.s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(),
+                RequestBody.of("0123456789"));
+
+        assertEquals("234", this.getObject("bucket", "KEY", "bytes=2-4"));
+        assertEquals("789", this.getObject("bucket", "KEY", "bytes=-3"));
+        assertEquals("89", this.getObject("bucket", "KEY", "bytes=8-"));
+
+        try {
+            this.getObject("bucket", "KEY", "bytes=10-");
+            fail("Must have thrown an S3Exception !");
+        } catch (S3Exception s3ex) {
+            assertEquals(416, s3ex.getStatusCode());
+        }
+    }
+
+    /**
+     * Test method for {@link S3Mock#listObjectsV2(ListObjectsV2Request)}.
+     */
+    @Test
+    public void testListObjectsV2() {
+
+        for (String key : new String[] { "a/1", "a/2", "b", "c/1", "c/2", "d" }) {
+            this.s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key(key).build(), RequestBody.of(key));
+        }
+
+        // The keys are grouped into common prefixes and the pages follow each other
+        List<String> listedKeys = new ArrayList<>();
+        String continuationToken = null;
+        int pageCount = 0;
+        do {
+            ListObjectsV2Response listObjectsV2Response = this.s3Mock
+                    .listObjectsV2(ListObjectsV2Request.builder().bucket("bucket").delimiter("/").maxKeys(2)
+                            .continuationToken(continuationToken).build());
+            listObjectsV2Response.commonPrefixes().forEach(commonPrefix -> listedKeys.add(commonPrefix.prefix()));
+            listObjectsV2Response.contents().forEach(s3Object -> listedKeys.add(s3Object.key()));
+            continuationToken = listObjectsV2Response.nextContinuationToken();
+            ++pageCount;
+        } while (continuationToken != null);
+
+        Collections.sort(listedKeys);
+        assertEquals(2, pageCount);
+        assertEquals("[a/, b, c/, d]", listedKeys.toString());
+
+        // A prefix restricts the listing
+        ListObjectsV2Response listObjectsV2Response = this.s3Mock
+                .listObjectsV2(ListObjectsV2Request.builder().bucket("bucket").prefix("c/").build());
+        assertEquals(2, listObjectsV2Response.contents().size());
+        assertEquals("c/1", listObjectsV2Response.contents().get(0).key());
+        assertFalse(listObjectsV2Response.isTruncated());
+        assertNull(listObjectsV2Response.nextContinuationToken());
+    }
+
+    /**
+     * Gets the content of an object as a string.
+     *
+     * @param bucket the name of the bucket of the object.
+     * @param key the key of the object.
+     * @param range the requested byte range, <code>null</code> to get the whole object.
+     *
+     * @return the content of the object.
+     */
+    private String getObject(final String bucket, final String key, final String range) {
+        StreamingResponseHandler<GetObjectResponse, byte[]> streamingHandler = (getObjectResponse,
+                inputStream) -> IoUtils.toByteArray(inputStream);
+        byte[] content = this.s3Mock.getObject(GetObjectRequest.builder().bucket(bucket).key(key).range(range).build(),
+                streamingHandler);
+
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,1263 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gomoob.aws.mock.S3Mock;
+import com.gomoob.documentstore.IDocumentStoreFile;
+import com.gomoob.documentstore.buffer.ByteBufferPool;
+import com.gomoob.documentstore.cache.DocumentStoreFileCache;
+import com.gomoob.documentstore.cache.DownloadCache;
+
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+/**
+ * Test case for the {@link S3DocumentStore} class which uses the {@link S3Mock} class instead of Amazon S3.
+ *
+ * @author agent (agent@local)
+ */
+public class S3DocumentStoreMockTest {
+
+    /**
+     * The temporary folder used to write test files.
+     */
+    private File tmpFolder = new File("target/tmp-mock");
+
+    /**
+     * The Amazon S3 mock used by the document store to test.
+     */
+    private S3Mock s3Mock;
+
+    /**
+     * An instance of the class to test.
+     */
+    private S3DocumentStore s3DocumentStore;
+
+    /**
+     * The pool of the buffers used by the document store to test, its leak detection is enabled.
+     */
+    private ByteBufferPool bufferPool;
+
+    /**
+     * Test method executed after each test method.
+     */
+    @After
+    public void after() throws Exception {
+
+        // Cleanup the temporary folder used to write test files
+        this.deleteFolder(this.tmpFolder);
+
+        // All the buffers used by the transfers must have been given back
+        this.bufferPool.checkLeaks();
+
+    }
+
+    /**
+     * Test method executed before each test method.
+     */
+    @Before
+    public void before() throws Exception {
+
+        // Cleanup the temporary folder used to write test files
+        this.deleteFolder(this.tmpFolder);
+        this.tmpFolder.mkdirs();
+
+        // Creates an instance of the class to test
+        this.s3Mock = new S3Mock();
+        this.s3DocumentStore = new S3DocumentStore();
+        this.s3DocumentStore.setBucket("bucket");
+        this.s3DocumentStore.setKeyNamePrefix("java-aws-s3");
+        this.s3DocumentStore.setS3(this.s3Mock);
+        this.bufferPool = new ByteBufferPool();
+        this.bufferPool.setLeakDetection(true);
+        this.s3DocumentStore.setBufferPool(this.bufferPool);
+
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#deleteAsync(String)} and
+     * {@link S3DocumentStore#setAsyncMaxConcurrency(int)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testAsyncBackpressure() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @Override
+            public DeleteObjectResponse deleteObject(final DeleteObjectRequest deleteObjectRequest) {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException iex) {
+                    throw new IllegalStateException(iex);
+                }
+                return super.deleteObject(deleteObjectRequest);
+            }
+        });
+        this.s3DocumentStore.setAsyncMaxConcurrency(2);
+
+        CompletableFuture<Void> future1 = this.s3DocumentStore.deleteAsync("OBJECT_1");
+        CompletableFuture<Void> future2 = this.s3DocumentStore.deleteAsync("OBJECT_2");
+        assertEquals(2, this.s3DocumentStore.getAsyncInFlightCount());
+
+        // The third submission blocks until one operation in flight completes
+        CountDownLatch submittedLatch = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            this.s3DocumentStore.deleteAsync("OBJECT_3").join();
+            submittedLatch.countDown();
+        });
+        producer.start();
+        assertFalse(submittedLatch.await(200, TimeUnit.MILLISECONDS));
+
+        releaseLatch.countDown();
+        assertTrue(submittedLatch.await(5, TimeUnit.SECONDS));
+        future1.get(5, TimeUnit.SECONDS);
+        future2.get(5, TimeUnit.SECONDS);
+        producer.join();
+        assertEquals(0, this.s3DocumentStore.getAsyncInFlightCount());
+    }
+
+    /**
+     * Test method for the default executor of the asynchronous operations.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testAsyncDefaultExecutor() throws Exception {
+
+        List<String> threadNames = new ArrayList<>();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @Override
+            public DeleteObjectResponse deleteObject(final DeleteObjectRequest deleteObjectRequest) {
+                synchronized (threadNames) {
+                    threadNames.add(Thread.currentThread().getName());
+                }
+                return super.deleteObject(deleteObjectRequest);
+            }
+        });
+
+        // The asynchronous operations do not use the threads of the transfers, even if a transfer executor is set
+        ExecutorService executorService = Executors.newFixedThreadPool(1);
+        this.s3DocumentStore.setExecutorService(executorService);
+        try {
+            this.s3DocumentStore.deleteAsync("OBJECT").get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+        assertEquals(1, threadNames.size());
+        assertTrue(threadNames.get(0).startsWith("s3-document-store-async-"));
+    }
+
+    /**
+     * Test method for the asynchronous transfers split into parallel parts when the transfers and the asynchronous
+     * operations share an executor having a single thread.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testAsyncTransfersOnBoundedExecutor() throws Exception {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(1);
+        this.s3DocumentStore.setExecutorService(executorService);
+        this.s3DocumentStore.setAsyncExecutor(executorService);
+        this.s3DocumentStore.setRangedDownloadRangeSize(999);
+        byte[] content = this.createRandomFile("LARGE_OBJECT", 10_000);
+        S3UploadConfig uploadConfig = new S3UploadConfig().setMultipartThreshold(1024).setMultipartPartSize(1000)
+                .setMultipartParallelism(3);
+
+        try {
+
+            // The operation holds the only thread of the executor, its parts are executed by the operation itself
+            this.s3DocumentStore.createFromUploadedFileAsync(this.tmpFolder.getPath() + "/LARGE_OBJECT",
+                    "LARGE_OBJECT", uploadConfig).get(10, TimeUnit.SECONDS);
+            this.s3DocumentStore.createFromUploadedFileAsync(new ByteArrayInputStream(content), "STREAMED_OBJECT",
+                    uploadConfig).get(10, TimeUnit.SECONDS);
+
+            for (String keyName : new String[] { "LARGE_OBJECT", "STREAMED_OBJECT" }) {
+                String destination = this.s3DocumentStore.downloadAsync(keyName,
+                        this.tmpFolder.getPath() + "/" + keyName + "_DOWNLOADED").get(10, TimeUnit.SECONDS);
+                assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#delete(java.util.Collection)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testDeleteCollection() throws Exception {
+
+        AtomicInteger deleteObjectsCount = new AtomicInteger();
+        S3Mock s3Mock = new S3Mock() {
+
+            @Override
+            public DeleteObjectsResponse deleteObjects(final DeleteObjectsRequest deleteObjectsRequest) {
+                deleteObjectsCount.incrementAndGet();
+                DeleteObjectsResponse deleteObjectsResponse = super.deleteObjects(deleteObjectsRequest);
+
+                // Simulates a key which cannot be deleted
+                if (deleteObjectsRequest.delete().objects().stream()
+                        .anyMatch(objectIdentifier -> objectIdentifier.key().equals("java-aws-s3/KEY_42"))) {
+                    deleteObjectsResponse = deleteObjectsResponse.toBuilder().errors(S3Error.builder()
+                            .key("java-aws-s3/KEY_42").code("AccessDenied").message("Access Denied").build()).build();
+                }
+
+                return deleteObjectsResponse;
+            }
+        };
+        this.s3DocumentStore.setS3(s3Mock);
+
+        List<String> keyNames = new ArrayList<>();
+        for (int i = 0; i < 2500; ++i) {
+            keyNames.add("KEY_" + i);
+            s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("java-aws-s3/KEY_" + i).build(),
+                    RequestBody.of("KEY_" + i));
+        }
+
+        Map<String, String> failures = this.s3DocumentStore.delete(keyNames);
+        assertEquals(1, failures.size());
+        assertEquals("AccessDenied: Access Denied", failures.get("KEY_42"));
+        assertEquals(3, deleteObjectsCount.get());
+
+        try {
+            this.s3DocumentStore.download("KEY_1", this.tmpFolder.getPath() + "/KEY_1");
+            fail("A NoSuchKeyException should have been thrown !");
+        } catch (NoSuchKeyException nskex) {
+            assertTrue(nskex.getMessage().contains("The specified key does not exist."));
+        }
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#downloadAsync(String, String)} with a key which does not exist.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testAsyncFailure() throws Exception {
+
+        try {
+            this.s3DocumentStore.downloadAsync("DOES_NOT_EXIST", this.tmpFolder.getPath() + "/DOES_NOT_EXIST").get();
+            fail("An ExecutionException should have been thrown !");
+        } catch (ExecutionException eex) {
+            assertTrue(eex.getCause() instanceof NoSuchKeyException);
+        }
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#createFromUploadedFile(String, String, S3UploadConfig)} with a file large
+     * enough to be uploaded using a multipart upload.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileMultipart() throws Exception {
+
+        byte[] content = this.createRandomFile("LARGE_OBJECT", 10_000);
+        S3UploadConfig uploadConfig = new S3UploadConfig().setMultipartThreshold(1024).setMultipartPartSize(1000)
+                .setMultipartParallelism(3);
+
+        IDocumentStoreFile documentStoreFile = this.s3DocumentStore
+                .createFromUploadedFile(this.tmpFolder.getPath() + "/LARGE_OBJECT", "LARGE_OBJECT", uploadConfig);
+        assertEquals("java-aws-s3/LARGE_OBJECT", documentStoreFile.getKeyName());
+        assertEquals(10_000, documentStoreFile.getSize());
+
+        String destination = this.s3DocumentStore.download("LARGE_OBJECT",
+                this.tmpFolder.getPath() + "/LARGE_OBJECT_DOWNLOADED");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#createFromUploadedFile(String, String, S3UploadConfig)} with files read
+     * through memory-mapped regions.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileMemoryMapped() throws Exception {
+
+        byte[] smallContent = this.createRandomFile("SMALL_OBJECT", 1000);
+        byte[] largeContent = this.createRandomFile("LARGE_OBJECT", 10_000);
+        S3UploadConfig uploadConfig = new S3UploadConfig().setMemoryMapped(true).setMultipartThreshold(1024)
+                .setMultipartPartSize(1000).setMultipartParallelism(3);
+
+        // Small files are uploaded with a single request, large files with a multipart upload
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/SMALL_OBJECT", "SMALL_OBJECT",
+                uploadConfig);
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/LARGE_OBJECT", "LARGE_OBJECT",
+                uploadConfig);
+
+        String destination = this.s3DocumentStore.download("SMALL_OBJECT",
+                this.tmpFolder.getPath() + "/SMALL_OBJECT_DOWNLOADED");
+        assertArrayEquals(smallContent, Files.readAllBytes(new File(destination).toPath()));
+        destination = this.s3DocumentStore.download("LARGE_OBJECT",
+                this.tmpFolder.getPath() + "/LARGE_OBJECT_DOWNLOADED");
+        assertArrayEquals(largeContent, Files.readAllBytes(new File(destination).toPath()));
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#createFromUploadedFile(String, String, S3UploadConfig)} with a
+     * deduplicated upload.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileDeduplicated() throws Exception {
+
+        AtomicInteger putCount = new AtomicInteger();
+        AtomicInteger copyCount = new AtomicInteger();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @Override
+            public CopyObjectResponse copyObject(final CopyObjectRequest copyObjectRequest) {
+                copyCount.incrementAndGet();
+                return super.copyObject(copyObjectRequest);
+            }
+
+            @Override
+            public PutObjectResponse putObject(final PutObjectRequest putObjectRequest,
+                    final RequestBody requestBody) {
+                putCount.incrementAndGet();
+                return super.putObject(putObjectRequest, requestBody);
+            }
+        });
+
+        byte[] content = this.createRandomFile("OBJECT", 1000);
+        StringBuilder expectedContentHash = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            expectedContentHash.append(String.format("%02x", b));
+        }
+        S3UploadConfig uploadConfig = new S3UploadConfig().setDeduplicated(true).setContentType("text/plain");
+
+        // The first upload transfers the content and copies it to its content-addressed key
+        IDocumentStoreFile documentStoreFile = this.s3DocumentStore
+                .createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "dir/FIRST OBJECT", uploadConfig);
+        assertEquals(expectedContentHash.toString(), documentStoreFile.getContentHash());
+        assertEquals(1, putCount.get());
+        assertEquals(1, copyCount.get());
+
+        // The second upload of the same content is a server-side copy
+        documentStoreFile = this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT",
+                "dir/SECOND OBJECT", uploadConfig);
+        assertEquals(expectedContentHash.toString(), documentStoreFile.getContentHash());
+        assertEquals(1000, documentStoreFile.getSize());
+        assertEquals(1, putCount.get());
+        assertEquals(2, copyCount.get());
+
+        documentStoreFile = this.s3DocumentStore.find("dir/SECOND OBJECT");
+        assertEquals(expectedContentHash.toString(), documentStoreFile.getContentHash());
+        assertEquals("text/plain", documentStoreFile.getContentType());
+        String destination = this.s3DocumentStore.download("dir/SECOND OBJECT",
+                this.tmpFolder.getPath() + "/OBJECT_DOWNLOADED");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+        assertNotNull(this.s3DocumentStore.find("sha256/" + expectedContentHash));
+
+        // Without deduplication the content is always transferred
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "THIRD_OBJECT");
+        assertEquals(2, putCount.get());
+        assertNull(this.s3DocumentStore.find("THIRD_OBJECT").getContentHash());
+
+        // The reference copies are not listed, they are deleted without deleting the files which share their content
+        assertEquals(Arrays.asList("THIRD_OBJECT", "dir/FIRST OBJECT", "dir/SECOND OBJECT"),
+                this.s3DocumentStore.list("").map(IDocumentStoreFile::getKeyName).collect(Collectors.toList()));
+        assertTrue(this.s3DocumentStore.deleteContentAddressedCopies(new Date(0)).isEmpty());
+        assertNotNull(this.s3DocumentStore.find("sha256/" + expectedContentHash));
+        assertTrue(this.s3DocumentStore
+                .deleteContentAddressedCopies(new Date(System.currentTimeMillis() + 60_000)).isEmpty());
+        assertNull(this.s3DocumentStore.find("sha256/" + expectedContentHash));
+        destination = this.s3DocumentStore.download("dir/FIRST OBJECT",
+                this.tmpFolder.getPath() + "/FIRST_OBJECT_DOWNLOADED");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "FOURTH_OBJECT",
+                uploadConfig);
+        assertEquals(3, putCount.get());
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#createFromUploadedFile(String, String, S3UploadConfig)} with a multipart
+     * upload which fails.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileMultipartFailure() throws Exception {
+
+        AtomicInteger abortCount = new AtomicInteger();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @Override
+            public AbortMultipartUploadResponse abortMultipartUpload(
+                    final AbortMultipartUploadRequest abortMultipartUploadRequest) {
+                abortCount.incrementAndGet();
+                return super.abortMultipartUpload(abortMultipartUploadRequest);
+            }
+
+            @Override
+            public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest,
+                    final RequestBody requestBody) {
+                if (uploadPartRequest.partNumber() == 5) {
+                    throw new S3Exception("Part upload failure.");
+                }
+                return super.uploadPart(uploadPartRequest, requestBody);
+            }
+        });
+
+        this.createRandomFile("LARGE_OBJECT", 10_000);
+        S3UploadConfig uploadConfig = new S3UploadConfig().setMultipartThreshold(1024).setMultipartPartSize(1000);
+
+        try {
+            this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/LARGE_OBJECT", "LARGE_OBJECT",
+                    uploadConfig);
+            fail("An S3Exception should have been thrown !");
+        } catch (S3Exception s3ex) {
+            assertTrue(s3ex.getMessage().startsWith("Part upload failure."));
+        }
+
+        assertEquals(1, abortCount.get());
+
+        try {
+            this.s3DocumentStore.download("LARGE_OBJECT", this.tmpFolder.getPath() + "/LARGE_OBJECT_DOWNLOADED");
+            fail("A NoSuchKeyException should have been thrown !");
+        } catch (NoSuchKeyException nskex) {
+            assertTrue(nskex.getMessage().contains("The specified key does not exist."));
+        }
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#createFromUploadedFile(InputStream, String, S3UploadConfig)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileStream() throws Exception {
+
+        AtomicInteger putCount = new AtomicInteger();
+        AtomicInteger partCount = new AtomicInteger();
+        AtomicInteger concurrentPartCount = new AtomicInteger();
+        AtomicInteger maxConcurrentPartCount = new AtomicInteger();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @Override
+            public PutObjectResponse putObject(final PutObjectRequest putObjectRequest,
+                    final RequestBody requestBody) {
+                putCount.incrementAndGet();
+                return super.putObject(putObjectRequest, requestBody);
+            }
+
+            @Override
+            public UploadPartResponse uploadPart(final UploadPartRequest uploadPartRequest,
+                    final RequestBody requestBody) {
+                partCount.incrementAndGet();
+                maxConcurrentPartCount.accumulateAndGet(concurrentPartCount.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10);
+                    return super.uploadPart(uploadPartRequest, requestBody);
+                } catch (InterruptedException iex) {
+                    throw new IllegalStateException(iex);
+                } finally {
+                    concurrentPartCount.decrementAndGet();
+                }
+            }
+        });
+
+        byte[] smallContent = new byte[500];
+        byte[] largeContent = new byte[10_500];
+        Random random = new Random();
+        random.nextBytes(smallContent);
+        random.nextBytes(largeContent);
+        S3UploadConfig uploadConfig = new S3UploadConfig().setMultipartPartSize(1000).setMultipartParallelism(2);
+
+        // A stream shorter than one part is uploaded with a single request
+        IDocumentStoreFile documentStoreFile = this.s3DocumentStore
+                .createFromUploadedFile(new ByteArrayInputStream(smallContent), "SMALL_OBJECT", uploadConfig);
+        assertEquals(500, documentStoreFile.getSize());
+        assertEquals(1, putCount.get());
+        assertEquals(0, partCount.get());
+
+        // A longer stream is uploaded in parts, at most 2 parts are uploaded concurrently
+        documentStoreFile = this.s3DocumentStore.createFromUploadedFile(new ByteArrayInputStream(largeContent),
+                "LARGE_OBJECT", uploadConfig);
+        assertEquals(10_500, documentStoreFile.getSize());
+        assertEquals(1, putCount.get());
+        assertEquals(11, partCount.get());
+        assertEquals(2, maxConcurrentPartCount.get());
+
+        String destination = this.s3DocumentStore.download("SMALL_OBJECT",
+                this.tmpFolder.getPath() + "/SMALL_OBJECT_DOWNLOADED");
+        assertArrayEquals(smallContent, Files.readAllBytes(new File(destination).toPath()));
+        destination = this.s3DocumentStore.download("LARGE_OBJECT",
+                this.tmpFolder.getPath() + "/LARGE_OBJECT_DOWNLOADED");
+        assertArrayEquals(largeContent, Files.readAllBytes(new File(destination).toPath()));
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#createFromUploadedFile(InputStream, String, long)} with streams which do
+     * not support mark / reset.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileStreamSized() throws Exception {
+
+        byte[] content = new byte[3000];
+        new Random().nextBytes(content);
+
+        // Only the announced size is uploaded, the bytes which follow are left in the stream
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(content)) {
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        IDocumentStoreFile documentStoreFile = this.s3DocumentStore.createFromUploadedFile(inputStream, "OBJECT",
+                1000);
+        assertEquals(1000, documentStoreFile.getSize());
+        assertEquals(content[1000], (byte) inputStream.read());
+
+        String destination = this.s3DocumentStore.download("OBJECT", this.tmpFolder.getPath() + "/OBJECT_DOWNLOADED");
+        assertArrayEquals(Arrays.copyOf(content, 1000), Files.readAllBytes(new File(destination).toPath()));
+
+        // A stream shorter than the announced size is not uploaded
+        try {
+            this.s3DocumentStore.createFromUploadedFile(new SequenceInputStream(new ByteArrayInputStream(content),
+                    new ByteArrayInputStream(new byte[0])), "SHORT_OBJECT", 5000);
+            fail("Must have thrown an EOFException !");
+        } catch (EOFException eofex) {
+            assertNull(this.s3DocumentStore.find("SHORT_OBJECT"));
+        }
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#createFromUploadedFile(String, String, S3UploadConfig)} and
+     * {@link S3DocumentStore#createFromUploadedFile(InputStream, String, S3UploadConfig)} with compressed uploads.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileCompressed() throws Exception {
+
+        // A content which compresses well
+        byte[] content = new byte[20_000];
+        Random random = new Random();
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+        Files.write(new File(this.tmpFolder, "OBJECT").toPath(), content);
+        S3UploadConfig uploadConfig = new S3UploadConfig().setCompression(S3Compression.GZIP)
+                .setMultipartThreshold(1024).setMultipartPartSize(1000).setMultipartParallelism(3);
+
+        // The file is compressed while it is uploaded in parts
+        IDocumentStoreFile documentStoreFile = this.s3DocumentStore
+                .createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "GZIP_OBJECT", uploadConfig);
+        assertEquals(20_000, documentStoreFile.getSize());
+        assertTrue(documentStoreFile.getStoredSize() > 1000 && documentStoreFile.getStoredSize() < 10_000);
+
+        HeadObjectResponse headObjectResponse = this.s3Mock.headObject(
+                HeadObjectRequest.builder().bucket("bucket").key("java-aws-s3/GZIP_OBJECT").build());
+        assertEquals("gzip", headObjectResponse.contentEncoding());
+        assertEquals(documentStoreFile.getStoredSize(), headObjectResponse.contentLength().longValue());
+
+        documentStoreFile = this.s3DocumentStore.find("GZIP_OBJECT");
+        assertEquals(20_000, documentStoreFile.getSize());
+        assertEquals(headObjectResponse.contentLength().longValue(), documentStoreFile.getStoredSize());
+
+        // The listing only knows the stored size
+        documentStoreFile = this.s3DocumentStore.list("GZIP").findFirst().get();
+        assertEquals(headObjectResponse.contentLength().longValue(), documentStoreFile.getSize());
+
+        String destination = this.s3DocumentStore.download("GZIP_OBJECT",
+                this.tmpFolder.getPath() + "/GZIP_OBJECT_DOWNLOADED");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+
+        // An existing destination file is replaced
+        Files.write(new File(destination).toPath(), new byte[] { 1, 2, 3 });
+        destination = this.s3DocumentStore.download("GZIP_OBJECT", destination);
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+
+        // The length of a stream is only known once it is uploaded
+        documentStoreFile = this.s3DocumentStore.createFromUploadedFile(new ByteArrayInputStream(content),
+                "DEFLATE_OBJECT", uploadConfig.setCompression(S3Compression.DEFLATE).setCompressionLevel(9));
+        assertEquals(20_000, documentStoreFile.getSize());
+        assertTrue(documentStoreFile.getStoredSize() < 10_000);
+        assertEquals(documentStoreFile.getStoredSize(), this.s3DocumentStore.find("DEFLATE_OBJECT").getSize());
+
+        // The ranges of a compressed object are decompressed once they are all downloaded
+        this.s3DocumentStore.setRangedDownloadRangeSize(999);
+        destination = this.s3DocumentStore.download("DEFLATE_OBJECT",
+                this.tmpFolder.getPath() + "/DEFLATE_OBJECT_DOWNLOADED");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+        assertEquals(3, this.tmpFolder.list().length);
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#download(String, String)} with a download cache.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testDownloadCached() throws Exception {
+
+        AtomicInteger getObjectCount = new AtomicInteger();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @SuppressWarnings("rawtypes")
+            @Override
+            public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
+                    final StreamingResponseHandler streamingHandler) {
+                getObjectCount.incrementAndGet();
+                return super.getObject(getObjectRequest, streamingHandler);
+            }
+
+        });
+        DownloadCache downloadCache = new DownloadCache(new File(this.tmpFolder, "cache").toPath(), 1000);
+        this.s3DocumentStore.setDownloadCache(downloadCache);
+
+        byte[] content = this.createRandomFile("OBJECT", 100);
+        byte[] updatedContent = this.createRandomFile("OBJECT_UPDATED", 200);
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "OBJECT");
+
+        // The second download is served from the cache
+        File destination = new File(this.tmpFolder, "OBJECT_DOWNLOADED");
+        this.s3DocumentStore.download("OBJECT", destination.getPath());
+        Files.write(destination.toPath(), new byte[] { 1, 2, 3 });
+        this.s3DocumentStore.download("OBJECT", destination.getPath());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+        assertEquals(1, getObjectCount.get());
+        assertEquals(1, downloadCache.getHitCount());
+
+        // An upload invalidates the cached file
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT_UPDATED", "OBJECT");
+        destination.delete();
+        this.s3DocumentStore.download("OBJECT", destination.getPath());
+        assertArrayEquals(updatedContent, Files.readAllBytes(destination.toPath()));
+        assertEquals(2, getObjectCount.get());
+        assertEquals(200, downloadCache.getSize());
+
+        // A deletion invalidates the cached file
+        this.s3DocumentStore.delete("OBJECT");
+        assertEquals(0, downloadCache.getSize());
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#download(String, String)} with ranged downloads enabled.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testDownloadRanged() throws Exception {
+
+        byte[] content = this.createRandomFile("LARGE_OBJECT", 10_000);
+        this.createRandomFile("EMPTY_OBJECT", 0);
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/LARGE_OBJECT", "LARGE_OBJECT");
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/EMPTY_OBJECT", "EMPTY_OBJECT");
+
+        this.s3DocumentStore.setRangedDownloadRangeSize(999);
+        this.s3DocumentStore.setRangedDownloadParallelism(3);
+
+        // The destination file is replaced if it already exists
+        File destination = new File(this.tmpFolder, "LARGE_OBJECT_DOWNLOADED");
+        Files.write(destination.toPath(), new byte[] { 1, 2, 3 });
+        this.s3DocumentStore.download("LARGE_OBJECT", destination.getPath());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+
+        // Empty objects cannot be requested with ranges
+        destination = new File(this.tmpFolder, "EMPTY_OBJECT_DOWNLOADED");
+        this.s3DocumentStore.download("EMPTY_OBJECT", destination.getPath());
+        assertEquals(0, destination.length());
+
+        // No temporary file is left
+        assertEquals(4, this.tmpFolder.list().length);
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#find(String)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testFind() throws Exception {
+
+        this.createRandomFile("OBJECT", 100);
+        this.createRandomFile("OBJECT_WITH_SAME_PREFIX", 200);
+        IDocumentStoreFile uploadedFile = this.s3DocumentStore.createFromUploadedFile(
+                this.tmpFolder.getPath() + "/OBJECT", "dir/OBJECT",
+                new S3UploadConfig().setContentType("application/octet-stream"));
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT_WITH_SAME_PREFIX",
+                "dir/OBJECT_WITH_SAME_PREFIX");
+
+        // Test with an object which does not exist
+        assertNull(this.s3DocumentStore.find("DOES_NOT_EXIST"));
+
+        // Test with an object which exists and shares its prefix with an other object
+        IDocumentStoreFile documentStoreFile = this.s3DocumentStore.find("dir/OBJECT");
+        assertNotNull(documentStoreFile);
+        assertEquals("dir/OBJECT", documentStoreFile.getKeyName());
+        assertEquals("OBJECT", documentStoreFile.getName());
+        assertNull(documentStoreFile.getLastAccessDate());
+        assertNotNull(documentStoreFile.getLastUpdateDate());
+        assertEquals(100, documentStoreFile.getSize());
+        assertEquals(uploadedFile.getETag(), documentStoreFile.getETag());
+        assertEquals("application/octet-stream", documentStoreFile.getContentType());
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#find(String)} with a metadata cache.
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testFindCached() throws Exception {
+
+        AtomicInteger headObjectCount = new AtomicInteger();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @Override
+            public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) {
+                headObjectCount.incrementAndGet();
+                return super.headObject(headObjectRequest);
+            }
+
+        });
+        DocumentStoreFileCache metadataCache = new DocumentStoreFileCache(10, 1, TimeUnit.MINUTES);
+        this.s3DocumentStore.setMetadataCache(metadataCache);
+
+        this.createRandomFile("OBJECT", 100);
+        this.createRandomFile("OBJECT_UPDATED", 200);
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "OBJECT");
+
+        // The second lookup is served from the cache and returns a copy of the cached description
+        IDocumentStoreFile documentStoreFile = this.s3DocumentStore.find("OBJECT");
+        documentStoreFile.setSize(0);
+        assertEquals(100, this.s3DocumentStore.find("OBJECT").getSize());
+        assertEquals(1, headObjectCount.get());
+        assertEquals(1, metadataCache.getHitCount());
+        assertEquals(1, metadataCache.getMissCount());
+
+        // An upload invalidates the cached description
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT_UPDATED", "OBJECT");
+        assertEquals(200, this.s3DocumentStore.find("OBJECT").getSize());
+        assertEquals(2, headObjectCount.get());
+
+        // A deletion invalidates the cached description and missing files are not cached
+        this.s3DocumentStore.delete("OBJECT");
+        assertNull(this.s3DocumentStore.find("OBJECT"));
+        assertNull(this.s3DocumentStore.find("OBJECT"));
+        assertEquals(4, headObjectCount.get());
+        assertEquals(0, metadataCache.size());
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#list(String)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testList() throws Exception {
+
+        AtomicInteger listObjectsV2Count = new AtomicInteger();
+        S3Mock s3Mock = new S3Mock() {
+
+            @Override
+            public ListObjectsV2Response listObjectsV2(final ListObjectsV2Request listObjectsV2Request) {
+                listObjectsV2Count.incrementAndGet();
+                return super.listObjectsV2(listObjectsV2Request);
+            }
+
+        };
+        this.s3DocumentStore.setS3(s3Mock);
+        this.s3DocumentStore.setListPageSize(10);
+
+        for (int i = 0; i < 25; ++i) {
+            String key = String.format("java-aws-s3/dir/KEY_%02d", i);
+            s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key(key).build(), RequestBody.of("KEY_" + i));
+        }
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("java-aws-s3/other/KEY").build(),
+                RequestBody.of("KEY"));
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("other-prefix/dir/KEY").build(),
+                RequestBody.of("KEY"));
+
+        // All the pages are followed and the key name prefix of the document store is removed
+        List<IDocumentStoreFile> documentStoreFiles;
+        try (Stream<IDocumentStoreFile> stream = this.s3DocumentStore.list("dir/")) {
+            documentStoreFiles = stream.collect(Collectors.toList());
+        }
+        assertEquals(25, documentStoreFiles.size());
+        assertEquals("dir/KEY_00", documentStoreFiles.get(0).getKeyName());
+        assertEquals("KEY_00", documentStoreFiles.get(0).getName());
+        assertEquals(5, documentStoreFiles.get(0).getSize());
+        assertNotNull(documentStoreFiles.get(0).getETag());
+        assertEquals("dir/KEY_24", documentStoreFiles.get(24).getKeyName());
+        assertEquals(3, listObjectsV2Count.get());
+
+        // The stream is lazy
+        listObjectsV2Count.set(0);
+        try (Stream<IDocumentStoreFile> stream = this.s3DocumentStore.list("")) {
+            assertEquals("dir/KEY_00", stream.findFirst().get().getKeyName());
+        }
+        assertTrue(listObjectsV2Count.get() <= 2);
+        assertEquals(26, this.s3DocumentStore.list("").count());
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#openStream(String)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testOpenStream() throws Exception {
+
+        byte[] content = this.createRandomFile("LARGE_OBJECT", 10_000);
+        this.createRandomFile("EMPTY_OBJECT", 0);
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/LARGE_OBJECT", "LARGE_OBJECT");
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/LARGE_OBJECT", "COMPRESSED_OBJECT",
+                new S3UploadConfig().setCompression(S3Compression.GZIP));
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/EMPTY_OBJECT", "EMPTY_OBJECT");
+        this.s3DocumentStore.setReadAheadChunkSize(999);
+
+        // The chunks are fetched ahead in the background or on demand, the compressed objects are decompressed
+        for (int readAheadChunkCount : new int[] { 3, 0 }) {
+            this.s3DocumentStore.setReadAheadChunkCount(readAheadChunkCount);
+            for (String keyName : new String[] { "LARGE_OBJECT", "COMPRESSED_OBJECT" }) {
+                try (InputStream inputStream = this.s3DocumentStore.openStream(keyName)) {
+                    assertArrayEquals(content, this.readFully(inputStream));
+                }
+            }
+        }
+        try (InputStream inputStream = this.s3DocumentStore.openStream("EMPTY_OBJECT")) {
+            assertEquals(-1, inputStream.read());
+        }
+
+        try {
+            this.s3DocumentStore.openStream("DOES_NOT_EXIST");
+            fail("Must have thrown a NoSuchKeyException !");
+        } catch (NoSuchKeyException nskex) {
+            assertEquals(404, nskex.getStatusCode());
+        }
+
+        // The buffers of the chunks fetched after an early close are released once they are received
+        this.s3DocumentStore.setReadAheadChunkCount(5);
+        try (InputStream inputStream = this.s3DocumentStore.openStream("LARGE_OBJECT")) {
+            assertEquals(content[0] & 0xFF, inputStream.read());
+            assertEquals(9, inputStream.skip(9));
+        }
+        for (int i = 0; i < 100 && this.bufferPool.getOutstandingBytes() > 0; ++i) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#read(String, long, int, ByteBuffer)} and
+     * {@link S3DocumentStore#read(String, List)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testRead() throws Exception {
+
+        AtomicInteger getObjectCount = new AtomicInteger();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @SuppressWarnings("rawtypes")
+            @Override
+            public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
+                    final StreamingResponseHandler streamingHandler) {
+                getObjectCount.incrementAndGet();
+                return super.getObject(getObjectRequest, streamingHandler);
+            }
+
+        });
+        byte[] content = this.createRandomFile("OBJECT", 10_000);
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "OBJECT");
+        this.s3DocumentStore.createFromUploadedFile(this.tmpFolder.getPath() + "/OBJECT", "COMPRESSED_OBJECT",
+                new S3UploadConfig().setCompression(S3Compression.GZIP));
+
+        // The ranges which go past the end of the file are truncated
+        ByteBuffer buffer = ByteBuffer.allocate(110);
+        buffer.position(10);
+        assertEquals(100, this.s3DocumentStore.read("OBJECT", 500, 100, buffer));
+        assertEquals(110, buffer.position());
+        assertArrayEquals(Arrays.copyOfRange(content, 500, 600), Arrays.copyOfRange(buffer.array(), 10, 110));
+        buffer.clear();
+        assertEquals(50, this.s3DocumentStore.read("OBJECT", 9_950, 100, buffer));
+        assertArrayEquals(Arrays.copyOfRange(content, 9_950, 10_000), Arrays.copyOfRange(buffer.array(), 0, 50));
+        buffer.clear();
+        assertEquals(0, this.s3DocumentStore.read("OBJECT", 20_000, 100, buffer));
+        assertEquals(0, buffer.position());
+
+        // The close ranges are merged, the overlapping ranges and the ranges too far apart are not
+        this.s3DocumentStore.setReadMergeGap(100);
+        this.s3DocumentStore.setReadMergedMaxSize(3000);
+        long[][] offsetsAndLengths = { { 7_050, 950 }, { 0, 10 }, { 50, 10 }, { 1_000, 100 }, { 1_050, 10 },
+                { 5_000, 2_000 }, { 300, 0 } };
+        List<S3ReadRange> ranges = new ArrayList<>();
+        for (long[] offsetAndLength : offsetsAndLengths) {
+            ranges.add(new S3ReadRange(offsetAndLength[0], (int) offsetAndLength[1],
+                    ByteBuffer.allocateDirect((int) offsetAndLength[1])));
+        }
+        getObjectCount.set(0);
+        this.s3DocumentStore.read("OBJECT", ranges);
+        assertEquals(4, getObjectCount.get());
+        for (S3ReadRange range : ranges) {
+            assertEquals(range.getLength(), range.getReadLength());
+            byte[] bytes = new byte[range.getLength()];
+            ((ByteBuffer) range.getBuffer().flip()).get(bytes);
+            assertArrayEquals(Arrays.copyOfRange(content, (int) range.getOffset(),
+                    (int) range.getOffset() + range.getLength()), bytes);
+        }
+
+        // The ranges of a compressed file are compressed bytes
+        try {
+            this.s3DocumentStore.read("COMPRESSED_OBJECT", 0, 10, ByteBuffer.allocate(10));
+            fail("Must have thrown an IOException !");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getMessage().contains("compressed"));
+        }
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#setKeyLayout(IKeyLayout)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testKeyLayoutHashSharded() throws Exception {
+
+        HashShardedKeyLayout keyLayout = new HashShardedKeyLayout(16);
+        this.s3DocumentStore.setKeyLayout(keyLayout);
+        this.s3DocumentStore.setListPageSize(2);
+
+        this.createRandomFile("FILE", 100);
+        String serverFilePath = new File(this.tmpFolder, "FILE").getAbsolutePath();
+        for (int i = 0; i < 20; ++i) {
+            this.s3DocumentStore.createFromUploadedFile(serverFilePath, "dir/KEY_" + i);
+        }
+
+        // The objects are written in the shard directories
+        String shard = Integer.toHexString(keyLayout.getShard("dir/KEY_0"));
+        assertNotNull(this.s3Mock.headObject(HeadObjectRequest.builder().bucket("bucket")
+                .key("java-aws-s3/" + shard + "/dir/KEY_0").build()));
+
+        // The callers only see the logical key names
+        assertEquals("dir/KEY_0", this.s3DocumentStore.find("dir/KEY_0").getKeyName());
+        List<String> keyNames;
+        try (Stream<IDocumentStoreFile> stream = this.s3DocumentStore.list("dir/")) {
+            keyNames = stream.map(IDocumentStoreFile::getKeyName).sorted().collect(Collectors.toList());
+        }
+        assertEquals(20, keyNames.size());
+        assertEquals("dir/KEY_0", keyNames.get(0));
+        assertEquals("dir/KEY_9", keyNames.get(19));
+
+        String destination = new File(this.tmpFolder, "DOWNLOADED").getAbsolutePath();
+        this.s3DocumentStore.download("dir/KEY_0", destination);
+        assertEquals(100, new File(destination).length());
+
+        this.s3DocumentStore.delete("dir/KEY_0");
+        assertNull(this.s3DocumentStore.find("dir/KEY_0"));
+        assertEquals(19, this.s3DocumentStore.list("").count());
+
+        // The objects are spread over the shards
+        assertTrue(this.s3Mock.listObjectsV2(ListObjectsV2Request.builder().bucket("bucket").prefix("java-aws-s3/")
+                .build()).contents().stream().map(o -> o.key().substring(0, 14)).distinct().count() > 4);
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#syncToDirectory(String, Path, DirectorySyncConfig)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testSyncToDirectory() throws Exception {
+
+        AtomicInteger getObjectCount = new AtomicInteger();
+        S3Mock s3Mock = new S3Mock() {
+
+            @SuppressWarnings("rawtypes")
+            @Override
+            public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
+                    final StreamingResponseHandler streamingHandler) {
+                getObjectCount.incrementAndGet();
+                return super.getObject(getObjectRequest, streamingHandler);
+            }
+
+        };
+        this.s3DocumentStore.setS3(s3Mock);
+        this.s3DocumentStore.setListPageSize(3);
+
+        for (int i = 0; i < 10; ++i) {
+            s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("java-aws-s3/reports/FILE_" + i).build(),
+                    RequestBody.of("CONTENT_" + i));
+        }
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("java-aws-s3/reports/sub/FILE").build(),
+                RequestBody.of("SUB_CONTENT"));
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("java-aws-s3/other/FILE").build(),
+                RequestBody.of("OTHER"));
+
+        Path directory = new File(this.tmpFolder, "sync").toPath();
+        DirectorySyncConfig directorySyncConfig = new DirectorySyncConfig().setParallelism(2).setDeleteRemoved(true);
+
+        // The first synchronization downloads all the files of the prefix
+        DirectorySyncResult result = this.s3DocumentStore.syncToDirectory("reports/", directory, directorySyncConfig);
+        assertTrue(result.isSuccessful());
+        assertEquals(11, result.getDownloadedFileCount());
+        assertEquals(11, getObjectCount.get());
+        assertEquals("CONTENT_3", new String(Files.readAllBytes(directory.resolve("FILE_3")), "UTF-8"));
+        assertEquals("SUB_CONTENT", new String(Files.readAllBytes(directory.resolve("sub/FILE")), "UTF-8"));
+        assertFalse(Files.exists(directory.resolve("other")));
+        assertTrue(Files.exists(directory.resolve(directorySyncConfig.getManifestFileName())));
+
+        // The second synchronization only lists the prefix
+        getObjectCount.set(0);
+        result = this.s3DocumentStore.syncToDirectory("reports/", directory, directorySyncConfig);
+        assertEquals(0, result.getDownloadedFileCount());
+        assertEquals(11, result.getUnchangedFileCount());
+        assertEquals(0, getObjectCount.get());
+
+        // Only the delta is synchronized, the untracked local files are kept
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("java-aws-s3/reports/FILE_1").build(),
+                RequestBody.of("UPDATED_1"));
+        s3Mock.deleteObject(DeleteObjectRequest.builder().bucket("bucket").key("java-aws-s3/reports/FILE_2").build());
+        Files.write(directory.resolve("FILE_3"), "LOCALLY_MODIFIED".getBytes("UTF-8"));
+        Files.write(directory.resolve("UNTRACKED"), "UNTRACKED".getBytes("UTF-8"));
+        getObjectCount.set(0);
+
+        result = this.s3DocumentStore.syncToDirectory("reports/", directory, directorySyncConfig);
+        assertEquals(2, result.getDownloadedFileCount());
+        assertEquals(8, result.getUnchangedFileCount());
+        assertEquals(1, result.getDeletedFileCount());
+        assertEquals(2, getObjectCount.get());
+        assertEquals("UPDATED_1", new String(Files.readAllBytes(directory.resolve("FILE_1")), "UTF-8"));
+        assertEquals("CONTENT_3", new String(Files.readAllBytes(directory.resolve("FILE_3")), "UTF-8"));
+        assertFalse(Files.exists(directory.resolve("FILE_2")));
+        assertTrue(Files.exists(directory.resolve("UNTRACKED")));
+    }
+
+    /**
+     * Test method for {@link S3DocumentStore#uploadDirectory(java.nio.file.Path, String, S3UploadConfig,
+     * DirectoryUploadConfig)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testUploadDirectory() throws Exception {
+
+        AtomicInteger concurrentPutCount = new AtomicInteger();
+        AtomicInteger maxConcurrentPutCount = new AtomicInteger();
+        this.s3DocumentStore.setS3(new S3Mock() {
+
+            @Override
+            public PutObjectResponse putObject(final PutObjectRequest putObjectRequest,
+                    final RequestBody requestBody) {
+                maxConcurrentPutCount.accumulateAndGet(concurrentPutCount.incrementAndGet(), Math::max);
+                try {
+                    if (putObjectRequest.key().endsWith("FAIL")) {
+                        throw new IllegalStateException("Upload failure !");
+                    }
+                    Thread.sleep(5);
+                    return super.putObject(putObjectRequest, requestBody);
+                } catch (InterruptedException iex) {
+                    throw new IllegalStateException(iex);
+                } finally {
+                    concurrentPutCount.decrementAndGet();
+                }
+            }
+
+        });
+
+        for (int i = 0; i < 20; ++i) {
+            this.createRandomFile("tree/small/FILE_" + i, 100);
+        }
+        this.createRandomFile("tree/FAIL", 100);
+        this.createRandomFile("tree/small/FILE.tmp", 100);
+        byte[] largeContent = this.createRandomFile("tree/large/LARGE", 10_000);
+
+        AtomicInteger uploadedCount = new AtomicInteger();
+        AtomicInteger failedCount = new AtomicInteger();
+        S3UploadConfig uploadConfig = new S3UploadConfig().setMultipartThreshold(1024).setMultipartPartSize(1000);
+        DirectoryUploadConfig directoryUploadConfig = new DirectoryUploadConfig().setParallelism(2)
+                .setMaxBatchFileCount(3).setExcludes("**.tmp").setListener(new IDirectoryUploadListener() {
+
+                    @Override
+                    public void onFileFailed(final Path file, final String keyName, final Exception error,
+                            final DirectoryUploadResult result) {
+                        failedCount.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFileUploaded(final Path file, final IDocumentStoreFile documentStoreFile,
+                            final DirectoryUploadResult result) {
+                        uploadedCount.incrementAndGet();
+                    }
+
+                });
+
+        DirectoryUploadResult result = this.s3DocumentStore.uploadDirectory(new File(this.tmpFolder, "tree").toPath(),
+                "backup/", uploadConfig, directoryUploadConfig);
+
+        // Each file is reported, the failure does not stop the other uploads
+        assertFalse(result.isSuccessful());
+        assertEquals(21, result.getUploadedFiles().size());
+        assertEquals(21, uploadedCount.get());
+        assertEquals(1, failedCount.get());
+        assertTrue(result.getFailures().containsKey("backup/FAIL"));
+        assertEquals(1, result.getSkippedFileCount());
+        assertEquals(20 * 100 + 10_000, result.getUploadedBytes());
+        assertTrue(maxConcurrentPutCount.get() <= 2);
+
+        // The key names are the relative paths of the files, the large file is uploaded in parts
+        assertEquals(100, this.s3DocumentStore.find("backup/small/FILE_7").getSize());
+        assertNull(this.s3DocumentStore.find("backup/small/FILE.tmp"));
+        String destination = this.s3DocumentStore.download("backup/large/LARGE",
+                this.tmpFolder.getPath() + "/LARGE_DOWNLOADED");
+        assertArrayEquals(largeContent, Files.readAllBytes(new File(destination).toPath()));
+    }
+
+    /**
+     * Creates a file filled with random bytes in the temporary folder.
+     *
+     * @param name the name of the file to create.
+     * @param size the size of the file to create.
+     *
+     * @return the content of the created file.
+     *
+     * @throws Exception if the file cannot be written.
+     */
+    private byte[] createRandomFile(final String name, final int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File file = new File(this.tmpFolder, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+
+        return content;
+    }
+
+    /**
+     * Reads an input stream until its end.
+     *
+     * @param inputStream the input stream to read.
+     *
+     * @return the bytes read.
+     *
+     * @throws Exception if the stream cannot be read.
+     */
+    private byte[] readFully(final InputStream inputStream) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Utility method used to delete a folder and its content.
+     *
+     * @param folder the folder to delete.
+     */
+    private void deleteFolder(final File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    deleteFolder(f);
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        folder.delete();
+    }
+}
@@ -112,7 +112,8 @@ public class S3DocumentStoreTest extends AbstractS3Test {
         assertNull(documentStoreFile.getLastAccessDate());
         assertNotNull(documentStoreFile.getLastUpdateDate());
         assertEquals("NEW_OBJECT", documentStoreFile.getName());
-        assertEquals(0, documentStoreFile.getSize());
+        assertEquals(10, documentStoreFile.getSize());
+        assertNotNull(documentStoreFile.getETag());
 
         String destination = this.s3DocumentStore.download("NEW_OBJECT", "target/tmp/NEW_OBJECT");
         assertNotNull(destination);
@@ -175,6 +176,7 @@ public class S3DocumentStoreTest extends AbstractS3Test {
         assertNull(documentStoreFile.getLastAccessDate());
         assertNotNull(documentStoreFile.getLastUpdateDate());
         assertEquals("OBJECT_1", documentStoreFile.getName());
-        assertEquals(0, documentStoreFile.getSize());
+        assertEquals(8, documentStoreFile.getSize());
+        assertNotNull(documentStoreFile.getETag());
     }
 }
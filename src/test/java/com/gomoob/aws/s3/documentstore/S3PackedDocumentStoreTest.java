@@ -0,0 +1,537 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gomoob.aws.mock.S3Mock;
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.sync.RequestBody;
+
+/**
+ * Test case for the {@link S3PackedDocumentStore} class which uses the {@link S3Mock} class instead of Amazon S3.
+ *
+ * @author agent (agent@local)
+ */
+public class S3PackedDocumentStoreTest {
+
+    /**
+     * A part of the key names of the objects whose <tt>PUT</tt> requests are rejected by the Amazon S3 mock,
+     * <code>null</code> to accept all the requests.
+     */
+    private AtomicReference<String> failingKeyPart;
+
+    /**
+     * The temporary folder used to write test files.
+     */
+    private File tmpFolder = new File("target/tmp-packed");
+
+    /**
+     * The number of <tt>PUT</tt> requests received by the Amazon S3 mock.
+     */
+    private AtomicInteger putCount;
+
+    /**
+     * The Amazon S3 mock used by the document store to test.
+     */
+    private S3Mock s3Mock;
+
+    /**
+     * An instance of the class to test.
+     */
+    private S3PackedDocumentStore packedDocumentStore;
+
+    /**
+     * Test method executed after each test method.
+     */
+    @After
+    public void after() throws Exception {
+        for (File file : this.tmpFolder.listFiles()) {
+            file.delete();
+        }
+        this.tmpFolder.delete();
+    }
+
+    /**
+     * Test method executed before each test method.
+     */
+    @Before
+    public void before() throws Exception {
+        this.tmpFolder.mkdirs();
+
+        AtomicInteger putCount = new AtomicInteger();
+        AtomicReference<String> failingKeyPart = new AtomicReference<>();
+        this.putCount = putCount;
+        this.failingKeyPart = failingKeyPart;
+        this.s3Mock = new S3Mock() {
+
+            @Override
+            public PutObjectResponse putObject(final PutObjectRequest putObjectRequest,
+                    final RequestBody requestBody) {
+                putCount.incrementAndGet();
+                String keyPart = failingKeyPart.get();
+                if (keyPart != null && putObjectRequest.key().contains(keyPart)) {
+                    throw new IllegalStateException("The PUT of '" + putObjectRequest.key() + "' is rejected !");
+                }
+                return super.putObject(putObjectRequest, requestBody);
+            }
+        };
+        this.packedDocumentStore = this.createPackedDocumentStore();
+    }
+
+    /**
+     * Test method for {@link S3PackedDocumentStore#delete(java.util.Collection)} and
+     * {@link S3PackedDocumentStore#compact()}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testDeleteAndCompact() throws Exception {
+
+        // Each write is packed alone because the writes are sequential
+        this.packedDocumentStore.setCompactionLiveRatio(0);
+        this.packedDocumentStore.setPackDelayMillis(0);
+        byte[] content = new byte[100];
+        new Random().nextBytes(content);
+        for (int i = 0; i < 10; ++i) {
+            this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "OBJECT_" + i);
+        }
+        this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[50]), "OBJECT_0");
+        assertEquals(11, this.packedDocumentStore.getPackCount());
+        assertEquals(100, this.packedDocumentStore.getDeadSize());
+
+        // The deletions are tombstones, the unknown key names are ignored
+        assertTrue(this.packedDocumentStore.delete(Arrays.asList("OBJECT_1", "OBJECT_2", "UNKNOWN")).isEmpty());
+        assertNull(this.packedDocumentStore.find("OBJECT_1"));
+        assertEquals(12, this.packedDocumentStore.getPackCount());
+        assertEquals(300, this.packedDocumentStore.getDeadSize());
+        assertNull(this.createPackedDocumentStore().find("OBJECT_2"));
+
+        // The packs without live documents are deleted, the tombstones still needed are kept
+        this.packedDocumentStore.compact();
+        assertEquals(0, this.packedDocumentStore.getDeadSize());
+        assertEquals(9, this.packedDocumentStore.getPackCount());
+
+        S3PackedDocumentStore reopenedDocumentStore = this.createPackedDocumentStore();
+        assertEquals(8, reopenedDocumentStore.list("").count());
+        assertNull(reopenedDocumentStore.find("OBJECT_1"));
+        assertEquals(50, reopenedDocumentStore.find("OBJECT_0").getSize());
+        String destination = reopenedDocumentStore.download("OBJECT_9", this.tmpFolder.getPath() + "/OBJECT_9");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+
+        // The mostly dead packs are copied in the background once a deletion makes them sparse
+        this.packedDocumentStore.setPackDelayMillis(20);
+        this.packedDocumentStore.setMaxPackDocumentCount(4);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<IDocumentStoreFile>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            String keyName = "PACKED_" + i;
+            futures.add(executorService.submit(() -> this.packedDocumentStore
+                    .createFromUploadedFile(new ByteArrayInputStream(content), keyName)));
+        }
+        for (Future<IDocumentStoreFile> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertEquals(10, this.packedDocumentStore.getPackCount());
+
+        this.packedDocumentStore.setPackDelayMillis(0);
+        this.packedDocumentStore.setCompactionLiveRatio(0.5);
+        this.packedDocumentStore.delete(Arrays.asList("PACKED_0", "PACKED_1", "PACKED_2"));
+        for (int i = 0; i < 100 && this.packedDocumentStore.getDeadSize() > 0; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, this.packedDocumentStore.getDeadSize());
+        destination = this.packedDocumentStore.download("PACKED_3", this.tmpFolder.getPath() + "/PACKED_3");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+        assertEquals(Arrays.asList("OBJECT_0", "OBJECT_3", "OBJECT_4", "OBJECT_5", "OBJECT_6", "OBJECT_7", "OBJECT_8",
+                "OBJECT_9", "PACKED_3"),
+                this.createPackedDocumentStore().list("").map(IDocumentStoreFile::getKeyName)
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Test method for {@link S3PackedDocumentStore#compact()} while documents are written concurrently.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCompactConcurrentWrites() throws Exception {
+        this.packedDocumentStore.setPackDelayMillis(1);
+        this.packedDocumentStore.setMaxPackedDocumentSize(500);
+        Map<String, byte[]> expectedContents = new ConcurrentHashMap<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        // Each thread writes, replaces and deletes its own documents, some of them are too large to be packed
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            String keyNamePrefix = "THREAD_" + i + "/";
+            futures.add(executorService.submit(() -> {
+                Random random = new Random();
+                for (int iteration = 0; iteration < 20; ++iteration) {
+                    for (int j = 0; j < 5; ++j) {
+                        String keyName = keyNamePrefix + "OBJECT_" + j;
+                        if (iteration % 3 == 1 && j % 2 == 0) {
+                            this.packedDocumentStore.delete(keyName);
+                            expectedContents.remove(keyName);
+                        } else {
+                            byte[] content = new byte[random.nextInt(1000)];
+                            random.nextBytes(content);
+                            this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content),
+                                    keyName);
+                            expectedContents.put(keyName, content);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        Future<Integer> compactions = executorService.submit(() -> {
+            int compactionCount = 0;
+            while (writing.get()) {
+                this.packedDocumentStore.compact();
+                ++compactionCount;
+            }
+            return compactionCount;
+        });
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        writing.set(false);
+        assertTrue(compactions.get() > 0);
+        executorService.shutdown();
+        this.packedDocumentStore.compact();
+
+        // No document is lost and the objects of the replaced documents have been deleted
+        long externalCount = expectedContents.values().stream().filter(content -> content.length > 500).count();
+        S3DocumentStore s3DocumentStore = this.packedDocumentStore.getDocumentStore();
+        assertEquals(externalCount, s3DocumentStore.list(S3PackedDocumentStore.OBJECT_KEY_PREFIX).count());
+        for (S3PackedDocumentStore documentStore : Arrays.asList(this.packedDocumentStore,
+                this.createPackedDocumentStore())) {
+            assertEquals(new ArrayList<>(new TreeMap<>(expectedContents).keySet()),
+                    documentStore.list("").map(IDocumentStoreFile::getKeyName).collect(Collectors.toList()));
+            for (Map.Entry<String, byte[]> expectedContent : expectedContents.entrySet()) {
+                File destination = new File(this.tmpFolder, "OBJECT");
+                documentStore.download(expectedContent.getKey(), destination.getPath());
+                assertArrayEquals(expectedContent.getValue(), Files.readAllBytes(destination.toPath()));
+            }
+        }
+    }
+
+    /**
+     * Test method for {@link S3PackedDocumentStore#createFromUploadedFile(java.io.InputStream, String)} when the
+     * upload of a pack fails.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileFailed() throws Exception {
+        this.packedDocumentStore.setPackDelayMillis(0);
+        this.packedDocumentStore.setMaxPackedDocumentSize(100);
+        S3DocumentStore s3DocumentStore = this.packedDocumentStore.getDocumentStore();
+
+        // A pack whose content or index cannot be uploaded is never indexed, the objects left are orphans
+        this.assertCreateFromUploadedFileFails(S3PackedDocumentStore.PACK_KEY_PREFIX, new byte[10]);
+        this.assertCreateFromUploadedFileFails(S3PackedDocumentStore.INDEX_KEY_PREFIX, new byte[10]);
+        this.assertCreateFromUploadedFileFails(S3PackedDocumentStore.INDEX_KEY_PREFIX, new byte[1000]);
+        assertNull(this.packedDocumentStore.find("OBJECT"));
+        assertEquals(0, this.packedDocumentStore.getPackCount());
+        assertEquals(0, s3DocumentStore.list(S3PackedDocumentStore.INDEX_KEY_PREFIX).count());
+        assertNull(this.createPackedDocumentStore().find("OBJECT"));
+        assertEquals(1, s3DocumentStore.list(S3PackedDocumentStore.PACK_KEY_PREFIX).count());
+        assertEquals(1, s3DocumentStore.list(S3PackedDocumentStore.OBJECT_KEY_PREFIX).count());
+
+        this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[10]), "OBJECT");
+        this.packedDocumentStore.compact();
+        assertEquals(1, s3DocumentStore.list(S3PackedDocumentStore.PACK_KEY_PREFIX).count());
+        assertEquals(0, s3DocumentStore.list(S3PackedDocumentStore.OBJECT_KEY_PREFIX).count());
+        assertEquals(10, this.createPackedDocumentStore().find("OBJECT").getSize());
+    }
+
+    /**
+     * Test method for {@link S3PackedDocumentStore#createFromUploadedFile(java.io.InputStream, String)} with
+     * concurrent writes.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileConcurrent() throws Exception {
+
+        this.packedDocumentStore.setPackDelayMillis(50);
+        this.packedDocumentStore.setMaxPackDocumentCount(10);
+        byte[][] contents = new byte[40][];
+        Random random = new Random();
+        for (int i = 0; i < contents.length; ++i) {
+            contents[i] = new byte[random.nextInt(1000)];
+            random.nextBytes(contents[i]);
+        }
+
+        // The concurrent writes share their packs, a pack costs one request for its content and one for its index
+        ExecutorService executorService = Executors.newFixedThreadPool(contents.length);
+        List<Future<IDocumentStoreFile>> futures = new ArrayList<>();
+        for (int i = 0; i < contents.length; ++i) {
+            byte[] content = contents[i];
+            String keyName = "dir/OBJECT_" + i;
+            futures.add(executorService.submit(() -> this.packedDocumentStore
+                    .createFromUploadedFile(new ByteArrayInputStream(content), keyName)));
+        }
+        for (int i = 0; i < contents.length; ++i) {
+            IDocumentStoreFile documentStoreFile = futures.get(i).get();
+            assertEquals("dir/OBJECT_" + i, documentStoreFile.getKeyName());
+            assertEquals(contents[i].length, documentStoreFile.getSize());
+        }
+        executorService.shutdown();
+        assertTrue(this.putCount.get() <= 2 * this.packedDocumentStore.getPackCount());
+        assertTrue(this.packedDocumentStore.getPackCount() < contents.length);
+
+        // The documents are read with ranged requests, also by a document store which reads the indexes
+        for (S3PackedDocumentStore documentStore : Arrays.asList(this.packedDocumentStore,
+                this.createPackedDocumentStore())) {
+            for (int i = 0; i < contents.length; ++i) {
+                IDocumentStoreFile documentStoreFile = documentStore.find("dir/OBJECT_" + i);
+                assertNotNull(documentStoreFile);
+                assertEquals("OBJECT_" + i, documentStoreFile.getName());
+                assertEquals(contents[i].length, documentStoreFile.getSize());
+                assertNotNull(documentStoreFile.getETag());
+
+                File destination = new File(this.tmpFolder, "OBJECT_" + i);
+                documentStore.download("dir/OBJECT_" + i, destination.getPath());
+                assertArrayEquals(contents[i], Files.readAllBytes(destination.toPath()));
+            }
+            assertEquals(contents.length, documentStore.list("dir/").count());
+        }
+
+        try {
+            this.packedDocumentStore.download("UNKNOWN", new File(this.tmpFolder, "UNKNOWN").getPath());
+            fail("Must have thrown a NoSuchKeyException !");
+        } catch (NoSuchKeyException nskex) {
+            assertEquals(404, nskex.getStatusCode());
+        }
+    }
+
+    /**
+     * Test method for {@link S3PackedDocumentStore#compact()} with objects which are not referenced by the indexes.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testDeleteOrphanObjects() throws Exception {
+        S3DocumentStore s3DocumentStore = this.packedDocumentStore.getDocumentStore();
+        this.packedDocumentStore.setPackDelayMillis(0);
+        this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[10]), "OBJECT");
+
+        // A pack and an object left by a crash before their index has been uploaded
+        String orphanPackKeyName = S3PackedDocumentStore.PACK_KEY_PREFIX + "0000000000000000001-orphan";
+        String orphanObjectKeyName = S3PackedDocumentStore.OBJECT_KEY_PREFIX + "orphan";
+        s3DocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[10]), orphanPackKeyName, 10);
+        s3DocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[10]), orphanObjectKeyName, 10);
+
+        this.packedDocumentStore.compact();
+        assertNull(s3DocumentStore.find(orphanPackKeyName));
+        assertNull(s3DocumentStore.find(orphanObjectKeyName));
+        assertEquals(1, s3DocumentStore.list(S3PackedDocumentStore.PACK_KEY_PREFIX).count());
+        File destination = new File(this.tmpFolder, "OBJECT");
+        this.createPackedDocumentStore().download("OBJECT", destination.getPath());
+        assertEquals(10, destination.length());
+    }
+
+    /**
+     * Test method for {@link S3PackedDocumentStore#setMaxPackedDocumentSize(int)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testMaxPackedDocumentSize() throws Exception {
+        try {
+            this.packedDocumentStore.setMaxPackedDocumentSize(-1);
+            fail("Must have thrown an IllegalArgumentException !");
+        } catch (IllegalArgumentException iaex) {
+            assertEquals("The maximum packed document size must be positive !", iaex.getMessage());
+        }
+
+        this.packedDocumentStore.setPackDelayMillis(0);
+        this.packedDocumentStore.setMaxPackedDocumentSize(100);
+        byte[] content = new byte[1000];
+        new Random().nextBytes(content);
+        File file = new File(this.tmpFolder, "LARGE");
+        Files.write(file.toPath(), content);
+
+        // The documents larger than the threshold are stored in their own objects, the packs only hold the others
+        this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[100]), "SMALL");
+        this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "LARGE_FILE_SIZE",
+                content.length);
+        this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "LARGE_STREAM");
+        this.packedDocumentStore.createFromUploadedFile(file.getPath(), "LARGE_FILE");
+        S3DocumentStore s3DocumentStore = this.packedDocumentStore.getDocumentStore();
+        assertEquals(100, s3DocumentStore.list(S3PackedDocumentStore.PACK_KEY_PREFIX)
+                .mapToLong(IDocumentStoreFile::getSize).sum());
+        assertEquals(3, s3DocumentStore.list(S3PackedDocumentStore.OBJECT_KEY_PREFIX).count());
+
+        for (S3PackedDocumentStore documentStore : Arrays.asList(this.packedDocumentStore,
+                this.createPackedDocumentStore())) {
+            assertEquals(100, documentStore.find("SMALL").getSize());
+            for (String keyName : Arrays.asList("LARGE_FILE", "LARGE_FILE_SIZE", "LARGE_STREAM")) {
+                assertEquals(content.length, documentStore.find(keyName).getSize());
+                File destination = new File(this.tmpFolder, keyName);
+                documentStore.download(keyName, destination.getPath());
+                assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+            }
+        }
+
+        // The objects of the deleted documents are deleted by the compaction
+        this.packedDocumentStore.delete(Arrays.asList("LARGE_FILE_SIZE", "LARGE_STREAM"));
+        this.packedDocumentStore.compact();
+        assertEquals(1, s3DocumentStore.list(S3PackedDocumentStore.OBJECT_KEY_PREFIX).count());
+        assertEquals(Arrays.asList("LARGE_FILE", "SMALL"), this.createPackedDocumentStore().list("")
+                .map(IDocumentStoreFile::getKeyName).collect(Collectors.toList()));
+        File destination = new File(this.tmpFolder, "LARGE_FILE_COMPACTED");
+        this.createPackedDocumentStore().download("LARGE_FILE", destination.getPath());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+
+    /**
+     * Test method for {@link S3PackedDocumentStore#find(String)}, {@link S3PackedDocumentStore#list(String)} and
+     * {@link S3PackedDocumentStore#download(String, String)} on an instance which reads the packs written and
+     * compacted by an other instance.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testReadOtherInstanceWrites() throws Exception {
+        this.packedDocumentStore.setCompactionLiveRatio(0);
+        this.packedDocumentStore.setPackDelayMillis(TimeUnit.SECONDS.toMillis(10));
+        this.packedDocumentStore.setMaxPackDocumentCount(4);
+        byte[] content = new byte[100];
+        new Random().nextBytes(content);
+
+        // The 4 documents are written in the same pack
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<IDocumentStoreFile>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            String keyName = "dir/OBJECT_" + i;
+            futures.add(executorService.submit(() -> this.packedDocumentStore
+                    .createFromUploadedFile(new ByteArrayInputStream(content), keyName)));
+        }
+        for (Future<IDocumentStoreFile> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertEquals(1, this.packedDocumentStore.getPackCount());
+
+        S3PackedDocumentStore readerDocumentStore = this.createPackedDocumentStore();
+        readerDocumentStore.setIndexRefreshIntervalMillis(0);
+        assertEquals(4, readerDocumentStore.list(null).count());
+
+        // The reader finds the documents written after its first read of the indexes
+        this.packedDocumentStore.setPackDelayMillis(0);
+        this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "NEW");
+        assertEquals(content.length, readerDocumentStore.find("NEW").getSize());
+
+        // The reader follows the documents moved by a compaction and misses the deleted documents
+        this.packedDocumentStore.delete(Arrays.asList("dir/OBJECT_0", "dir/OBJECT_1", "dir/OBJECT_2"));
+        this.packedDocumentStore.setCompactionLiveRatio(0.5);
+        this.packedDocumentStore.compact();
+        assertEquals(0, this.packedDocumentStore.getDeadSize());
+        File destination = new File(this.tmpFolder, "OBJECT_3");
+        readerDocumentStore.download("dir/OBJECT_3", destination.getPath());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+        try {
+            readerDocumentStore.download("dir/OBJECT_0", new File(this.tmpFolder, "OBJECT_0").getPath());
+            fail("Must have thrown a NoSuchKeyException !");
+        } catch (NoSuchKeyException nskex) {
+            assertEquals(404, nskex.getStatusCode());
+        }
+        assertEquals(Arrays.asList("NEW", "dir/OBJECT_3"),
+                readerDocumentStore.list(null).map(IDocumentStoreFile::getKeyName).collect(Collectors.toList()));
+    }
+
+    /**
+     * Checks that the write of a document fails while the Amazon S3 mock rejects the <tt>PUT</tt> requests of some
+     * objects.
+     *
+     * @param failingKeyPart a part of the key names of the objects whose <tt>PUT</tt> requests are rejected.
+     * @param content the content of the document to write.
+     */
+    private void assertCreateFromUploadedFileFails(final String failingKeyPart, final byte[] content) {
+        this.failingKeyPart.set(failingKeyPart);
+        try {
+            this.packedDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "OBJECT");
+            fail("Must have thrown an IOException !");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getMessage().startsWith("The pack '"));
+        } finally {
+            this.failingKeyPart.set(null);
+        }
+    }
+
+    /**
+     * Creates a packed document store which stores its packs in the Amazon S3 mock.
+     *
+     * @return the created packed document store.
+     */
+    private S3PackedDocumentStore createPackedDocumentStore() {
+        S3DocumentStore s3DocumentStore = new S3DocumentStore();
+        s3DocumentStore.setBucket("bucket");
+        s3DocumentStore.setKeyNamePrefix("java-aws-s3");
+        s3DocumentStore.setS3(this.s3Mock);
+
+        return new S3PackedDocumentStore(s3DocumentStore);
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.documentstore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gomoob.aws.mock.S3Mock;
+import com.gomoob.documentstore.IDocumentStoreFile;
+
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.sync.RequestBody;
+
+/**
+ * Test case for the {@link S3WriteBehindDocumentStore} class which uses the {@link S3Mock} class instead of Amazon S3.
+ *
+ * @author agent (agent@local)
+ */
+public class S3WriteBehindDocumentStoreTest {
+
+    /**
+     * If the Amazon S3 mock rejects the <tt>PUT</tt> requests.
+     */
+    private AtomicBoolean failing;
+
+    /**
+     * The directory of the journal.
+     */
+    private File journalFolder = new File("target/tmp-write-behind/journal");
+
+    /**
+     * The Amazon S3 mock used by the document store to test.
+     */
+    private S3Mock s3Mock;
+
+    /**
+     * The document store used to send the operations.
+     */
+    private S3DocumentStore s3DocumentStore;
+
+    /**
+     * The temporary folder used to write test files.
+     */
+    private File tmpFolder = new File("target/tmp-write-behind");
+
+    /**
+     * Test method executed after each test method.
+     */
+    @After
+    public void after() throws Exception {
+        for (File folder : Arrays.asList(this.journalFolder, this.tmpFolder)) {
+            if (folder.exists()) {
+                for (File file : folder.listFiles()) {
+                    file.delete();
+                }
+                folder.delete();
+            }
+        }
+    }
+
+    /**
+     * Test method executed before each test method.
+     */
+    @Before
+    public void before() throws Exception {
+        this.tmpFolder.mkdirs();
+
+        AtomicBoolean failing = new AtomicBoolean();
+        this.failing = failing;
+        this.s3Mock = new S3Mock() {
+
+            @Override
+            public PutObjectResponse putObject(final PutObjectRequest putObjectRequest,
+                    final RequestBody requestBody) {
+                if (failing.get()) {
+                    throw new IllegalStateException("The PUT requests are rejected !");
+                }
+                return super.putObject(putObjectRequest, requestBody);
+            }
+        };
+
+        this.s3DocumentStore = new S3DocumentStore();
+        this.s3DocumentStore.setBucket("bucket");
+        this.s3DocumentStore.setKeyNamePrefix("java-aws-s3");
+        this.s3DocumentStore.setS3(this.s3Mock);
+    }
+
+    /**
+     * Test method for {@link S3WriteBehindDocumentStore#createFromUploadedFile(java.io.InputStream, String)} and
+     * {@link S3WriteBehindDocumentStore#open()}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testCreateFromUploadedFileAndReplay() throws Exception {
+        byte[] content = new byte[1000];
+        new Random().nextBytes(content);
+
+        // The writes return while the uploads fail, the documents are read from the journal
+        this.failing.set(true);
+        S3WriteBehindDocumentStore writeBehindDocumentStore = this.createWriteBehindDocumentStore();
+        writeBehindDocumentStore.setRetryDelayMillis(TimeUnit.HOURS.toMillis(1));
+        writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[10]), "dir/OBJECT_1");
+        writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "dir/OBJECT_1");
+        writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "dir/OBJECT_2");
+        assertEquals(2, writeBehindDocumentStore.getPendingCount());
+        assertNull(this.s3DocumentStore.find("dir/OBJECT_1"));
+
+        IDocumentStoreFile documentStoreFile = writeBehindDocumentStore.find("dir/OBJECT_1");
+        assertEquals("OBJECT_1", documentStoreFile.getName());
+        assertEquals(content.length, documentStoreFile.getSize());
+        String destination = writeBehindDocumentStore.download("dir/OBJECT_1", this.tmpFolder.getPath() + "/OBJECT_1");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+        assertEquals(Arrays.asList("dir/OBJECT_1", "dir/OBJECT_2"),
+                writeBehindDocumentStore.list("dir/").map(IDocumentStoreFile::getKeyName).collect(Collectors.toList()));
+        assertTrue(!writeBehindDocumentStore.flush(50, TimeUnit.MILLISECONDS));
+        writeBehindDocumentStore.close();
+
+        // A document store opened on the journal sends the pending operations
+        this.failing.set(false);
+        writeBehindDocumentStore = this.createWriteBehindDocumentStore();
+        writeBehindDocumentStore.open();
+        assertTrue(writeBehindDocumentStore.flush(10, TimeUnit.SECONDS));
+        assertEquals(0, writeBehindDocumentStore.getPendingCount());
+        assertEquals(0, this.journalFolder.listFiles().length);
+
+        destination = this.s3DocumentStore.download("dir/OBJECT_1", this.tmpFolder.getPath() + "/OBJECT_1_SENT");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+        assertEquals(content.length, writeBehindDocumentStore.find("dir/OBJECT_2").getSize());
+        assertEquals(2, writeBehindDocumentStore.list("dir/").count());
+        writeBehindDocumentStore.close();
+    }
+
+    /**
+     * Test method for {@link S3WriteBehindDocumentStore#delete(java.util.Collection)}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testDelete() throws Exception {
+        S3WriteBehindDocumentStore writeBehindDocumentStore = this.createWriteBehindDocumentStore();
+        for (int i = 0; i < 3; ++i) {
+            writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[100]), "OBJECT_" + i);
+        }
+        assertTrue(writeBehindDocumentStore.flush(10, TimeUnit.SECONDS));
+
+        // The deleted documents are hidden before the deletions are sent
+        assertTrue(writeBehindDocumentStore.delete(Arrays.asList("OBJECT_0", "OBJECT_1")).isEmpty());
+        assertNull(writeBehindDocumentStore.find("OBJECT_0"));
+        try {
+            writeBehindDocumentStore.download("OBJECT_1", new File(this.tmpFolder, "OBJECT_1").getPath());
+            fail("Must have thrown a NoSuchKeyException !");
+        } catch (NoSuchKeyException nskex) {
+            assertEquals(404, nskex.getStatusCode());
+        }
+        assertEquals(Arrays.asList("OBJECT_2"),
+                writeBehindDocumentStore.list("").map(IDocumentStoreFile::getKeyName).collect(Collectors.toList()));
+
+        assertTrue(writeBehindDocumentStore.flush(10, TimeUnit.SECONDS));
+        assertNull(this.s3DocumentStore.find("OBJECT_0"));
+        assertNull(this.s3DocumentStore.find("OBJECT_1"));
+        assertEquals(100, this.s3DocumentStore.find("OBJECT_2").getSize());
+        assertEquals(0, writeBehindDocumentStore.getFailureCount());
+        writeBehindDocumentStore.close();
+    }
+
+    /**
+     * Test method for {@link S3WriteBehindDocumentStore#list(String)} with a <code>null</code> prefix.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testListNullPrefix() throws Exception {
+        this.s3DocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[10]), "OBJECT_1");
+        this.failing.set(true);
+        S3WriteBehindDocumentStore writeBehindDocumentStore = this.createWriteBehindDocumentStore();
+        writeBehindDocumentStore.setRetryDelayMillis(TimeUnit.HOURS.toMillis(1));
+        writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(new byte[10]), "dir/OBJECT_2");
+
+        assertEquals(Arrays.asList("OBJECT_1", "dir/OBJECT_2"),
+                writeBehindDocumentStore.list(null).map(IDocumentStoreFile::getKeyName).collect(Collectors.toList()));
+        writeBehindDocumentStore.close();
+    }
+
+    /**
+     * Test method for {@link S3WriteBehindDocumentStore#open()} with the files of interrupted writes in the journal.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testOpenOrphanFiles() throws Exception {
+        byte[] content = new byte[100];
+        new Random().nextBytes(content);
+
+        S3WriteBehindDocumentStore writeBehindDocumentStore = this.createWriteBehindDocumentStore();
+        writeBehindDocumentStore.setRetryDelayMillis(TimeUnit.HOURS.toMillis(1));
+        this.failing.set(true);
+        writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "OBJECT_1");
+        writeBehindDocumentStore.close();
+
+        // A crash left a data file without its entry file and an entry file which has not been renamed
+        Files.write(new File(this.journalFolder, "0000000000000000100.data").toPath(), new byte[10]);
+        Files.write(new File(this.journalFolder, "0000000000000000101.data").toPath(), new byte[10]);
+        Files.write(new File(this.journalFolder, "0000000000000000101.entry.tmp").toPath(),
+                "keyName=OBJECT_2".getBytes("UTF-8"));
+
+        this.failing.set(false);
+        writeBehindDocumentStore = this.createWriteBehindDocumentStore();
+        writeBehindDocumentStore.open();
+        assertTrue(!new File(this.journalFolder, "0000000000000000100.data").exists());
+        assertTrue(!new File(this.journalFolder, "0000000000000000101.data").exists());
+        assertTrue(!new File(this.journalFolder, "0000000000000000101.entry.tmp").exists());
+        assertTrue(writeBehindDocumentStore.flush(10, TimeUnit.SECONDS));
+        assertEquals(0, this.journalFolder.listFiles().length);
+
+        String destination = this.s3DocumentStore.download("OBJECT_1", this.tmpFolder.getPath() + "/OBJECT_1");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+        assertNull(this.s3DocumentStore.find("OBJECT_2"));
+
+        // The sequence numbers of the orphan files are not reused by the new operations
+        writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "OBJECT_3");
+        assertTrue(writeBehindDocumentStore.flush(10, TimeUnit.SECONDS));
+        assertEquals(content.length, this.s3DocumentStore.find("OBJECT_3").getSize());
+        writeBehindDocumentStore.close();
+    }
+
+    /**
+     * Test method for {@link S3WriteBehindDocumentStore#flush(long, TimeUnit)} with an upload which fails and is
+     * retried.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testRetryFailedUpload() throws Exception {
+        byte[] content = new byte[1000];
+        new Random().nextBytes(content);
+
+        this.failing.set(true);
+        S3WriteBehindDocumentStore writeBehindDocumentStore = this.createWriteBehindDocumentStore();
+        writeBehindDocumentStore.setRetryDelayMillis(10);
+        writeBehindDocumentStore.createFromUploadedFile(new ByteArrayInputStream(content), "OBJECT_1");
+
+        // The upload is retried while it fails and the document stays pending
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (writeBehindDocumentStore.getFailureCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(writeBehindDocumentStore.getFailureCount() >= 2);
+        assertEquals(1, writeBehindDocumentStore.getPendingCount());
+        assertNull(this.s3DocumentStore.find("OBJECT_1"));
+
+        // The next retry succeeds once the requests are accepted
+        this.failing.set(false);
+        assertTrue(writeBehindDocumentStore.flush(10, TimeUnit.SECONDS));
+        assertEquals(0, writeBehindDocumentStore.getPendingCount());
+        assertEquals(0, this.journalFolder.listFiles().length);
+        String destination = this.s3DocumentStore.download("OBJECT_1", this.tmpFolder.getPath() + "/OBJECT_1");
+        assertArrayEquals(content, Files.readAllBytes(new File(destination).toPath()));
+        writeBehindDocumentStore.close();
+    }
+
+    /**
+     * Creates a write-behind document store which journals its operations in the journal folder.
+     *
+     * @return the created write-behind document store.
+     */
+    private S3WriteBehindDocumentStore createWriteBehindDocumentStore() {
+        return new S3WriteBehindDocumentStore(this.s3DocumentStore, this.journalFolder.toPath());
+    }
+}
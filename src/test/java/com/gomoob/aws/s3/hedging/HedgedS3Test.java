@@ -0,0 +1,238 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.hedging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gomoob.aws.mock.S3Mock;
+import com.gomoob.aws.s3.metrics.S3Operation;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+import software.amazon.awssdk.utils.IoUtils;
+
+/**
+ * Test case for the {@link HedgedS3} class.
+ *
+ * @author agent (agent@local)
+ */
+public class HedgedS3Test {
+
+    /**
+     * The executor used to send the requests.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The number of the task run by the current thread of the executor, in the order of their submissions.
+     */
+    private final ThreadLocal<Integer> taskNumber = new ThreadLocal<>();
+
+    /**
+     * Test method executed after each test method.
+     */
+    @After
+    public void after() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Test method executed before each test method.
+     */
+    @Before
+    public void before() {
+        AtomicInteger submissionCount = new AtomicInteger();
+        ThreadLocal<Integer> taskNumber = this.taskNumber;
+
+        // The tasks are numbered so a request is identified whatever the order in which the threads start
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>()) {
+
+            @Override
+            public void execute(final Runnable command) {
+                int number = submissionCount.getAndIncrement();
+                super.execute(() -> {
+                    taskNumber.set(number);
+                    command.run();
+                });
+            }
+        };
+    }
+
+    /**
+     * Test method for the hedging of a slow <tt>GET</tt> request.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testHedgeSlowRead() throws Exception {
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        CountDownLatch interruptedLatch = new CountDownLatch(1);
+        ThreadLocal<Integer> taskNumber = this.taskNumber;
+        AtomicBoolean originalSent = new AtomicBoolean();
+        S3Mock s3Mock = new S3Mock() {
+
+            @SuppressWarnings("rawtypes")
+            @Override
+            public <ReturnT> ReturnT getObject(final GetObjectRequest getObjectRequest,
+                    final StreamingResponseHandler streamingHandler) {
+
+                // The original request never answers before it is cancelled
+                if (taskNumber.get() == 0) {
+                    originalSent.set(true);
+                    try {
+                        releaseLatch.await();
+                    } catch (InterruptedException iex) {
+                        interruptedLatch.countDown();
+                        throw new IllegalStateException(iex);
+                    }
+                }
+
+                return super.getObject(getObjectRequest, streamingHandler);
+            }
+
+        };
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(), RequestBody.of("CONTENT"));
+        HedgedS3 s3 = new HedgedS3(s3Mock, new HedgingConfig().setInitialDelayMillis(10), this.executor);
+
+        try {
+            AtomicInteger handlerCount = new AtomicInteger();
+            byte[] content = s3.getObject(GetObjectRequest.builder().bucket("bucket").key("KEY").build(),
+                    (StreamingResponseHandler<GetObjectResponse, byte[]>) (response, in) -> {
+                        handlerCount.incrementAndGet();
+                        return IoUtils.toByteArray(in);
+                    });
+
+            // The hedge has won and the original request has been cancelled
+            assertArrayEquals("CONTENT".getBytes("UTF-8"), content);
+            assertEquals(1, handlerCount.get());
+            assertEquals(1, s3.getReadCount());
+            assertEquals(1, s3.getHedgeCount());
+            assertEquals(1, s3.getHedgeWinCount());
+            assertEquals(9, s3.getHedgeBudget(), 0.001);
+
+            // The original request is interrupted, unless it is cancelled before it has been sent
+            assertTrue(!originalSent.get() || interruptedLatch.await(5, TimeUnit.SECONDS));
+        } finally {
+            releaseLatch.countDown();
+        }
+    }
+
+    /**
+     * Test method for the hedge delay computed from the observed latencies.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testHedgeDelay() throws Exception {
+
+        S3Mock s3Mock = new S3Mock();
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(), RequestBody.of("CONTENT"));
+        HedgedS3 s3 = new HedgedS3(s3Mock, new HedgingConfig().setInitialDelayMillis(1000).setMinDelayMillis(20)
+                .setMaxDelayMillis(500).setMinSampleCount(10), this.executor);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), s3.getHedgeDelayNanos(S3Operation.HEAD_OBJECT));
+
+        // The fast requests are not hedged, the delay is bounded by the minimum delay once enough latencies are known
+        for (int i = 0; i < 10; ++i) {
+            HeadObjectResponse headObjectResponse = s3
+                    .headObject(HeadObjectRequest.builder().bucket("bucket").key("KEY").build());
+            assertEquals(7L, headObjectResponse.contentLength().longValue());
+        }
+        assertEquals(10, s3.getReadCount());
+        assertEquals(0, s3.getHedgeCount());
+        assertEquals(10, s3.getLatencies(S3Operation.HEAD_OBJECT).getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), s3.getHedgeDelayNanos(S3Operation.HEAD_OBJECT));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), s3.getHedgeDelayNanos(S3Operation.GET_OBJECT));
+
+        // The errors are thrown without hedging
+        try {
+            s3.headObject(HeadObjectRequest.builder().bucket("bucket").key("MISSING").build());
+            fail("An S3Exception should have been thrown !");
+        } catch (S3Exception s3ex) {
+            assertEquals(404, s3ex.getStatusCode());
+        }
+        assertEquals(0, s3.getHedgeCount());
+    }
+
+    /**
+     * Test method for the hedge budget.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testHedgeBudget() throws Exception {
+
+        AtomicInteger headObjectCount = new AtomicInteger();
+        S3Mock s3Mock = new S3Mock() {
+
+            @Override
+            public HeadObjectResponse headObject(final HeadObjectRequest headObjectRequest) {
+                headObjectCount.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException iex) {
+                    throw new IllegalStateException(iex);
+                }
+                return super.headObject(headObjectRequest);
+            }
+
+        };
+        s3Mock.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(), RequestBody.of("CONTENT"));
+        HedgedS3 s3 = new HedgedS3(s3Mock,
+                new HedgingConfig().setInitialDelayMillis(5).setMaxHedgeBudget(1).setHedgeBudgetRatio(0),
+                this.executor);
+
+        // Only the first read is hedged, then the budget is exhausted
+        s3.headObject(HeadObjectRequest.builder().bucket("bucket").key("KEY").build());
+        s3.headObject(HeadObjectRequest.builder().bucket("bucket").key("KEY").build());
+        assertEquals(2, s3.getReadCount());
+        assertEquals(1, s3.getHedgeCount());
+        assertEquals(1, s3.getHedgeBudgetExhaustedCount());
+        assertEquals(0, s3.getHedgeBudget(), 0.001);
+        assertEquals(3, headObjectCount.get());
+    }
+}
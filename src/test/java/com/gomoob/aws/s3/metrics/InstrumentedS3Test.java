@@ -0,0 +1,100 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gomoob.aws.mock.S3Mock;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+import software.amazon.awssdk.utils.IoUtils;
+
+/**
+ * Test case for the {@link InstrumentedS3} class.
+ *
+ * @author agent (agent@local)
+ */
+public class InstrumentedS3Test {
+
+    /**
+     * Test method for the metrics recorded by the {@link InstrumentedS3} class.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+
+        // Each call of the clock advances it by 1000 nanoseconds, so each call lasts 1000 nanoseconds
+        AtomicLong clock = new AtomicLong();
+        InstrumentedS3 s3 = new InstrumentedS3(new S3Mock(), () -> clock.addAndGet(1000));
+
+        s3.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(),
+                RequestBody.of(new ByteArrayInputStream(new byte[100]), 100));
+        s3.putObject(PutObjectRequest.builder().bucket("bucket").key("OTHER_KEY").build(),
+                RequestBody.of(new ByteArrayInputStream(new byte[50]), 50));
+        byte[] content = s3.getObject(GetObjectRequest.builder().bucket("bucket").key("KEY").build(),
+                (StreamingResponseHandler<GetObjectResponse, byte[]>) (response, in) -> IoUtils.toByteArray(in));
+        assertEquals(100, content.length);
+
+        try {
+            s3.headObject(HeadObjectRequest.builder().bucket("bucket").key("MISSING_KEY").build());
+            fail("An S3Exception should have been thrown !");
+        } catch (S3Exception s3ex) {
+            // Expected
+        }
+
+        IOperationMetrics putObjectMetrics = s3.getOperationMetrics(S3Operation.PUT_OBJECT);
+        assertEquals(2, putObjectMetrics.getCallCount());
+        assertEquals(0, putObjectMetrics.getErrorCount());
+        assertEquals(150, putObjectMetrics.getBytesOut());
+        assertEquals(0, putObjectMetrics.getBytesIn());
+        assertEquals(1000, putObjectMetrics.getLatencyAtPercentile(99.9));
+        assertEquals(1000, putObjectMetrics.getMaxLatency());
+
+        IOperationMetrics getObjectMetrics = s3.getOperationMetrics(S3Operation.GET_OBJECT);
+        assertEquals(1, getObjectMetrics.getCallCount());
+        assertEquals(100, getObjectMetrics.getBytesIn());
+
+        IOperationMetrics headObjectMetrics = s3.getOperationMetrics(S3Operation.HEAD_OBJECT);
+        assertEquals(1, headObjectMetrics.getCallCount());
+        assertEquals(1, headObjectMetrics.getErrorCount());
+
+        assertEquals(0, s3.getOperationMetrics(S3Operation.DELETE_OBJECT).getCallCount());
+        assertEquals(0, s3.getOperationMetrics(S3Operation.DELETE_OBJECT).getLatencyAtPercentile(50));
+    }
+}
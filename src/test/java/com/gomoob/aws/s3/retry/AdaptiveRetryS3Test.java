@@ -0,0 +1,277 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.retry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.gomoob.aws.mock.S3Mock;
+import com.gomoob.aws.s3.documentstore.S3DocumentStore;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+import software.amazon.awssdk.utils.IoUtils;
+
+/**
+ * Test case for the {@link AdaptiveRetryS3} class.
+ *
+ * @author agent (agent@local)
+ */
+public class AdaptiveRetryS3Test {
+
+    /**
+     * Test method for the retries of the throttled requests.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testRetryThrottledRequests() throws Exception {
+
+        ThrottlingS3Mock s3Mock = new ThrottlingS3Mock(2);
+        AdaptiveRetryS3 s3 = new AdaptiveRetryS3(s3Mock,
+                new AdaptiveRetryConfig().setBaseDelayMillis(1).setMaxRate(1000).setRateIncrease(10));
+        byte[] content = "CONTENT".getBytes("UTF-8");
+
+        // The request is sent again with the whole body after the throttling errors
+        s3.putObject(PutObjectRequest.builder().bucket("bucket").key("dir/KEY").build(),
+                RequestBody.of(new ByteArrayInputStream(content), content.length));
+        assertEquals(3, s3Mock.putCount.get());
+        assertEquals(2, s3.getRetryCount());
+        assertEquals(98.1, s3.getRetryBudget(), 0.001);
+        assertArrayEquals(content,
+                s3.getObject(GetObjectRequest.builder().bucket("bucket").key("dir/KEY").build(),
+                        (StreamingResponseHandler<GetObjectResponse, byte[]>) (response, in) -> IoUtils
+                                .toByteArray(in)));
+
+        // The rate limiter of the prefix has slowed down twice and ramped up with the successful requests
+        AimdRateLimiter rateLimiter = s3.getRateLimiters().get("bucket/dir/");
+        assertEquals(2, rateLimiter.getThrottleCount());
+        assertEquals(2, rateLimiter.getSuccessCount());
+        assertEquals(270, rateLimiter.getRate(), 0.001);
+    }
+
+    /**
+     * Test method for the requests which cannot be retried.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testNoRetry() throws Exception {
+
+        ThrottlingS3Mock s3Mock = new ThrottlingS3Mock(Integer.MAX_VALUE);
+        AdaptiveRetryS3 s3 = new AdaptiveRetryS3(s3Mock,
+                new AdaptiveRetryConfig().setBaseDelayMillis(1).setMaxRetryBudget(2).setMaxAttempts(10));
+        byte[] content = "CONTENT".getBytes("UTF-8");
+
+        // A body which does not support mark / reset cannot be sent again
+        try {
+            s3.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(),
+                    RequestBody.of(new FilterInputStream(new ByteArrayInputStream(content)) {
+
+                        @Override
+                        public boolean markSupported() {
+                            return false;
+                        }
+                    }, content.length));
+            fail("An S3Exception should have been thrown !");
+        } catch (S3Exception s3ex) {
+            assertEquals(503, s3ex.getStatusCode());
+        }
+        assertEquals(1, s3Mock.putCount.get());
+
+        // A buffering stream loses its mark once more than the maximum replay buffer size has been read
+        ThrottlingS3Mock bufferedS3Mock = new ThrottlingS3Mock(Integer.MAX_VALUE);
+        AdaptiveRetryS3 bufferedS3 = new AdaptiveRetryS3(bufferedS3Mock,
+                new AdaptiveRetryConfig().setBaseDelayMillis(1).setMaxReplayBufferSize(1));
+        try {
+            bufferedS3.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(),
+                    RequestBody.of(new BufferedInputStream(new ByteArrayInputStream(content), 1), content.length));
+            fail("An S3Exception should have been thrown !");
+        } catch (S3Exception s3ex) {
+            assertEquals(503, s3ex.getStatusCode());
+        }
+        assertEquals(1, bufferedS3Mock.putCount.get());
+        assertEquals(0, bufferedS3.getRetryCount());
+
+        // The calls are not retried anymore when the retry budget is exhausted
+        try {
+            s3.putObject(PutObjectRequest.builder().bucket("bucket").key("KEY").build(),
+                    RequestBody.of(new ByteArrayInputStream(content), content.length));
+            fail("An S3Exception should have been thrown !");
+        } catch (S3Exception s3ex) {
+            assertEquals(503, s3ex.getStatusCode());
+        }
+        assertEquals(4, s3Mock.putCount.get());
+        assertEquals(2, s3.getRetryCount());
+        assertEquals(1, s3.getRetryBudgetExhaustedCount());
+        assertTrue(s3.getRateLimiters().containsKey("bucket/"));
+    }
+
+    /**
+     * Test method for {@link AdaptiveRetryS3#getRateLimiters()} with more key prefixes than the maximum number of rate
+     * limiters.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testRateLimiterEviction() throws Exception {
+
+        AdaptiveRetryS3 s3 = new AdaptiveRetryS3(new S3Mock(), new AdaptiveRetryConfig().setMaxRateLimiterCount(2));
+        for (String key : Arrays.asList("a/1", "b/1", "a/2", "c/1")) {
+            s3.putObject(PutObjectRequest.builder().bucket("bucket").key(key).build(), RequestBody.of("CONTENT"));
+        }
+
+        // The least recently used rate limiter is dropped
+        assertEquals(Arrays.asList("bucket/a/", "bucket/c/"), new ArrayList<>(s3.getRateLimiters().keySet()));
+        assertEquals(2, s3.getRateLimiters().get("bucket/a/").getSuccessCount());
+    }
+
+    /**
+     * Test method for the retries of the uploads of a {@link S3DocumentStore} which uses an {@link AdaptiveRetryS3}.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testRetryDocumentStoreUploads() throws Exception {
+
+        File file = new File("target/tmp-retry/FILE");
+        file.getParentFile().mkdirs();
+        byte[] content = new byte[1000];
+        new Random().nextBytes(content);
+        Files.write(file.toPath(), content);
+
+        try {
+
+            // The small files are sent with a single request whose body can be sent again
+            ThrottlingS3Mock s3Mock = new ThrottlingS3Mock(2);
+            S3DocumentStore documentStore = new S3DocumentStore();
+            documentStore.setBucket("bucket");
+            documentStore.setS3(new AdaptiveRetryS3(s3Mock, new AdaptiveRetryConfig().setBaseDelayMillis(1)));
+            documentStore.createFromUploadedFile(file.getPath(), "FILE");
+            assertEquals(3, s3Mock.putCount.get());
+            assertDownloadedContent(documentStore, "FILE", content);
+
+            // A stream which does not support mark / reset is buffered so it can be sent again
+            s3Mock = new ThrottlingS3Mock(2);
+            documentStore.setS3(new AdaptiveRetryS3(s3Mock, new AdaptiveRetryConfig().setBaseDelayMillis(1)));
+            try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+                documentStore.createFromUploadedFile(inputStream, "STREAM", content.length);
+            }
+            assertEquals(3, s3Mock.putCount.get());
+            assertDownloadedContent(documentStore, "STREAM", content);
+        } finally {
+            for (File tmpFile : file.getParentFile().listFiles()) {
+                tmpFile.delete();
+            }
+            file.getParentFile().delete();
+        }
+    }
+
+    /**
+     * Downloads a file of a document store into the temporary folder and checks its content.
+     *
+     * @param documentStore the document store.
+     * @param keyName the key name of the file.
+     * @param expectedContent the expected content of the file.
+     *
+     * @throws Exception if the file cannot be downloaded.
+     */
+    private static void assertDownloadedContent(final S3DocumentStore documentStore, final String keyName,
+            final byte[] expectedContent) throws Exception {
+        File destination = new File("target/tmp-retry", keyName + "_DOWNLOADED");
+        documentStore.download(keyName, destination.getPath());
+        assertArrayEquals(expectedContent, Files.readAllBytes(destination.toPath()));
+    }
+
+    /**
+     * An Amazon S3 mock which throttles the first <tt>PUT</tt> requests.
+     */
+    private static class ThrottlingS3Mock extends S3Mock {
+
+        /**
+         * The number of <tt>PUT</tt> requests received.
+         */
+        private final AtomicInteger putCount = new AtomicInteger();
+
+        /**
+         * The number of <tt>PUT</tt> requests to throttle.
+         */
+        private final int throttledPutCount;
+
+        /**
+         * Creates a new mock.
+         *
+         * @param throttledPutCount the number of <tt>PUT</tt> requests to throttle.
+         */
+        private ThrottlingS3Mock(final int throttledPutCount) {
+            this.throttledPutCount = throttledPutCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public PutObjectResponse putObject(final PutObjectRequest putObjectRequest, final RequestBody requestBody) {
+            if (this.putCount.incrementAndGet() <= this.throttledPutCount) {
+
+                // Like Amazon S3 a part of the body is read before the request is rejected
+                try {
+                    requestBody.asStream().read(new byte[2]);
+                } catch (IOException ioex) {
+                    throw new IllegalStateException(ioex);
+                }
+
+                S3Exception s3ex = new S3Exception("Please reduce your request rate.");
+                s3ex.setStatusCode(503);
+                s3ex.setErrorCode("SlowDown");
+                throw s3ex;
+            }
+
+            return super.putObject(putObjectRequest, requestBody);
+        }
+    }
+}
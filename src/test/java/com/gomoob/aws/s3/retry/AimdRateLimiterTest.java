@@ -0,0 +1,77 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.aws.s3.retry;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Test case for the {@link AimdRateLimiter} class.
+ *
+ * @author agent (agent@local)
+ */
+public class AimdRateLimiterTest {
+
+    /**
+     * Test method for the rate and the reservations of the {@link AimdRateLimiter} class.
+     */
+    @Test
+    public void testReserve() {
+
+        AtomicLong clock = new AtomicLong();
+        AimdRateLimiter rateLimiter = new AimdRateLimiter(new AdaptiveRetryConfig().setMaxRate(10).setMinRate(2)
+                .setRateIncrease(1).setRateDecreaseFactor(0.5), clock::get);
+
+        // The limiter starts at its maximum rate with one second of burst
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(0, rateLimiter.reserve());
+        }
+        assertEquals(100_000_000, rateLimiter.reserve());
+        assertEquals(200_000_000, rateLimiter.reserve());
+
+        // A throttled request halves the rate and the waiting requests are spread at the new rate
+        rateLimiter.onThrottle();
+        assertEquals(5, rateLimiter.getRate(), 0);
+        assertEquals(1, rateLimiter.getThrottleCount());
+        clock.addAndGet(400_000_000);
+        assertEquals(200_000_000, rateLimiter.reserve());
+
+        // The rate never goes under the minimum rate
+        rateLimiter.onThrottle();
+        rateLimiter.onThrottle();
+        assertEquals(2, rateLimiter.getRate(), 0);
+
+        // Each successful request increases the rate until the maximum rate
+        for (int i = 0; i < 20; ++i) {
+            rateLimiter.onSuccess();
+        }
+        assertEquals(10, rateLimiter.getRate(), 0);
+        assertEquals(20, rateLimiter.getSuccessCount());
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.documentstore.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Test case for the {@link ByteBufferPool} class.
+ *
+ * @author agent (agent@local)
+ */
+public class ByteBufferPoolTest {
+
+    /**
+     * Test method for {@link ByteBufferPool#acquire(int)} and {@link ByteBufferPool#release(ByteBuffer)}.
+     */
+    @Test
+    public void testAcquireAndRelease() {
+
+        ByteBufferPool pool = new ByteBufferPool(64 * 1024, 16 * 1024);
+
+        // The buffers are direct buffers of the smallest size class which can hold the requested size
+        ByteBuffer buffer = pool.acquire(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(5000, buffer.limit());
+        assertEquals(8192, buffer.capacity());
+        assertEquals(8192, pool.getOutstandingBytes());
+
+        // A released buffer is reused by the next acquisition of its size class
+        pool.release(buffer);
+        assertEquals(0, pool.getOutstandingBytes());
+        assertEquals(8192, pool.getPooledBytes());
+        assertSame(buffer, pool.acquire(8000));
+        assertEquals(8000, buffer.limit());
+        assertNotSame(buffer, pool.acquire(100));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+
+        // The buffers larger than the maximum buffer size are never pooled
+        ByteBuffer largeBuffer = pool.acquire(100_000);
+        assertEquals(100_000, largeBuffer.capacity());
+        pool.release(largeBuffer);
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    /**
+     * Test method for {@link ByteBufferPool#getMaxPooledBytes()}.
+     */
+    @Test
+    public void testMaxPooledBytes() {
+
+        ByteBufferPool pool = new ByteBufferPool(64 * 1024, 16 * 1024);
+        ByteBuffer buffer1 = pool.acquire(8192);
+        ByteBuffer buffer2 = pool.acquire(8192);
+        ByteBuffer buffer3 = pool.acquire(8192);
+
+        // The third released buffer exceeds the cap and is dropped
+        pool.release(buffer1);
+        pool.release(buffer2);
+        pool.release(buffer3);
+        assertEquals(16 * 1024, pool.getPooledBytes());
+
+        pool.acquire(8192);
+        pool.acquire(8192);
+        pool.acquire(8192);
+        assertEquals(2, pool.getHitCount());
+        assertEquals(4, pool.getMissCount());
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(3 * 8192, pool.getOutstandingBytes());
+    }
+
+    /**
+     * Test method for {@link ByteBufferPool#setLeakDetection(boolean)} and {@link ByteBufferPool#checkLeaks()}.
+     */
+    @Test
+    public void testLeakDetection() {
+
+        ByteBufferPool pool = new ByteBufferPool();
+        pool.setLeakDetection(true);
+
+        ByteBuffer buffer = pool.acquire(1024);
+        pool.acquire(1024);
+
+        try {
+            pool.checkLeaks();
+            fail("An IllegalStateException should have been thrown !");
+        } catch (IllegalStateException isex) {
+            assertEquals("2 buffer(s) have not been released !", isex.getMessage());
+            assertEquals(2, isex.getSuppressed().length);
+        }
+
+        // A buffer cannot be released twice
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail("An IllegalArgumentException should have been thrown !");
+        } catch (IllegalArgumentException iaex) {
+            assertTrue(iaex.getMessage().startsWith("The buffer has already been released"));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.documentstore.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gomoob.documentstore.IDocumentStoreFile;
+import com.gomoob.documentstore.filesystem.DocumentStoreFile;
+
+/**
+ * Test case for the {@link DocumentStoreFileCache} class.
+ *
+ * @author agent (agent@local)
+ */
+public class DocumentStoreFileCacheTest {
+
+    /**
+     * Test method for the expiration and the eviction of the entries.
+     */
+    @Test
+    public void testExpirationAndEviction() {
+
+        AtomicLong clock = new AtomicLong();
+        DocumentStoreFileCache cache = new DocumentStoreFileCache(2, 10, TimeUnit.NANOSECONDS, clock::get);
+
+        cache.put("A", this.createDocumentStoreFile("A"), cache.getGeneration());
+        cache.put("B", this.createDocumentStoreFile("B"), cache.getGeneration());
+
+        // "A" is used after "B" so "B" is the least recently used entry
+        assertNotNull(cache.get("A"));
+        cache.put("C", this.createDocumentStoreFile("C"), cache.getGeneration());
+        assertNull(cache.get("B"));
+        assertEquals("A", cache.get("A").getKeyName());
+        assertEquals("C", cache.get("C").getKeyName());
+
+        // The entries expire after their time to live
+        clock.set(10);
+        assertNull(cache.get("A"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * Test method for {@link DocumentStoreFileCache#put(String, IDocumentStoreFile, long)} with an outdated generation.
+     */
+    @Test
+    public void testPutAfterInvalidation() {
+
+        DocumentStoreFileCache cache = new DocumentStoreFileCache(2, 1, TimeUnit.MINUTES);
+
+        // A description read before an invalidation is not cached
+        long generation = cache.getGeneration();
+        cache.invalidate("A");
+        cache.put("A", this.createDocumentStoreFile("A"), generation);
+        assertEquals(0, cache.size());
+
+        cache.put("A", this.createDocumentStoreFile("A"), cache.getGeneration());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Creates a file description.
+     *
+     * @param keyName the key name of the file.
+     *
+     * @return the file description.
+     */
+    private IDocumentStoreFile createDocumentStoreFile(final String keyName) {
+        IDocumentStoreFile documentStoreFile = new DocumentStoreFile();
+        documentStoreFile.setKeyName(keyName);
+
+        return documentStoreFile;
+    }
+
+}
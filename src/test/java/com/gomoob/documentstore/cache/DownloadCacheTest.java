@@ -0,0 +1,170 @@
+/**
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2017, GOMOOB All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gomoob.documentstore.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for the {@link DownloadCache} class.
+ *
+ * @author agent (agent@local)
+ */
+public class DownloadCacheTest {
+
+    /**
+     * The temporary folder used to write test files.
+     */
+    private File tmpFolder = new File("target/tmp-download-cache");
+
+    /**
+     * Function called after each test.
+     *
+     * @throws Exception if the temporary folder cannot be deleted.
+     */
+    @After
+    public void after() throws Exception {
+        this.deleteFolder(this.tmpFolder);
+    }
+
+    /**
+     * Function called before each test.
+     *
+     * @throws Exception if the temporary folder cannot be deleted.
+     */
+    @Before
+    public void before() throws Exception {
+        this.deleteFolder(this.tmpFolder);
+        this.tmpFolder.mkdirs();
+    }
+
+    /**
+     * Test method for the eviction of the least recently used files.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testEviction() throws Exception {
+
+        DownloadCache cache = new DownloadCache(new File(this.tmpFolder, "cache").toPath(), 250);
+        Path destination = new File(this.tmpFolder, "DESTINATION").toPath();
+
+        cache.put("A", this.createFile("A", 100), cache.getGeneration());
+        cache.put("B", this.createFile("B", 100), cache.getGeneration());
+
+        // "A" is used after "B" so "B" is the least recently used file
+        assertTrue(cache.copyTo("A", destination));
+        cache.put("C", this.createFile("C", 100), cache.getGeneration());
+        assertFalse(cache.copyTo("B", destination));
+        assertTrue(cache.copyTo("C", destination));
+        assertEquals(200, cache.getSize());
+
+        // Files larger than the cache are not cached
+        cache.put("D", this.createFile("D", 300), cache.getGeneration());
+        assertFalse(cache.copyTo("D", destination));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * Test method for the persistence of the index of the cache.
+     *
+     * @throws Exception if an unexpected error occurs in the test.
+     */
+    @Test
+    public void testPersistence() throws Exception {
+
+        Path cacheDirectory = new File(this.tmpFolder, "cache").toPath();
+        DownloadCache cache = new DownloadCache(cacheDirectory, 1000);
+        cache.put("dir/A B", this.createFile("A", 100), cache.getGeneration());
+        cache.put("B", this.createFile("B", 100), cache.getGeneration());
+
+        // A file downloaded before an invalidation is not cached
+        long generation = cache.getGeneration();
+        cache.invalidate("B");
+        cache.put("B", this.createFile("B", 100), generation);
+
+        // The cached files survive a restart and the unreferenced files are deleted
+        Files.write(cacheDirectory.resolve("UNREFERENCED"), new byte[10]);
+        cache = new DownloadCache(cacheDirectory, 1000);
+        Path destination = new File(this.tmpFolder, "DESTINATION").toPath();
+        assertTrue(cache.copyTo("dir/A B", destination));
+        assertArrayEquals(Files.readAllBytes(new File(this.tmpFolder, "A").toPath()), Files.readAllBytes(destination));
+        assertFalse(cache.copyTo("B", destination));
+        assertEquals(100, cache.getSize());
+        assertFalse(Files.exists(cacheDirectory.resolve("UNREFERENCED")));
+
+        // The cache hits can create hard links
+        cache.setHardLinks(true);
+        assertTrue(cache.copyTo("dir/A B", destination));
+        assertEquals(100, Files.size(destination));
+    }
+
+    /**
+     * Creates a file filled with a repeated byte in the temporary folder.
+     *
+     * @param name the name of the file to create.
+     * @param size the size of the file to create.
+     *
+     * @return the path of the created file.
+     *
+     * @throws Exception if the file cannot be written.
+     */
+    private Path createFile(final String name, final int size) throws Exception {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            content[i] = (byte) name.charAt(0);
+        }
+
+        return Files.write(new File(this.tmpFolder, name).toPath(), content);
+    }
+
+    /**
+     * Deletes a folder and its content.
+     *
+     * @param folder the folder to delete.
+     */
+    private void deleteFolder(final File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                this.deleteFolder(file);
+            }
+        }
+        folder.delete();
+    }
+
+}